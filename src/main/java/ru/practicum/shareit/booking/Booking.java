@@ -33,19 +33,28 @@ public class Booking {
     @NotNull
     private LocalDateTime end;
 
-    @ManyToOne(fetch = FetchType.LAZY)
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
     @JoinColumn(name = "item_id")
     @NotNull
     private Item item;
 
-    @ManyToOne(fetch = FetchType.LAZY)
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
     @JoinColumn(name = "user_id")
     @NotNull
     private User booker;
 
+    //Владелец вещи хранится в самом бронировании, чтобы запросы владельца обходились без соединения с items
+    @Column(name = "owner_id")
+    @NotNull
+    private Long ownerId;
+
     @Column(name = "status")
     @Enumerated(EnumType.STRING)
     @NotNull
     private Status status;
 
+    @Version
+    @Column(name = "version")
+    @EqualsAndHashCode.Exclude
+    private Long version;
 }
@@ -1,74 +1,219 @@
 package ru.practicum.shareit.booking;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.practicum.shareit.booking.dto.BookingBatchResultDto;
 import ru.practicum.shareit.booking.dto.BookingInDto;
+import ru.practicum.shareit.booking.dto.BookingMapper;
 import ru.practicum.shareit.booking.dto.BookingOutDto;
+import ru.practicum.shareit.booking.dto.BookingStatusBatchResultDto;
+import ru.practicum.shareit.booking.dto.BookingWaitlistResultDto;
+import ru.practicum.shareit.exceptions.BookingBadRequestException;
 import ru.practicum.shareit.exceptions.UnknownStateException;
+import ru.practicum.shareit.util.IfMatch;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping(path = "/bookings")
 @RequiredArgsConstructor
 @Validated
 public class BookingController {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final BookingService bookingService;
 
+    //С waitlist=true занятый интервал не отклоняется: запрос встает в очередь вещи и получает ответ 202
     @PostMapping
-    public BookingOutDto saveBooking(@Valid @RequestBody BookingInDto bookingDto,
-                                     @RequestHeader("X-Sharer-User-Id") Long userId) {
+    public ResponseEntity<?> saveBooking(@Valid @RequestBody BookingInDto bookingDto,
+                                         @RequestHeader("X-Sharer-User-Id") Long userId,
+                                         @RequestParam(name = "waitlist", defaultValue = "false") boolean waitlist) {
+        if (bookingDto.getRecurrence() != null) {
+            throw new BookingBadRequestException("Повторяющееся бронирование создается через POST /bookings/recurring");
+        }
+        bookingDto.setBookerId(userId);
+        if (!waitlist) {
+            return ResponseEntity.ok(bookingService.saveBooking(bookingDto));
+        }
+        BookingWaitlistResultDto result = bookingService.saveBookingOrJoinWaitlist(bookingDto);
+        if (result.getBooking() != null) {
+            return ResponseEntity.ok(result.getBooking());
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(result.getWaitlistEntry());
+    }
+
+    //Серия бронирований по правилу recurrence создается целиком или не создается вовсе
+    @PostMapping("/recurring")
+    public List<BookingOutDto> saveRecurringBooking(@Valid @RequestBody BookingInDto bookingDto,
+                                                    @RequestHeader("X-Sharer-User-Id") Long userId) {
         bookingDto.setBookerId(userId);
-        return bookingService.saveBooking(bookingDto);
+        return bookingService.saveRecurringBooking(bookingDto);
+    }
+
+    @PostMapping("/batch")
+    public List<BookingBatchResultDto> saveBookings(@RequestBody @NotEmpty @Size(max = 100) List<@Valid BookingInDto> bookingDtos,
+                                                    @RequestHeader("X-Sharer-User-Id") Long userId) {
+        return bookingService.saveBookings(userId, bookingDtos);
+    }
+
+    @PatchMapping("/status")
+    public BookingStatusBatchResultDto setStatuses(@RequestHeader("X-Sharer-User-Id") Long userId,
+                                                   @RequestBody @NotEmpty @Size(max = 100) List<Long> bookingIds,
+                                                   @RequestParam(name = "approved") Boolean isApproved) {
+        return bookingService.setStatuses(bookingIds, userId, isApproved);
     }
 
     @PatchMapping("/{bookingId}")
-    public BookingOutDto setStatus(@RequestHeader("X-Sharer-User-Id") Long userId,
-                                   @PathVariable(name = "bookingId") Long bookingId,
-                                   @RequestParam(name = "approved") Boolean isApproved) {
-        return bookingService.setStatus(bookingId, userId, isApproved);
+    public ResponseEntity<BookingOutDto> setStatus(@RequestHeader("X-Sharer-User-Id") Long userId,
+                                                   @PathVariable(name = "bookingId") Long bookingId,
+                                                   @RequestParam(name = "approved") Boolean isApproved,
+                                                   @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        BookingOutDto bookingDto = bookingService.setStatus(bookingId, userId, isApproved, IfMatch.parseVersion(ifMatch));
+        return IfMatch.withETag(bookingDto, bookingDto.getVersion());
     }
 
     @GetMapping("/{bookingId}")
-    public BookingOutDto getBooking(@RequestHeader("X-Sharer-User-Id") Long userId,
-                                    @PathVariable(name = "bookingId") Long bookingId) {
-        return bookingService.getBooking(userId, bookingId);
+    public ResponseEntity<BookingOutDto> getBooking(@RequestHeader("X-Sharer-User-Id") Long userId,
+                                                    @PathVariable(name = "bookingId") Long bookingId) {
+        BookingOutDto bookingDto = bookingService.getBooking(userId, bookingId);
+        return IfMatch.withETag(bookingDto, bookingDto.getVersion());
     }
 
     @GetMapping
-    public List<BookingOutDto> findAllBookingsByState(@RequestHeader("X-Sharer-User-Id") Long userId,
-                                                      @RequestParam(name = "state", defaultValue = "ALL") String strState,
-                                                      @RequestParam(name = "from", defaultValue = "0") @Min(0) int from,
-                                                      @RequestParam(name = "size", defaultValue = "10") @Min(1) int size) {
+    public ResponseEntity<List<BookingOutDto>> findAllBookingsByState(@RequestHeader("X-Sharer-User-Id") Long userId,
+                                                                      @RequestParam(name = "state", defaultValue = "ALL") String strState,
+                                                                      @RequestParam(name = "from", defaultValue = "0") @Min(0) int from,
+                                                                      @RequestParam(name = "size", defaultValue = "10") @Min(1) int size,
+                                                                      @RequestParam(name = "after", required = false) String after) {
         State state;
         try {
             state = State.valueOf(strState);
         } catch (IllegalArgumentException e) {
             throw new UnknownStateException(strState);
         }
-        return bookingService.findAllBookingsByState(userId, state, from, size);
+        List<BookingOutDto> bookings = after == null
+                ? bookingService.findAllBookingsByState(userId, state, from, size)
+                : bookingService.findAllBookingsByState(userId, state, BookingCursor.decode(after), size);
+        return withNextCursor(bookings, size);
     }
 
     @GetMapping("/owner")
-    public List<BookingOutDto> findAllOwnerBookingsByState(@RequestHeader("X-Sharer-User-Id") Long userId,
-                                                           @RequestParam(name = "state", defaultValue = "ALL") String strState,
-                                                           @RequestParam(name = "from", defaultValue = "0") @Min(0) int from,
-                                                           @RequestParam(name = "size", defaultValue = "10") @Min(1) int size) {
+    public ResponseEntity<List<BookingOutDto>> findAllOwnerBookingsByState(@RequestHeader("X-Sharer-User-Id") Long userId,
+                                                                           @RequestParam(name = "state", defaultValue = "ALL") String strState,
+                                                                           @RequestParam(name = "from", defaultValue = "0") @Min(0) int from,
+                                                                           @RequestParam(name = "size", defaultValue = "10") @Min(1) int size,
+                                                                           @RequestParam(name = "after", required = false) String after) {
         State state;
         try {
             state = State.valueOf(strState);
         } catch (IllegalArgumentException e) {
             throw new UnknownStateException(strState);
         }
-        return bookingService.findAllOwnerBookingsByState(userId, state, from, size);
+        List<BookingOutDto> bookings = after == null
+                ? bookingService.findAllOwnerBookingsByState(userId, state, from, size)
+                : bookingService.findAllOwnerBookingsByState(userId, state, BookingCursor.decode(after), size);
+        return withNextCursor(bookings, size);
+    }
+
+    //Бронирования из секций старше срока хранения, перенесенные в архив
+    @GetMapping("/archive")
+    public List<BookingOutDto> findArchivedBookings(@RequestHeader("X-Sharer-User-Id") Long userId,
+                                                    @RequestParam(name = "from", defaultValue = "0") @Min(0) int from,
+                                                    @RequestParam(name = "size", defaultValue = "10") @Min(1) int size) {
+        return bookingService.findArchivedBookings(userId, from, size);
+    }
+
+    @GetMapping("/owner/archive")
+    public List<BookingOutDto> findArchivedOwnerBookings(@RequestHeader("X-Sharer-User-Id") Long userId,
+                                                         @RequestParam(name = "from", defaultValue = "0") @Min(0) int from,
+                                                         @RequestParam(name = "size", defaultValue = "10") @Min(1) int size) {
+        return bookingService.findArchivedOwnerBookings(userId, from, size);
+    }
+
+    //Полная выгрузка для учета: строки пишутся в ответ по мере чтения, без загрузки в память
+    @GetMapping("/owner/export")
+    public ResponseEntity<StreamingResponseBody> exportOwnerBookings(@RequestHeader("X-Sharer-User-Id") Long userId,
+                                                                     @RequestParam(name = "format", defaultValue = "NDJSON") String strFormat) {
+        BookingExportFormat format;
+        try {
+            format = BookingExportFormat.valueOf(strFormat.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BookingBadRequestException("Неизвестный формат выгрузки: " + strFormat);
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getMediaType()))
+                .body(bookingService.exportOwnerBookings(userId, format));
+    }
+
+    @GetMapping("/summary")
+    public Map<State, Long> getBookingsSummary(@RequestHeader("X-Sharer-User-Id") Long userId) {
+        return bookingService.getBookingsSummary(userId);
     }
 
+    @GetMapping("/owner/summary")
+    public Map<State, Long> getOwnerBookingsSummary(@RequestHeader("X-Sharer-User-Id") Long userId) {
+        return bookingService.getOwnerBookingsSummary(userId);
+    }
 
+    //События бронирований пользователя: его собственных и бронирований его вещей, начиная с момента подписки
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeToBookingEvents(@RequestHeader("X-Sharer-User-Id") Long userId) {
+        return bookingService.subscribeToBookingEvents(userId);
+    }
+
+    //Бронирования вещи для ее владельца, пересекающие окно [from, to), по возрастанию начала.
+    //fields оставляет в ответе только перечисленные поля строки бронирования, например fields=id,start,end
     @GetMapping("/item/{itemId}")
-    public List<BookingOutDto> findAllBookingsOfItem(@PathVariable(name = "itemId") Long itemId) {
-        return bookingService.findAllBookingsOfItem(itemId);
+    public ResponseEntity<?> findAllBookingsOfItem(@RequestHeader("X-Sharer-User-Id") Long userId,
+                                                   @PathVariable(name = "itemId") Long itemId,
+                                                   @RequestParam(name = "from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                   @RequestParam(name = "to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                   @RequestParam(name = "size", defaultValue = "10") @Min(1) @Max(1000) int size,
+                                                   @RequestParam(name = "after", required = false) String after,
+                                                   @RequestParam(name = "fields", required = false) String fields) {
+        BookingCursor cursor = after == null ? null : BookingCursor.decode(after);
+        if (fields == null) {
+            return withNextCursor(bookingService.findAllBookingsOfItem(userId, itemId, from, to, cursor, size), size);
+        }
+        Set<BookingField> projection = BookingField.parse(fields);
+        List<BookingSlot> slots = bookingService.findBookingSlotsOfItem(userId, itemId, from, to, cursor, size);
+        List<Map<String, Object>> bookings = slots.stream()
+                .map(slot -> BookingMapper.mapToFields(slot, projection))
+                .collect(Collectors.toList());
+        if (slots.size() < size) {
+            return ResponseEntity.ok(bookings);
+        }
+        BookingSlot last = slots.get(slots.size() - 1);
+        return ResponseEntity.ok()
+                .header(NEXT_CURSOR_HEADER, new BookingCursor(last.getStart(), last.getId()).encode())
+                .body(bookings);
+    }
+
+    //Полная страница сопровождается курсором на последний элемент, по которому запрашивается следующая
+    private ResponseEntity<List<BookingOutDto>> withNextCursor(List<BookingOutDto> bookings, int size) {
+        if (bookings.size() < size) {
+            return ResponseEntity.ok(bookings);
+        }
+        BookingOutDto last = bookings.get(bookings.size() - 1);
+        return ResponseEntity.ok()
+                .header(NEXT_CURSOR_HEADER, new BookingCursor(last.getStart(), last.getId()).encode())
+                .body(bookings);
     }
 }
@@ -0,0 +1,33 @@
+package ru.practicum.shareit.booking;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+//Событие из outbox: состояние бронирования сразу после его создания или смены статуса
+@ToString
+@Getter
+@EqualsAndHashCode
+@AllArgsConstructor
+public class BookingEvent {
+    private final Long id;
+
+    private final Long bookingId;
+
+    private final Long itemId;
+
+    private final Long bookerId;
+
+    private final Long ownerId;
+
+    private final LocalDateTime start;
+
+    private final LocalDateTime end;
+
+    private final Status status;
+
+    private final LocalDateTime createdAt;
+}
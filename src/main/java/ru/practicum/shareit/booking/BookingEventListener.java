@@ -0,0 +1,10 @@
+package ru.practicum.shareit.booking;
+
+/*
+ * Получатель событий бронирований из outbox. Доставка "хотя бы один раз":
+ * если слушатель бросил исключение, событие и все следующие события того же бронирования
+ * будут доставлены повторно, в том числе слушателям, уже получившим их, поэтому обработка должна быть идемпотентной.
+ */
+public interface BookingEventListener {
+    void onEvent(BookingEvent event);
+}
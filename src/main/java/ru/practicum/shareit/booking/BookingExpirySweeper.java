@@ -0,0 +1,131 @@
+package ru.practicum.shareit.booking;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+ * Переводит в статус EXPIRED бронирования, которые так и остались в WAITING после наступления даты начала.
+ * Работает порциями: каждая порция выбирается и обновляется одним запросом в своей короткой транзакции.
+ * При нескольких экземплярах приложения очистку выполняет только тот, кто взял advisory-блокировку PostgreSQL.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "shareit.booking.expiry.enabled", havingValue = "true", matchIfMissing = true)
+public class BookingExpirySweeper {
+    static final String PROCESSED_METRIC = "shareit.booking.expiry.processed";
+    static final String DURATION_METRIC = "shareit.booking.expiry.duration";
+
+    private static final long ADVISORY_LOCK_KEY = 7_410_512_001L;
+
+    private final BookingRepository bookingRepository;
+    private final BookingTimeline bookingTimeline;
+    private final BookingOutbox bookingOutbox;
+    private final BookingWaitlist bookingWaitlist;
+    private final BookingWaitlistPromoter bookingWaitlistPromoter;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${shareit.booking.expiry.batch-size:500}")
+    private int batchSize;
+
+    //В H2 (профили ci,test) advisory-блокировок нет
+    @Value("${shareit.booking.expiry.advisory-lock:true}")
+    private boolean advisoryLock;
+
+    @Scheduled(fixedDelayString = "${shareit.booking.expiry.interval-ms:60000}")
+    public void sweep() {
+        if (!advisoryLock) {
+            expireStaleBookings();
+            return;
+        }
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            if (!tryLock(connection)) {
+                log.debug("Очистка просроченных бронирований выполняется другим экземпляром");
+                return null;
+            }
+            try {
+                expireStaleBookings();
+            } finally {
+                unlock(connection);
+            }
+            return null;
+        });
+    }
+
+    public int expireStaleBookings() {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        LocalDateTime now = LocalDateTime.now();
+        int total = 0;
+        int selected;
+        do {
+            List<BookingSlot> candidates = bookingRepository.findStaleWaitingSlots(now, PageRequest.of(0, batchSize));
+            selected = candidates.size();
+            if (selected == 0) {
+                break;
+            }
+            List<BookingSlot> expired = transactionTemplate.execute(status -> expire(candidates));
+            //Транзакция порции уже зафиксирована, поэтому индекс можно обновлять сразу
+            expired.forEach(slot -> bookingTimeline.index(new BookingSlot(slot.getId(), slot.getItemId(),
+                    slot.getBookerId(), slot.getStart(), slot.getEnd(), Status.EXPIRED)));
+            total += expired.size();
+        } while (selected == batchSize);
+        int staleWaiters = bookingWaitlist.deleteStarted(now);
+        long nanos = sample.stop(meterRegistry.timer(DURATION_METRIC));
+        meterRegistry.summary(PROCESSED_METRIC).record(total);
+        log.info("Просрочено бронирований: {}, удалено устаревших записей очереди ожидания: {}, время очистки: {} мс",
+                total, staleWaiters, nanos / 1_000_000);
+        return total;
+    }
+
+    private List<BookingSlot> expire(List<BookingSlot> candidates) {
+        List<Long> ids = candidates.stream()
+                .map(BookingSlot::getId)
+                .collect(Collectors.toList());
+        bookingRepository.updateWaitingStatus(ids, Status.EXPIRED);
+        //Бронирования, успевшие получить решение владельца между выборкой и обновлением, не затрагиваются
+        Set<Long> expiredIds = Set.copyOf(bookingRepository.findIdsByIdInAndStatus(ids, Status.EXPIRED));
+        bookingOutbox.record(expiredIds);
+        List<BookingSlot> expired = candidates.stream()
+                .filter(slot -> expiredIds.contains(slot.getId()))
+                .collect(Collectors.toList());
+        bookingWaitlistPromoter.promote(expired);
+        return expired;
+    }
+
+    private boolean tryLock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("select pg_try_advisory_lock(?)")) {
+            statement.setLong(1, ADVISORY_LOCK_KEY);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    private void unlock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("select pg_advisory_unlock(?)")) {
+            statement.setLong(1, ADVISORY_LOCK_KEY);
+            statement.execute();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package ru.practicum.shareit.booking;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.format.DateTimeFormatter;
+
+/*
+ * Выгрузка всех бронирований вещей владельца, включая архивные.
+ * Строки читаются однонаправленным курсором порциями по fetch-size и сразу пишутся в ответ,
+ * поэтому расход памяти не зависит от числа бронирований.
+ * PostgreSQL отдает результат порциями только внутри транзакции, поэтому чтение идет в ней.
+ */
+@Component
+@RequiredArgsConstructor
+public class BookingExporter {
+    private static final String SELECT_OWNER_BOOKINGS = "select b.id, b.start_date, b.end_date, b.status, b.archived, " +
+            "i.id as item_id, i.name as item_name, u.id as booker_id, u.name as booker_name " +
+            "from (select id, start_date, end_date, status, item_id, user_id, false as archived " +
+            "from bookings where owner_id = ? " +
+            "union all " +
+            "select id, start_date, end_date, status, item_id, user_id, true as archived " +
+            "from bookings_history where owner_id = ?) as b " +
+            "join items as i on i.id = b.item_id " +
+            "join users as u on u.id = b.user_id " +
+            "order by b.start_date desc, b.id desc";
+    private static final String CSV_HEADER = "id,start,end,status,archived,itemId,itemName,bookerId,bookerName";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Value("${shareit.booking.export.fetch-size:1000}")
+    private int fetchSize;
+
+    public void exportByOwnerId(Long ownerId, BookingExportFormat format, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (format == BookingExportFormat.CSV) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+            query(ownerId, rs -> writeCsv(rs, writer));
+        } else {
+            //Генератор сбрасывает строки только в буфер, в ответ они уходят по его заполнении
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)
+                    .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            query(ownerId, rs -> writeJson(rs, generator, writer));
+            generator.flush();
+        }
+        writer.flush();
+    }
+
+    private void query(Long ownerId, RowCallbackHandler handler) {
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(SELECT_OWNER_BOOKINGS,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            statement.setLong(1, ownerId);
+            statement.setLong(2, ownerId);
+            return statement;
+        }, handler));
+    }
+
+    private void writeCsv(ResultSet rs, Writer writer) throws SQLException {
+        try {
+            writer.write(rs.getLong("id") + ","
+                    + formatDate(rs, "start_date") + ","
+                    + formatDate(rs, "end_date") + ","
+                    + rs.getString("status") + ","
+                    + rs.getBoolean("archived") + ","
+                    + rs.getLong("item_id") + ","
+                    + escapeCsv(rs.getString("item_name")) + ","
+                    + rs.getLong("booker_id") + ","
+                    + escapeCsv(rs.getString("booker_name")) + "\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeJson(ResultSet rs, JsonGenerator generator, Writer writer) throws SQLException {
+        try {
+            generator.writeStartObject();
+            generator.writeNumberField("id", rs.getLong("id"));
+            generator.writeStringField("start", formatDate(rs, "start_date"));
+            generator.writeStringField("end", formatDate(rs, "end_date"));
+            generator.writeStringField("status", rs.getString("status"));
+            generator.writeBooleanField("archived", rs.getBoolean("archived"));
+            generator.writeNumberField("itemId", rs.getLong("item_id"));
+            generator.writeStringField("itemName", rs.getString("item_name"));
+            generator.writeNumberField("bookerId", rs.getLong("booker_id"));
+            generator.writeStringField("bookerName", rs.getString("booker_name"));
+            generator.writeEndObject();
+            generator.flush();
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String formatDate(ResultSet rs, String column) throws SQLException {
+        return DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(rs.getTimestamp(column).toLocalDateTime());
+    }
+
+    private static String escapeCsv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
@@ -0,0 +1,41 @@
+package ru.practicum.shareit.booking;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import ru.practicum.shareit.exceptions.BookingBadRequestException;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+//Поля бронирования, которые можно запросить параметром fields. Все они читаются из строки бронирования без join
+@Getter
+@RequiredArgsConstructor
+public enum BookingField {
+    ID("id", BookingSlot::getId),
+    START("start", BookingSlot::getStart),
+    END("end", BookingSlot::getEnd),
+    STATUS("status", BookingSlot::getStatus),
+    ITEM_ID("itemId", BookingSlot::getItemId),
+    BOOKER_ID("bookerId", BookingSlot::getBookerId);
+
+    private final String property;
+    private final Function<BookingSlot, Object> getter;
+
+    public static Set<BookingField> parse(String fields) {
+        Set<BookingField> parsed = EnumSet.noneOf(BookingField.class);
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            parsed.add(Arrays.stream(values())
+                    .filter(value -> value.property.equals(name))
+                    .findFirst()
+                    .orElseThrow(() -> new BookingBadRequestException("Неизвестное поле бронирования: " + name +
+                            ", допустимые поля: " + Arrays.stream(values())
+                            .map(BookingField::getProperty)
+                            .collect(Collectors.joining(", ")))));
+        }
+        return parsed;
+    }
+}
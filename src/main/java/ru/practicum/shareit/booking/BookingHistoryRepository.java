@@ -0,0 +1,24 @@
+package ru.practicum.shareit.booking;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import ru.practicum.shareit.booking.dto.BookingOutDto;
+
+import java.util.List;
+
+public interface BookingHistoryRepository extends JpaRepository<BookingHistory, Long> {
+    String BOOKING_OUT_DTO = "select new ru.practicum.shareit.booking.dto.BookingOutDto(b.id, b.start, b.end, " +
+            "b.status, i.id, i.name, i.description, i.available, i.requestId, u.id, u.name, u.email) " +
+            "from BookingHistory as b " +
+            "join b.item as i " +
+            "join b.booker as u ";
+
+    @Query(BOOKING_OUT_DTO +
+            "where b.booker.id = ?1 ")
+    List<BookingOutDto> findByBookerId(Long bookerId, Pageable page);
+
+    @Query(BOOKING_OUT_DTO +
+            "where b.ownerId = ?1 ")
+    List<BookingOutDto> findByOwnerId(Long ownerId, Pageable page);
+}
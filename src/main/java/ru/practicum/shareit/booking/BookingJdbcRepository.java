@@ -0,0 +1,86 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+//Запросы к бронированиям, которые не выражаются через JPA: пакетная вставка (Hibernate не батчит insert
+//при IDENTITY) и выбор последнего и следующего бронирования вещей
+@Repository
+@RequiredArgsConstructor
+public class BookingJdbcRepository {
+    private static final String INSERT_BOOKING = "insert into bookings (start_date, end_date, item_id, user_id, owner_id, " +
+            "status) values (?, ?, ?, ?, ?, ?)";
+    //Для каждой вещи начала последнего и следующего подтвержденного бронирования берутся из индекса одним шагом,
+    //затем по ним же находятся сами строки. Подтвержденные бронирования вещи не пересекаются,
+    //поэтому начавшееся последним является и закончившимся последним
+    static final String SELECT_LAST_AND_NEXT_APPROVED = "with edges as (" +
+            "select i.id as item_id, " +
+            "(select max(l.start_date) from bookings as l " +
+            "where l.item_id = i.id and l.status = 'APPROVED' and l.start_date < :now) as last_start, " +
+            "(select min(n.start_date) from bookings as n " +
+            "where n.item_id = i.id and n.status = 'APPROVED' and n.start_date > :now) as next_start " +
+            "from items as i where i.id in (:itemIds)) " +
+            "select b.id, b.item_id, b.user_id, b.start_date, b.end_date, b.status " +
+            "from edges as e join bookings as b " +
+            "on b.item_id = e.item_id and b.status = 'APPROVED' and b.start_date = e.last_start " +
+            "union all " +
+            "select b.id, b.item_id, b.user_id, b.start_date, b.end_date, b.status " +
+            "from edges as e join bookings as b " +
+            "on b.item_id = e.item_id and b.status = 'APPROVED' and b.start_date = e.next_start";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    //Возвращает сгенерированные id в порядке переданных бронирований
+    public List<Long> insertAll(List<Booking> bookings) {
+        return jdbcTemplate.execute((ConnectionCallback<List<Long>>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_BOOKING, new String[]{"id"})) {
+                for (Booking booking : bookings) {
+                    statement.setTimestamp(1, Timestamp.valueOf(booking.getStart()));
+                    statement.setTimestamp(2, Timestamp.valueOf(booking.getEnd()));
+                    statement.setLong(3, booking.getItem().getId());
+                    statement.setLong(4, booking.getBooker().getId());
+                    statement.setLong(5, booking.getOwnerId());
+                    statement.setString(6, booking.getStatus().name());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                List<Long> ids = new ArrayList<>(bookings.size());
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    while (keys.next()) {
+                        ids.add(keys.getLong(1));
+                    }
+                }
+                return ids;
+            }
+        });
+    }
+
+    //Не больше двух бронирований на вещь: последнее начинается раньше now, следующее позже
+    public List<BookingSlot> findLastAndNextApproved(Collection<Long> itemIds, LocalDateTime now) {
+        if (itemIds.isEmpty()) {
+            return List.of();
+        }
+        return namedParameterJdbcTemplate.query(SELECT_LAST_AND_NEXT_APPROVED, new MapSqlParameterSource()
+                        .addValue("itemIds", itemIds)
+                        .addValue("now", Timestamp.valueOf(now)),
+                (rs, rowNum) -> new BookingSlot(rs.getLong("id"),
+                        rs.getLong("item_id"),
+                        rs.getLong("user_id"),
+                        rs.getTimestamp("start_date").toLocalDateTime(),
+                        rs.getTimestamp("end_date").toLocalDateTime(),
+                        Status.valueOf(rs.getString("status"))));
+    }
+}
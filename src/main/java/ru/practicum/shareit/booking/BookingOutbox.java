@@ -0,0 +1,113 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/*
+ * Таблица outbox: события пишутся тем же соединением, что и бронирования, поэтому фиксируются вместе с ними.
+ * Без публикатора (shareit.booking.outbox.enabled=false) строки outbox некому доставить и удалить,
+ * поэтому события той же транзакцией переносятся прямо в журнал подписок booking_stream_events.
+ */
+@Repository
+@RequiredArgsConstructor
+public class BookingOutbox {
+    //Событие снимается со строки бронирования, уже измененной в текущей транзакции
+    private static final String INSERT_EVENTS = "insert into outbox (booking_id, item_id, booker_id, owner_id, " +
+            "start_date, end_date, status, created_at) " +
+            "select id, item_id, user_id, owner_id, start_date, end_date, status, :createdAt " +
+            "from bookings where id in (:ids) " +
+            "order by id";
+    //Строки, заблокированные другим экземпляром, пропускаются; H2 до 2.2 не знает SKIP LOCKED
+    private static final String SELECT_BATCH = "select id, booking_id, item_id, booker_id, owner_id, start_date, " +
+            "end_date, status, created_at " +
+            "from outbox order by id limit :limit for update";
+    private static final String SKIP_LOCKED = " skip locked";
+    //Чтение без блокировки видит и строки, которые сейчас доставляет другой экземпляр
+    private static final String SELECT_FIRST_EVENTS = "select booking_id, min(id) as first_id from outbox " +
+            "where booking_id in (:ids) group by booking_id";
+    private static final String DELETE_EVENTS = "delete from outbox where id in (:ids)";
+    private static final String MOVE_TO_STREAM = "insert into booking_stream_events (id, booking_id, item_id, " +
+            "booker_id, owner_id, start_date, end_date, status, created_at) " +
+            "select id, booking_id, item_id, booker_id, owner_id, start_date, end_date, status, created_at " +
+            "from outbox where booking_id in (:ids) and created_at = :createdAt";
+    private static final String DELETE_RECORDED = "delete from outbox where booking_id in (:ids) and created_at = :createdAt";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Value("${shareit.booking.outbox.enabled:true}")
+    private boolean publisherEnabled;
+
+    @Value("${shareit.booking.outbox.skip-locked:true}")
+    private boolean skipLocked;
+
+    public void record(Collection<Long> bookingIds) {
+        if (bookingIds.isEmpty()) {
+            return;
+        }
+        //created_at отмечает строки этого вызова, поэтому время урезается до точности столбца
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("ids", bookingIds)
+                .addValue("createdAt", Timestamp.valueOf(LocalDateTime.now().truncatedTo(ChronoUnit.MICROS)));
+        jdbcTemplate.update(INSERT_EVENTS, parameters);
+        //id события берется из outbox, чтобы не расходиться с событиями, доставленными публикатором
+        if (!publisherEnabled) {
+            jdbcTemplate.update(MOVE_TO_STREAM, parameters);
+            jdbcTemplate.update(DELETE_RECORDED, parameters);
+        }
+    }
+
+    /*
+     * Более раннее событие бронирования вне порции может быть только заблокировано другим экземпляром.
+     * События такого бронирования остаются в outbox до следующего опроса, чтобы не обогнать его.
+     */
+    public List<BookingEvent> findBatch(int limit) {
+        List<BookingEvent> events = jdbcTemplate.query(skipLocked ? SELECT_BATCH + SKIP_LOCKED : SELECT_BATCH,
+                new MapSqlParameterSource("limit", limit), this::mapRow);
+        if (events.isEmpty()) {
+            return events;
+        }
+        Map<Long, Long> firstInBatch = events.stream()
+                .collect(Collectors.toMap(BookingEvent::getBookingId, BookingEvent::getId, Math::min));
+        Map<Long, Long> firstInOutbox = new HashMap<>();
+        jdbcTemplate.query(SELECT_FIRST_EVENTS, new MapSqlParameterSource("ids", firstInBatch.keySet()),
+                (RowCallbackHandler) rs -> firstInOutbox.put(rs.getLong("booking_id"), rs.getLong("first_id")));
+        return events.stream()
+                .filter(event -> firstInBatch.get(event.getBookingId())
+                        .equals(firstInOutbox.get(event.getBookingId())))
+                .collect(Collectors.toList());
+    }
+
+    public void delete(Collection<Long> eventIds) {
+        if (eventIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(DELETE_EVENTS, new MapSqlParameterSource("ids", eventIds));
+    }
+
+    private BookingEvent mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new BookingEvent(rs.getLong("id"),
+                rs.getLong("booking_id"),
+                rs.getLong("item_id"),
+                rs.getLong("booker_id"),
+                rs.getLong("owner_id"),
+                rs.getTimestamp("start_date").toLocalDateTime(),
+                rs.getTimestamp("end_date").toLocalDateTime(),
+                Status.valueOf(rs.getString("status")),
+                rs.getTimestamp("created_at").toLocalDateTime());
+    }
+}
@@ -0,0 +1,79 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+ * Раздает события из outbox слушателям порциями, каждая порция в своей транзакции.
+ * Доставленные события удаляются той же транзакцией, поэтому сбой между доставкой и фиксацией
+ * приводит к повторной доставке, но не к потере события.
+ * Если слушатель упал на событии, остальные события этого бронирования в порции откладываются до следующего опроса,
+ * чтобы сохранить их порядок; события других бронирований доставляются как обычно.
+ * Экземпляры разбирают outbox параллельно, порядок событий одного бронирования между ними держит BookingOutbox.findBatch.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "shareit.booking.outbox.enabled", havingValue = "true", matchIfMissing = true)
+public class BookingOutboxPublisher {
+    private final BookingOutbox bookingOutbox;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectProvider<BookingEventListener> listeners;
+
+    @Value("${shareit.booking.outbox.batch-size:100}")
+    private int batchSize;
+
+    @Scheduled(fixedDelayString = "${shareit.booking.outbox.interval-ms:1000}")
+    public void poll() {
+        int total = 0;
+        BatchResult result;
+        do {
+            result = transactionTemplate.execute(status -> publishBatch());
+            total += result.delivered;
+        } while (result.selected == batchSize && !result.failed);
+        if (total > 0) {
+            log.debug("Доставлено событий бронирований: {}", total);
+        }
+    }
+
+    private BatchResult publishBatch() {
+        List<BookingEvent> events = bookingOutbox.findBatch(batchSize);
+        List<BookingEventListener> targets = listeners.orderedStream().collect(Collectors.toList());
+        List<Long> delivered = new ArrayList<>(events.size());
+        Set<Long> failedBookings = new HashSet<>();
+        for (BookingEvent event : events) {
+            if (failedBookings.contains(event.getBookingId())) {
+                continue;
+            }
+            try {
+                targets.forEach(listener -> listener.onEvent(event));
+                delivered.add(event.getId());
+            } catch (RuntimeException e) {
+                log.warn("Событие {} бронирования {} не доставлено, повтор при следующем опросе",
+                        event.getId(), event.getBookingId(), e);
+                failedBookings.add(event.getBookingId());
+            }
+        }
+        bookingOutbox.delete(delivered);
+        return new BatchResult(events.size(), delivered.size(), !failedBookings.isEmpty());
+    }
+
+    @RequiredArgsConstructor
+    private static class BatchResult {
+        private final int selected;
+        private final int delivered;
+        private final boolean failed;
+    }
+}
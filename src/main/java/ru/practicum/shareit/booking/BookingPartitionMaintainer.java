@@ -0,0 +1,51 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/*
+ * Обслуживание секций таблицы bookings: заранее создает секции на ближайшие месяцы
+ * и переносит в bookings_history секции старше срока хранения.
+ * Сама работа выполняется функциями из миграций V1, V10 и V12, при нескольких экземплярах ее делает один,
+ * взявший advisory-блокировку на время транзакции.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "shareit.booking.partitioning.enabled", havingValue = "true", matchIfMissing = true)
+public class BookingPartitionMaintainer {
+    private static final long ADVISORY_LOCK_KEY = 7_410_512_002L;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${shareit.booking.partitioning.months-ahead:3}")
+    private int monthsAhead;
+
+    //Должен быть больше shareit.booking.max-duration, иначе в архив уйдут еще не закончившиеся бронирования
+    @Value("${shareit.booking.partitioning.retention-months:12}")
+    private int retentionMonths;
+
+    @Scheduled(cron = "${shareit.booking.partitioning.cron:0 0 3 * * *}")
+    public void maintain() {
+        transactionTemplate.executeWithoutResult(status -> {
+            Boolean locked = jdbcTemplate.queryForObject("select pg_try_advisory_xact_lock(?)", Boolean.class,
+                    ADVISORY_LOCK_KEY);
+            if (!Boolean.TRUE.equals(locked)) {
+                log.debug("Обслуживание секций бронирований выполняется другим экземпляром");
+                return;
+            }
+            Integer created = jdbcTemplate.queryForObject("select create_booking_partitions(?)", Integer.class,
+                    monthsAhead);
+            Integer archived = jdbcTemplate.queryForObject("select archive_booking_partitions(?)", Integer.class,
+                    retentionMonths);
+            log.info("Создано секций бронирований: {}, перенесено в архив: {}", created, archived);
+        });
+    }
+}
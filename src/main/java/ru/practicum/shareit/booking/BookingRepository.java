@@ -1,58 +1,344 @@
 package ru.practicum.shareit.booking;
 
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import ru.practicum.shareit.booking.dto.BookingOutDto;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 public interface BookingRepository extends JpaRepository<Booking, Long> {
+    //Списки для ответов собираются прямо в BookingOutDto: выбираются только нужные колонки,
+    //а сущности бронирований, вещей и пользователей не попадают в контекст персистентности
+    String BOOKING_OUT_DTO = "select new ru.practicum.shareit.booking.dto.BookingOutDto(b.id, b.start, b.end, " +
+            "b.status, i.id, i.name, i.description, i.available, i.requestId, u.id, u.name, u.email) " +
+            "from Booking as b " +
+            "join b.item as i " +
+            "join b.booker as u ";
 
     //Методы для получения бронирований сделанных переданным пользователем
-    List<Booking> findByBookerId(Long bookerId, Pageable page);
+    @Query(BOOKING_OUT_DTO +
+            "where b.booker.id = ?1 ")
+    List<BookingOutDto> findByBookerId(Long bookerId, Pageable page);
 
-    @Query("select b " +
-            "from Booking as b " +
+    @Query(BOOKING_OUT_DTO +
             "where b.booker.id = ?1 " +
             "and b.start < ?2 " +
-            "and b.end > ?2 ")
-    List<Booking> findByCurrentBooker(Long bookerId, LocalDateTime start, Pageable page);
+            "and b.end > ?2 " +
+            "and b.start > ?3 ")
+    List<BookingOutDto> findByCurrentBookerStartedAfter(Long bookerId, LocalDateTime now, LocalDateTime startFrom,
+                                                        Pageable page);
 
-    List<Booking> findByBookerIdAndEndIsBefore(Long bookerId, LocalDateTime end, Pageable page);
+    //Текущее бронирование началось не раньше чем maxDuration назад, поэтому старые секции не читаются
+    default List<BookingOutDto> findByCurrentBooker(Long bookerId, LocalDateTime now, Duration maxDuration,
+                                                    Pageable page) {
+        return findByCurrentBookerStartedAfter(bookerId, now, now.minus(maxDuration), page);
+    }
 
-    List<Booking> findByBookerIdAndStartIsAfter(Long bookerId, LocalDateTime end, Pageable page);
+    @Query(BOOKING_OUT_DTO +
+            "where b.booker.id = ?1 " +
+            "and b.end < ?2 ")
+    List<BookingOutDto> findByBookerIdAndEndIsBefore(Long bookerId, LocalDateTime end, Pageable page);
+
+    @Query(BOOKING_OUT_DTO +
+            "where b.booker.id = ?1 " +
+            "and b.start > ?2 ")
+    List<BookingOutDto> findByBookerIdAndStartIsAfter(Long bookerId, LocalDateTime end, Pageable page);
 
-    List<Booking> findByBookerIdAndStatus(Long bookerId, Status status, Pageable page);
+    @Query(BOOKING_OUT_DTO +
+            "where b.booker.id = ?1 " +
+            "and b.status = ?2 ")
+    List<BookingOutDto> findByBookerIdAndStatus(Long bookerId, Status status, Pageable page);
 
 
     //Методы для получения бронирований вещей владельцем которых являетя переданный пользователь
-    List<Booking> findByItemOwnerId(Long ownerId, Pageable page);
+    @Query(BOOKING_OUT_DTO +
+            "where b.ownerId = ?1 ")
+    List<BookingOutDto> findByOwnerId(Long ownerId, Pageable page);
 
-    @Query("select b " +
-            "from Booking as b " +
-            "where b.item.owner.id = ?1 " +
+    @Query(BOOKING_OUT_DTO +
+            "where b.ownerId = ?1 " +
+            "and b.start < ?2 " +
+            "and b.end > ?2 " +
+            "and b.start > ?3 ")
+    List<BookingOutDto> findByOwnerCurrentBookerStartedAfter(Long ownerId, LocalDateTime now, LocalDateTime startFrom,
+                                                             Pageable page);
+
+    default List<BookingOutDto> findByOwnerCurrentBooker(Long ownerId, LocalDateTime now, Duration maxDuration,
+                                                         Pageable page) {
+        return findByOwnerCurrentBookerStartedAfter(ownerId, now, now.minus(maxDuration), page);
+    }
+
+    @Query(BOOKING_OUT_DTO +
+            "where b.ownerId = ?1 " +
+            "and b.end < ?2 ")
+    List<BookingOutDto> findByOwnerIdAndEndIsBefore(Long ownerId, LocalDateTime end, Pageable page);
+
+    @Query(BOOKING_OUT_DTO +
+            "where b.ownerId = ?1 " +
+            "and b.start > ?2 ")
+    List<BookingOutDto> findByOwnerIdAndStartIsAfter(Long ownerId, LocalDateTime end, Pageable page);
+
+    @Query(BOOKING_OUT_DTO +
+            "where b.ownerId = ?1 " +
+            "and b.status = ?2 ")
+    List<BookingOutDto> findByOwnerIdAndStatus(Long bookerId, Status status, Pageable page);
+
+
+    //Keyset-варианты: следующая страница начинается сразу после курсора (start, id), без пропуска строк через offset
+    @Query(BOOKING_OUT_DTO +
+            "where b.booker.id = ?1 " +
+            "and (b.start < ?2 or (b.start = ?2 and b.id < ?3)) " +
+            "order by b.start desc, b.id desc ")
+    List<BookingOutDto> findByBookerIdAfterCursor(Long bookerId, LocalDateTime cursorStart, Long cursorId, Pageable page);
+
+    @Query(BOOKING_OUT_DTO +
+            "where b.booker.id = ?1 " +
             "and b.start < ?2 " +
-            "and b.end > ?2 ")
-    List<Booking> findByOwnerCurrentBooker(Long ownerId, LocalDateTime start, Pageable page);
+            "and b.end > ?2 " +
+            "and b.start > ?4 " +
+            "and b.id > ?3 " +
+            "order by b.id asc ")
+    List<BookingOutDto> findByCurrentBookerStartedAfterCursor(Long bookerId, LocalDateTime now, Long cursorId,
+                                                              LocalDateTime startFrom, Pageable page);
+
+    default List<BookingOutDto> findByCurrentBookerAfterCursor(Long bookerId, LocalDateTime now, Long cursorId,
+                                                               Duration maxDuration, Pageable page) {
+        return findByCurrentBookerStartedAfterCursor(bookerId, now, cursorId, now.minus(maxDuration), page);
+    }
 
-    List<Booking> findByItemOwnerIdAndEndIsBefore(Long ownerId, LocalDateTime end, Pageable page);
+    @Query(BOOKING_OUT_DTO +
+            "where b.booker.id = ?1 " +
+            "and b.end < ?2 " +
+            "and (b.start < ?3 or (b.start = ?3 and b.id < ?4)) " +
+            "order by b.start desc, b.id desc ")
+    List<BookingOutDto> findPastByBookerIdAfterCursor(Long bookerId, LocalDateTime now,
+                                                      LocalDateTime cursorStart, Long cursorId, Pageable page);
+
+    @Query(BOOKING_OUT_DTO +
+            "where b.booker.id = ?1 " +
+            "and b.start > ?2 " +
+            "and (b.start < ?3 or (b.start = ?3 and b.id < ?4)) " +
+            "order by b.start desc, b.id desc ")
+    List<BookingOutDto> findFutureByBookerIdAfterCursor(Long bookerId, LocalDateTime now,
+                                                        LocalDateTime cursorStart, Long cursorId, Pageable page);
 
-    List<Booking> findByItemOwnerIdAndStartIsAfter(Long ownerId, LocalDateTime end, Pageable page);
+    @Query(BOOKING_OUT_DTO +
+            "where b.booker.id = ?1 " +
+            "and b.status = ?2 " +
+            "and (b.start < ?3 or (b.start = ?3 and b.id < ?4)) " +
+            "order by b.start desc, b.id desc ")
+    List<BookingOutDto> findByBookerIdAndStatusAfterCursor(Long bookerId, Status status,
+                                                           LocalDateTime cursorStart, Long cursorId, Pageable page);
+
+    @Query(BOOKING_OUT_DTO +
+            "where b.ownerId = ?1 " +
+            "and (b.start < ?2 or (b.start = ?2 and b.id < ?3)) " +
+            "order by b.start desc, b.id desc ")
+    List<BookingOutDto> findByOwnerIdAfterCursor(Long ownerId, LocalDateTime cursorStart, Long cursorId, Pageable page);
+
+    @Query(BOOKING_OUT_DTO +
+            "where b.ownerId = ?1 " +
+            "and b.start < ?2 " +
+            "and b.end > ?2 " +
+            "and b.start > ?4 " +
+            "and b.id > ?3 " +
+            "order by b.id asc ")
+    List<BookingOutDto> findByOwnerCurrentBookerStartedAfterCursor(Long ownerId, LocalDateTime now, Long cursorId,
+                                                                   LocalDateTime startFrom, Pageable page);
 
-    List<Booking> findByItemOwnerIdAndStatus(Long bookerId, Status status, Pageable page);
+    default List<BookingOutDto> findByOwnerCurrentBookerAfterCursor(Long ownerId, LocalDateTime now, Long cursorId,
+                                                                    Duration maxDuration, Pageable page) {
+        return findByOwnerCurrentBookerStartedAfterCursor(ownerId, now, cursorId, now.minus(maxDuration), page);
+    }
 
+    @Query(BOOKING_OUT_DTO +
+            "where b.ownerId = ?1 " +
+            "and b.end < ?2 " +
+            "and (b.start < ?3 or (b.start = ?3 and b.id < ?4)) " +
+            "order by b.start desc, b.id desc ")
+    List<BookingOutDto> findPastByOwnerIdAfterCursor(Long ownerId, LocalDateTime now,
+                                                     LocalDateTime cursorStart, Long cursorId, Pageable page);
 
-    List<Booking> findByItemId(Long itemId, Sort sort);
+    @Query(BOOKING_OUT_DTO +
+            "where b.ownerId = ?1 " +
+            "and b.start > ?2 " +
+            "and (b.start < ?3 or (b.start = ?3 and b.id < ?4)) " +
+            "order by b.start desc, b.id desc ")
+    List<BookingOutDto> findFutureByOwnerIdAfterCursor(Long ownerId, LocalDateTime now,
+                                                       LocalDateTime cursorStart, Long cursorId, Pageable page);
 
-    List<Booking> findByItemIdIn(List<Long> itemId, Sort sort);
+    @Query(BOOKING_OUT_DTO +
+            "where b.ownerId = ?1 " +
+            "and b.status = ?2 " +
+            "and (b.start < ?3 or (b.start = ?3 and b.id < ?4)) " +
+            "order by b.start desc, b.id desc ")
+    List<BookingOutDto> findByOwnerIdAndStatusAfterCursor(Long ownerId, Status status,
+                                                          LocalDateTime cursorStart, Long cursorId, Pageable page);
+
+
+    //Бронирования вещи, пересекающие окно [from, to), по возрастанию начала после курсора.
+    //Курсор первой страницы стоит на максимальную длительность бронирования раньше начала окна, так что чтение индекса (item_id, start_date)
+    //ограничено с обеих сторон
+    @Query(BOOKING_OUT_DTO +
+            "where b.item.id = ?1 " +
+            "and b.start < ?3 " +
+            "and b.end > ?2 " +
+            "and (b.start > ?4 or (b.start = ?4 and b.id > ?5)) " +
+            "order by b.start asc, b.id asc ")
+    List<BookingOutDto> findByItemIdInWindowAfterCursor(Long itemId, LocalDateTime from, LocalDateTime to,
+                                                        LocalDateTime cursorStart, Long cursorId, Pageable page);
+
+    @Query("select new ru.practicum.shareit.booking.BookingSlot(b.id, b.item.id, b.booker.id, b.start, b.end, b.status) " +
+            "from Booking as b " +
+            "where b.item.id = ?1 " +
+            "and b.start < ?3 " +
+            "and b.end > ?2 " +
+            "and (b.start > ?4 or (b.start = ?4 and b.id > ?5)) " +
+            "order by b.start asc, b.id asc ")
+    List<BookingSlot> findSlotsByItemIdInWindowAfterCursor(Long itemId, LocalDateTime from, LocalDateTime to,
+                                                           LocalDateTime cursorStart, Long cursorId, Pageable page);
 
     @Query("select b " +
             "from Booking as b " +
             "where b.item.id = ?1 " +
-            "and (b.start between ?2 and ?3 " +
-            "or b.end between ?2 and ?3) ")
-    List<Booking> findTimeCrossingBookings(Long itemId, LocalDateTime start, LocalDateTime end);
+            "and b.start < ?3 " +
+            "and b.end > ?2 " +
+            "and b.start > ?4 " +
+            "and b.status in (ru.practicum.shareit.booking.Status.WAITING, ru.practicum.shareit.booking.Status.APPROVED) ")
+    List<Booking> findTimeCrossingBookingsStartedAfter(Long itemId, LocalDateTime start, LocalDateTime end,
+                                                       LocalDateTime startFrom);
+
+    //Пересекающее бронирование не может начаться раньше чем за maxDuration до начала запрошенного
+    default List<Booking> findTimeCrossingBookings(Long itemId, LocalDateTime start, LocalDateTime end,
+                                                   Duration maxDuration) {
+        return findTimeCrossingBookingsStartedAfter(itemId, start, end, start.minus(maxDuration));
+    }
+
+    @Query("select new ru.practicum.shareit.booking.BookingSlot(b.id, b.item.id, b.booker.id, b.start, b.end, b.status) " +
+            "from Booking as b " +
+            "where b.item.id in ?1 " +
+            "and b.start < ?3 " +
+            "and b.end > ?2 " +
+            "and b.start > ?4 " +
+            "and b.status in (ru.practicum.shareit.booking.Status.WAITING, ru.practicum.shareit.booking.Status.APPROVED) ")
+    List<BookingSlot> findTimeCrossingSlotsOfItemsStartedAfter(Collection<Long> itemIds, LocalDateTime start,
+                                                               LocalDateTime end, LocalDateTime startFrom);
+
+    default List<BookingSlot> findTimeCrossingSlotsOfItems(Collection<Long> itemIds, LocalDateTime start,
+                                                           LocalDateTime end, Duration maxDuration) {
+        return findTimeCrossingSlotsOfItemsStartedAfter(itemIds, start, end, start.minus(maxDuration));
+    }
+
+    //Блокирующие бронирования, которые еще не закончились, порциями по порядку начала.
+    //Незакончившееся бронирование не может начаться раньше чем за максимальную длительность до текущего момента,
+    //поэтому курсор начинается с этой границы, а не с начала таблицы
+    @Query("select new ru.practicum.shareit.booking.BookingSlot(b.id, b.item.id, b.booker.id, b.start, b.end, b.status) " +
+            "from Booking as b " +
+            "where b.status in (ru.practicum.shareit.booking.Status.WAITING, ru.practicum.shareit.booking.Status.APPROVED) " +
+            "and b.end > ?1 " +
+            "and (b.start > ?2 or (b.start = ?2 and b.id > ?3)) " +
+            "order by b.start asc, b.id asc ")
+    List<BookingSlot> findUnfinishedBlockingSlotsAfterCursor(LocalDateTime now, LocalDateTime cursorStart,
+                                                             Long cursorId, Pageable page);
+
+    //Ожидающие рассмотрения бронирования из переданных, которые относятся к вещам владельца.
+    //Строки блокируются до конца транзакции, чтобы параллельное рассмотрение не изменило их между чтением и обновлением;
+    //порядок по id исключает взаимную блокировку пересекающихся пакетов
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select new ru.practicum.shareit.booking.BookingSlot(b.id, b.item.id, b.booker.id, b.start, b.end, b.status) " +
+            "from Booking as b " +
+            "where b.id in ?1 " +
+            "and b.ownerId = ?2 " +
+            "and b.status = ru.practicum.shareit.booking.Status.WAITING " +
+            "order by b.id")
+    List<BookingSlot> findWaitingSlotsOfOwner(Collection<Long> bookingIds, Long ownerId);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update Booking as b " +
+            "set b.status = ?3, b.version = b.version + 1 " +
+            "where b.id in ?1 " +
+            "and b.status = ru.practicum.shareit.booking.Status.WAITING " +
+            "and b.ownerId = ?2 ")
+    int updateWaitingStatusOfOwner(Collection<Long> bookingIds, Long ownerId, Status status);
+
+    //Ожидающие подтверждения бронирования, время начала которых уже прошло, по порядку начала
+    @Query("select new ru.practicum.shareit.booking.BookingSlot(b.id, b.item.id, b.booker.id, b.start, b.end, b.status) " +
+            "from Booking as b " +
+            "where b.status = ru.practicum.shareit.booking.Status.WAITING " +
+            "and b.start < ?1 " +
+            "order by b.start asc ")
+    List<BookingSlot> findStaleWaitingSlots(LocalDateTime now, Pageable page);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update Booking as b " +
+            "set b.status = ?2, b.version = b.version + 1 " +
+            "where b.id in ?1 " +
+            "and b.status = ru.practicum.shareit.booking.Status.WAITING ")
+    int updateWaitingStatus(Collection<Long> bookingIds, Status status);
+
+    //Условное обновление: 0 строк означает, что бронирование успели изменить после чтения
+    @Modifying
+    @Query("update Booking as b " +
+            "set b.status = ?3, b.version = b.version + 1 " +
+            "where b.id = ?1 " +
+            "and b.version = ?2 ")
+    int updateStatusIfVersionMatches(Long bookingId, Long version, Status status);
+
+    @Query("select b.id " +
+            "from Booking as b " +
+            "where b.id in ?1 " +
+            "and b.status = ?2 ")
+    List<Long> findIdsByIdInAndStatus(Collection<Long> bookingIds, Status status);
+
+    //Блокирующие интервалы вещи, пересекающие окно, читаются потоком по индексу (item_id, start_date)
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new ru.practicum.shareit.booking.BookingSlot(b.id, b.item.id, b.booker.id, b.start, b.end, b.status) " +
+            "from Booking as b " +
+            "where b.item.id = ?1 " +
+            "and b.start < ?3 " +
+            "and b.end > ?2 " +
+            "and b.start > ?4 " +
+            "and b.status in (ru.practicum.shareit.booking.Status.WAITING, ru.practicum.shareit.booking.Status.APPROVED) " +
+            "order by b.start asc ")
+    Stream<BookingSlot> streamBlockingSlotsStartedAfter(Long itemId, LocalDateTime from, LocalDateTime to,
+                                                        LocalDateTime startFrom);
+
+    default Stream<BookingSlot> streamBlockingSlots(Long itemId, LocalDateTime from, LocalDateTime to,
+                                                    Duration maxDuration) {
+        return streamBlockingSlotsStartedAfter(itemId, from, to, from.minus(maxDuration));
+    }
+
+    //Счетчики для всех состояний за один проход по бронированиям пользователя
+    @Query(value = "select count(*) as \"allCount\", " +
+            "count(*) filter (where b.start_date < ?2 and b.end_date > ?2) as \"currentCount\", " +
+            "count(*) filter (where b.end_date < ?2) as \"pastCount\", " +
+            "count(*) filter (where b.start_date > ?2) as \"futureCount\", " +
+            "count(*) filter (where b.status = 'WAITING') as \"waitingCount\", " +
+            "count(*) filter (where b.status = 'REJECTED') as \"rejectedCount\" " +
+            "from bookings as b " +
+            "where b.user_id = ?1 ", nativeQuery = true)
+    BookingStateCounts countByBookerIdGroupByState(Long bookerId, LocalDateTime now);
+
+    @Query(value = "select count(*) as \"allCount\", " +
+            "count(*) filter (where b.start_date < ?2 and b.end_date > ?2) as \"currentCount\", " +
+            "count(*) filter (where b.end_date < ?2) as \"pastCount\", " +
+            "count(*) filter (where b.start_date > ?2) as \"futureCount\", " +
+            "count(*) filter (where b.status = 'WAITING') as \"waitingCount\", " +
+            "count(*) filter (where b.status = 'REJECTED') as \"rejectedCount\" " +
+            "from bookings as b " +
+            "where b.owner_id = ?1 ", nativeQuery = true)
+    BookingStateCounts countByOwnerIdGroupByState(Long ownerId, LocalDateTime now);
 
 }
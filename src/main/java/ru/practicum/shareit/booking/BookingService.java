@@ -1,14 +1,30 @@
 package ru.practicum.shareit.booking;
 
+import ru.practicum.shareit.booking.dto.BookingBatchResultDto;
 import ru.practicum.shareit.booking.dto.BookingInDto;
 import ru.practicum.shareit.booking.dto.BookingOutDto;
+import ru.practicum.shareit.booking.dto.BookingStatusBatchResultDto;
+import ru.practicum.shareit.booking.dto.BookingWaitlistResultDto;
 
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 public interface BookingService {
     BookingOutDto saveBooking(BookingInDto bookingDto);
 
-    BookingOutDto setStatus(Long bookingId, Long userId, Boolean isApproved);
+    BookingWaitlistResultDto saveBookingOrJoinWaitlist(BookingInDto bookingDto);
+
+    List<BookingOutDto> saveRecurringBooking(BookingInDto bookingDto);
+
+    List<BookingBatchResultDto> saveBookings(Long bookerId, List<BookingInDto> bookingDtos);
+
+    BookingOutDto setStatus(Long bookingId, Long userId, Boolean isApproved, Long expectedVersion);
+
+    BookingStatusBatchResultDto setStatuses(List<Long> bookingIds, Long userId, Boolean isApproved);
 
     BookingOutDto getBooking(Long userId, Long bookingId);
 
@@ -16,5 +32,25 @@ public interface BookingService {
 
     List<BookingOutDto> findAllOwnerBookingsByState(Long ownerId, State state, int from, int size);
 
-    List<BookingOutDto> findAllBookingsOfItem(Long itemId);
+    List<BookingOutDto> findAllBookingsByState(Long userId, State state, BookingCursor after, int size);
+
+    List<BookingOutDto> findAllOwnerBookingsByState(Long ownerId, State state, BookingCursor after, int size);
+
+    List<BookingOutDto> findAllBookingsOfItem(Long ownerId, Long itemId, LocalDateTime from, LocalDateTime to,
+                                              BookingCursor after, int size);
+
+    List<BookingSlot> findBookingSlotsOfItem(Long ownerId, Long itemId, LocalDateTime from, LocalDateTime to,
+                                             BookingCursor after, int size);
+
+    List<BookingOutDto> findArchivedBookings(Long userId, int from, int size);
+
+    List<BookingOutDto> findArchivedOwnerBookings(Long ownerId, int from, int size);
+
+    Map<State, Long> getBookingsSummary(Long userId);
+
+    Map<State, Long> getOwnerBookingsSummary(Long ownerId);
+
+    StreamingResponseBody exportOwnerBookings(Long ownerId, BookingExportFormat format);
+
+    SseEmitter subscribeToBookingEvents(Long userId);
 }
@@ -1,71 +1,346 @@
 package ru.practicum.shareit.booking;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.practicum.shareit.booking.dto.BookingBatchResultDto;
 import ru.practicum.shareit.booking.dto.BookingInDto;
 import ru.practicum.shareit.booking.dto.BookingMapper;
 import ru.practicum.shareit.booking.dto.BookingOutDto;
+import ru.practicum.shareit.booking.dto.BookingRecurrenceDto;
+import ru.practicum.shareit.booking.dto.BookingStatusBatchResultDto;
+import ru.practicum.shareit.booking.dto.BookingWaitlistResultDto;
 import ru.practicum.shareit.exceptions.BookingBadRequestException;
+import ru.practicum.shareit.exceptions.ContentAlreadyExistException;
 import ru.practicum.shareit.exceptions.ContentNotFountException;
+import ru.practicum.shareit.exceptions.PreconditionFailedException;
 import ru.practicum.shareit.item.Item;
 import ru.practicum.shareit.item.ItemRepository;
+import ru.practicum.shareit.item.ItemUtilizationRepository;
 import ru.practicum.shareit.user.User;
 import ru.practicum.shareit.user.UserRepository;
 
+import javax.annotation.PostConstruct;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class BookingServiceImpl implements BookingService {
+    //Ограничение исключения на booking_intervals, общее для всех секций bookings (PostgreSQL)
+    private static final String OVERLAP_CONSTRAINT = "bookings_no_overlap";
+    //Ограничение длительности бронирования в базе (V16)
+    private static final String MAX_DURATION_CONSTRAINT = "bookings_max_duration";
+    static final Duration STORED_MAX_DURATION = Duration.ofDays(90);
+    private static final String ALREADY_BOOKED_MESSAGE = "Данная вещь уже забронирована в запрашиваемые даты";
+    static final int MAX_OCCURRENCES = 104;
+
     private final BookingRepository bookingRepository;
+    private final BookingJdbcRepository bookingJdbcRepository;
+    private final BookingHistoryRepository bookingHistoryRepository;
     private final ItemRepository itemRepository;
     private final UserRepository userRepository;
+    private final BookingTimeline bookingTimeline;
+    private final BookingSummaryCache bookingSummaryCache;
+    private final BookingExporter bookingExporter;
+    private final BookingOutbox bookingOutbox;
+    private final ItemUtilizationRepository itemUtilizationRepository;
+    private final BookingStreamHub bookingStreamHub;
+    private final BookingWaitlist bookingWaitlist;
+    private final BookingWaitlistPromoter bookingWaitlistPromoter;
+
+    //Ограничение длительности позволяет искать пересечения с нижней границей по start_date,
+    //по которой PostgreSQL отсекает секции с давно закончившимися бронированиями
+    @Value("${shareit.booking.max-duration:90d}")
+    private Duration maxDuration;
+
+    //Бронирование длиннее настроенной длительности, допущенное ограничением базы, выпало бы из поиска пересечений
+    @PostConstruct
+    void checkMaxDuration() {
+        if (maxDuration.compareTo(STORED_MAX_DURATION) < 0) {
+            throw new IllegalStateException("shareit.booking.max-duration (" + maxDuration.toDays()
+                    + " дней) меньше допустимой базой длительности бронирования (" + STORED_MAX_DURATION.toDays()
+                    + " дней)");
+        }
+    }
+
+    //В PostgreSQL пересечения отсекает ограничение исключения bookings_no_overlap на booking_intervals,
+    //в H2 (профили ci,test) его нет, поэтому допуск сериализуется блокировкой строки вещи
+    @Value("${shareit.booking.overlap-constraint:true}")
+    private boolean overlapConstraint;
 
     @Override
+    @Transactional
     public BookingOutDto saveBooking(BookingInDto bookingDto) {
         Item item = getItem(bookingDto.getItemId());
-        if (item.getOwner().getId().equals(bookingDto.getBookerId())) {
-            throw new ContentNotFountException("Вледелец вещи не может ее забронировать");
+        checkBookingAllowed(bookingDto, item);
+        checkNotBooked(item.getId(), bookingDto.getStart(), bookingDto.getEnd());
+        User user = getUser(bookingDto.getBookerId());
+        return insertBooking(bookingDto, item, user);
+    }
+
+    @Override
+    @Transactional
+    public BookingWaitlistResultDto saveBookingOrJoinWaitlist(BookingInDto bookingDto) {
+        Item item = getItem(bookingDto.getItemId());
+        checkBookingAllowed(bookingDto, item);
+        User user = getUser(bookingDto.getBookerId());
+        BookingWaitlistResultDto result = new BookingWaitlistResultDto();
+        //Решение о постановке в очередь принимается под той же блокировкой вещи, что и продвижение очереди,
+        //поэтому интервал не может освободиться между проверкой и постановкой незамеченным
+        itemRepository.findLockedById(item.getId());
+        if (bookingRepository.findTimeCrossingBookings(item.getId(), bookingDto.getStart(), bookingDto.getEnd(),
+                maxDuration).isEmpty()) {
+            result.setBooking(insertBooking(bookingDto, item, user));
+        } else {
+            //Повторную запись того же пользователя на тот же интервал отклоняет индекс booking_waitlist_entry_uq
+            try {
+                result.setWaitlistEntry(bookingWaitlist.add(item.getId(), user.getId(),
+                        bookingDto.getStart(), bookingDto.getEnd()));
+            } catch (DuplicateKeyException e) {
+                throw new ContentAlreadyExistException("Пользователь уже в очереди на этот интервал");
+            }
         }
-        if (!item.getAvailable()) {
-            throw new BookingBadRequestException("Данная вещь недоступна для бранирования");
+        return result;
+    }
+
+    @Override
+    @Transactional
+    public List<BookingOutDto> saveRecurringBooking(BookingInDto bookingDto) {
+        Item item = getItem(bookingDto.getItemId());
+        checkBookingAllowed(bookingDto, item);
+        List<BookingInDto> occurrences = expandOccurrences(bookingDto);
+        User user = getUser(bookingDto.getBookerId());
+        itemRepository.findLockedById(item.getId());
+        //Один запрос на пересечения в объемлющем интервале серии. Блокирующие бронирования вещи не пересекаются
+        //между собой, поэтому для каждого повторения достаточно ближайшего начавшегося раньше его конца
+        NavigableMap<LocalDateTime, BookingSlot> occupied = bookingRepository
+                .findTimeCrossingSlotsOfItems(List.of(item.getId()), occurrences.get(0).getStart(),
+                        occurrences.get(occurrences.size() - 1).getEnd(), maxDuration).stream()
+                .collect(Collectors.toMap(BookingSlot::getStart, Function.identity(), (a, b) -> a, TreeMap::new));
+        List<Booking> bookings = new ArrayList<>(occurrences.size());
+        for (BookingInDto occurrence : occurrences) {
+            Map.Entry<LocalDateTime, BookingSlot> candidate = occupied.lowerEntry(occurrence.getEnd());
+            if (candidate != null && candidate.getValue().getEnd().isAfter(occurrence.getStart())) {
+                throw new ContentNotFountException(ALREADY_BOOKED_MESSAGE + ": " + occurrence.getStart());
+            }
+            occurrence.setStatus(Status.WAITING);
+            bookings.add(BookingMapper.mapToBooking(occurrence, item, user));
         }
-        if (bookingDto.getStart().isAfter(bookingDto.getEnd())
-                || bookingDto.getStart().isEqual(bookingDto.getEnd())) {
-            throw new BookingBadRequestException("Время начала бронирования не может быть позже либо равным времени его окончания");
+
+        List<Long> ids;
+        try {
+            ids = bookingJdbcRepository.insertAll(bookings);
+        } catch (DataIntegrityViolationException e) {
+            throw mapConstraintViolation(e);
         }
-        List<Booking> bookingsOfItem = bookingRepository.findTimeCrossingBookings(bookingDto.getItemId(),
-                bookingDto.getStart(), bookingDto.getEnd());
-        if (!bookingsOfItem.isEmpty()) {
-            throw new ContentNotFountException("Данная вещь уже забронирована в запрашиваемые даты");
+        bookingOutbox.record(ids);
+        List<BookingOutDto> savedBookings = new ArrayList<>(bookings.size());
+        for (int i = 0; i < bookings.size(); i++) {
+            Booking savedBooking = bookings.get(i);
+            savedBooking.setId(ids.get(i));
+            savedBookings.add(BookingMapper.mapToBookingOutDto(savedBooking));
+            bookingTimeline.indexOnCommit(BookingMapper.mapToBookingSlot(savedBooking));
         }
-        User user = getUser(bookingDto.getBookerId());
-        bookingDto.setStatus(Status.WAITING);
-        Booking booking = BookingMapper.mapToBooking(bookingDto, item, user);
-        Booking savedBooking = bookingRepository.save(booking);
-        return BookingMapper.mapToBookingOutDto(savedBooking);
+        bookingSummaryCache.evictOnCommit(user.getId(), item.getOwner().getId());
+        return savedBookings;
     }
 
     @Override
-    public BookingOutDto setStatus(Long bookingId, Long userId, Boolean isApproved) {
+    @Transactional
+    public List<BookingBatchResultDto> saveBookings(Long bookerId, List<BookingInDto> bookingDtos) {
+        User user = getUser(bookerId);
+        Set<Long> itemIds = bookingDtos.stream()
+                .map(BookingInDto::getItemId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        //Вещи пакета блокируются тем же запросом, которым загружаются
+        Map<Long, Item> items = itemRepository.findLockedByIdIn(itemIds).stream()
+                .collect(Collectors.toMap(Item::getId, Function.identity()));
+
+        List<BookingBatchResultDto> results = new ArrayList<>(bookingDtos.size());
+        List<BookingInDto> candidates = new ArrayList<>();
+        for (int i = 0; i < bookingDtos.size(); i++) {
+            BookingInDto bookingDto = bookingDtos.get(i);
+            bookingDto.setBookerId(bookerId);
+            BookingBatchResultDto result = new BookingBatchResultDto();
+            result.setIndex(i);
+            results.add(result);
+            try {
+                Item item = items.get(bookingDto.getItemId());
+                if (item == null) {
+                    throw new ContentNotFountException("Вещи с id = " + bookingDto.getItemId() + " не существует");
+                }
+                checkBookingAllowed(bookingDto, item);
+                candidates.add(bookingDto);
+            } catch (ContentNotFountException | BookingBadRequestException e) {
+                result.setError(e.getMessage());
+            }
+        }
+        if (candidates.isEmpty()) {
+            return results;
+        }
+
+        //Один запрос на пересечения по всем вещам пакета в объемлющем интервале, дальше проверка в памяти
+        LocalDateTime minStart = candidates.stream().map(BookingInDto::getStart).min(LocalDateTime::compareTo).get();
+        LocalDateTime maxEnd = candidates.stream().map(BookingInDto::getEnd).max(LocalDateTime::compareTo).get();
+        Map<Long, List<BookingSlot>> occupied = bookingRepository
+                .findTimeCrossingSlotsOfItems(candidates.stream().map(BookingInDto::getItemId).collect(Collectors.toSet()),
+                        minStart, maxEnd, maxDuration).stream()
+                .collect(Collectors.groupingBy(BookingSlot::getItemId));
+
+        List<Booking> accepted = new ArrayList<>();
+        List<BookingBatchResultDto> acceptedResults = new ArrayList<>();
+        for (int i = 0; i < bookingDtos.size(); i++) {
+            BookingInDto bookingDto = bookingDtos.get(i);
+            if (results.get(i).getError() != null) {
+                continue;
+            }
+            List<BookingSlot> itemSlots = occupied.computeIfAbsent(bookingDto.getItemId(), id -> new ArrayList<>());
+            boolean crossing = itemSlots.stream()
+                    .anyMatch(slot -> slot.getStart().isBefore(bookingDto.getEnd())
+                            && slot.getEnd().isAfter(bookingDto.getStart()));
+            if (crossing) {
+                results.get(i).setError(ALREADY_BOOKED_MESSAGE);
+                continue;
+            }
+            //Принятая позиция занимает интервал для следующих позиций того же пакета
+            itemSlots.add(new BookingSlot(null, bookingDto.getItemId(), bookerId,
+                    bookingDto.getStart(), bookingDto.getEnd(), Status.WAITING));
+            bookingDto.setStatus(Status.WAITING);
+            accepted.add(BookingMapper.mapToBooking(bookingDto, items.get(bookingDto.getItemId()), user));
+            acceptedResults.add(results.get(i));
+        }
+        if (accepted.isEmpty()) {
+            return results;
+        }
+
+        List<Long> ids;
+        try {
+            ids = bookingJdbcRepository.insertAll(accepted);
+        } catch (DataIntegrityViolationException e) {
+            throw mapConstraintViolation(e);
+        }
+        bookingOutbox.record(ids);
+        for (int i = 0; i < accepted.size(); i++) {
+            Booking savedBooking = accepted.get(i);
+            savedBooking.setId(ids.get(i));
+            acceptedResults.get(i).setBooking(BookingMapper.mapToBookingOutDto(savedBooking));
+            bookingTimeline.indexOnCommit(BookingMapper.mapToBookingSlot(savedBooking));
+            bookingSummaryCache.evictOnCommit(bookerId, savedBooking.getItem().getOwner().getId());
+        }
+        return results;
+    }
+
+    @Override
+    @Transactional
+    public BookingOutDto setStatus(Long bookingId, Long userId, Boolean isApproved, Long expectedVersion) {
         Booking booking = bookingRepository.findById(bookingId)
                 .orElseThrow(() -> new ContentNotFountException("Бронирования с id = " + bookingId + " не существует"));
         if (!Objects.equals(booking.getItem().getOwner().getId(), userId)) {
             throw new ContentNotFountException("Бранирование может подтвердить только владелец вещи");
         }
+        if (expectedVersion != null && !expectedVersion.equals(booking.getVersion())) {
+            throw new PreconditionFailedException("Бронирование уже изменено, актуальная версия: " + booking.getVersion());
+        }
+        if (booking.getStatus() == Status.EXPIRED) {
+            throw new BookingBadRequestException("Бронирование просрочено и больше не может быть рассмотрено");
+        }
         Status status = isApproved ? Status.APPROVED : Status.REJECTED;
         if (Objects.equals(booking.getStatus(), status)) {
             throw new BookingBadRequestException("Статус в актуальном состоянии");
         }
-        booking.setStatus(status);
-        Booking savedBooking = bookingRepository.save(booking);
-        return BookingMapper.mapToBookingOutDto(savedBooking);
+        if (status == Status.APPROVED && booking.getStatus() != Status.WAITING) {
+            //Отклоненное ранее бронирование снова занимает интервал, который мог быть уже отдан другому
+            checkNotBooked(booking.getItem().getId(), booking.getStart(), booking.getEnd());
+        }
+        //Прочитанная сущность не меняется: обновление выполняется одним условным запросом по версии
+        int updated;
+        try {
+            updated = bookingRepository.updateStatusIfVersionMatches(bookingId, booking.getVersion(), status);
+        } catch (DataIntegrityViolationException e) {
+            throw mapConstraintViolation(e);
+        }
+        if (updated == 0) {
+            throw new PreconditionFailedException("Бронирование изменено параллельным запросом");
+        }
+        bookingOutbox.record(List.of(bookingId));
+        BookingSlot slot = new BookingSlot(bookingId, booking.getItem().getId(), booking.getBooker().getId(),
+                booking.getStart(), booking.getEnd(), status);
+        //Счетчики занятости учитывают только подтвержденные бронирования
+        if (status == Status.APPROVED) {
+            itemUtilizationRepository.add(List.of(slot));
+        } else if (booking.getStatus() == Status.APPROVED) {
+            itemUtilizationRepository.subtract(List.of(slot));
+        }
+        //Отказ освобождает интервал, если бронирование его занимало
+        if (status == Status.REJECTED
+                && (booking.getStatus() == Status.WAITING || booking.getStatus() == Status.APPROVED)) {
+            bookingWaitlistPromoter.promote(List.of(slot));
+        }
+        bookingTimeline.indexOnCommit(slot);
+        bookingSummaryCache.evictOnCommit(booking.getBooker().getId(), booking.getItem().getOwner().getId());
+        BookingOutDto bookingOutDto = BookingMapper.mapToBookingOutDto(booking);
+        bookingOutDto.setStatus(status);
+        bookingOutDto.setVersion(booking.getVersion() + 1);
+        return bookingOutDto;
+    }
+
+    @Override
+    @Transactional
+    public BookingStatusBatchResultDto setStatuses(List<Long> bookingIds, Long userId, Boolean isApproved) {
+        Status status = isApproved ? Status.APPROVED : Status.REJECTED;
+        //Рассматриваются только ожидающие бронирования, поэтому подтверждение не может создать пересечение.
+        //Прочитанные строки заблокированы, так что обновление меняет ровно их и все последствия считаются по ним
+        List<BookingSlot> slots = bookingRepository.findWaitingSlotsOfOwner(bookingIds, userId);
+        List<Long> updated = slots.stream()
+                .map(BookingSlot::getId)
+                .collect(Collectors.toList());
+        if (!updated.isEmpty()) {
+            int changed = bookingRepository.updateWaitingStatusOfOwner(updated, userId, status);
+            if (changed != updated.size()) {
+                throw new PreconditionFailedException("Бронирования изменены параллельным запросом");
+            }
+            bookingOutbox.record(updated);
+            //Одиночное подтверждение тех же бронирований ждет блокировки и не проходит проверку версии,
+            //поэтому секунды каждого бронирования попадают в счетчики один раз
+            if (status == Status.APPROVED) {
+                itemUtilizationRepository.add(slots);
+            } else {
+                bookingWaitlistPromoter.promote(slots);
+            }
+        }
+        for (BookingSlot slot : slots) {
+            bookingTimeline.indexOnCommit(new BookingSlot(slot.getId(), slot.getItemId(), slot.getBookerId(),
+                    slot.getStart(), slot.getEnd(), status));
+            bookingSummaryCache.evictOnCommit(slot.getBookerId(), userId);
+        }
+        BookingStatusBatchResultDto result = new BookingStatusBatchResultDto();
+        result.setStatus(status);
+        result.setUpdated(updated);
+        result.setSkipped(bookingIds.stream()
+                .distinct()
+                .filter(id -> !updated.contains(id))
+                .collect(Collectors.toList()));
+        return result;
     }
 
     public BookingOutDto getBooking(Long userId, Long bookingId) {
@@ -82,7 +357,7 @@ public class BookingServiceImpl implements BookingService {
         //Просмотр пользователем всех его букингов (то что он забронировал у других пользователей)
         //Проверка существования пользователя
         getUser(userId);
-        List<Booking> bookings;
+        List<BookingOutDto> bookings;
         Pageable pageSortedByStartTime = makePageSortedByStartTime(from, size);
         switch (state) {
             case ALL:
@@ -91,7 +366,7 @@ public class BookingServiceImpl implements BookingService {
                         makePageSortedByStartTime(from / size, size));
                 break;
             case CURRENT:
-                bookings = bookingRepository.findByCurrentBooker(userId, LocalDateTime.now(),
+                bookings = bookingRepository.findByCurrentBooker(userId, LocalDateTime.now(), maxDuration,
                         PageRequest.of(from, size, Sort.by("id").ascending()));
                 break;
             case PAST:
@@ -106,9 +381,7 @@ public class BookingServiceImpl implements BookingService {
                 bookings = bookingRepository.findByBookerIdAndStatus(userId, Status.valueOf(state.toString()),
                         pageSortedByStartTime);
         }
-        return bookings.stream()
-                .map(BookingMapper::mapToBookingOutDto)
-                .collect(Collectors.toList());
+        return bookings;
     }
 
     @Override
@@ -116,39 +389,198 @@ public class BookingServiceImpl implements BookingService {
         //Просмотр владельцем вещей всех букингов этих вещей
         //Проверка существования пользователя
         getUser(ownerId);
-        List<Booking> bookings;
+        List<BookingOutDto> bookings;
         Pageable pageSortedByStartTime = makePageSortedByStartTime(from, size);
         switch (state) {
             case ALL:
-                bookings = bookingRepository.findByItemOwnerId(ownerId,
+                bookings = bookingRepository.findByOwnerId(ownerId,
                         pageSortedByStartTime);
                 break;
             case CURRENT:
-                bookings = bookingRepository.findByOwnerCurrentBooker(ownerId, LocalDateTime.now(),
+                bookings = bookingRepository.findByOwnerCurrentBooker(ownerId, LocalDateTime.now(), maxDuration,
                         PageRequest.of(from, size, Sort.by("id").ascending()));
                 break;
             case PAST:
-                bookings = bookingRepository.findByItemOwnerIdAndEndIsBefore(ownerId, LocalDateTime.now(),
+                bookings = bookingRepository.findByOwnerIdAndEndIsBefore(ownerId, LocalDateTime.now(),
                         pageSortedByStartTime);
                 break;
             case FUTURE:
-                bookings = bookingRepository.findByItemOwnerIdAndStartIsAfter(ownerId, LocalDateTime.now(),
+                bookings = bookingRepository.findByOwnerIdAndStartIsAfter(ownerId, LocalDateTime.now(),
                         pageSortedByStartTime);
                 break;
             default:
-                bookings = bookingRepository.findByItemOwnerIdAndStatus(ownerId, Status.valueOf(state.toString()),
+                bookings = bookingRepository.findByOwnerIdAndStatus(ownerId, Status.valueOf(state.toString()),
                         pageSortedByStartTime);
         }
-        return bookings.stream()
-                .map(BookingMapper::mapToBookingOutDto)
-                .collect(Collectors.toList());
+        return bookings;
     }
 
     @Override
-    public List<BookingOutDto> findAllBookingsOfItem(Long itemId) {
-        return bookingRepository.findByItemId(itemId, Sort.by("start").descending()).stream()
-                .map(BookingMapper::mapToBookingOutDto)
-                .collect(Collectors.toList());
+    public List<BookingOutDto> findAllBookingsByState(Long userId, State state, BookingCursor after, int size) {
+        getUser(userId);
+        List<BookingOutDto> bookings;
+        Pageable page = PageRequest.of(0, size);
+        switch (state) {
+            case ALL:
+                bookings = bookingRepository.findByBookerIdAfterCursor(userId, after.getStart(), after.getId(), page);
+                break;
+            case CURRENT:
+                bookings = bookingRepository.findByCurrentBookerAfterCursor(userId, LocalDateTime.now(),
+                        after.getId(), maxDuration, page);
+                break;
+            case PAST:
+                bookings = bookingRepository.findPastByBookerIdAfterCursor(userId, LocalDateTime.now(),
+                        after.getStart(), after.getId(), page);
+                break;
+            case FUTURE:
+                bookings = bookingRepository.findFutureByBookerIdAfterCursor(userId, LocalDateTime.now(),
+                        after.getStart(), after.getId(), page);
+                break;
+            default:
+                bookings = bookingRepository.findByBookerIdAndStatusAfterCursor(userId, Status.valueOf(state.toString()),
+                        after.getStart(), after.getId(), page);
+        }
+        return bookings;
+    }
+
+    @Override
+    public List<BookingOutDto> findAllOwnerBookingsByState(Long ownerId, State state, BookingCursor after, int size) {
+        getUser(ownerId);
+        List<BookingOutDto> bookings;
+        Pageable page = PageRequest.of(0, size);
+        switch (state) {
+            case ALL:
+                bookings = bookingRepository.findByOwnerIdAfterCursor(ownerId, after.getStart(), after.getId(), page);
+                break;
+            case CURRENT:
+                bookings = bookingRepository.findByOwnerCurrentBookerAfterCursor(ownerId, LocalDateTime.now(),
+                        after.getId(), maxDuration, page);
+                break;
+            case PAST:
+                bookings = bookingRepository.findPastByOwnerIdAfterCursor(ownerId, LocalDateTime.now(),
+                        after.getStart(), after.getId(), page);
+                break;
+            case FUTURE:
+                bookings = bookingRepository.findFutureByOwnerIdAfterCursor(ownerId, LocalDateTime.now(),
+                        after.getStart(), after.getId(), page);
+                break;
+            default:
+                bookings = bookingRepository.findByOwnerIdAndStatusAfterCursor(ownerId,
+                        Status.valueOf(state.toString()), after.getStart(), after.getId(), page);
+        }
+        return bookings;
+    }
+
+    @Override
+    public List<BookingOutDto> findAllBookingsOfItem(Long ownerId, Long itemId, LocalDateTime from, LocalDateTime to,
+                                                     BookingCursor after, int size) {
+        BookingCursor cursor = getItemWindowCursor(ownerId, itemId, from, to, after);
+        return bookingRepository.findByItemIdInWindowAfterCursor(itemId, from, to, cursor.getStart(), cursor.getId(),
+                PageRequest.of(0, size));
+    }
+
+    @Override
+    public List<BookingSlot> findBookingSlotsOfItem(Long ownerId, Long itemId, LocalDateTime from, LocalDateTime to,
+                                                    BookingCursor after, int size) {
+        BookingCursor cursor = getItemWindowCursor(ownerId, itemId, from, to, after);
+        return bookingRepository.findSlotsByItemIdInWindowAfterCursor(itemId, from, to, cursor.getStart(),
+                cursor.getId(), PageRequest.of(0, size));
+    }
+
+    @Override
+    public List<BookingOutDto> findArchivedBookings(Long userId, int from, int size) {
+        getUser(userId);
+        return bookingHistoryRepository.findByBookerId(userId, makePageSortedByStartTime(from / size, size));
+    }
+
+    @Override
+    public List<BookingOutDto> findArchivedOwnerBookings(Long ownerId, int from, int size) {
+        getUser(ownerId);
+        return bookingHistoryRepository.findByOwnerId(ownerId, makePageSortedByStartTime(from / size, size));
+    }
+
+    @Override
+    public Map<State, Long> getBookingsSummary(Long userId) {
+        return bookingSummaryCache.get(userId, false, () -> {
+            getUser(userId);
+            return BookingMapper.mapToStateSummary(
+                    bookingRepository.countByBookerIdGroupByState(userId, LocalDateTime.now()));
+        });
+    }
+
+    @Override
+    public Map<State, Long> getOwnerBookingsSummary(Long ownerId) {
+        return bookingSummaryCache.get(ownerId, true, () -> {
+            getUser(ownerId);
+            return BookingMapper.mapToStateSummary(
+                    bookingRepository.countByOwnerIdGroupByState(ownerId, LocalDateTime.now()));
+        });
+    }
+
+    @Override
+    public StreamingResponseBody exportOwnerBookings(Long ownerId, BookingExportFormat format) {
+        //Пользователь проверяется до начала выгрузки, пока ответ еще можно вернуть с ошибкой
+        getUser(ownerId);
+        return out -> bookingExporter.exportByOwnerId(ownerId, format, out);
+    }
+
+    @Override
+    public SseEmitter subscribeToBookingEvents(Long userId) {
+        getUser(userId);
+        return bookingStreamHub.subscribe(userId);
+    }
+
+    private BookingOutDto insertBooking(BookingInDto bookingDto, Item item, User user) {
+        bookingDto.setStatus(Status.WAITING);
+        Booking booking = BookingMapper.mapToBooking(bookingDto, item, user);
+        Booking savedBooking;
+        try {
+            //id генерируется базой (IDENTITY), поэтому insert и проверка ограничения выполняются сразу в save
+            savedBooking = bookingRepository.save(booking);
+        } catch (DataIntegrityViolationException e) {
+            throw mapConstraintViolation(e);
+        }
+        bookingOutbox.record(List.of(savedBooking.getId()));
+        bookingTimeline.indexOnCommit(BookingMapper.mapToBookingSlot(savedBooking));
+        bookingSummaryCache.evictOnCommit(savedBooking.getBooker().getId(), savedBooking.getItem().getOwner().getId());
+        return BookingMapper.mapToBookingOutDto(savedBooking);
+    }
+
+    //Повторения идут по возрастанию начала и имеют ту же длительность, что и первое
+    private List<BookingInDto> expandOccurrences(BookingInDto bookingDto) {
+        BookingRecurrenceDto recurrence = bookingDto.getRecurrence();
+        if (recurrence == null) {
+            throw new BookingBadRequestException("Не задано правило повторения бронирования");
+        }
+        if ((recurrence.getCount() == null) == (recurrence.getUntil() == null)) {
+            throw new BookingBadRequestException("Правило повторения должно задавать либо count, либо until");
+        }
+        Duration duration = Duration.between(bookingDto.getStart(), bookingDto.getEnd());
+        List<BookingInDto> occurrences = new ArrayList<>();
+        for (long step = 0; ; step++) {
+            LocalDateTime start = recurrence.getFrequency().shift(bookingDto.getStart(), step * recurrence.getInterval());
+            if ((recurrence.getCount() != null && step >= recurrence.getCount())
+                    || (recurrence.getUntil() != null && start.toLocalDate().isAfter(recurrence.getUntil()))) {
+                break;
+            }
+            if (occurrences.size() == MAX_OCCURRENCES) {
+                throw new BookingBadRequestException("Повторяющееся бронирование не может содержать больше "
+                        + MAX_OCCURRENCES + " повторений");
+            }
+            if (!occurrences.isEmpty() && occurrences.get(occurrences.size() - 1).getEnd().isAfter(start)) {
+                throw new BookingBadRequestException("Повторения бронирования не должны пересекаться друг с другом");
+            }
+            BookingInDto occurrence = new BookingInDto();
+            occurrence.setItemId(bookingDto.getItemId());
+            occurrence.setBookerId(bookingDto.getBookerId());
+            occurrence.setStart(start);
+            occurrence.setEnd(start.plus(duration));
+            occurrences.add(occurrence);
+        }
+        if (occurrences.isEmpty()) {
+            throw new BookingBadRequestException("Правило повторения не дает ни одного бронирования");
+        }
+        return occurrences;
     }
 
     private User getUser(Long userId) {
@@ -161,12 +593,72 @@ public class BookingServiceImpl implements BookingService {
                 .orElseThrow(() -> new ContentNotFountException("Вещи с id = " + itemId + " не существует"));
     }
 
+    //Проверяет окно и доступ к вещи. Без курсора выдача начинается с самого раннего начала,
+    //при котором бронирование еще может пересекать окно
+    private BookingCursor getItemWindowCursor(Long ownerId, Long itemId, LocalDateTime from, LocalDateTime to,
+                                              BookingCursor after) {
+        if (!from.isBefore(to)) {
+            throw new BookingBadRequestException("Начало окна должно быть раньше его конца");
+        }
+        Item item = getItem(itemId);
+        if (!Objects.equals(item.getOwner().getId(), ownerId)) {
+            throw new ContentNotFountException("Бронирования вещи может просматривать только ее владелец");
+        }
+        return after != null ? after : new BookingCursor(from.minus(maxDuration), 0L);
+    }
+
     private Booking getBooking(Long bookingId) {
         return bookingRepository.findById(bookingId)
                 .orElseThrow(() -> new ContentNotFountException("Бранирования с id = " + bookingId + " не существует"));
     }
 
+    //С ограничением исключения пересечение отклоняет сама вставка или обновление статуса (см. mapConstraintViolation),
+    //без него интервал проверяется запросом под блокировкой строки вещи
+    private void checkNotBooked(Long itemId, LocalDateTime start, LocalDateTime end) {
+        if (overlapConstraint) {
+            return;
+        }
+        itemRepository.findLockedById(itemId);
+        if (!bookingRepository.findTimeCrossingBookings(itemId, start, end, maxDuration).isEmpty()) {
+            throw new ContentNotFountException(ALREADY_BOOKED_MESSAGE);
+        }
+    }
+
+    private void checkBookingAllowed(BookingInDto bookingDto, Item item) {
+        if (item.getOwner().getId().equals(bookingDto.getBookerId())) {
+            throw new ContentNotFountException("Вледелец вещи не может ее забронировать");
+        }
+        if (!item.getAvailable()) {
+            throw new BookingBadRequestException("Данная вещь недоступна для бранирования");
+        }
+        if (bookingDto.getStart().isAfter(bookingDto.getEnd())
+                || bookingDto.getStart().isEqual(bookingDto.getEnd())) {
+            throw new BookingBadRequestException("Время начала бронирования не может быть позже либо равным времени его окончания");
+        }
+        if (Duration.between(bookingDto.getStart(), bookingDto.getEnd()).compareTo(maxDuration) > 0) {
+            throw new BookingBadRequestException("Бронирование не может длиться дольше "
+                    + maxDuration.toDays() + " дней");
+        }
+    }
+
+    private RuntimeException mapConstraintViolation(DataIntegrityViolationException e) {
+        String message = e.getMostSpecificCause().getMessage();
+        if (message == null) {
+            return e;
+        }
+        if (message.contains(OVERLAP_CONSTRAINT)) {
+            return new ContentNotFountException(ALREADY_BOOKED_MESSAGE);
+        }
+        //H2 приводит имена ограничений к верхнему регистру
+        if (message.toLowerCase(Locale.ROOT).contains(MAX_DURATION_CONSTRAINT)) {
+            return new BookingBadRequestException("Бронирование не может длиться дольше "
+                    + STORED_MAX_DURATION.toDays() + " дней");
+        }
+        return e;
+    }
+
     private PageRequest makePageSortedByStartTime(int from, int size) {
-        return PageRequest.of(from, size, Sort.by("start").descending());
+        //id как второй ключ сортировки делает порядок однозначным и совместимым с keyset-курсором
+        return PageRequest.of(from, size, Sort.by("start").descending().and(Sort.by("id").descending()));
     }
 }
@@ -0,0 +1,27 @@
+package ru.practicum.shareit.booking;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+//Облегченное представление бронирования: только то, что нужно для проверки пересечений и поиска last/next
+@ToString
+@Getter
+@EqualsAndHashCode
+@AllArgsConstructor
+public class BookingSlot {
+    private final Long id;
+
+    private final Long itemId;
+
+    private final Long bookerId;
+
+    private final LocalDateTime start;
+
+    private final LocalDateTime end;
+
+    private final Status status;
+}
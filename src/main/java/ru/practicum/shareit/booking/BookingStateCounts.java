@@ -0,0 +1,16 @@
+package ru.practicum.shareit.booking;
+
+//Количество бронирований пользователя в разрезе состояний, считается одним агрегирующим запросом
+public interface BookingStateCounts {
+    long getAllCount();
+
+    long getCurrentCount();
+
+    long getPastCount();
+
+    long getFutureCount();
+
+    long getWaitingCount();
+
+    long getRejectedCount();
+}
@@ -0,0 +1,314 @@
+package ru.practicum.shareit.booking;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.practicum.shareit.exceptions.SubscriptionLimitException;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Раздает события бронирований подпискам GET /bookings/stream этого экземпляра: автору бронирования и владельцу вещи.
+ * События приходят от BookingStreamRelay, который читает общий для всех экземпляров журнал.
+ * Подписка без событий не занимает поток: это асинхронный запрос и пустая очередь.
+ * Отправкой занимается небольшой общий пул, причем у каждой подписки в пуле не больше одной задачи.
+ * Если клиент не успевает читать, очередь подписки ограничена shareit.booking.stream.buffer-size,
+ * и при переполнении отбрасывается самое старое событие. Клиент узнает пропуск по id событий
+ * и может перечитать бронирование.
+ * Запись в соединение блокирующая, поэтому подписка, отправка которой идет дольше shareit.booking.stream.send-timeout,
+ * отключается, а вместо занятого ею потока пул получает новый, но вырастает не больше чем вдвое.
+ * Сама зависшая запись завершается по таймауту записи контейнера, после чего лишний поток уходит.
+ */
+@Slf4j
+@Component
+public class BookingStreamHub {
+    static final String DROPPED_METRIC = "shareit.booking.stream.dropped";
+    static final String EVICTED_METRIC = "shareit.booking.stream.evicted";
+    static final String SUBSCRIBERS_METRIC = "shareit.booking.stream.subscribers";
+
+    private static final String EVENT_NAME = "booking";
+    private static final Object HEARTBEAT = new Object();
+
+    private final Map<Long, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private final Executor sender;
+
+    private final int bufferSize;
+
+    private final int maxSubscribers;
+
+    private final Duration timeout;
+
+    private final Duration sendTimeout;
+
+    private final Counter dropped;
+
+    private final Counter evicted;
+
+    private final int baseSenders;
+
+    //Защищено монитором хаба
+    private int extraSenders;
+
+    @Autowired
+    public BookingStreamHub(@Value("${shareit.booking.stream.sender-threads:2}") int senderThreads,
+                            @Value("${shareit.booking.stream.buffer-size:32}") int bufferSize,
+                            @Value("${shareit.booking.stream.max-subscribers:10000}") int maxSubscribers,
+                            @Value("${shareit.booking.stream.timeout:30m}") Duration timeout,
+                            @Value("${shareit.booking.stream.send-timeout:10s}") Duration sendTimeout,
+                            MeterRegistry meterRegistry) {
+        this(Executors.newFixedThreadPool(senderThreads, new CustomizableThreadFactory("booking-stream-")),
+                bufferSize, maxSubscribers, timeout, sendTimeout, meterRegistry);
+    }
+
+    BookingStreamHub(Executor sender, int bufferSize, int maxSubscribers, Duration timeout, Duration sendTimeout,
+                     MeterRegistry meterRegistry) {
+        this.sender = sender;
+        this.bufferSize = bufferSize;
+        this.maxSubscribers = maxSubscribers;
+        this.timeout = timeout;
+        this.sendTimeout = sendTimeout;
+        this.baseSenders = sender instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) sender).getCorePoolSize() : 0;
+        this.dropped = meterRegistry.counter(DROPPED_METRIC);
+        this.evicted = meterRegistry.counter(EVICTED_METRIC);
+        meterRegistry.gauge(SUBSCRIBERS_METRIC, subscriberCount);
+    }
+
+    public SseEmitter subscribe(Long userId) {
+        return subscribe(userId, new SseEmitter(timeout.toMillis()));
+    }
+
+    SseEmitter subscribe(Long userId, SseEmitter emitter) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new SubscriptionLimitException("Слишком много подписок на события бронирований, повторите позже");
+        }
+        Subscriber subscriber = new Subscriber(userId, emitter);
+        subscribers.compute(userId, (id, userSubscribers) -> {
+            Set<Subscriber> updated = userSubscribers != null ? userSubscribers : ConcurrentHashMap.newKeySet();
+            updated.add(subscriber);
+            return updated;
+        });
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        return emitter;
+    }
+
+    //Только раскладывает событие по очередям и никогда не бросает исключений
+    public void dispatch(BookingEvent event) {
+        offer(event.getBookerId(), event);
+        if (!event.getOwnerId().equals(event.getBookerId())) {
+            offer(event.getOwnerId(), event);
+        }
+    }
+
+    //Комментарий в пустой поток не дает прокси закрыть соединение и выявляет ушедших клиентов
+    @Scheduled(fixedDelayString = "${shareit.booking.stream.heartbeat-ms:30000}")
+    public void heartbeat() {
+        subscribers.values().forEach(userSubscribers -> userSubscribers.forEach(Subscriber::offerHeartbeat));
+    }
+
+    @Scheduled(fixedDelayString = "${shareit.booking.stream.send-check-ms:1000}")
+    public void evictStalled() {
+        long now = System.nanoTime();
+        subscribers.values().forEach(userSubscribers ->
+                userSubscribers.forEach(subscriber -> subscriber.evictIfStalled(now)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sender instanceof ExecutorService) {
+            ((ExecutorService) sender).shutdownNow();
+        }
+    }
+
+    int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    private void offer(Long userId, BookingEvent event) {
+        Set<Subscriber> userSubscribers = subscribers.get(userId);
+        if (userSubscribers != null) {
+            userSubscribers.forEach(subscriber -> subscriber.offer(event));
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        if (!subscriber.closed.compareAndSet(false, true)) {
+            return;
+        }
+        subscriberCount.decrementAndGet();
+        subscribers.computeIfPresent(subscriber.userId, (id, userSubscribers) -> {
+            userSubscribers.remove(subscriber);
+            return userSubscribers.isEmpty() ? null : userSubscribers;
+        });
+    }
+
+    private synchronized boolean addSender() {
+        if (extraSenders >= baseSenders) {
+            return false;
+        }
+        extraSenders++;
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) sender;
+        pool.setMaximumPoolSize(pool.getMaximumPoolSize() + 1);
+        pool.setCorePoolSize(pool.getCorePoolSize() + 1);
+        return true;
+    }
+
+    private synchronized void releaseSender() {
+        extraSenders--;
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) sender;
+        pool.setCorePoolSize(pool.getCorePoolSize() - 1);
+        pool.setMaximumPoolSize(pool.getMaximumPoolSize() - 1);
+    }
+
+    private class Subscriber {
+        private final Long userId;
+
+        private final SseEmitter emitter;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        //Защищены монитором подписки
+        private final Deque<Object> buffer = new ArrayDeque<>();
+
+        private boolean scheduled;
+
+        private boolean sending;
+
+        private long sendStartedNanos;
+
+        private boolean stalled;
+
+        //Пул получил поток взамен занятого зависшей отправкой
+        private boolean replaced;
+
+        Subscriber(Long userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+        }
+
+        void offer(BookingEvent event) {
+            synchronized (this) {
+                if (buffer.size() >= bufferSize) {
+                    buffer.pollFirst();
+                    dropped.increment();
+                }
+                buffer.addLast(event);
+                if (!schedule()) {
+                    return;
+                }
+            }
+            sender.execute(this::drain);
+        }
+
+        void offerHeartbeat() {
+            synchronized (this) {
+                if (!buffer.isEmpty()) {
+                    return;
+                }
+                buffer.addLast(HEARTBEAT);
+                if (!schedule()) {
+                    return;
+                }
+            }
+            sender.execute(this::drain);
+        }
+
+        private boolean schedule() {
+            if (scheduled) {
+                return false;
+            }
+            scheduled = true;
+            return true;
+        }
+
+        private void drain() {
+            while (true) {
+                Object message;
+                synchronized (this) {
+                    message = buffer.pollFirst();
+                    if (message == null || closed.get()) {
+                        buffer.clear();
+                        scheduled = false;
+                        return;
+                    }
+                    sending = true;
+                    sendStartedNanos = System.nanoTime();
+                }
+                try {
+                    emitter.send(toSseEvent(message));
+                } catch (IOException | IllegalStateException e) {
+                    log.debug("Подписка пользователя {} на события бронирований закрыта: {}", userId, e.getMessage());
+                    remove(this);
+                } finally {
+                    finishSend();
+                }
+            }
+        }
+
+        void evictIfStalled(long now) {
+            synchronized (this) {
+                if (!sending || stalled || now - sendStartedNanos < sendTimeout.toNanos()) {
+                    return;
+                }
+                stalled = true;
+                replaced = addSender();
+                buffer.clear();
+            }
+            log.debug("Подписка пользователя {} на события бронирований отключена: клиент не читает поток", userId);
+            evicted.increment();
+            remove(this);
+        }
+
+        private void finishSend() {
+            boolean release;
+            synchronized (this) {
+                sending = false;
+                if (!stalled) {
+                    return;
+                }
+                release = replaced;
+                replaced = false;
+            }
+            if (release) {
+                releaseSender();
+            }
+            //Если запись все же прошла, соединение закрывается, чтобы клиент переподключился
+            emitter.complete();
+        }
+
+        private SseEmitter.SseEventBuilder toSseEvent(Object message) {
+            if (message == HEARTBEAT) {
+                return SseEmitter.event().comment("heartbeat");
+            }
+            BookingEvent event = (BookingEvent) message;
+            return SseEmitter.event()
+                    .id(String.valueOf(event.getId()))
+                    .name(EVENT_NAME)
+                    .data(event, MediaType.APPLICATION_JSON);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.practicum.shareit.booking;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+//Таблица booking_stream_events: общий для всех экземпляров журнал событий для подписок GET /bookings/stream
+@Repository
+@RequiredArgsConstructor
+public class BookingStreamLog {
+    /*
+     * Событие копируется из строки outbox, которую публикатор удалит той же транзакцией после доставки.
+     * Повторная доставка после сбоя строку не дублирует.
+     */
+    private static final String INSERT_EVENT = "insert into booking_stream_events (id, booking_id, item_id, " +
+            "booker_id, owner_id, start_date, end_date, status, created_at) " +
+            "select o.id, o.booking_id, o.item_id, o.booker_id, o.owner_id, o.start_date, o.end_date, o.status, " +
+            "o.created_at " +
+            "from outbox o where o.id = :id " +
+            "and not exists (select 1 from booking_stream_events e where e.id = o.id)";
+    private static final String SELECT_SINCE = "select id, booking_id, item_id, booker_id, owner_id, start_date, " +
+            "end_date, status, created_at, published_at " +
+            "from booking_stream_events where published_at >= :since and id > :afterId " +
+            "order by id limit :limit";
+    private static final String DELETE_OLDER = "delete from booking_stream_events where published_at < :boundary";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public void append(Long eventId) {
+        jdbcTemplate.update(INSERT_EVENT, new MapSqlParameterSource("id", eventId));
+    }
+
+    public List<Entry> findSince(LocalDateTime since, Long afterId, int limit) {
+        return jdbcTemplate.query(SELECT_SINCE, new MapSqlParameterSource()
+                .addValue("since", Timestamp.valueOf(since))
+                .addValue("afterId", afterId)
+                .addValue("limit", limit), this::mapRow);
+    }
+
+    public int deleteOlderThan(LocalDateTime boundary) {
+        return jdbcTemplate.update(DELETE_OLDER, new MapSqlParameterSource("boundary", Timestamp.valueOf(boundary)));
+    }
+
+    private Entry mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new Entry(new BookingEvent(rs.getLong("id"),
+                rs.getLong("booking_id"),
+                rs.getLong("item_id"),
+                rs.getLong("booker_id"),
+                rs.getLong("owner_id"),
+                rs.getTimestamp("start_date").toLocalDateTime(),
+                rs.getTimestamp("end_date").toLocalDateTime(),
+                Status.valueOf(rs.getString("status")),
+                rs.getTimestamp("created_at").toLocalDateTime()),
+                rs.getTimestamp("published_at").toLocalDateTime());
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class Entry {
+        private final BookingEvent event;
+
+        //Время транзакции публикатора, записавшей событие в журнал
+        private final LocalDateTime publishedAt;
+    }
+}
@@ -0,0 +1,84 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Доводит события бронирований до подписок на всех экземплярах. Outbox доставляет событие только одному экземпляру,
+ * поэтому как слушатель outbox релей лишь записывает событие в общий журнал booking_stream_events,
+ * а раздачу своим подпискам через BookingStreamHub каждый экземпляр делает сам, опрашивая журнал.
+ * С выключенным публикатором outbox события попадают в журнал прямо из BookingOutbox.record.
+ * Транзакции публикаторов фиксируются не строго в порядке id событий, поэтому журнал перечитывается
+ * с запасом shareit.booking.stream.lookback до последней увиденной записи, а уже разданные события отсеиваются.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BookingStreamRelay implements BookingEventListener {
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final BookingStreamLog bookingStreamLog;
+    private final BookingStreamHub bookingStreamHub;
+
+    //Опрос идет в одном потоке планировщика, поэтому состояние курсора не синхронизируется
+    private final Map<Long, LocalDateTime> dispatched = new HashMap<>();
+
+    private LocalDateTime latestPublishedAt;
+
+    @Value("${shareit.booking.stream.poll-batch-size:500}")
+    private int batchSize;
+
+    @Value("${shareit.booking.stream.lookback:30s}")
+    private Duration lookback;
+
+    @Value("${shareit.booking.stream.retention:10m}")
+    private Duration retention;
+
+    @Override
+    public void onEvent(BookingEvent event) {
+        bookingStreamLog.append(event.getId());
+    }
+
+    @Scheduled(fixedDelayString = "${shareit.booking.stream.poll-ms:1000}")
+    public void poll() {
+        LocalDateTime since = latestPublishedAt == null ? EPOCH : latestPublishedAt.minus(lookback);
+        long afterId = 0;
+        List<BookingStreamLog.Entry> entries;
+        do {
+            entries = bookingStreamLog.findSince(since, afterId, batchSize);
+            for (BookingStreamLog.Entry entry : entries) {
+                BookingEvent event = entry.getEvent();
+                afterId = event.getId();
+                if (latestPublishedAt == null || entry.getPublishedAt().isAfter(latestPublishedAt)) {
+                    latestPublishedAt = entry.getPublishedAt();
+                }
+                if (dispatched.putIfAbsent(event.getId(), entry.getPublishedAt()) == null) {
+                    bookingStreamHub.dispatch(event);
+                }
+            }
+        } while (entries.size() == batchSize);
+        //Записи старше окна следующий опрос уже не прочитает, помнить их не нужно
+        if (latestPublishedAt != null) {
+            LocalDateTime boundary = latestPublishedAt.minus(lookback);
+            dispatched.values().removeIf(publishedAt -> publishedAt.isBefore(boundary));
+        }
+    }
+
+    //Удаление идемпотентно, поэтому его может выполнять каждый экземпляр
+    @Scheduled(fixedDelayString = "${shareit.booking.stream.purge-ms:60000}")
+    public void purge() {
+        int deleted = bookingStreamLog.deleteOlderThan(LocalDateTime.now().minus(retention));
+        if (deleted > 0) {
+            log.debug("Удалено событий из журнала подписок: {}", deleted);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ru.practicum.shareit.booking;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.shareit.util.AfterCommit;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/*
+ * Короткоживущий кэш счетчиков бронирований по состояниям.
+ * Хранится отдельно для пользователя как автора бронирований и как владельца вещей.
+ * Записи сбрасываются после фиксации транзакции, изменившей бронирования пользователя,
+ * а в остальных случаях живут не дольше shareit.booking.summary-ttl.
+ */
+@Component
+public class BookingSummaryCache {
+    //При таком размере из кэша вычищаются просроченные записи, чтобы он не рос бесконечно
+    private static final int PURGE_THRESHOLD = 10_000;
+
+    private final Duration ttl;
+
+    private final Clock clock;
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    @Autowired
+    public BookingSummaryCache(@Value("${shareit.booking.summary-ttl:30s}") Duration ttl) {
+        this(ttl, Clock.systemUTC());
+    }
+
+    BookingSummaryCache(Duration ttl, Clock clock) {
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    public Map<State, Long> get(Long userId, boolean owner, Supplier<Map<State, Long>> loader) {
+        Key key = new Key(userId, owner);
+        Instant now = clock.instant();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt.isAfter(now)) {
+            return entry.counts;
+        }
+        Map<State, Long> counts = loader.get();
+        if (entries.size() >= PURGE_THRESHOLD) {
+            entries.values().removeIf(e -> !e.expiresAt.isAfter(now));
+        }
+        entries.put(key, new Entry(counts, now.plus(ttl)));
+        return counts;
+    }
+
+    public void evict(Long userId) {
+        entries.remove(new Key(userId, false));
+        entries.remove(new Key(userId, true));
+    }
+
+    //Сброс после фиксации, чтобы параллельный запрос не успел закэшировать счетчики до изменения
+    public void evictOnCommit(Long bookerId, Long ownerId) {
+        AfterCommit.run(() -> {
+            evict(bookerId);
+            evict(ownerId);
+        });
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class Key {
+        private final Long userId;
+
+        private final boolean owner;
+    }
+
+    @AllArgsConstructor
+    private static class Entry {
+        private final Map<State, Long> counts;
+
+        private final Instant expiresAt;
+    }
+}
@@ -0,0 +1,163 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.shareit.util.AfterCommit;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+
+/*
+ * Индекс бронирований по вещам, который живет в памяти приложения.
+ * Для каждой вещи хранится упорядоченное по (start, id) множество
+ * блокирующих бронирований (WAITING и APPROVED).
+ * Допуск бронирований не дает блокирующим интервалам пересекаться,
+ * поэтому для проверки пересечения достаточно посмотреть на ближайший интервал,
+ * начинающийся раньше конца запрошенного.
+ * Дополнительно по дням хранится битовая карта вещей, занятых блокирующими бронированиями,
+ * чтобы отбирать свободные в период вещи без обхода их интервалов.
+ * Индекс видит только изменения, зафиксированные этим экземпляром приложения,
+ * поэтому в допуске бронирований он не участвует: пересечения проверяет база.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BookingTimeline {
+    private static final Comparator<BookingSlot> BY_START_AND_ID = Comparator
+            .comparing(BookingSlot::getStart)
+            .thenComparing(BookingSlot::getId);
+    static final int WARM_UP_BATCH_SIZE = 1000;
+
+    private final BookingRepository bookingRepository;
+
+    private final Map<Long, ItemTimeline> timelines = new ConcurrentHashMap<>();
+
+    private final DailyOccupancy occupancy = new DailyOccupancy();
+
+    @Value("${shareit.booking.max-duration:90d}")
+    private Duration maxDuration;
+
+    //Закончившиеся бронирования индексу не нужны, их все равно снимает compact.
+    //Незакончившиеся читаются порциями, чтобы прогрев не держал в памяти всю выборку сразу
+    @PostConstruct
+    public void warmUp() {
+        LocalDateTime now = LocalDateTime.now();
+        PageRequest batch = PageRequest.of(0, WARM_UP_BATCH_SIZE);
+        LocalDateTime cursorStart = now.minus(maxDuration);
+        Long cursorId = 0L;
+        int total = 0;
+        List<BookingSlot> slots;
+        do {
+            slots = bookingRepository.findUnfinishedBlockingSlotsAfterCursor(now, cursorStart, cursorId, batch);
+            slots.forEach(this::index);
+            total += slots.size();
+            if (!slots.isEmpty()) {
+                BookingSlot last = slots.get(slots.size() - 1);
+                cursorStart = last.getStart();
+                cursorId = last.getId();
+            }
+        } while (slots.size() == WARM_UP_BATCH_SIZE);
+        log.info("Индекс бронирований прогрет, загружено бронирований: {}", total);
+    }
+
+    public boolean hasOverlap(Long itemId, LocalDateTime start, LocalDateTime end) {
+        ItemTimeline timeline = timelines.get(itemId);
+        if (timeline == null) {
+            return false;
+        }
+        BookingSlot candidate = timeline.blocking.lower(probe(end));
+        return candidate != null && candidate.getEnd().isAfter(start);
+    }
+
+    /*
+     * Вещи, занятые в дни, целиком попадающие в период, берутся прямо из карт занятости.
+     * Для первого и последнего неполного дня пересечение с периодом проверяется по интервалам вещи.
+     */
+    public Roaring64NavigableMap findBusyItems(LocalDateTime start, LocalDateTime end) {
+        Roaring64NavigableMap busy = new Roaring64NavigableMap();
+        Roaring64NavigableMap candidates = new Roaring64NavigableMap();
+        occupancy.collect(start, end, busy, candidates);
+        candidates.andNot(busy);
+        candidates.forEach(itemId -> {
+            if (hasOverlap(itemId, start, end)) {
+                busy.addLong(itemId);
+            }
+        });
+        return busy;
+    }
+
+    public void index(BookingSlot slot) {
+        ItemTimeline timeline = timelines.computeIfAbsent(slot.getItemId(), id -> new ItemTimeline());
+        //Блокировка нужна, чтобы освобождение дня не разошлось с параллельным занятием той же вещи
+        synchronized (timeline) {
+            boolean wasBlocking = timeline.blocking.remove(slot);
+            if (slot.getStatus() == Status.WAITING || slot.getStatus() == Status.APPROVED) {
+                timeline.blocking.add(slot);
+                occupancy.occupy(slot.getItemId(), slot.getStart(), slot.getEnd());
+            } else if (wasBlocking) {
+                release(slot);
+            }
+        }
+    }
+
+    //Изменения применяются к индексу только после фиксации транзакции, чтобы откаченные бронирования в него не попадали
+    public void indexOnCommit(BookingSlot slot) {
+        AfterCommit.run(() -> index(slot));
+    }
+
+    /*
+     * Закончившиеся бронирования больше не участвуют в проверке пересечений: они снимаются с индекса
+     * вместе с их днями в картах занятости.
+     */
+    @Scheduled(cron = "${shareit.booking.occupancy.prune-cron:0 5 0 * * *}")
+    public void compact() {
+        LocalDateTime now = LocalDateTime.now();
+        int removed = 0;
+        for (ItemTimeline timeline : timelines.values()) {
+            synchronized (timeline) {
+                List<BookingSlot> finished = timeline.blocking.stream()
+                        .takeWhile(slot -> slot.getStart().isBefore(now))
+                        .filter(slot -> !slot.getEnd().isAfter(now))
+                        .collect(Collectors.toList());
+                finished.forEach(timeline.blocking::remove);
+                finished.forEach(this::release);
+                removed += finished.size();
+            }
+        }
+        //Прошедшие дни в поиске свободных вещей не участвуют
+        occupancy.pruneBefore(now.toLocalDate());
+        log.info("Индекс бронирований сжат, снято закончившихся бронирований: {}", removed);
+    }
+
+    //День освобождается, только если на него не приходится другое блокирующее бронирование вещи
+    private void release(BookingSlot slot) {
+        LocalDate lastDay = DailyOccupancy.lastDay(slot.getStart(), slot.getEnd());
+        for (LocalDate day = slot.getStart().toLocalDate(); !day.isAfter(lastDay); day = day.plusDays(1)) {
+            if (!hasOverlap(slot.getItemId(), day.atStartOfDay(), day.plusDays(1).atStartOfDay())) {
+                occupancy.release(slot.getItemId(), day);
+            }
+        }
+    }
+
+    private static BookingSlot probe(LocalDateTime start) {
+        return new BookingSlot(Long.MIN_VALUE, null, null, start, start, null);
+    }
+
+    private static class ItemTimeline {
+        private final NavigableSet<BookingSlot> blocking = new ConcurrentSkipListSet<>(BY_START_AND_ID);
+    }
+}
@@ -0,0 +1,91 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+//Очередь ожидания занятых интервалов вещей
+@Repository
+@RequiredArgsConstructor
+public class BookingWaitlist {
+    private static final String INSERT_ENTRY = "insert into booking_waitlist (item_id, user_id, start_date, end_date, " +
+            "created_at) values (:itemId, :userId, :start, :end, :createdAt)";
+    //Пересекающая интервал запись не может начаться раньше чем за shareit.booking.max-duration до его начала,
+    //поэтому выборка - ограниченный диапазон индекса (item_id, start_date)
+    private static final String SELECT_CANDIDATES = "select id, item_id, user_id, start_date, end_date, created_at " +
+            "from booking_waitlist " +
+            "where item_id = :itemId " +
+            "and start_date > :startFrom " +
+            "and start_date < :end " +
+            "and end_date > :start " +
+            "order by id " +
+            "limit :limit";
+    private static final String DELETE_ENTRIES = "delete from booking_waitlist where id in (:ids)";
+    private static final String DELETE_STARTED = "delete from booking_waitlist where start_date <= :now";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Value("${shareit.booking.max-duration:90d}")
+    private Duration maxDuration;
+
+    public BookingWaitlistEntry add(Long itemId, Long userId, LocalDateTime start, LocalDateTime end) {
+        LocalDateTime createdAt = LocalDateTime.now();
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(INSERT_ENTRY, new MapSqlParameterSource()
+                        .addValue("itemId", itemId)
+                        .addValue("userId", userId)
+                        .addValue("start", Timestamp.valueOf(start))
+                        .addValue("end", Timestamp.valueOf(end))
+                        .addValue("createdAt", Timestamp.valueOf(createdAt)),
+                keyHolder, new String[]{"id"});
+        return new BookingWaitlistEntry(keyHolder.getKey().longValue(), itemId, userId, start, end, createdAt);
+    }
+
+    //Записи, пересекающие интервал [start, end) и еще не начавшиеся к notStartedBy, в порядке постановки в очередь
+    public List<BookingWaitlistEntry> findCandidates(Long itemId, LocalDateTime start, LocalDateTime end,
+                                                     LocalDateTime notStartedBy, int limit) {
+        LocalDateTime startFrom = start.minus(maxDuration);
+        if (startFrom.isBefore(notStartedBy)) {
+            startFrom = notStartedBy;
+        }
+        return jdbcTemplate.query(SELECT_CANDIDATES, new MapSqlParameterSource()
+                .addValue("itemId", itemId)
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(end))
+                .addValue("startFrom", Timestamp.valueOf(startFrom))
+                .addValue("limit", limit), this::mapRow);
+    }
+
+    public void delete(Collection<Long> entryIds) {
+        if (entryIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(DELETE_ENTRIES, new MapSqlParameterSource("ids", entryIds));
+    }
+
+    //Начавшиеся интервалы забронировать уже нельзя
+    public int deleteStarted(LocalDateTime now) {
+        return jdbcTemplate.update(DELETE_STARTED, new MapSqlParameterSource("now", Timestamp.valueOf(now)));
+    }
+
+    private BookingWaitlistEntry mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new BookingWaitlistEntry(rs.getLong("id"),
+                rs.getLong("item_id"),
+                rs.getLong("user_id"),
+                rs.getTimestamp("start_date").toLocalDateTime(),
+                rs.getTimestamp("end_date").toLocalDateTime(),
+                rs.getTimestamp("created_at").toLocalDateTime());
+    }
+}
@@ -0,0 +1,27 @@
+package ru.practicum.shareit.booking;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+//Запись очереди ожидания: интервал, который пользователь хотел забронировать, пока он был занят
+@ToString
+@Getter
+@EqualsAndHashCode
+@AllArgsConstructor
+public class BookingWaitlistEntry {
+    private final Long id;
+
+    private final Long itemId;
+
+    private final Long bookerId;
+
+    private final LocalDateTime start;
+
+    private final LocalDateTime end;
+
+    private final LocalDateTime createdAt;
+}
@@ -0,0 +1,141 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.shareit.booking.dto.BookingMapper;
+import ru.practicum.shareit.item.Item;
+import ru.practicum.shareit.item.ItemRepository;
+import ru.practicum.shareit.user.UserRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+ * Создает бронирования из очереди ожидания на интервалы, освобожденные отказом владельца или просрочкой.
+ * Вызывается в транзакции, которая освободила интервалы, поэтому продвижение фиксируется вместе со сменой статуса.
+ * Очередь просматривается в порядке постановки, и каждая запись, которая больше ни с чем не пересекается,
+ * становится бронированием в статусе WAITING и ждет решения владельца как обычно.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BookingWaitlistPromoter {
+    private final BookingWaitlist bookingWaitlist;
+    private final BookingRepository bookingRepository;
+    private final BookingJdbcRepository bookingJdbcRepository;
+    private final ItemRepository itemRepository;
+    private final UserRepository userRepository;
+    private final BookingOutbox bookingOutbox;
+    private final BookingTimeline bookingTimeline;
+    private final BookingSummaryCache bookingSummaryCache;
+
+    //Сколько записей очереди рассматривается на один освобожденный интервал
+    @Value("${shareit.booking.waitlist.candidates-limit:20}")
+    private int candidatesLimit;
+
+    @Value("${shareit.booking.max-duration:90d}")
+    private Duration maxDuration;
+
+    public List<Long> promote(Collection<BookingSlot> freed) {
+        if (freed.isEmpty()) {
+            return List.of();
+        }
+        //Вещи блокируются так же, как при создании бронирования, и в порядке id, как в пакетном создании
+        Map<Long, Item> items = itemRepository.findLockedByIdIn(freed.stream()
+                        .map(BookingSlot::getItemId)
+                        .collect(Collectors.toSet())).stream()
+                .collect(Collectors.toMap(Item::getId, Function.identity()));
+        LocalDateTime now = LocalDateTime.now();
+        List<Booking> promoted = new ArrayList<>();
+        List<Long> promotedEntryIds = new ArrayList<>();
+        Map<Long, List<BookingSlot>> freedByItem = freed.stream()
+                .collect(Collectors.groupingBy(BookingSlot::getItemId));
+        for (Map.Entry<Long, List<BookingSlot>> itemFreed : freedByItem.entrySet()) {
+            Item item = items.get(itemFreed.getKey());
+            if (item == null || !item.getAvailable()) {
+                continue;
+            }
+            List<BookingWaitlistEntry> candidates = findCandidates(item.getId(), itemFreed.getValue(), now);
+            for (BookingWaitlistEntry entry : selectCompatible(item, candidates)) {
+                Booking booking = new Booking();
+                booking.setStart(entry.getStart());
+                booking.setEnd(entry.getEnd());
+                booking.setItem(item);
+                booking.setBooker(userRepository.getReferenceById(entry.getBookerId()));
+                booking.setOwnerId(item.getOwner().getId());
+                booking.setStatus(Status.WAITING);
+                promoted.add(booking);
+                promotedEntryIds.add(entry.getId());
+            }
+        }
+        if (promoted.isEmpty()) {
+            return List.of();
+        }
+        List<Long> ids = bookingJdbcRepository.insertAll(promoted);
+        bookingWaitlist.delete(promotedEntryIds);
+        bookingOutbox.record(ids);
+        for (int i = 0; i < promoted.size(); i++) {
+            Booking booking = promoted.get(i);
+            booking.setId(ids.get(i));
+            bookingTimeline.indexOnCommit(BookingMapper.mapToBookingSlot(booking));
+            bookingSummaryCache.evictOnCommit(booking.getBooker().getId(), booking.getOwnerId());
+        }
+        log.debug("Из очереди ожидания создано бронирований: {}", ids.size());
+        return ids;
+    }
+
+    //Кандидаты на все освобожденные интервалы вещи без повторов, в порядке постановки в очередь
+    private List<BookingWaitlistEntry> findCandidates(Long itemId, List<BookingSlot> freed, LocalDateTime now) {
+        Map<Long, BookingWaitlistEntry> candidates = new TreeMap<>();
+        for (BookingSlot slot : freed) {
+            bookingWaitlist.findCandidates(itemId, slot.getStart(), slot.getEnd(), now, candidatesLimit)
+                    .forEach(entry -> candidates.putIfAbsent(entry.getId(), entry));
+        }
+        return new ArrayList<>(candidates.values());
+    }
+
+    //Один запрос на пересечения в объемлющем интервале кандидатов, дальше проверка в памяти
+    private List<BookingWaitlistEntry> selectCompatible(Item item, List<BookingWaitlistEntry> candidates) {
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+        LocalDateTime minStart = candidates.stream()
+                .map(BookingWaitlistEntry::getStart)
+                .min(Comparator.naturalOrder())
+                .get();
+        LocalDateTime maxEnd = candidates.stream()
+                .map(BookingWaitlistEntry::getEnd)
+                .max(Comparator.naturalOrder())
+                .get();
+        List<BookingSlot> occupied = new ArrayList<>(
+                bookingRepository.findTimeCrossingSlotsOfItems(List.of(item.getId()), minStart, maxEnd, maxDuration));
+        List<BookingWaitlistEntry> compatible = new ArrayList<>();
+        for (BookingWaitlistEntry entry : candidates) {
+            //Вещь могла сменить владельца после постановки в очередь
+            if (entry.getBookerId().equals(item.getOwner().getId())) {
+                continue;
+            }
+            boolean crossing = occupied.stream()
+                    .anyMatch(slot -> slot.getStart().isBefore(entry.getEnd())
+                            && slot.getEnd().isAfter(entry.getStart()));
+            if (crossing) {
+                continue;
+            }
+            //Продвинутая запись занимает интервал для следующих в очереди
+            occupied.add(new BookingSlot(null, item.getId(), entry.getBookerId(), entry.getStart(), entry.getEnd(),
+                    Status.WAITING));
+            compatible.add(entry);
+        }
+        return compatible;
+    }
+}
@@ -0,0 +1,68 @@
+package ru.practicum.shareit.booking;
+
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+ * Занятость вещей по дням: для каждого дня битовая карта id вещей,
+ * у которых на этот день приходится хотя бы одно блокирующее бронирование.
+ * Карты одного дня изменяются и читаются под блокировкой самой карты.
+ */
+class DailyOccupancy {
+    private final NavigableMap<LocalDate, Roaring64NavigableMap> busyItems = new ConcurrentSkipListMap<>();
+
+    void occupy(Long itemId, LocalDateTime start, LocalDateTime end) {
+        for (LocalDate day = start.toLocalDate(); !day.isAfter(lastDay(start, end)); day = day.plusDays(1)) {
+            Roaring64NavigableMap items = busyItems.computeIfAbsent(day, d -> new Roaring64NavigableMap());
+            synchronized (items) {
+                items.addLong(itemId);
+            }
+        }
+    }
+
+    void release(Long itemId, LocalDate day) {
+        Roaring64NavigableMap items = busyItems.get(day);
+        if (items != null) {
+            synchronized (items) {
+                items.removeLong(itemId);
+            }
+        }
+    }
+
+    /*
+     * Раскладывает вещи, занятые в дни интервала [start, end), на две карты:
+     * в whollyBusy попадают занятые в дни, целиком лежащие внутри интервала (они точно пересекаются с ним),
+     * в partlyBusy - занятые только в первый или последний неполный день (пересечение нужно проверить точно).
+     */
+    void collect(LocalDateTime start, LocalDateTime end,
+                 Roaring64NavigableMap whollyBusy, Roaring64NavigableMap partlyBusy) {
+        NavigableMap<LocalDate, Roaring64NavigableMap> days = busyItems.subMap(start.toLocalDate(), true,
+                lastDay(start, end), true);
+        for (Map.Entry<LocalDate, Roaring64NavigableMap> day : days.entrySet()) {
+            LocalDate date = day.getKey();
+            boolean wholeDay = !date.atStartOfDay().isBefore(start) && !date.plusDays(1).atStartOfDay().isAfter(end);
+            Roaring64NavigableMap items = day.getValue();
+            synchronized (items) {
+                (wholeDay ? whollyBusy : partlyBusy).or(items);
+            }
+        }
+    }
+
+    void pruneBefore(LocalDate day) {
+        busyItems.headMap(day).clear();
+    }
+
+    //Интервал полуоткрытый: бронирование, заканчивающееся ровно в полночь, следующий день не занимает
+    static LocalDate lastDay(LocalDateTime start, LocalDateTime end) {
+        LocalDate lastDay = end.toLocalDate();
+        if (end.equals(lastDay.atStartOfDay()) && lastDay.isAfter(start.toLocalDate())) {
+            return lastDay.minusDays(1);
+        }
+        return lastDay;
+    }
+}
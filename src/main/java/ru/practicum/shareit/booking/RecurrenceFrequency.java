@@ -0,0 +1,27 @@
+package ru.practicum.shareit.booking;
+
+import java.time.LocalDateTime;
+
+//Шаг повторения бронирования. Повторения отсчитываются от первого, чтобы 31-е число не сползало после февраля
+public enum RecurrenceFrequency {
+    DAILY {
+        @Override
+        LocalDateTime shift(LocalDateTime start, long steps) {
+            return start.plusDays(steps);
+        }
+    },
+    WEEKLY {
+        @Override
+        LocalDateTime shift(LocalDateTime start, long steps) {
+            return start.plusWeeks(steps);
+        }
+    },
+    MONTHLY {
+        @Override
+        LocalDateTime shift(LocalDateTime start, long steps) {
+            return start.plusMonths(steps);
+        }
+    };
+
+    abstract LocalDateTime shift(LocalDateTime start, long steps);
+}
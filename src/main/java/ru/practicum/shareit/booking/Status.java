@@ -1,5 +1,5 @@
 package ru.practicum.shareit.booking;
 
 public enum Status {
-    WAITING, APPROVED, REJECTED, CANCELED
+    WAITING, APPROVED, REJECTED, CANCELED, EXPIRED
 }
@@ -0,0 +1,17 @@
+package ru.practicum.shareit.booking.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+//Результат по одной позиции пакетного бронирования: либо созданное бронирование, либо причина отказа
+@ToString
+@Getter
+@Setter
+public class BookingBatchResultDto {
+    private int index;
+
+    private BookingOutDto booking;
+
+    private String error;
+}
@@ -5,6 +5,7 @@ import lombok.Setter;
 import lombok.ToString;
 import ru.practicum.shareit.booking.Status;
 
+import javax.validation.Valid;
 import javax.validation.constraints.Future;
 import javax.validation.constraints.NotNull;
 import java.time.LocalDateTime;
@@ -28,4 +29,8 @@ public class BookingInDto {
     private Long bookerId;
 
     private Status status;
+
+    //Задается только для POST /bookings/recurring
+    @Valid
+    private BookingRecurrenceDto recurrence;
 }
@@ -2,9 +2,19 @@ package ru.practicum.shareit.booking.dto;
 
 import lombok.experimental.UtilityClass;
 import ru.practicum.shareit.booking.Booking;
+import ru.practicum.shareit.booking.BookingField;
+import ru.practicum.shareit.booking.BookingHistory;
+import ru.practicum.shareit.booking.BookingSlot;
+import ru.practicum.shareit.booking.BookingStateCounts;
+import ru.practicum.shareit.booking.State;
 import ru.practicum.shareit.item.Item;
 import ru.practicum.shareit.user.User;
 
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
 @UtilityClass
 public class BookingMapper {
     public static BookingInDto mapToBookingInDto(Booking booking) {
@@ -23,12 +33,33 @@ public class BookingMapper {
         bookingDto.setId(booking.getId());
         bookingDto.setStart(booking.getStart());
         bookingDto.setEnd(booking.getEnd());
-        bookingDto.setItem(booking.getItem());
-        bookingDto.setBooker(booking.getBooker());
+        bookingDto.setItem(mapToItemShortDto(booking.getItem()));
+        bookingDto.setBooker(mapToBookerShortDto(booking.getBooker()));
+        bookingDto.setStatus(booking.getStatus());
+        bookingDto.setVersion(booking.getVersion());
+        return bookingDto;
+    }
+
+    public static BookingOutDto mapToBookingOutDto(BookingHistory booking) {
+        BookingOutDto bookingDto = new BookingOutDto();
+        bookingDto.setId(booking.getId());
+        bookingDto.setStart(booking.getStart());
+        bookingDto.setEnd(booking.getEnd());
+        bookingDto.setItem(mapToItemShortDto(booking.getItem()));
+        bookingDto.setBooker(mapToBookerShortDto(booking.getBooker()));
         bookingDto.setStatus(booking.getStatus());
         return bookingDto;
     }
 
+    public static ItemShortDto mapToItemShortDto(Item item) {
+        return new ItemShortDto(item.getId(), item.getName(), item.getDescription(), item.getAvailable(),
+                item.getRequestId());
+    }
+
+    public static BookerShortDto mapToBookerShortDto(User booker) {
+        return new BookerShortDto(booker.getId(), booker.getName(), booker.getEmail());
+    }
+
     public static BookingIdOutDto mapToBookingIdOutDto(Booking booking) {
         if (booking == null) return null;
         BookingIdOutDto bookingDto = new BookingIdOutDto();
@@ -41,6 +72,42 @@ public class BookingMapper {
         return bookingDto;
     }
 
+    public static BookingIdOutDto mapToBookingIdOutDto(BookingSlot slot) {
+        BookingIdOutDto bookingDto = new BookingIdOutDto();
+        bookingDto.setId(slot.getId());
+        bookingDto.setStart(slot.getStart());
+        bookingDto.setEnd(slot.getEnd());
+        bookingDto.setItemId(slot.getItemId());
+        bookingDto.setBookerId(slot.getBookerId());
+        bookingDto.setStatus(slot.getStatus());
+        return bookingDto;
+    }
+
+    public static BookingSlot mapToBookingSlot(Booking booking) {
+        return new BookingSlot(booking.getId(), booking.getItem().getId(), booking.getBooker().getId(),
+                booking.getStart(), booking.getEnd(), booking.getStatus());
+    }
+
+    //Порядок полей в ответе совпадает с порядком в BookingField, а не в запросе
+    public static Map<String, Object> mapToFields(BookingSlot slot, Set<BookingField> fields) {
+        Map<String, Object> projection = new LinkedHashMap<>();
+        for (BookingField field : fields) {
+            projection.put(field.getProperty(), field.getGetter().apply(slot));
+        }
+        return projection;
+    }
+
+    public static Map<State, Long> mapToStateSummary(BookingStateCounts counts) {
+        Map<State, Long> summary = new EnumMap<>(State.class);
+        summary.put(State.ALL, counts.getAllCount());
+        summary.put(State.CURRENT, counts.getCurrentCount());
+        summary.put(State.PAST, counts.getPastCount());
+        summary.put(State.FUTURE, counts.getFutureCount());
+        summary.put(State.WAITING, counts.getWaitingCount());
+        summary.put(State.REJECTED, counts.getRejectedCount());
+        return summary;
+    }
+
     public static Booking mapToBooking(BookingInDto bookingDto, Item item, User owner) {
         Booking booking = new Booking();
         booking.setId(bookingDto.getId());
@@ -48,6 +115,7 @@ public class BookingMapper {
         booking.setEnd(bookingDto.getEnd());
         booking.setItem(item);
         booking.setBooker(owner);
+        booking.setOwnerId(item.getOwner().getId());
         booking.setStatus(bookingDto.getStatus());
         return booking;
     }
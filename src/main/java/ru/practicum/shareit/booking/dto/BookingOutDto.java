@@ -1,12 +1,12 @@
 package ru.practicum.shareit.booking.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
 import ru.practicum.shareit.booking.Status;
-import ru.practicum.shareit.item.Item;
-import ru.practicum.shareit.user.User;
 
 import java.time.LocalDateTime;
 
@@ -14,6 +14,7 @@ import java.time.LocalDateTime;
 @EqualsAndHashCode
 @Getter
 @Setter
+@NoArgsConstructor
 public class BookingOutDto {
     private Long id;
 
@@ -21,9 +22,26 @@ public class BookingOutDto {
 
     private LocalDateTime end;
 
-    private Item item;
+    private ItemShortDto item;
 
-    private User booker;
+    private BookerShortDto booker;
 
     private Status status;
+
+    //Версия передается только заголовком ETag, в списках не заполняется
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private Long version;
+
+    //Конструктор для выражения select new в запросах BookingRepository: поля вещи и автора передаются плоским списком
+    public BookingOutDto(Long id, LocalDateTime start, LocalDateTime end, Status status,
+                         Long itemId, String itemName, String itemDescription, Boolean itemAvailable,
+                         Long itemRequestId, Long bookerId, String bookerName, String bookerEmail) {
+        this.id = id;
+        this.start = start;
+        this.end = end;
+        this.status = status;
+        this.item = new ItemShortDto(itemId, itemName, itemDescription, itemAvailable, itemRequestId);
+        this.booker = new BookerShortDto(bookerId, bookerName, bookerEmail);
+    }
 }
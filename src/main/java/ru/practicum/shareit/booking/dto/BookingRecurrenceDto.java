@@ -0,0 +1,27 @@
+package ru.practicum.shareit.booking.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import ru.practicum.shareit.booking.RecurrenceFrequency;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.time.LocalDate;
+
+//Правило повторения: каждые interval шагов frequency, всего count раз либо пока начало не позже until
+@ToString
+@Getter
+@Setter
+public class BookingRecurrenceDto {
+    @NotNull
+    private RecurrenceFrequency frequency;
+
+    @Min(1)
+    private int interval = 1;
+
+    @Min(1)
+    private Integer count;
+
+    private LocalDate until;
+}
@@ -0,0 +1,20 @@
+package ru.practicum.shareit.booking.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import ru.practicum.shareit.booking.Status;
+
+import java.util.List;
+
+@ToString
+@Getter
+@Setter
+public class BookingStatusBatchResultDto {
+    private Status status;
+
+    private List<Long> updated;
+
+    //Не найденные, чужие и уже рассмотренные бронирования
+    private List<Long> skipped;
+}
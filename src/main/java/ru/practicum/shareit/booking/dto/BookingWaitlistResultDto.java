@@ -0,0 +1,16 @@
+package ru.practicum.shareit.booking.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import ru.practicum.shareit.booking.BookingWaitlistEntry;
+
+//Результат бронирования с постановкой в очередь: либо созданное бронирование, либо запись очереди ожидания
+@ToString
+@Getter
+@Setter
+public class BookingWaitlistResultDto {
+    private BookingOutDto booking;
+
+    private BookingWaitlistEntry waitlistEntry;
+}
@@ -0,0 +1,27 @@
+package ru.practicum.shareit.booking.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+//Вещь в ответе с бронированием: поля вещи без владельца
+@ToString
+@EqualsAndHashCode
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ItemShortDto {
+    private Long id;
+
+    private String name;
+
+    private String description;
+
+    private Boolean available;
+
+    private Long requestId;
+}
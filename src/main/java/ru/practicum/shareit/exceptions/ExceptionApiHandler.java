@@ -61,6 +61,18 @@ public class ExceptionApiHandler {
         return Map.of("error", exception.getMessage());
     }
 
+    @ExceptionHandler(PreconditionFailedException.class)
+    @ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+    public Map<String, String> handleException(PreconditionFailedException exception) {
+        return Map.of("error", exception.getMessage());
+    }
+
+    @ExceptionHandler(SubscriptionLimitException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public Map<String, String> handleException(SubscriptionLimitException exception) {
+        return Map.of("error", exception.getMessage());
+    }
+
     @ExceptionHandler(ConstraintViolationException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public Map<String, String> handleException(ConstraintViolationException exception) {
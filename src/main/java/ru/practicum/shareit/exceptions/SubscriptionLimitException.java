@@ -0,0 +1,7 @@
+package ru.practicum.shareit.exceptions;
+
+public class SubscriptionLimitException extends RuntimeException {
+    public SubscriptionLimitException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,19 @@
+package ru.practicum.shareit.idempotency;
+
+import java.util.Optional;
+
+/*
+ * Хранилище ответов по ключам идемпотентности.
+ * acquire либо закрепляет ключ за вызывающим (пустой результат - запрос нужно выполнить и вызвать complete или release),
+ * либо возвращает сохраненный ответ. Пока запрос с тем же ключом выполняется, acquire ждет его завершения,
+ * а по истечении ожидания бросает IdempotencyConflictException.
+ * Ключ запоминает хеш тела первого запроса: для запроса с другим телом acquire бросает IdempotencyKeyMismatchException.
+ */
+public interface IdempotencyStore {
+    Optional<StoredResponse> acquire(String key, String requestHash);
+
+    void complete(String key, StoredResponse response);
+
+    //Ключ освобождается без ответа, если запрос упал: повтор выполнит его заново
+    void release(String key);
+}
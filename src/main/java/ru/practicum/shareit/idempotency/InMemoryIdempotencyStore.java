@@ -0,0 +1,148 @@
+package ru.practicum.shareit.idempotency;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Хранилище ключей в памяти одного экземпляра приложения.
+ * Записи лежат в порядке создания, поэтому просроченные и лишние сверх max-entries снимаются с головы.
+ * Выполняющиеся запросы не вытесняются: если места заняты только ими, новый ключ отклоняется.
+ */
+@Component
+@ConditionalOnProperty(name = "shareit.idempotency.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryIdempotencyStore implements IdempotencyStore {
+    private final Duration ttl;
+
+    private final Duration waitTimeout;
+
+    private final int maxEntries;
+
+    private final Clock clock;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    @Autowired
+    public InMemoryIdempotencyStore(@Value("${shareit.idempotency.ttl:24h}") Duration ttl,
+                                    @Value("${shareit.idempotency.wait-timeout:30s}") Duration waitTimeout,
+                                    @Value("${shareit.idempotency.max-entries:10000}") int maxEntries) {
+        this(ttl, waitTimeout, maxEntries, Clock.systemUTC());
+    }
+
+    InMemoryIdempotencyStore(Duration ttl, Duration waitTimeout, int maxEntries, Clock clock) {
+        this.ttl = ttl;
+        this.waitTimeout = waitTimeout;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
+
+    @Override
+    public Optional<StoredResponse> acquire(String key, String requestHash) {
+        long deadline = System.nanoTime() + waitTimeout.toNanos();
+        while (true) {
+            Entry entry;
+            synchronized (entries) {
+                purge(clock.instant(), false);
+                entry = entries.get(key);
+                if (entry == null) {
+                    purge(clock.instant(), true);
+                    if (entries.size() >= maxEntries) {
+                        throw new IdempotencyStoreFullException("Слишком много выполняющихся запросов с ключами идемпотентности");
+                    }
+                    entries.put(key, new Entry(clock.instant(), requestHash));
+                    return Optional.empty();
+                }
+            }
+            if (!entry.requestHash.equals(requestHash)) {
+                throw new IdempotencyKeyMismatchException("Ключ идемпотентности уже использован с другим телом запроса");
+            }
+            StoredResponse response = await(entry, deadline - System.nanoTime());
+            if (response != null) {
+                return Optional.of(response);
+            }
+            //Первый запрос упал и освободил ключ: за него борются заново
+        }
+    }
+
+    @Override
+    public void complete(String key, StoredResponse response) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                entry.response.complete(response);
+            }
+        }
+    }
+
+    @Override
+    public void release(String key) {
+        synchronized (entries) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                entry.response.complete(null);
+            }
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /*
+     * Снимаются только записи с сохраненным ответом: ключ выполняющегося запроса остается закрепленным за ним.
+     * Сверх истекших записей самые старые вытесняются, только когда нужно место под новый ключ.
+     */
+    private void purge(Instant now, boolean makeRoom) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!entry.response.isDone()) {
+                continue;
+            }
+            if ((!makeRoom || entries.size() < maxEntries) && entry.createdAt.plus(ttl).isAfter(now)) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    private static StoredResponse await(Entry entry, long timeoutNanos) {
+        try {
+            return entry.response.get(Math.max(timeoutNanos, 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new IdempotencyConflictException("Запрос с этим ключом идемпотентности еще выполняется");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyConflictException("Ожидание запроса с этим ключом идемпотентности прервано");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static class Entry {
+        private final Instant createdAt;
+
+        private final String requestHash;
+
+        private final CompletableFuture<StoredResponse> response = new CompletableFuture<>();
+
+        private Entry(Instant createdAt, String requestHash) {
+            this.createdAt = createdAt;
+            this.requestHash = requestHash;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ru.practicum.shareit.idempotency;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/*
+ * Хранилище ключей в таблице idempotency_keys, общее для всех экземпляров приложения.
+ * Ключ закрепляется вставкой строки: первичный ключ пропускает только один запрос,
+ * остальные опрашивают строку, пока ответ не будет сохранен.
+ * Незавершенная строка держит ключ до конца аренды (lease), которая намного дольше wait-timeout:
+ * дождавшийся wait-timeout повтор получает 409, а перехватывается только строка, брошенная упавшим экземпляром.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "shareit.idempotency.store", havingValue = "jdbc")
+public class JdbcIdempotencyStore implements IdempotencyStore {
+    private static final long POLL_INTERVAL_MS = 50;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${shareit.idempotency.ttl:24h}")
+    private Duration ttl;
+
+    @Value("${shareit.idempotency.wait-timeout:30s}")
+    private Duration waitTimeout;
+
+    @Value("${shareit.idempotency.lease:10m}")
+    private Duration lease;
+
+    @Override
+    public Optional<StoredResponse> acquire(String key, String requestHash) {
+        long deadline = System.nanoTime() + waitTimeout.toNanos();
+        while (true) {
+            try {
+                LocalDateTime now = LocalDateTime.now();
+                jdbcTemplate.update("insert into idempotency_keys (idempotency_key, request_hash, created_at, " +
+                                "lease_until) values (?, ?, ?, ?)", key, requestHash, Timestamp.valueOf(now),
+                        Timestamp.valueOf(now.plus(lease)));
+                return Optional.empty();
+            } catch (DuplicateKeyException e) {
+                log.debug("Ключ идемпотентности {} уже занят", key);
+            }
+            List<KeyRow> rows = jdbcTemplate.query("select completed, status, content_type, body, request_hash, " +
+                            "created_at, lease_until from idempotency_keys where idempotency_key = ?",
+                    (rs, rowNum) -> new KeyRow(rs.getBoolean("completed"),
+                            new StoredResponse(rs.getInt("status"), rs.getString("content_type"), rs.getBytes("body")),
+                            rs.getString("request_hash"), rs.getTimestamp("created_at").toLocalDateTime(),
+                            rs.getTimestamp("lease_until").toLocalDateTime()),
+                    key);
+            if (rows.isEmpty()) {
+                continue;
+            }
+            KeyRow row = rows.get(0);
+            LocalDateTime now = LocalDateTime.now();
+            if (!(row.completed ? row.createdAt.plus(ttl) : row.leaseUntil).isAfter(now)) {
+                jdbcTemplate.update("delete from idempotency_keys where idempotency_key = ? and created_at = ?",
+                        key, Timestamp.valueOf(row.createdAt));
+                continue;
+            }
+            //Строки, сохраненные до появления хеша, сравнить не с чем
+            if (row.requestHash != null && !row.requestHash.equals(requestHash)) {
+                throw new IdempotencyKeyMismatchException("Ключ идемпотентности уже использован с другим телом запроса");
+            }
+            if (row.completed) {
+                return Optional.of(row.response);
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IdempotencyConflictException("Запрос с этим ключом идемпотентности еще выполняется");
+            }
+            sleep();
+        }
+    }
+
+    @Override
+    public void complete(String key, StoredResponse response) {
+        jdbcTemplate.update("update idempotency_keys set completed = true, status = ?, content_type = ?, body = ? " +
+                        "where idempotency_key = ?",
+                response.getStatus(), response.getContentType(), response.getBody(), key);
+    }
+
+    @Override
+    public void release(String key) {
+        jdbcTemplate.update("delete from idempotency_keys where idempotency_key = ? and completed = false", key);
+    }
+
+    @Scheduled(fixedDelayString = "${shareit.idempotency.purge-interval-ms:600000}")
+    public void purgeExpired() {
+        int purged = jdbcTemplate.update("delete from idempotency_keys where created_at < ?",
+                Timestamp.valueOf(LocalDateTime.now().minus(ttl)));
+        log.debug("Удалено просроченных ключей идемпотентности: {}", purged);
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(POLL_INTERVAL_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyConflictException("Ожидание запроса с этим ключом идемпотентности прервано");
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class KeyRow {
+        private final boolean completed;
+
+        private final StoredResponse response;
+
+        private final String requestHash;
+
+        private final LocalDateTime createdAt;
+
+        private final LocalDateTime leaseUntil;
+    }
+}
@@ -0,0 +1,15 @@
+package ru.practicum.shareit.idempotency;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+//Сохраненный ответ на запрос с ключом идемпотентности, который отдается повторам без выполнения запроса
+@Getter
+@AllArgsConstructor
+public class StoredResponse {
+    private final int status;
+
+    private final String contentType;
+
+    private final byte[] body;
+}
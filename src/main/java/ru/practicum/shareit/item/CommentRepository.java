@@ -1,11 +1,15 @@
 package ru.practicum.shareit.item;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import java.util.List;
 
 public interface CommentRepository extends JpaRepository<Comment, Long> {
+    //Автор нужен для authorName в каждом отзыве, поэтому подтягивается тем же запросом
+    @EntityGraph(attributePaths = "user")
     List<Comment> findByItemId(Long id);
 
+    @EntityGraph(attributePaths = "user")
     List<Comment> findByItemIdIn(List<Long> ids);
 }
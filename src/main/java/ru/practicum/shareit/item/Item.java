@@ -45,4 +45,9 @@ public class Item {
     @Column(name = "request_id")
     @EqualsAndHashCode.Exclude
     private Long requestId;
+
+    @Version
+    @Column(name = "version")
+    @EqualsAndHashCode.Exclude
+    private Long version;
 }
@@ -2,14 +2,23 @@ package ru.practicum.shareit.item;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import ru.practicum.shareit.exceptions.BookingBadRequestException;
 import ru.practicum.shareit.item.dto.CommentDto;
+import ru.practicum.shareit.item.dto.FreeSlotDto;
 import ru.practicum.shareit.item.dto.ItemDto;
+import ru.practicum.shareit.item.dto.ItemUtilizationDto;
 import ru.practicum.shareit.item.dto.ItemWithBookAndCommentsDto;
+import ru.practicum.shareit.util.IfMatch;
 
 import javax.validation.Valid;
 import javax.validation.constraints.Min;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Slf4j
@@ -29,20 +38,23 @@ public class ItemController {
     }
 
     @PatchMapping("/{itemId}")
-    public ItemDto patchItem(@RequestBody ItemDto itemDto,
-                             @PathVariable Long itemId,
-                             @RequestHeader("X-Sharer-User-Id") Long userId) {
+    public ResponseEntity<ItemDto> patchItem(@RequestBody ItemDto itemDto,
+                                             @PathVariable Long itemId,
+                                             @RequestHeader("X-Sharer-User-Id") Long userId,
+                                             @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         itemDto.setId(itemId);
+        itemDto.setVersion(IfMatch.parseVersion(ifMatch));
         ItemDto savedItemDto = itemService.patchItem(itemDto, userId);
         log.info("Обновлены поля у вещи с id {}", savedItemDto.getId());
-        return savedItemDto;
+        return IfMatch.withETag(savedItemDto, savedItemDto.getVersion());
     }
 
     @GetMapping("/{itemId}")
-    public ItemWithBookAndCommentsDto getItemById(@PathVariable Long itemId,
-                                                  @RequestHeader("X-Sharer-User-Id") Long userId) {
+    public ResponseEntity<ItemWithBookAndCommentsDto> getItemById(@PathVariable Long itemId,
+                                                                  @RequestHeader("X-Sharer-User-Id") Long userId) {
         log.info("Возвращена вещь с id = {}", itemId);
-        return itemService.getItemById(itemId, userId);
+        ItemWithBookAndCommentsDto itemDto = itemService.getItemById(itemId, userId);
+        return IfMatch.withETag(itemDto, itemDto.getVersion());
     }
 
     @GetMapping
@@ -56,9 +68,11 @@ public class ItemController {
     @GetMapping("/search")
     public List<ItemDto> searchItems(@RequestParam(name = "text") String text,
                                      @RequestParam(name = "from", defaultValue = "0") @Min(0) int from,
-                                     @RequestParam(name = "size", defaultValue = "10") @Min(0) int size) {
+                                     @RequestParam(name = "size", defaultValue = "10") @Min(0) int size,
+                                     @RequestParam(name = "start", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime start,
+                                     @RequestParam(name = "end", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime end) {
         log.info("Возвращен список всех вещей содеражащих в названии либо описании текст: {} ", text);
-        return itemService.searchItems(text, from, size);
+        return itemService.searchItems(text, from, size, start, end);
     }
 
     @PostMapping("/{itemId}/comment")
@@ -71,4 +85,38 @@ public class ItemController {
         log.info("Сохранен комментарий для вещи с id = {}", savedCommentDto.getItemId());
         return savedCommentDto;
     }
+
+    //Занятость вещи по дням, неделям или месяцам из заранее посчитанных счетчиков
+    @GetMapping("/{itemId}/stats")
+    public List<ItemUtilizationDto> getItemStats(@PathVariable Long itemId,
+                                                 @RequestHeader("X-Sharer-User-Id") Long userId,
+                                                 @RequestParam(name = "from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                 @RequestParam(name = "to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                 @RequestParam(name = "period", defaultValue = "DAY") String strPeriod) {
+        UtilizationPeriod period;
+        try {
+            period = UtilizationPeriod.valueOf(strPeriod.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BookingBadRequestException("Неизвестный период отчета: " + strPeriod);
+        }
+        log.info("Возвращена занятость вещи с id = {} с {} по {}", itemId, from, to);
+        return itemService.getItemUtilization(userId, itemId, from, to, period);
+    }
+
+    @GetMapping("/stats")
+    public List<ItemUtilizationDto> getOwnerStats(@RequestHeader("X-Sharer-User-Id") Long userId,
+                                                  @RequestParam(name = "owner") Long ownerId,
+                                                  @RequestParam(name = "from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                  @RequestParam(name = "to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        log.info("Возвращена занятость вещей пользователя с id = {} с {} по {}", ownerId, from, to);
+        return itemService.getOwnerUtilization(userId, ownerId, from, to);
+    }
+
+    @GetMapping("/{itemId}/availability")
+    public List<FreeSlotDto> getAvailability(@PathVariable Long itemId,
+                                             @RequestParam(name = "from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                             @RequestParam(name = "to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        log.info("Возвращены свободные интервалы вещи с id = {} в период с {} по {}", itemId, from, to);
+        return itemService.getAvailability(itemId, from, to);
+    }
 }
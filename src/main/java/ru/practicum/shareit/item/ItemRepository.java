@@ -2,9 +2,14 @@ package ru.practicum.shareit.item;
 
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
+import javax.persistence.LockModeType;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface ItemRepository extends JpaRepository<Item, Long> {
     List<Item> findAllByOwnerId(Long ownerId, Pageable page);
@@ -16,9 +21,57 @@ public interface ItemRepository extends JpaRepository<Item, Long> {
             "and it.available = true ")
     List<Item> findAllByNameOrDescription(String text, Pageable page);
 
+    //id найденных вещей порциями по возрастанию, следующая порция начинается после последнего id предыдущей
+    @Query("select it.id " +
+            "from Item as it " +
+            "where (lower(it.name) like lower(CONCAT('%', ?1, '%')) " +
+            "or lower(it.description) like lower(CONCAT('%', ?1, '%'))) " +
+            "and it.available = true " +
+            "and it.id > ?2 " +
+            "order by it.id ")
+    List<Long> findIdsByNameOrDescription(String text, Long afterId, Pageable page);
+
+    //Только PostgreSQL: query - выражение to_tsquery, сортировка по релевантности, затем по id
+    @Query(value = "select it.* " +
+            "from items as it, to_tsquery('russian', ?1) as query " +
+            "where it.search_vector @@ query " +
+            "and it.available = true " +
+            "order by ts_rank(it.search_vector, query) desc, it.id asc ",
+            nativeQuery = true)
+    List<Item> findAllByFullText(String query, Pageable page);
+
+    @Query(value = "select it.id " +
+            "from items as it " +
+            "where it.search_vector @@ to_tsquery('russian', ?1) " +
+            "and it.available = true " +
+            "and it.id > ?2 " +
+            "order by it.id ",
+            nativeQuery = true)
+    List<Long> findIdsByFullText(String query, Long afterId, Pageable page);
+
     List<Item> findAllByRequestId(Long requestId);
 
+    @Modifying
+    @Query("update Item as it " +
+            "set it.name = ?3, it.description = ?4, it.available = ?5, it.version = it.version + 1 " +
+            "where it.id = ?1 " +
+            "and it.version = ?2 ")
+    int updateIfVersionMatches(Long itemId, Long version, String name, String description, Boolean available);
+
     List<Item> findAllByRequestIdIn(List<Long> requestIds);
 
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select it " +
+            "from Item as it " +
+            "where it.id = ?1 ")
+    Optional<Item> findLockedById(Long itemId);
+
+    //Строки блокируются в порядке id, чтобы параллельные пакеты не взаимоблокировались
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select it " +
+            "from Item as it " +
+            "where it.id in ?1 " +
+            "order by it.id ")
+    List<Item> findLockedByIdIn(Collection<Long> itemIds);
 
 }
@@ -1,9 +1,13 @@
 package ru.practicum.shareit.item;
 
 import ru.practicum.shareit.item.dto.CommentDto;
+import ru.practicum.shareit.item.dto.FreeSlotDto;
 import ru.practicum.shareit.item.dto.ItemDto;
+import ru.practicum.shareit.item.dto.ItemUtilizationDto;
 import ru.practicum.shareit.item.dto.ItemWithBookAndCommentsDto;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface ItemService {
@@ -16,7 +20,14 @@ public interface ItemService {
 
     List<ItemWithBookAndCommentsDto> getItemsOfUser(Long userId, int from, int size);
 
-    List<ItemDto> searchItems(String text, int from, int size);
+    List<ItemDto> searchItems(String text, int from, int size, LocalDateTime start, LocalDateTime end);
 
     CommentDto saveComment(CommentDto commentDto);
+
+    List<FreeSlotDto> getAvailability(Long itemId, LocalDateTime from, LocalDateTime to);
+
+    List<ItemUtilizationDto> getItemUtilization(Long userId, Long itemId, LocalDate from, LocalDate to,
+                                                UtilizationPeriod period);
+
+    List<ItemUtilizationDto> getOwnerUtilization(Long userId, Long ownerId, LocalDate from, LocalDate to);
 }
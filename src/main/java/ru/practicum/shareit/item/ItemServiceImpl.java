@@ -1,33 +1,58 @@
 package ru.practicum.shareit.item;
 
 import lombok.RequiredArgsConstructor;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
-import ru.practicum.shareit.booking.Booking;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.shareit.booking.BookingJdbcRepository;
 import ru.practicum.shareit.booking.BookingRepository;
-import ru.practicum.shareit.booking.Status;
+import ru.practicum.shareit.booking.BookingSlot;
+import ru.practicum.shareit.booking.BookingTimeline;
 import ru.practicum.shareit.booking.dto.BookingIdOutDto;
 import ru.practicum.shareit.booking.dto.BookingMapper;
+import ru.practicum.shareit.booking.dto.BookingOutDto;
 import ru.practicum.shareit.exceptions.BookingBadRequestException;
 import ru.practicum.shareit.exceptions.ContentNotFountException;
 import ru.practicum.shareit.exceptions.EditingNotAllowedException;
+import ru.practicum.shareit.exceptions.PreconditionFailedException;
 import ru.practicum.shareit.item.dto.*;
 import ru.practicum.shareit.user.User;
 import ru.practicum.shareit.user.UserRepository;
 
 import javax.validation.*;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class ItemServiceImpl implements ItemService {
+    //Отчет по дням за больший период слишком велик для одного ответа
+    private static final long MAX_UTILIZATION_DAYS = 731;
+    //Сколько id найденных вещей читается за один запрос при поиске свободных
+    static final int ID_SCAN_BATCH_SIZE = 1000;
+
     private final ItemRepository itemRepository;
     private final UserRepository userRepository;
     private final BookingRepository bookingRepository;
+    private final BookingJdbcRepository bookingJdbcRepository;
     private final CommentRepository commentRepository;
+    private final BookingTimeline bookingTimeline;
+    private final ItemUtilizationRepository itemUtilizationRepository;
+
+    //Полнотекстовый индекс есть только в PostgreSQL, в H2 поиск идет по подстроке
+    @Value("${shareit.item.search.full-text:false}")
+    private boolean fullTextSearch;
+
+    @Value("${shareit.booking.max-duration:90d}")
+    private Duration maxBookingDuration;
 
     @Override
     public ItemDto saveItem(ItemDto itemDto, Long userId) {
@@ -39,6 +64,7 @@ public class ItemServiceImpl implements ItemService {
     }
 
     @Override
+    @Transactional
     public ItemDto patchItem(ItemDto itemDto, Long userId) {
         if (itemDto.getId() == null) {
             throw new ContentNotFountException("Необходимо указать id вещи");
@@ -48,34 +74,55 @@ public class ItemServiceImpl implements ItemService {
         if (!userId.equals(item.getOwner().getId())) {
             throw new EditingNotAllowedException("Вещь может редактировать только ее владелец");
         }
+        if (itemDto.getVersion() != null && !itemDto.getVersion().equals(item.getVersion())) {
+            throw new PreconditionFailedException("Вещь уже изменена, актуальная версия: " + item.getVersion());
+        }
 
+        //Изменения собираются в копии, чтобы прочитанная сущность не ушла в базу отдельным UPDATE
+        Item patchedItem = ItemMapper.toItem(ItemMapper.toItemDto(item), item.getOwner());
         if (itemDto.getName() != null) {
-            item.setName(itemDto.getName());
+            patchedItem.setName(itemDto.getName());
         }
         if (itemDto.getDescription() != null) {
-            item.setDescription(itemDto.getDescription());
+            patchedItem.setDescription(itemDto.getDescription());
 
         }
         if (itemDto.getAvailable() != null) {
-            item.setAvailable(itemDto.getAvailable());
+            patchedItem.setAvailable(itemDto.getAvailable());
         }
         //Валидация Item
         ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
         Validator validator = factory.getValidator();
-        Set<ConstraintViolation<Item>> results = validator.validate(item);
+        Set<ConstraintViolation<Item>> results = validator.validate(patchedItem);
         if (!results.isEmpty()) {
             throw new ConstraintViolationException(results);
         }
-        return ItemMapper.toItemDto(itemRepository.save(item));
+        int updated = itemRepository.updateIfVersionMatches(item.getId(), item.getVersion(), patchedItem.getName(),
+                patchedItem.getDescription(), patchedItem.getAvailable());
+        if (updated == 0) {
+            throw new PreconditionFailedException("Вещь изменена параллельным запросом");
+        }
+        patchedItem.setVersion(item.getVersion() + 1);
+        return ItemMapper.toItemDto(patchedItem);
     }
 
     @Override
     public ItemWithBookAndCommentsDto getItemById(Long itemId, Long userId) {
         Item item = itemRepository.findById(itemId)
                 .orElseThrow(() -> new ContentNotFountException("Вещи с id = " + itemId + " не существует"));
-        LocalDateTime targetDate = LocalDateTime.now();
-        BookingIdOutDto lastBooking = getLastBooking(itemId, userId, targetDate);
-        BookingIdOutDto nextBooking = getNextBooking(itemId, userId, targetDate);
+        BookingIdOutDto lastBooking = null;
+        BookingIdOutDto nextBooking = null;
+        //Бронирования видны только владельцу и читаются тем же запросом, что и в списке вещей владельца
+        if (item.getOwner().getId().equals(userId)) {
+            LocalDateTime targetDate = LocalDateTime.now();
+            for (BookingSlot slot : bookingJdbcRepository.findLastAndNextApproved(List.of(itemId), targetDate)) {
+                if (slot.getStart().isBefore(targetDate)) {
+                    lastBooking = BookingMapper.mapToBookingIdOutDto(slot);
+                } else {
+                    nextBooking = BookingMapper.mapToBookingIdOutDto(slot);
+                }
+            }
+        }
         List<CommentDto> commentsDto = getItemComments(itemId);
 
         return ItemMapper.toItemWithBookAndCommentsDto(item,
@@ -90,10 +137,14 @@ public class ItemServiceImpl implements ItemService {
         LocalDateTime targetDate = LocalDateTime.now();
         List<Item> items = itemRepository.findAllByOwnerId(userId,
                 PageRequest.of(from, size, Sort.by("id").ascending()));
-        HashMap<Long, BookingIdOutDto> itemLastBookings = getLastBookings(items.stream()
-                .map(Item::getId).collect(Collectors.toList()), userId, targetDate);
-        HashMap<Long, BookingIdOutDto> itemNextBookings = getNextBookings(items.stream()
-                .map(Item::getId).collect(Collectors.toList()), userId, targetDate);
+        //Вещи выбраны по владельцу, поэтому последнее и следующее бронирование видны для каждой из них
+        HashMap<Long, BookingIdOutDto> itemLastBookings = new HashMap<>();
+        HashMap<Long, BookingIdOutDto> itemNextBookings = new HashMap<>();
+        for (BookingSlot slot : bookingJdbcRepository.findLastAndNextApproved(items.stream()
+                .map(Item::getId).collect(Collectors.toList()), targetDate)) {
+            (slot.getStart().isBefore(targetDate) ? itemLastBookings : itemNextBookings)
+                    .put(slot.getItemId(), BookingMapper.mapToBookingIdOutDto(slot));
+        }
         HashMap<Long, List<CommentDto>> itemCommentsDto = getItemComments(items.stream()
                 .map(Item::getId)
                 .collect(Collectors.toList()));
@@ -109,12 +160,37 @@ public class ItemServiceImpl implements ItemService {
     }
 
     @Override
-    public List<ItemDto> searchItems(String text, int from, int size) {
+    public List<ItemDto> searchItems(String text, int from, int size, LocalDateTime start, LocalDateTime end) {
+        if (start != null || end != null) {
+            if (start == null || end == null) {
+                throw new BookingBadRequestException("Для поиска свободных вещей нужно указать начало и окончание периода");
+            }
+            if (!start.isBefore(end)) {
+                throw new BookingBadRequestException("Начало периода должно быть раньше его окончания");
+            }
+            //Занятость прошедших дней ночью удаляется из памяти, в таком периоде свободной оказалась бы любая вещь
+            if (start.isBefore(LocalDate.now().atStartOfDay())) {
+                throw new BookingBadRequestException("Период поиска свободных вещей не может начинаться раньше сегодняшнего дня");
+            }
+        }
         if (text.isEmpty()) {
             return Collections.emptyList();
         }
-        return itemRepository.findAllByNameOrDescription(text,
-                        PageRequest.of(from, size, Sort.by("id").ascending())).stream()
+        if (start != null) {
+            return searchFreeItems(text, from, size, start, end);
+        }
+        if (!fullTextSearch) {
+            return itemRepository.findAllByNameOrDescription(text,
+                            PageRequest.of(from, size, Sort.by("id").ascending())).stream()
+                    .map(ItemMapper::toItemDto)
+                    .collect(Collectors.toList());
+        }
+        String query = toPrefixQuery(text);
+        if (query.isEmpty()) {
+            return Collections.emptyList();
+        }
+        //Порядок задает сам запрос, поэтому страница без сортировки
+        return itemRepository.findAllByFullText(query, PageRequest.of(from, size)).stream()
                 .map(ItemMapper::toItemDto)
                 .collect(Collectors.toList());
     }
@@ -125,10 +201,10 @@ public class ItemServiceImpl implements ItemService {
                 .orElseThrow(() -> new ContentNotFountException("Вещь не найдена"));
         User user = userRepository.findById(commentDto.getUserId())
                 .orElseThrow(() -> new ContentNotFountException("Пользователь не найден"));
-        List<Booking> bookingsOfUser = bookingRepository.findByBookerIdAndEndIsBefore(commentDto.getUserId(),
+        List<BookingOutDto> bookingsOfUser = bookingRepository.findByBookerIdAndEndIsBefore(commentDto.getUserId(),
                 commentDto.getCreated(),
                 PageRequest.of(0, 1000, Sort.by("start").descending()));
-        List<Booking> itemBookingsOfUser = bookingsOfUser.stream()
+        List<BookingOutDto> itemBookingsOfUser = bookingsOfUser.stream()
                 .filter(x -> Objects.equals(x.getItem().getId(), commentDto.getItemId()))
                 .collect(Collectors.toList());
         if (itemBookingsOfUser.isEmpty()) {
@@ -139,55 +215,158 @@ public class ItemServiceImpl implements ItemService {
         return CommentMapper.mapToCommentDto(savedComment);
     }
 
-    private HashMap<Long, BookingIdOutDto> getLastBookings(List<Long> itemId, Long userId, LocalDateTime targetDate) {
-        List<Booking> lastItemBookings = bookingRepository.findByItemIdIn(itemId, Sort.by("end").descending());
-        HashMap<Long, BookingIdOutDto> itemBookings = new HashMap<>();
-        for (Booking booking : lastItemBookings) {
-            if (!itemBookings.containsKey(booking.getItem().getId())) {
-                if (booking.getStart().isBefore(targetDate)
-                        && booking.getItem().getOwner().getId().equals(userId)
-                        && booking.getStatus().equals(Status.APPROVED)) {
-                    itemBookings.put(booking.getItem().getId(), BookingMapper.mapToBookingIdOutDto(booking));
+    @Override
+    @Transactional(readOnly = true)
+    public List<FreeSlotDto> getAvailability(Long itemId, LocalDateTime from, LocalDateTime to) {
+        if (!from.isBefore(to)) {
+            throw new BookingBadRequestException("Начало периода должно быть раньше его окончания");
+        }
+        if (!itemRepository.existsById(itemId)) {
+            throw new ContentNotFountException("Вещи с id = " + itemId + " не существует");
+        }
+        //Блокирующие интервалы идут по возрастанию начала, поэтому свободные окна собираются за один проход
+        List<FreeSlotDto> freeSlots = new ArrayList<>();
+        LocalDateTime freeFrom = from;
+        try (Stream<BookingSlot> slots = bookingRepository.streamBlockingSlots(itemId, from, to, maxBookingDuration)) {
+            Iterator<BookingSlot> iterator = slots.iterator();
+            while (iterator.hasNext()) {
+                BookingSlot slot = iterator.next();
+                if (slot.getStart().isAfter(freeFrom)) {
+                    freeSlots.add(new FreeSlotDto(freeFrom, slot.getStart()));
                 }
+                if (slot.getEnd().isAfter(freeFrom)) {
+                    freeFrom = slot.getEnd();
+                }
+            }
+        }
+        if (freeFrom.isBefore(to)) {
+            freeSlots.add(new FreeSlotDto(freeFrom, to));
+        }
+        return freeSlots;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<ItemUtilizationDto> getItemUtilization(Long userId, Long itemId, LocalDate from, LocalDate to,
+                                                       UtilizationPeriod period) {
+        checkUtilizationRange(from, to);
+        Item item = itemRepository.findById(itemId)
+                .orElseThrow(() -> new ContentNotFountException("Вещи с id = " + itemId + " не существует"));
+        if (!Objects.equals(item.getOwner().getId(), userId)) {
+            throw new ContentNotFountException("Статистику вещи может просматривать только ее владелец");
+        }
+        LocalDate end = to.plusDays(1);
+        Map<LocalDate, Long> days = itemUtilizationRepository.findDays(itemId, from, end);
+        //Крайние периоды обрезаются по границам запроса
+        List<ItemUtilizationDto> report = new ArrayList<>();
+        LocalDate periodStart = from;
+        while (periodStart.isBefore(end)) {
+            LocalDate next = period.next(period.start(periodStart));
+            LocalDate periodEnd = next.isAfter(end) ? end : next;
+            long bookedSeconds = 0;
+            for (LocalDate day = periodStart; day.isBefore(periodEnd); day = day.plusDays(1)) {
+                bookedSeconds += days.getOrDefault(day, 0L);
             }
+            report.add(makeUtilization(itemId, periodStart, periodEnd, bookedSeconds));
+            periodStart = periodEnd;
         }
-        return itemBookings;
+        return report;
     }
 
-    private BookingIdOutDto getLastBooking(Long itemId, Long userId, LocalDateTime targetDate) {
-        List<Booking> lastItemBookings = bookingRepository.findByItemId(itemId, Sort.by("end").descending());
-        for (Booking booking : lastItemBookings) {
-            if (booking.getStart().isBefore(targetDate)
-                    && booking.getItem().getOwner().getId().equals(userId)
-                    && booking.getStatus().equals(Status.APPROVED)) return BookingMapper.mapToBookingIdOutDto(booking);
+    @Override
+    @Transactional(readOnly = true)
+    public List<ItemUtilizationDto> getOwnerUtilization(Long userId, Long ownerId, LocalDate from, LocalDate to) {
+        checkUtilizationRange(from, to);
+        if (!Objects.equals(userId, ownerId)) {
+            throw new ContentNotFountException("Статистику вещей может просматривать только их владелец");
+        }
+        if (!userRepository.existsById(ownerId)) {
+            throw new ContentNotFountException("Пользователь не найден");
         }
-        return null;
+        LocalDate end = to.plusDays(1);
+        return itemUtilizationRepository.findOwnerTotals(ownerId, from, end).entrySet().stream()
+                .map(total -> makeUtilization(total.getKey(), from, end, total.getValue()))
+                .collect(Collectors.toList());
     }
 
-    private HashMap<Long, BookingIdOutDto> getNextBookings(List<Long> itemId, Long userId, LocalDateTime targetDate) {
-        List<Booking> nextItemBookings = bookingRepository.findByItemIdIn(itemId, Sort.by("start").ascending());
-        HashMap<Long, BookingIdOutDto> itemBookings = new HashMap<>();
-        for (Booking booking : nextItemBookings) {
-            if (!itemBookings.containsKey(booking.getItem().getId())) {
-                if (booking.getStart().isAfter(targetDate)
-                        && booking.getItem().getOwner().getId().equals(userId)
-                        && booking.getStatus().equals(Status.APPROVED)) {
-                    itemBookings.put(booking.getItem().getId(), BookingMapper.mapToBookingIdOutDto(booking));
-                }
-            }
+    private void checkUtilizationRange(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            throw new BookingBadRequestException("Начало периода должно быть не позже его окончания");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= MAX_UTILIZATION_DAYS) {
+            throw new BookingBadRequestException("Период отчета не может быть длиннее " + MAX_UTILIZATION_DAYS + " дней");
         }
-        return itemBookings;
     }
 
+    //Период [from, end) в ответе отдается с включительной датой окончания
+    private ItemUtilizationDto makeUtilization(Long itemId, LocalDate from, LocalDate end, long bookedSeconds) {
+        long totalHours = ChronoUnit.DAYS.between(from, end) * 24;
+        return new ItemUtilizationDto(itemId, from, end.minusDays(1), bookedSeconds / 3600.0, totalHours,
+                bookedSeconds / (totalHours * 3600.0));
+    }
 
-    private BookingIdOutDto getNextBooking(Long itemId, Long userId, LocalDateTime targetDate) {
-        List<Booking> nextItemBookings = bookingRepository.findByItemId(itemId, Sort.by("start").ascending());
-        for (Booking booking : nextItemBookings) {
-            if (booking.getStart().isAfter(targetDate)
-                    && booking.getItem().getOwner().getId().equals(userId)
-                    && booking.getStatus().equals(Status.APPROVED)) return BookingMapper.mapToBookingIdOutDto(booking);
+    //Найденные по тексту вещи сначала отсеиваются картой занятости в памяти, без запросов по каждой вещи.
+    //Карта видит только бронирования, зафиксированные этим экземпляром приложения, поэтому оставшиеся
+    //кандидаты подтверждаются базой одним запросом пересечений на порцию, ровно в том количестве, что нужно странице.
+    //id найденных вещей читаются порциями по возрастанию, пока не наберется страница свободных
+    private List<ItemDto> searchFreeItems(String text, int from, int size, LocalDateTime start, LocalDateTime end) {
+        String query = fullTextSearch ? toPrefixQuery(text) : text;
+        if (query.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Roaring64NavigableMap busyItems = bookingTimeline.findBusyItems(start, end);
+        PageRequest batch = PageRequest.of(0, ID_SCAN_BATCH_SIZE);
+        List<Long> pageIds = new ArrayList<>(size);
+        long skip = (long) from * size;
+        Long afterId = 0L;
+        List<Long> foundIds;
+        do {
+            foundIds = fullTextSearch
+                    ? itemRepository.findIdsByFullText(query, afterId, batch)
+                    : itemRepository.findIdsByNameOrDescription(query, afterId, batch);
+            List<Long> candidateIds = foundIds.stream()
+                    .filter(itemId -> !busyItems.contains(itemId))
+                    .collect(Collectors.toList());
+            int next = 0;
+            while (next < candidateIds.size() && pageIds.size() < size) {
+                long needed = skip + size - pageIds.size();
+                List<Long> checkedIds = candidateIds.subList(next, (int) Math.min(candidateIds.size(), next + needed));
+                next += checkedIds.size();
+                Set<Long> bookedIds = bookingRepository.findTimeCrossingSlotsOfItems(checkedIds, start, end,
+                                maxBookingDuration).stream()
+                        .map(BookingSlot::getItemId)
+                        .collect(Collectors.toSet());
+                for (Long itemId : checkedIds) {
+                    if (bookedIds.contains(itemId)) {
+                        continue;
+                    }
+                    if (skip > 0) {
+                        skip--;
+                    } else {
+                        pageIds.add(itemId);
+                    }
+                }
+            }
+            if (!foundIds.isEmpty()) {
+                afterId = foundIds.get(foundIds.size() - 1);
+            }
+        } while (foundIds.size() == ID_SCAN_BATCH_SIZE && pageIds.size() < size);
+        if (pageIds.isEmpty()) {
+            return Collections.emptyList();
         }
-        return null;
+        return itemRepository.findAllById(pageIds).stream()
+                .sorted(Comparator.comparing(Item::getId))
+                .map(ItemMapper::toItemDto)
+                .collect(Collectors.toList());
+    }
+
+    //Каждое слово ищется как начало слова с учетом словоформ: "дрел аккум" -> "дрел:* & аккум:*".
+    //Остальные символы отбрасываются, чтобы пользовательский текст не разбирался как синтаксис tsquery
+    static String toPrefixQuery(String text) {
+        return Arrays.stream(text.split("[^\\p{L}\\p{N}]+"))
+                .filter(word -> !word.isEmpty())
+                .map(word -> word + ":*")
+                .collect(Collectors.joining(" & "));
     }
 
     private HashMap<Long, List<CommentDto>> getItemComments(List<Long> itemIds) {
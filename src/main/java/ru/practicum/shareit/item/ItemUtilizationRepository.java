@@ -0,0 +1,125 @@
+package ru.practicum.shareit.item;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.shareit.booking.BookingSlot;
+
+import java.sql.Date;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Счетчики занятости вещей по дням: сумма секунд подтвержденных бронирований, пришедшихся на день.
+ * Изменения счетчиков одной вещи упорядочены блокировкой ее строки в items, поэтому вставка нового дня
+ * не встречается с параллельной вставкой того же дня и не требует upsert, которого нет в H2.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ItemUtilizationRepository {
+    private static final String LOCK_ITEMS = "select id from items where id in (:ids) order by id for update";
+    private static final String ADD_SECONDS = "update item_daily_utilization " +
+            "set booked_seconds = booked_seconds + :seconds " +
+            "where item_id = :itemId and usage_day = :day";
+    private static final String INSERT_DAY = "insert into item_daily_utilization (item_id, usage_day, booked_seconds) " +
+            "values (:itemId, :day, :seconds)";
+    private static final String SELECT_DAYS = "select usage_day, booked_seconds " +
+            "from item_daily_utilization " +
+            "where item_id = :itemId and usage_day >= :from and usage_day < :to " +
+            "order by usage_day";
+    //Вещи без подтвержденных бронирований в периоде тоже попадают в отчет, с нулевой занятостью
+    private static final String SELECT_OWNER_TOTALS = "select i.id, coalesce(sum(u.booked_seconds), 0) as booked_seconds " +
+            "from items as i " +
+            "left join item_daily_utilization as u on u.item_id = i.id and u.usage_day >= :from and u.usage_day < :to " +
+            "where i.user_id = :ownerId " +
+            "group by i.id " +
+            "order by i.id";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    //Бронирования стали подтвержденными
+    public void add(Collection<BookingSlot> slots) {
+        apply(slots, 1);
+    }
+
+    //Подтвержденные бронирования отклонены
+    public void subtract(Collection<BookingSlot> slots) {
+        apply(slots, -1);
+    }
+
+    //Занятые секунды по дням в полуинтервале [from, to), дни без бронирований отсутствуют
+    public Map<LocalDate, Long> findDays(Long itemId, LocalDate from, LocalDate to) {
+        Map<LocalDate, Long> days = new LinkedHashMap<>();
+        jdbcTemplate.query(SELECT_DAYS, new MapSqlParameterSource()
+                        .addValue("itemId", itemId)
+                        .addValue("from", Date.valueOf(from))
+                        .addValue("to", Date.valueOf(to)),
+                rs -> {
+                    days.put(rs.getDate("usage_day").toLocalDate(), rs.getLong("booked_seconds"));
+                });
+        return days;
+    }
+
+    //Занятые секунды каждой вещи владельца в полуинтервале [from, to), по возрастанию id вещи
+    public Map<Long, Long> findOwnerTotals(Long ownerId, LocalDate from, LocalDate to) {
+        Map<Long, Long> totals = new LinkedHashMap<>();
+        jdbcTemplate.query(SELECT_OWNER_TOTALS, new MapSqlParameterSource()
+                        .addValue("ownerId", ownerId)
+                        .addValue("from", Date.valueOf(from))
+                        .addValue("to", Date.valueOf(to)),
+                rs -> {
+                    totals.put(rs.getLong("id"), rs.getLong("booked_seconds"));
+                });
+        return totals;
+    }
+
+    //Делит интервал бронирования по границам суток
+    static Map<LocalDate, Long> splitByDay(LocalDateTime start, LocalDateTime end) {
+        Map<LocalDate, Long> seconds = new LinkedHashMap<>();
+        for (LocalDate day = start.toLocalDate(); day.atStartOfDay().isBefore(end); day = day.plusDays(1)) {
+            LocalDateTime dayStart = day.atStartOfDay();
+            LocalDateTime from = start.isAfter(dayStart) ? start : dayStart;
+            LocalDateTime to = end.isBefore(dayStart.plusDays(1)) ? end : dayStart.plusDays(1);
+            seconds.put(day, Duration.between(from, to).getSeconds());
+        }
+        return seconds;
+    }
+
+    private void apply(Collection<BookingSlot> slots, int sign) {
+        if (slots.isEmpty()) {
+            return;
+        }
+        Map<Long, Map<LocalDate, Long>> deltas = new TreeMap<>();
+        for (BookingSlot slot : slots) {
+            Map<LocalDate, Long> itemDeltas = deltas.computeIfAbsent(slot.getItemId(), id -> new TreeMap<>());
+            splitByDay(slot.getStart(), slot.getEnd())
+                    .forEach((day, seconds) -> itemDeltas.merge(day, sign * seconds, Long::sum));
+        }
+        jdbcTemplate.queryForList(LOCK_ITEMS, new MapSqlParameterSource("ids", deltas.keySet()), Long.class);
+
+        List<MapSqlParameterSource> updates = new ArrayList<>();
+        deltas.forEach((itemId, days) -> days.forEach((day, seconds) -> updates.add(new MapSqlParameterSource()
+                .addValue("itemId", itemId)
+                .addValue("day", Date.valueOf(day))
+                .addValue("seconds", seconds))));
+        int[] counts = jdbcTemplate.batchUpdate(ADD_SECONDS, updates.toArray(MapSqlParameterSource[]::new));
+        List<MapSqlParameterSource> inserts = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            //Уменьшать можно только уже посчитанный день, поэтому вставляются только положительные изменения
+            if (counts[i] == 0 && (Long) updates.get(i).getValue("seconds") > 0) {
+                inserts.add(updates.get(i));
+            }
+        }
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_DAY, inserts.toArray(MapSqlParameterSource[]::new));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ru.practicum.shareit.item;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+//Шаг отчета о занятости. Недели начинаются с понедельника, месяцы с первого числа
+public enum UtilizationPeriod {
+    DAY {
+        @Override
+        LocalDate start(LocalDate day) {
+            return day;
+        }
+
+        @Override
+        LocalDate next(LocalDate start) {
+            return start.plusDays(1);
+        }
+    },
+    WEEK {
+        @Override
+        LocalDate start(LocalDate day) {
+            return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+
+        @Override
+        LocalDate next(LocalDate start) {
+            return start.plusWeeks(1);
+        }
+    },
+    MONTH {
+        @Override
+        LocalDate start(LocalDate day) {
+            return day.withDayOfMonth(1);
+        }
+
+        @Override
+        LocalDate next(LocalDate start) {
+            return start.plusMonths(1);
+        }
+    };
+
+    abstract LocalDate start(LocalDate day);
+
+    abstract LocalDate next(LocalDate start);
+}
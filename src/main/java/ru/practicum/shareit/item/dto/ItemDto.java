@@ -1,5 +1,6 @@
 package ru.practicum.shareit.item.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
@@ -20,4 +21,8 @@ public class ItemDto {
     private Boolean available;
     private Long owner;
     private Long requestId;
+    //Версия передается только заголовками ETag и If-Match
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private Long version;
 }
@@ -17,6 +17,7 @@ public class ItemMapper {
         itemDto.setAvailable(item.getAvailable());
         itemDto.setOwner(item.getOwner().getId());
         itemDto.setRequestId(item.getRequestId());
+        itemDto.setVersion(item.getVersion());
         return itemDto;
     }
 
@@ -31,6 +32,7 @@ public class ItemMapper {
         itemDto.setNextBooking(nextBooking);
         itemDto.setComments(comments);
         itemDto.setRequestId(item.getRequestId());
+        itemDto.setVersion(item.getVersion());
         return itemDto;
     }
 
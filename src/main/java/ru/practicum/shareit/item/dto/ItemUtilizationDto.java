@@ -0,0 +1,31 @@
+package ru.practicum.shareit.item.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.time.LocalDate;
+
+//Занятость вещи за период [from, to]: часы подтвержденных бронирований и их доля от всех часов периода
+@ToString
+@Getter
+@Setter
+@EqualsAndHashCode
+@NoArgsConstructor
+@AllArgsConstructor
+public class ItemUtilizationDto {
+    private Long itemId;
+
+    private LocalDate from;
+
+    private LocalDate to;
+
+    private double bookedHours;
+
+    private long totalHours;
+
+    private double utilization;
+}
@@ -1,5 +1,6 @@
 package ru.practicum.shareit.item.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -29,4 +30,6 @@ public class ItemWithBookAndCommentsDto {
     @Future
     private BookingIdOutDto nextBooking;
     private List<CommentDto> comments;
+    @JsonIgnore
+    private Long version;
 }
@@ -28,4 +28,8 @@ public class User {
     @NotNull
     @Email(message = "Невалидный email")
     private String email;
+
+    @Version
+    @Column(name = "version")
+    private Long version;
 }
@@ -2,9 +2,12 @@ package ru.practicum.shareit.user;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import ru.practicum.shareit.user.dto.UserDto;
+import ru.practicum.shareit.util.IfMatch;
 import ru.practicum.shareit.validations.Create;
 import ru.practicum.shareit.validations.Update;
 
@@ -24,9 +27,10 @@ public class UserController {
     }
 
     @GetMapping("/{id}")
-    public UserDto getUserById(@PathVariable Long id) {
+    public ResponseEntity<UserDto> getUserById(@PathVariable Long id) {
         log.info("Возвращен пользователь с id = {}", id);
-        return userService.getUserById(id);
+        UserDto userDto = userService.getUserById(id);
+        return IfMatch.withETag(userDto, userDto.getVersion());
     }
 
     //@Validated(value = Create.class)
@@ -39,12 +43,14 @@ public class UserController {
 
     //@Validated(value = Update.class)
     @PatchMapping("/{userId}")
-    public UserDto updateUser(@Validated(Update.class) @RequestBody UserDto userDto,
-                              @PathVariable Long userId) {
+    public ResponseEntity<UserDto> updateUser(@Validated(Update.class) @RequestBody UserDto userDto,
+                                              @PathVariable Long userId,
+                                              @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         userDto.setId(userId);
+        userDto.setVersion(IfMatch.parseVersion(ifMatch));
         UserDto savedUserDto = userService.updateUser(userDto);
         log.info("Обновлены поля у пользователя с id {}", savedUserDto.getId());
-        return userService.updateUser(savedUserDto);
+        return IfMatch.withETag(savedUserDto, savedUserDto.getVersion());
     }
 
     @DeleteMapping("/{id}")
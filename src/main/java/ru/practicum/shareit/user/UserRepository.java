@@ -1,9 +1,18 @@
 package ru.practicum.shareit.user;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findUserByEmail(String string);
+
+    @Modifying
+    @Query("update User as u " +
+            "set u.name = ?3, u.email = ?4, u.version = u.version + 1 " +
+            "where u.id = ?1 " +
+            "and u.version = ?2 ")
+    int updateIfVersionMatches(Long userId, Long version, String name, String email);
 }
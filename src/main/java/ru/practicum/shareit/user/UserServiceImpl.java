@@ -2,8 +2,10 @@ package ru.practicum.shareit.user;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.shareit.exceptions.ContentAlreadyExistException;
 import ru.practicum.shareit.exceptions.ContentNotFountException;
+import ru.practicum.shareit.exceptions.PreconditionFailedException;
 import ru.practicum.shareit.user.dto.UserDto;
 import ru.practicum.shareit.user.dto.UserMapper;
 
@@ -32,34 +34,45 @@ public class UserServiceImpl implements UserService {
     }
 
     @Override
+    @Transactional
     public UserDto updateUser(UserDto userDto) {
         if (userDto.getId() == null) {
             throw new ContentNotFountException("Необходимо указать id пользователя");
         }
         User user = userRepository.findById(userDto.getId())
                 .orElseThrow(() -> new ContentNotFountException("Пользователь не найден"));
+        if (userDto.getVersion() != null && !userDto.getVersion().equals(user.getVersion())) {
+            throw new PreconditionFailedException("Пользователь уже изменен, актуальная версия: " + user.getVersion());
+        }
 
+        //Изменения собираются в копии, чтобы прочитанная сущность не ушла в базу отдельным UPDATE
+        User patchedUser = UserMapper.toUser(UserMapper.toUserDto(user));
         if (userDto.getName() != null) {
-            user.setName(userDto.getName());
+            patchedUser.setName(userDto.getName());
         }
         if (userDto.getEmail() != null) {
-            user.setEmail(userDto.getEmail());
+            patchedUser.setEmail(userDto.getEmail());
         }
 
-        Optional<User> sameEmailUser = userRepository.findUserByEmail(user.getEmail());
-        if (sameEmailUser.isPresent() && !sameEmailUser.get().getId().equals(user.getId())) {
+        Optional<User> sameEmailUser = userRepository.findUserByEmail(patchedUser.getEmail());
+        if (sameEmailUser.isPresent() && !sameEmailUser.get().getId().equals(patchedUser.getId())) {
             throw new ContentAlreadyExistException("Пользователь с таким email уже существует");
         }
 
         //Валидация User
         ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
         Validator validator = factory.getValidator();
-        Set<ConstraintViolation<User>> results = validator.validate(user);
+        Set<ConstraintViolation<User>> results = validator.validate(patchedUser);
         if (!results.isEmpty()) {
             throw new ConstraintViolationException(results);
         }
-        User savedUser = userRepository.save(user);
-        return UserMapper.toUserDto(savedUser);
+        int updated = userRepository.updateIfVersionMatches(user.getId(), user.getVersion(), patchedUser.getName(),
+                patchedUser.getEmail());
+        if (updated == 0) {
+            throw new PreconditionFailedException("Пользователь изменен параллельным запросом");
+        }
+        patchedUser.setVersion(user.getVersion() + 1);
+        return UserMapper.toUserDto(patchedUser);
     }
 
     @Override
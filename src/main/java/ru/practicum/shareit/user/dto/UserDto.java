@@ -1,5 +1,6 @@
 package ru.practicum.shareit.user.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
@@ -19,4 +20,8 @@ public class UserDto {
     @NotNull(groups = Create.class)
     @Email(groups = Create.class)
     private String email;
+    //Версия передается только заголовками ETag и If-Match
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private Long version;
 }
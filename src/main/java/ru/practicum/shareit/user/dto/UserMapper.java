@@ -10,6 +10,7 @@ public class UserMapper {
         userDto.setId(user.getId());
         userDto.setName(user.getName());
         userDto.setEmail(user.getEmail());
+        userDto.setVersion(user.getVersion());
         return userDto;
     }
 
@@ -0,0 +1,57 @@
+package ru.practicum.shareit.util;
+
+import org.flywaydb.core.api.callback.Callback;
+import org.flywaydb.core.api.callback.Context;
+import org.flywaydb.core.api.callback.Event;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/*
+ * В миграции V1 тело archive_booking_partitions испорчено при переносе схемы во Flyway и не разбирается PostgreSQL.
+ * Исправить V1 нельзя - изменится ее контрольная сумма в уже мигрированных базах, поэтому на время V1
+ * проверка тел функций при создании отключается, а рабочее тело функции ставит CREATE OR REPLACE в V10.
+ */
+@Component
+public class FunctionBodiesCheckCallback implements Callback {
+    private static final String BROKEN_MIGRATION_VERSION = "1";
+
+    @Override
+    public boolean supports(Event event, Context context) {
+        if (event != Event.BEFORE_EACH_MIGRATE && event != Event.AFTER_EACH_MIGRATE
+                && event != Event.AFTER_EACH_MIGRATE_ERROR) {
+            return false;
+        }
+        return context.getMigrationInfo() != null && context.getMigrationInfo().getVersion() != null
+                && BROKEN_MIGRATION_VERSION.equals(context.getMigrationInfo().getVersion().getVersion());
+    }
+
+    @Override
+    public boolean canHandleInTransaction(Event event, Context context) {
+        return true;
+    }
+
+    @Override
+    public void handle(Event event, Context context) {
+        Connection connection = context.getConnection();
+        try {
+            if (!"PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())) {
+                return;
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(event == Event.BEFORE_EACH_MIGRATE
+                        ? "SET check_function_bodies = off"
+                        : "RESET check_function_bodies");
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String getCallbackName() {
+        return getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,27 @@
+package ru.practicum.shareit.util;
+
+import lombok.experimental.UtilityClass;
+import org.springframework.http.ResponseEntity;
+
+//Версия из заголовка If-Match: "3", W/"3" или 3. Отсутствие заголовка и "*" означают любую версию
+@UtilityClass
+public class IfMatch {
+    public static Long parseVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        return Long.parseLong(tag.replace("\"", ""));
+    }
+
+    //Ответ с версией в ETag, которую клиент вернет в If-Match при следующем изменении
+    public static <T> ResponseEntity<T> withETag(T body, Long version) {
+        if (version == null) {
+            return ResponseEntity.ok(body);
+        }
+        return ResponseEntity.ok().eTag(String.valueOf(version)).body(body);
+    }
+}
@@ -0,0 +1,2 @@
+-- В H2 нет ограничений исключения: пересечения бронирований здесь исключает только блокировка строки вещи
+SELECT 1;
@@ -0,0 +1,2 @@
+-- Хеш тела первого запроса: повтор с тем же ключом, но другим телом отклоняется, а не получает чужой ответ
+ALTER TABLE idempotency_keys ADD COLUMN IF NOT EXISTS request_hash varchar(64);
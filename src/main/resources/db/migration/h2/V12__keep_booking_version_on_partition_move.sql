@@ -0,0 +1,2 @@
+-- В H2 таблица бронирований не секционирована, переносить строки между секциями не нужно
+SELECT 1;
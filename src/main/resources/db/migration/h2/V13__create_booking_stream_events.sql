@@ -0,0 +1,15 @@
+-- Журнал событий для подписок на события бронирований. Outbox доставляет событие одному экземпляру,
+-- а этот журнал читает каждый экземпляр сам. Строки удаляются по сроку хранения, а не после доставки.
+CREATE TABLE IF NOT EXISTS booking_stream_events (
+id BIGINT PRIMARY KEY,
+booking_id BIGINT NOT NULL,
+item_id BIGINT NOT NULL,
+booker_id BIGINT NOT NULL,
+owner_id BIGINT NOT NULL,
+start_date timestamp NOT NULL,
+end_date timestamp NOT NULL,
+status varchar NOT NULL,
+created_at timestamp NOT NULL,
+published_at timestamp NOT NULL DEFAULT now() );
+
+CREATE INDEX IF NOT EXISTS booking_stream_events_published_idx ON booking_stream_events (published_at);
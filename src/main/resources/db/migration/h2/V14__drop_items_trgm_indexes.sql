@@ -0,0 +1,2 @@
+-- В H2 триграммных индексов не было
+SELECT 1;
@@ -0,0 +1,2 @@
+-- Прогрев индекса бронирований в памяти. В H2 нет частичных индексов
+CREATE INDEX IF NOT EXISTS bookings_start_idx ON bookings (start_date, id);
@@ -0,0 +1,2 @@
+-- Длительность бронирования ограничивается в базе, как и в PostgreSQL
+ALTER TABLE bookings ADD CONSTRAINT bookings_max_duration CHECK (end_date <= DATEADD(DAY, 90, start_date));
@@ -0,0 +1,4 @@
+-- Незавершенная строка закрепляет ключ за выполняющимся запросом до конца аренды
+ALTER TABLE idempotency_keys ADD COLUMN IF NOT EXISTS lease_until timestamp;
+UPDATE idempotency_keys SET lease_until = DATEADD(MINUTE, 10, created_at) WHERE lease_until IS NULL;
+ALTER TABLE idempotency_keys ALTER COLUMN lease_until SET NOT NULL;
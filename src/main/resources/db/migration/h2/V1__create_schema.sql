@@ -1,9 +1,3 @@
-DROP TABLE IF EXISTS bookings CASCADE;
-DROP TABLE IF EXISTS items CASCADE;
-DROP TABLE IF EXISTS requests CASCADE;
-DROP TABLE IF EXISTS comments CASCADE;
-DROP TABLE IF EXISTS users CASCADE;
-
 CREATE TABLE IF NOT EXISTS users (
 id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
 name varchar(50),
@@ -32,9 +26,21 @@ start_date timestamp,
 end_date timestamp,
 item_id BIGINT,
 user_id BIGINT,
+owner_id BIGINT,
 status varchar,
 CONSTRAINT fk_booking_to_item FOREIGN KEY(item_id) REFERENCES items(id),
-CONSTRAINT fk_booking_to_user FOREIGN KEY(user_id) REFERENCES users(id) );
+CONSTRAINT fk_booking_to_user FOREIGN KEY(user_id) REFERENCES users(id),
+CONSTRAINT fk_booking_to_owner FOREIGN KEY(owner_id) REFERENCES users(id) );
+
+CREATE TABLE IF NOT EXISTS bookings_history (
+id BIGINT PRIMARY KEY,
+start_date timestamp,
+end_date timestamp,
+item_id BIGINT,
+user_id BIGINT,
+owner_id BIGINT,
+status varchar,
+archived_at timestamp DEFAULT now() );
 
 CREATE TABLE IF NOT EXISTS comments (
 id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
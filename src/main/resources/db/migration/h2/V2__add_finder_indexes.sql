@@ -0,0 +1,22 @@
+-- Индексы под выборки репозиториев, повторяют набор PostgreSQL там, где H2 его поддерживает
+
+CREATE INDEX IF NOT EXISTS bookings_booker_start_idx ON bookings (user_id, start_date DESC);
+CREATE INDEX IF NOT EXISTS bookings_booker_status_start_idx ON bookings (user_id, status, start_date DESC);
+CREATE INDEX IF NOT EXISTS bookings_owner_start_idx ON bookings (owner_id, start_date DESC);
+CREATE INDEX IF NOT EXISTS bookings_owner_status_start_idx ON bookings (owner_id, status, start_date DESC);
+CREATE INDEX IF NOT EXISTS bookings_item_start_idx ON bookings (item_id, start_date);
+
+-- В H2 нет частичных индексов
+CREATE INDEX IF NOT EXISTS bookings_status_start_idx ON bookings (status, start_date);
+
+CREATE INDEX IF NOT EXISTS bookings_history_user_start_idx ON bookings_history (user_id, start_date);
+CREATE INDEX IF NOT EXISTS bookings_history_item_start_idx ON bookings_history (item_id, start_date);
+CREATE INDEX IF NOT EXISTS bookings_history_owner_start_idx ON bookings_history (owner_id, start_date);
+
+CREATE INDEX IF NOT EXISTS items_owner_id_idx ON items (user_id, id);
+CREATE INDEX IF NOT EXISTS items_request_idx ON items (request_id);
+
+CREATE INDEX IF NOT EXISTS comments_item_idx ON comments (item_id);
+
+CREATE INDEX IF NOT EXISTS requests_user_created_idx ON requests (user_id, creation_date DESC);
+CREATE INDEX IF NOT EXISTS requests_created_idx ON requests (creation_date DESC);
@@ -0,0 +1,12 @@
+-- События жизненного цикла бронирований, записываются в одной транзакции с изменением бронирования.
+-- Строка удаляется после доставки всем слушателям.
+CREATE TABLE IF NOT EXISTS outbox (
+id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+booking_id BIGINT NOT NULL,
+item_id BIGINT NOT NULL,
+booker_id BIGINT NOT NULL,
+owner_id BIGINT NOT NULL,
+start_date timestamp NOT NULL,
+end_date timestamp NOT NULL,
+status varchar NOT NULL,
+created_at timestamp NOT NULL DEFAULT now() );
@@ -0,0 +1,7 @@
+-- Занятость вещей по дням: секунды подтвержденных бронирований, пришедшиеся на день.
+-- Строки меняются в одной транзакции со статусом бронирования, отчеты читают только их.
+CREATE TABLE IF NOT EXISTS item_daily_utilization (
+item_id BIGINT NOT NULL,
+usage_day date NOT NULL,
+booked_seconds BIGINT NOT NULL DEFAULT 0,
+PRIMARY KEY (item_id, usage_day) );
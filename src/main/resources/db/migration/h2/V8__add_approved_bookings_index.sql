@@ -0,0 +1,2 @@
+-- Последнее и следующее подтвержденное бронирование вещи. В H2 нет частичных индексов
+CREATE INDEX IF NOT EXISTS bookings_item_status_start_idx ON bookings (item_id, status, start_date);
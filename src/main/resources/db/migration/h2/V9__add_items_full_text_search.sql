@@ -0,0 +1,2 @@
+-- В H2 нет tsvector: поиск вещей в профилях ci,test идет по подстроке (shareit.item.search.full-text=false)
+SELECT 1;
@@ -0,0 +1,101 @@
+-- Ограничения исключения в секциях проверяли пересечения только внутри одного месяца: бронирования,
+-- начинающиеся в разных месяцах, друг с другом не сравнивались. Блокирующие интервалы (WAITING, APPROVED)
+-- теперь дублируются триггером в несекционированную таблицу, и ограничение на ней действует для всех бронирований.
+CREATE TABLE IF NOT EXISTS booking_intervals (
+booking_id BIGINT PRIMARY KEY,
+item_id BIGINT NOT NULL,
+period tsrange NOT NULL,
+CONSTRAINT bookings_no_overlap EXCLUDE USING gist (item_id WITH =, period WITH &&) );
+
+INSERT INTO booking_intervals (booking_id, item_id, period)
+    SELECT id, item_id, period
+    FROM bookings
+    WHERE status IN ('WAITING', 'APPROVED');
+
+-- Перенос строк между секциями функциями обслуживания интервалы не меняет, на это время триггер отключается
+CREATE OR REPLACE FUNCTION sync_booking_interval() RETURNS trigger AS $$
+BEGIN
+    IF current_setting('shareit.moving_booking_partition', true) = 'on' THEN
+        RETURN NULL;
+    END IF;
+    IF TG_OP <> 'INSERT' THEN
+        DELETE FROM booking_intervals WHERE booking_id = OLD.id;
+    END IF;
+    IF TG_OP <> 'DELETE' AND NEW.status IN ('WAITING', 'APPROVED') THEN
+        INSERT INTO booking_intervals (booking_id, item_id, period)
+            VALUES (NEW.id, NEW.item_id, tsrange(NEW.start_date, NEW.end_date, '[)'));
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER bookings_interval_sync AFTER INSERT OR DELETE OR UPDATE OF status, start_date, end_date, item_id
+    ON bookings FOR EACH ROW EXECUTE FUNCTION sync_booking_interval();
+
+-- Ограничения в секциях больше не нужны
+DO $$
+DECLARE
+    con record;
+BEGIN
+    FOR con IN
+        SELECT c.conname, t.relname
+        FROM pg_constraint AS c
+        JOIN pg_class AS t ON t.oid = c.conrelid
+        WHERE c.conname LIKE 'bookings\_no\_overlap\_%'
+    LOOP
+        EXECUTE format('ALTER TABLE %I DROP CONSTRAINT %I', con.relname, con.conname);
+    END LOOP;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION create_booking_partition(month_start date) RETURNS boolean AS $$
+DECLARE
+    suffix text := to_char(month_start, 'YYYYMM');
+    partition_name text := 'bookings_p' || suffix;
+    next_month date := (month_start + interval '1 month')::date;
+BEGIN
+    IF to_regclass(partition_name) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+    ALTER TABLE bookings DETACH PARTITION bookings_default;
+    EXECUTE format('CREATE TABLE %I PARTITION OF bookings FOR VALUES FROM (%L) TO (%L)',
+        partition_name, month_start, next_month);
+    PERFORM set_config('shareit.moving_booking_partition', 'on', true);
+    INSERT INTO bookings (id, start_date, end_date, item_id, user_id, owner_id, status)
+        SELECT id, start_date, end_date, item_id, user_id, owner_id, status
+        FROM bookings_default
+        WHERE start_date >= month_start AND start_date < next_month;
+    DELETE FROM bookings_default WHERE start_date >= month_start AND start_date < next_month;
+    PERFORM set_config('shareit.moving_booking_partition', 'off', true);
+    ALTER TABLE bookings ATTACH PARTITION bookings_default DEFAULT;
+    RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Удаление секции триггеры не вызывает, поэтому интервалы архивных бронирований удаляются явно
+CREATE OR REPLACE FUNCTION archive_booking_partitions(retention_months int) RETURNS int AS $$
+DECLARE
+    boundary date := (date_trunc('month', now()) - make_interval(months => retention_months))::date;
+    part record;
+    archived int := 0;
+BEGIN
+    FOR part IN
+        SELECT c.relname
+        FROM pg_inherits AS i
+        JOIN pg_class AS c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'bookings'::regclass
+        AND c.relname ~ '^bookings_p[0-9]{6}$'
+        ORDER BY c.relname
+    LOOP
+        IF to_date(substring(part.relname FROM 11), 'YYYYMM') + interval '1 month' <= boundary THEN
+            EXECUTE format('ALTER TABLE bookings DETACH PARTITION %I', part.relname);
+            EXECUTE format('INSERT INTO bookings_history (id, start_date, end_date, item_id, user_id, owner_id, status) '
+                'SELECT id, start_date, end_date, item_id, user_id, owner_id, status FROM %I', part.relname);
+            EXECUTE format('DELETE FROM booking_intervals WHERE booking_id IN (SELECT id FROM %I)', part.relname);
+            EXECUTE format('DROP TABLE %I', part.relname);
+            archived := archived + 1;
+        END IF;
+    END LOOP;
+    RETURN archived;
+END;
+$$ LANGUAGE plpgsql;
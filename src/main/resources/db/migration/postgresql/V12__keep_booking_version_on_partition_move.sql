@@ -0,0 +1,25 @@
+-- Перенос строк в новую секцию не копировал столбец version: он сбрасывался в 0,
+-- и ETag, выданный клиенту до переноса, переставал совпадать с версией бронирования
+CREATE OR REPLACE FUNCTION create_booking_partition(month_start date) RETURNS boolean AS $$
+DECLARE
+    suffix text := to_char(month_start, 'YYYYMM');
+    partition_name text := 'bookings_p' || suffix;
+    next_month date := (month_start + interval '1 month')::date;
+BEGIN
+    IF to_regclass(partition_name) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+    ALTER TABLE bookings DETACH PARTITION bookings_default;
+    EXECUTE format('CREATE TABLE %I PARTITION OF bookings FOR VALUES FROM (%L) TO (%L)',
+        partition_name, month_start, next_month);
+    PERFORM set_config('shareit.moving_booking_partition', 'on', true);
+    INSERT INTO bookings (id, start_date, end_date, item_id, user_id, owner_id, status, version)
+        SELECT id, start_date, end_date, item_id, user_id, owner_id, status, version
+        FROM bookings_default
+        WHERE start_date >= month_start AND start_date < next_month;
+    DELETE FROM bookings_default WHERE start_date >= month_start AND start_date < next_month;
+    PERFORM set_config('shareit.moving_booking_partition', 'off', true);
+    ALTER TABLE bookings ATTACH PARTITION bookings_default DEFAULT;
+    RETURN true;
+END;
+$$ LANGUAGE plpgsql;
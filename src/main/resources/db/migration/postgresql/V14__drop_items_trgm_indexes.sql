@@ -0,0 +1,4 @@
+-- Вещи в PostgreSQL ищутся по search_vector (V9), поиск подстроки остался только для H2.
+-- Триграммные индексы ничего не ускоряют, но обновляются при каждом изменении названия или описания
+DROP INDEX IF EXISTS items_name_trgm_idx;
+DROP INDEX IF EXISTS items_description_trgm_idx;
@@ -0,0 +1,3 @@
+-- Прогрев индекса бронирований в памяти: незакончившиеся блокирующие бронирования по порядку начала,
+-- начиная с границы максимальной длительности, без просмотра закончившихся и отклоненных
+CREATE INDEX IF NOT EXISTS bookings_blocking_start_idx ON bookings (start_date, id) WHERE status IN ('WAITING', 'APPROVED');
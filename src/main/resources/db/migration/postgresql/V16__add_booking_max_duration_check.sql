@@ -0,0 +1,4 @@
+-- Поиск пересечений и текущих бронирований ограничивает start_date снизу максимальной длительностью бронирования.
+-- Граница верна, только если ни одно сохраненное бронирование не длиннее, поэтому длительность ограничивается и в базе.
+-- Приложение не запускается с shareit.booking.max-duration меньше этого значения
+ALTER TABLE bookings ADD CONSTRAINT bookings_max_duration CHECK (end_date <= start_date + interval '90 days');
@@ -0,0 +1,5 @@
+-- Незавершенная строка закрепляет ключ за выполняющимся запросом до конца аренды.
+-- Раньше ее перехватывали по истечении wait-timeout, и медленный первый запрос выполнялся повторно
+ALTER TABLE idempotency_keys ADD COLUMN IF NOT EXISTS lease_until timestamp;
+UPDATE idempotency_keys SET lease_until = created_at + interval '10 minutes' WHERE lease_until IS NULL;
+ALTER TABLE idempotency_keys ALTER COLUMN lease_until SET NOT NULL;
@@ -0,0 +1,8 @@
+-- Пользователь стоит в очереди на интервал вещи не больше одного раза. Повторы, записанные до ограничения,
+-- удаляются, остается самая ранняя запись
+DELETE FROM booking_waitlist w
+WHERE EXISTS (SELECT 1 FROM booking_waitlist d
+              WHERE d.item_id = w.item_id AND d.user_id = w.user_id
+                AND d.start_date = w.start_date AND d.end_date = w.end_date AND d.id < w.id);
+
+CREATE UNIQUE INDEX IF NOT EXISTS booking_waitlist_entry_uq ON booking_waitlist (item_id, user_id, start_date, end_date);
@@ -0,0 +1,145 @@
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+CREATE TABLE IF NOT EXISTS users (
+id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+name varchar(50),
+email varchar(50) UNIQUE );
+
+CREATE TABLE IF NOT EXISTS requests (
+id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+description varchar(1000),
+creation_date timestamp,
+user_id BIGINT,
+CONSTRAINT fk_request_to_user FOREIGN KEY(user_id) REFERENCES users(id) );
+
+CREATE TABLE IF NOT EXISTS items (
+id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+name varchar(100),
+description varchar(1000),
+available boolean,
+user_id BIGINT,
+request_id BIGINT,
+CONSTRAINT fk_items_to_users FOREIGN KEY(user_id) REFERENCES users(id),
+CONSTRAINT fk_items_to_request FOREIGN KEY(request_id) REFERENCES requests(id) );
+
+-- Бронирования секционированы по месяцам start_date. Ключ секционирования обязан входить в первичный ключ,
+-- а ограничение исключения на секционированной таблице невозможно, поэтому оно создается в каждой секции.
+CREATE TABLE IF NOT EXISTS bookings (
+id BIGSERIAL,
+start_date timestamp NOT NULL,
+end_date timestamp,
+item_id BIGINT,
+user_id BIGINT,
+owner_id BIGINT,
+status varchar,
+period tsrange GENERATED ALWAYS AS (tsrange(start_date, end_date, '[)')) STORED,
+CONSTRAINT pk_bookings PRIMARY KEY (id, start_date),
+CONSTRAINT fk_booking_to_item FOREIGN KEY(item_id) REFERENCES items(id),
+CONSTRAINT fk_booking_to_user FOREIGN KEY(user_id) REFERENCES users(id),
+CONSTRAINT fk_booking_to_owner FOREIGN KEY(owner_id) REFERENCES users(id) )
+PARTITION BY RANGE (start_date);
+
+-- Бронирования вне созданных секций (например, на далекое будущее) попадают в секцию по умолчанию
+CREATE TABLE IF NOT EXISTS bookings_default PARTITION OF bookings DEFAULT;
+
+ALTER TABLE bookings_default ADD CONSTRAINT bookings_no_overlap_default
+    EXCLUDE USING gist (item_id WITH =, period WITH &&) WHERE (status IN ('WAITING', 'APPROVED'));
+
+-- Архив бронирований из секций старше срока хранения
+CREATE TABLE IF NOT EXISTS bookings_history (
+id BIGINT PRIMARY KEY,
+start_date timestamp,
+end_date timestamp,
+item_id BIGINT,
+user_id BIGINT,
+owner_id BIGINT,
+status varchar,
+archived_at timestamp DEFAULT now() );
+
+CREATE TABLE IF NOT EXISTS comments (
+id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+text varchar,
+item_id BIGINT,
+user_id BIGINT,
+created timestamp,
+CONSTRAINT fk_comment_to_item FOREIGN KEY(item_id) REFERENCES items(id),
+CONSTRAINT fk_comment_to_user FOREIGN KEY(user_id) REFERENCES users(id) );
+
+-- owner_id в бронированиях дублирует владельца вещи и должен следовать за ним при смене владельца
+CREATE OR REPLACE FUNCTION sync_booking_owner() RETURNS trigger AS $$
+BEGIN
+    UPDATE bookings SET owner_id = NEW.user_id WHERE item_id = NEW.id;
+    UPDATE bookings_history SET owner_id = NEW.user_id WHERE item_id = NEW.id;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER items_owner_sync AFTER UPDATE OF user_id ON items
+    FOR EACH ROW WHEN (OLD.user_id IS DISTINCT FROM NEW.user_id) EXECUTE FUNCTION sync_booking_owner();
+
+-- Создает секцию за месяц month_start. Строки этого месяца, попавшие в секцию по умолчанию, переносятся в новую
+CREATE OR REPLACE FUNCTION create_booking_partition(month_start date) RETURNS boolean AS $$
+DECLARE
+    suffix text := to_char(month_start, 'YYYYMM');
+    partition_name text := 'bookings_p' || suffix;
+    next_month date := (month_start + interval '1 month')::date;
+BEGIN
+    IF to_regclass(partition_name) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+    ALTER TABLE bookings DETACH PARTITION bookings_default;
+    EXECUTE format('CREATE TABLE %I PARTITION OF bookings FOR VALUES FROM (%L) TO (%L)',
+        partition_name, month_start, next_month);
+    EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I EXCLUDE USING gist (item_id WITH =, period WITH &&) '
+        'WHERE (status IN (''WAITING'', ''APPROVED''))', partition_name, 'bookings_no_overlap_' || suffix);
+    INSERT INTO bookings (id, start_date, end_date, item_id, user_id, owner_id, status)
+        SELECT id, start_date, end_date, item_id, user_id, owner_id, status
+        FROM bookings_default
+        WHERE start_date >= month_start AND start_date < next_month;
+    DELETE FROM bookings_default WHERE start_date >= month_start AND start_date < next_month;
+    ALTER TABLE bookings ATTACH PARTITION bookings_default DEFAULT;
+    RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Гарантирует наличие секций с текущего месяца на months_ahead месяцев вперед
+CREATE OR REPLACE FUNCTION create_booking_partitions(months_ahead int) RETURNS int AS $$
+DECLARE
+    created int := 0;
+BEGIN
+    FOR i IN 0..months_ahead LOOP
+        IF create_booking_partition((date_trunc('month', now()) + make_interval(months => i))::date) THEN
+            created := created + 1;
+        END IF;
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Переносит в bookings_history секции, закончившиеся раньше чем retention_months месяцев назад, и удаляет их
+CREATE OR REPLACE FUNCTION archive_booking_partitions(retention_months int) RETURNS int AS $$
+DECLARE
+    boundary date := (date_trunc('month', now()) - make_interval(months => retention_months))::date;
+    part record;
+    archived int := 0;
+BEGIN
+    FOR part IN
+        SELECT c.relname
+        FROM pg_inherits AS i
+        JOIN pg_class AS c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'bookings'::regclass
+        AND c.relname ~ '^bookings_p[0-9]{6}$'
+        ORDER BY c.relname
+    LOOP
+        IF to_date(substring(part.relname FROM 11), 'YYYYMM') + interval '1 month' <= boundary THEN
+            EXECUTE format('ALTER TABLE bookings DETACH PARTITION %I', part.relname);
+            EXECUTE format('INSERT INTO bookings_history (id, start_date, end_date, item_id, user_id, owner_id, status) '
+                'SELECT id, start_date, end_date, item_id, user_id, owner_id, status FROM %I', part.relname);
+            EXECUTE format('            archived := archived + 1;
+        END IF;
+    END LOOP;
+    RETURN archived;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT create_booking_partitions(3);
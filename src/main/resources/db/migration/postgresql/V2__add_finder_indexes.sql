@@ -0,0 +1,35 @@
+-- Индексы под выборки репозиториев. Порядок колонок совпадает с фильтром и сортировкой запросов,
+-- чтобы страница читалась из индекса без сортировки всей выборки пользователя
+
+-- Бронирования пользователя: все, текущие, прошедшие, будущие и курсорная пагинация
+CREATE INDEX IF NOT EXISTS bookings_booker_start_idx ON bookings (user_id, start_date DESC);
+CREATE INDEX IF NOT EXISTS bookings_booker_status_start_idx ON bookings (user_id, status, start_date DESC);
+
+-- Бронирования вещей владельца
+CREATE INDEX IF NOT EXISTS bookings_owner_start_idx ON bookings (owner_id, start_date DESC);
+CREATE INDEX IF NOT EXISTS bookings_owner_status_start_idx ON bookings (owner_id, status, start_date DESC);
+
+-- Бронирования вещи: пересечения при допуске, свободные окна, последнее и следующее бронирование
+CREATE INDEX IF NOT EXISTS bookings_item_start_idx ON bookings (item_id, start_date);
+
+-- Поиск просроченных заявок очисткой
+CREATE INDEX IF NOT EXISTS bookings_waiting_start_idx ON bookings (start_date) WHERE status = 'WAITING';
+
+CREATE INDEX IF NOT EXISTS bookings_history_user_start_idx ON bookings_history (user_id, start_date);
+CREATE INDEX IF NOT EXISTS bookings_history_item_start_idx ON bookings_history (item_id, start_date);
+CREATE INDEX IF NOT EXISTS bookings_history_owner_start_idx ON bookings_history (owner_id, start_date);
+
+-- Вещи владельца отдаются по возрастанию id
+CREATE INDEX IF NOT EXISTS items_owner_id_idx ON items (user_id, id);
+CREATE INDEX IF NOT EXISTS items_request_idx ON items (request_id);
+
+-- Поиск подстроки в названии и описании: lower(...) like '%text%' обслуживается только триграммами
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX IF NOT EXISTS items_name_trgm_idx ON items USING gin (lower(name) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS items_description_trgm_idx ON items USING gin (lower(description) gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS comments_item_idx ON comments (item_id);
+
+-- Свои запросы отдаются по убыванию даты создания, чужие листаются в том же порядке
+CREATE INDEX IF NOT EXISTS requests_user_created_idx ON requests (user_id, creation_date DESC);
+CREATE INDEX IF NOT EXISTS requests_created_idx ON requests (creation_date DESC);
@@ -0,0 +1,11 @@
+-- Ответы на запросы с ключом идемпотентности для режима shareit.idempotency.store=jdbc.
+-- Строка с completed = false означает, что запрос с этим ключом сейчас выполняется.
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+idempotency_key varchar(400) PRIMARY KEY,
+completed boolean NOT NULL DEFAULT false,
+status int,
+content_type varchar(255),
+body bytea,
+created_at timestamp NOT NULL );
+
+CREATE INDEX IF NOT EXISTS idempotency_keys_created_idx ON idempotency_keys (created_at);
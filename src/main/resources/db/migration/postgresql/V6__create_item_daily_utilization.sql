@@ -0,0 +1,19 @@
+-- Занятость вещей по дням: секунды подтвержденных бронирований, пришедшиеся на день.
+-- Строки меняются в одной транзакции со статусом бронирования, отчеты читают только их.
+CREATE TABLE IF NOT EXISTS item_daily_utilization (
+item_id BIGINT NOT NULL,
+usage_day date NOT NULL,
+booked_seconds BIGINT NOT NULL DEFAULT 0,
+PRIMARY KEY (item_id, usage_day) );
+
+-- Начальное заполнение по уже подтвержденным бронированиям, включая перенесенные в архив
+INSERT INTO item_daily_utilization (item_id, usage_day, booked_seconds)
+SELECT b.item_id, d::date,
+       SUM(FLOOR(EXTRACT(EPOCH FROM LEAST(b.end_date, d + INTERVAL '1 day') - GREATEST(b.start_date, d))))::BIGINT
+FROM (SELECT item_id, start_date, end_date FROM bookings WHERE status = 'APPROVED'
+      UNION ALL
+      SELECT item_id, start_date, end_date FROM bookings_history WHERE status = 'APPROVED') AS b
+CROSS JOIN LATERAL generate_series(date_trunc('day', b.start_date), b.end_date, INTERVAL '1 day') AS d
+WHERE d < b.end_date
+GROUP BY b.item_id, d::date
+ON CONFLICT (item_id, usage_day) DO NOTHING;
@@ -0,0 +1,13 @@
+-- Очередь ожидания на занятые интервалы вещей. Запись удаляется, когда по ней создано бронирование.
+CREATE TABLE IF NOT EXISTS booking_waitlist (
+id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+item_id BIGINT NOT NULL,
+user_id BIGINT NOT NULL,
+start_date timestamp NOT NULL,
+end_date timestamp NOT NULL,
+created_at timestamp NOT NULL DEFAULT now(),
+CONSTRAINT fk_waitlist_to_item FOREIGN KEY(item_id) REFERENCES items(id),
+CONSTRAINT fk_waitlist_to_user FOREIGN KEY(user_id) REFERENCES users(id) );
+
+-- Кандидаты на освободившийся интервал выбираются диапазоном по start_date внутри вещи
+CREATE INDEX IF NOT EXISTS booking_waitlist_item_start_idx ON booking_waitlist (item_id, start_date);
@@ -0,0 +1,3 @@
+-- Последнее и следующее подтвержденное бронирование вещи: одна точка в индексе,
+-- сколько бы отклоненных и прошедших бронирований у вещи ни было
+CREATE INDEX IF NOT EXISTS bookings_item_approved_start_idx ON bookings (item_id, start_date) WHERE status = 'APPROVED';
@@ -0,0 +1,7 @@
+-- Полнотекстовый поиск вещей: слова названия весят больше слов описания.
+-- Столбец вычисляется самой базой, поэтому приложение его не пишет и не читает напрямую
+ALTER TABLE items ADD COLUMN IF NOT EXISTS search_vector tsvector GENERATED ALWAYS AS (
+    setweight(to_tsvector('russian', coalesce(name, '')), 'A') ||
+    setweight(to_tsvector('russian', coalesce(description, '')), 'B')) STORED;
+
+CREATE INDEX IF NOT EXISTS items_search_vector_idx ON items USING gin (search_vector);
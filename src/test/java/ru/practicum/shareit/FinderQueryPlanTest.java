@@ -0,0 +1,354 @@
+package ru.practicum.shareit;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.shareit.booking.BookingHistoryRepository;
+import ru.practicum.shareit.booking.BookingRepository;
+import ru.practicum.shareit.booking.Status;
+import ru.practicum.shareit.item.CommentRepository;
+import ru.practicum.shareit.item.ItemRepository;
+import ru.practicum.shareit.request.ItemRequestRepository;
+import ru.practicum.shareit.user.UserRepository;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.not;
+
+/*
+ * Каждая выборка репозиториев на заполненной базе PostgreSQL должна идти по индексу, а не полным просмотром таблицы.
+ * Планы строятся для тех же значений параметров, с которыми запрос выполнил репозиторий,
+ * поэтому частичные индексы и отсечение секций учитываются так же, как в работе.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class FinderQueryPlanTest extends PostgresTest {
+    private static final List<ExecutedStatement> EXECUTED = new CopyOnWriteArrayList<>();
+    private static volatile boolean capturing;
+    private static final List<Class<?>> REPOSITORIES = List.of(BookingRepository.class,
+            BookingHistoryRepository.class, ItemRepository.class, CommentRepository.class,
+            ItemRequestRepository.class, UserRepository.class);
+    //Поиск подстроки - запасной путь для H2, в PostgreSQL вещи ищутся полнотекстовыми запросами
+    private static final Set<String> H2_ONLY = Set.of("ItemRepository.findAllByNameOrDescription",
+            "ItemRepository.findIdsByNameOrDescription");
+    private static final Duration MAX_DURATION = Duration.ofDays(90);
+    private static final int USERS = 20_000;
+    private static final int ITEMS = 20_000;
+    private static final int BOOKINGS = 100_000;
+
+    private final BookingRepository bookingRepository;
+    private final BookingHistoryRepository bookingHistoryRepository;
+    private final ItemRepository itemRepository;
+    private final CommentRepository commentRepository;
+    private final ItemRequestRepository itemRequestRepository;
+    private final UserRepository userRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+
+    @TestConfiguration
+    static class StatementCaptureConfig {
+        //Запоминает SQL и значения параметров каждого запроса, выполненного при включенном захвате
+        @Bean
+        static BeanPostProcessor statementCapture() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (!(bean instanceof DataSource)) {
+                        return bean;
+                    }
+                    return proxy(DataSource.class, bean, (target, method, args) -> {
+                        Object result = invoke(target, method, args);
+                        return result instanceof Connection ? captureConnection((Connection) result) : result;
+                    });
+                }
+            };
+        }
+
+        private static Connection captureConnection(Connection connection) {
+            return proxy(Connection.class, connection, (target, method, args) -> {
+                Object result = invoke(target, method, args);
+                if (result instanceof PreparedStatement && method.getName().equals("prepareStatement")) {
+                    return captureStatement((PreparedStatement) result, (String) args[0]);
+                }
+                return result;
+            });
+        }
+
+        private static PreparedStatement captureStatement(PreparedStatement statement, String sql) {
+            List<Parameter> parameters = new ArrayList<>();
+            return proxy(PreparedStatement.class, statement, (target, method, args) -> {
+                String name = method.getName();
+                if (name.startsWith("set") && args != null && args.length > 1 && args[0] instanceof Integer) {
+                    parameters.add(new Parameter(method, args));
+                } else if (name.equals("clearParameters")) {
+                    parameters.clear();
+                } else if (capturing && (args == null || args.length == 0) && name.startsWith("execute")) {
+                    EXECUTED.add(new ExecutedStatement(sql, List.copyOf(parameters)));
+                }
+                return invoke(target, method, args);
+            });
+        }
+    }
+
+    @BeforeEach
+    void fillDB() {
+        jdbcTemplate.update("insert into users (name, email) " +
+                "select 'user' || i, 'user' || i || '@yandex.ru' from generate_series(0, ?) as i", USERS - 1);
+        jdbcTemplate.update("insert into requests (description, creation_date, user_id) " +
+                "select 'нужна вещь ' || i, now() - i * interval '1 hour', u.first + i % ? " +
+                "from generate_series(0, ?) as i, (select min(id) as first from users) as u", USERS, ITEMS - 1);
+        jdbcTemplate.update("insert into items (name, description, available, user_id, request_id) " +
+                "select 'вещь ' || substr(md5(i::text), 1, 8), 'описание ' || substr(md5(i::text), 9, 8), " +
+                "i % 10 <> 0, u.first + i % ?, r.first + i " +
+                "from generate_series(0, ?) as i, (select min(id) as first from users) as u, " +
+                "(select min(id) as first from requests) as r", USERS, ITEMS - 1);
+        //Большинство бронирований завершены, ожидающих подтверждения немного, как в работающей системе
+        jdbcTemplate.update("insert into bookings (start_date, end_date, item_id, user_id, owner_id, status) " +
+                "select now() + (i - ?) * interval '15 minutes', now() + (i - ?) * interval '15 minutes' + " +
+                "interval '1 day', it.first + i % ?, u.first + (i + 1) % ?, u.first + i % ? % ?, " +
+                "case when i % 50 = 0 then 'WAITING' when i % 7 = 0 then 'REJECTED' " +
+                "when i % 11 = 0 then 'CANCELED' else 'APPROVED' end " +
+                "from generate_series(0, ?) as i, (select min(id) as first from users) as u, " +
+                "(select min(id) as first from items) as it",
+                BOOKINGS / 2, BOOKINGS / 2, ITEMS, USERS, ITEMS, USERS, BOOKINGS - 1);
+        jdbcTemplate.update("insert into bookings_history (id, start_date, end_date, item_id, user_id, owner_id, " +
+                "status) select id, start_date - interval '3 years', end_date - interval '3 years', item_id, " +
+                "user_id, owner_id, status from bookings");
+        jdbcTemplate.update("insert into comments (text, item_id, user_id, created) " +
+                "select 'отзыв ' || i, it.first + i, u.first + (i + 1) % ?, now() " +
+                "from generate_series(0, ?) as i, (select min(id) as first from users) as u, " +
+                "(select min(id) as first from items) as it", USERS, ITEMS - 1);
+        //Новые строки GIN-индекс держит в списке ожидания до очистки автоочисткой, в работающей базе он почти пуст
+        jdbcTemplate.queryForList("select gin_clean_pending_list(i.indexrelid) from pg_index as i " +
+                "join pg_class as c on c.oid = i.indexrelid join pg_am as am on am.oid = c.relam " +
+                "where am.amname = 'gin'");
+        jdbcTemplate.execute("analyze");
+    }
+
+    @Test
+    void finders_whenDatabaseSeeded_thenUseIndexes() {
+        //given
+        LocalDateTime now = LocalDateTime.now();
+        Long userId = jdbcTemplate.queryForObject("select min(id) from users", Long.class);
+        Long itemId = jdbcTemplate.queryForObject("select min(id) from items", Long.class);
+        Long requestId = jdbcTemplate.queryForObject("select min(id) from requests", Long.class);
+        List<Long> bookingIds = jdbcTemplate.queryForList("select id from bookings order by id limit 3", Long.class);
+        String searchWord = jdbcTemplate.queryForObject("select substr(md5('1999'), 1, 6)", String.class);
+        PageRequest page = PageRequest.of(0, 10, Sort.by("start").descending());
+        PageRequest cursorPage = PageRequest.of(0, 10);
+        Map<String, Runnable> finders = new LinkedHashMap<>();
+        finders.put("BookingRepository.findByBookerId", () -> bookingRepository.findByBookerId(userId, page));
+        finders.put("BookingRepository.findByCurrentBookerStartedAfter",
+                () -> bookingRepository.findByCurrentBooker(userId, now, MAX_DURATION, page));
+        finders.put("BookingRepository.findByBookerIdAndEndIsBefore",
+                () -> bookingRepository.findByBookerIdAndEndIsBefore(userId, now, page));
+        finders.put("BookingRepository.findByBookerIdAndStartIsAfter",
+                () -> bookingRepository.findByBookerIdAndStartIsAfter(userId, now, page));
+        finders.put("BookingRepository.findByBookerIdAndStatus",
+                () -> bookingRepository.findByBookerIdAndStatus(userId, Status.WAITING, page));
+        finders.put("BookingRepository.findByOwnerId", () -> bookingRepository.findByOwnerId(userId, page));
+        finders.put("BookingRepository.findByOwnerCurrentBookerStartedAfter",
+                () -> bookingRepository.findByOwnerCurrentBooker(userId, now, MAX_DURATION, page));
+        finders.put("BookingRepository.findByOwnerIdAndEndIsBefore",
+                () -> bookingRepository.findByOwnerIdAndEndIsBefore(userId, now, page));
+        finders.put("BookingRepository.findByOwnerIdAndStartIsAfter",
+                () -> bookingRepository.findByOwnerIdAndStartIsAfter(userId, now, page));
+        finders.put("BookingRepository.findByOwnerIdAndStatus",
+                () -> bookingRepository.findByOwnerIdAndStatus(userId, Status.WAITING, page));
+        finders.put("BookingRepository.findByBookerIdAfterCursor",
+                () -> bookingRepository.findByBookerIdAfterCursor(userId, now, Long.MAX_VALUE, cursorPage));
+        finders.put("BookingRepository.findByCurrentBookerStartedAfterCursor",
+                () -> bookingRepository.findByCurrentBookerAfterCursor(userId, now, Long.MAX_VALUE, MAX_DURATION,
+                        cursorPage));
+        finders.put("BookingRepository.findPastByBookerIdAfterCursor",
+                () -> bookingRepository.findPastByBookerIdAfterCursor(userId, now, now, Long.MAX_VALUE, cursorPage));
+        finders.put("BookingRepository.findFutureByBookerIdAfterCursor",
+                () -> bookingRepository.findFutureByBookerIdAfterCursor(userId, now, now.plusYears(10),
+                        Long.MAX_VALUE, cursorPage));
+        finders.put("BookingRepository.findByBookerIdAndStatusAfterCursor",
+                () -> bookingRepository.findByBookerIdAndStatusAfterCursor(userId, Status.WAITING, now,
+                        Long.MAX_VALUE, cursorPage));
+        finders.put("BookingRepository.findByOwnerIdAfterCursor",
+                () -> bookingRepository.findByOwnerIdAfterCursor(userId, now, Long.MAX_VALUE, cursorPage));
+        finders.put("BookingRepository.findByOwnerCurrentBookerStartedAfterCursor",
+                () -> bookingRepository.findByOwnerCurrentBookerAfterCursor(userId, now, Long.MAX_VALUE, MAX_DURATION,
+                        cursorPage));
+        finders.put("BookingRepository.findPastByOwnerIdAfterCursor",
+                () -> bookingRepository.findPastByOwnerIdAfterCursor(userId, now, now, Long.MAX_VALUE, cursorPage));
+        finders.put("BookingRepository.findFutureByOwnerIdAfterCursor",
+                () -> bookingRepository.findFutureByOwnerIdAfterCursor(userId, now, now.plusYears(10),
+                        Long.MAX_VALUE, cursorPage));
+        finders.put("BookingRepository.findByOwnerIdAndStatusAfterCursor",
+                () -> bookingRepository.findByOwnerIdAndStatusAfterCursor(userId, Status.WAITING, now,
+                        Long.MAX_VALUE, cursorPage));
+        finders.put("BookingRepository.findByItemIdInWindowAfterCursor",
+                () -> bookingRepository.findByItemIdInWindowAfterCursor(itemId, now, now.plusDays(30),
+                        now.minus(MAX_DURATION), 0L, cursorPage));
+        finders.put("BookingRepository.findSlotsByItemIdInWindowAfterCursor",
+                () -> bookingRepository.findSlotsByItemIdInWindowAfterCursor(itemId, now, now.plusDays(30),
+                        now.minus(MAX_DURATION), 0L, cursorPage));
+        finders.put("BookingRepository.findTimeCrossingBookingsStartedAfter",
+                () -> bookingRepository.findTimeCrossingBookings(itemId, now, now.plusDays(1), MAX_DURATION));
+        finders.put("BookingRepository.findTimeCrossingSlotsOfItemsStartedAfter",
+                () -> bookingRepository.findTimeCrossingSlotsOfItems(List.of(itemId), now, now.plusDays(1),
+                        MAX_DURATION));
+        finders.put("BookingRepository.findUnfinishedBlockingSlotsAfterCursor",
+                () -> bookingRepository.findUnfinishedBlockingSlotsAfterCursor(now, now.minus(MAX_DURATION), 0L,
+                        PageRequest.of(0, 1000)));
+        finders.put("BookingRepository.findWaitingSlotsOfOwner",
+                () -> bookingRepository.findWaitingSlotsOfOwner(bookingIds, userId));
+        finders.put("BookingRepository.updateWaitingStatusOfOwner",
+                () -> bookingRepository.updateWaitingStatusOfOwner(bookingIds, userId, Status.APPROVED));
+        finders.put("BookingRepository.findStaleWaitingSlots",
+                () -> bookingRepository.findStaleWaitingSlots(now, cursorPage));
+        finders.put("BookingRepository.updateWaitingStatus",
+                () -> bookingRepository.updateWaitingStatus(bookingIds, Status.EXPIRED));
+        finders.put("BookingRepository.updateStatusIfVersionMatches",
+                () -> bookingRepository.updateStatusIfVersionMatches(bookingIds.get(0), 0L, Status.APPROVED));
+        finders.put("BookingRepository.findIdsByIdInAndStatus",
+                () -> bookingRepository.findIdsByIdInAndStatus(bookingIds, Status.WAITING));
+        finders.put("BookingRepository.streamBlockingSlotsStartedAfter",
+                () -> bookingRepository.streamBlockingSlots(itemId, now, now.plusDays(10), MAX_DURATION).close());
+        finders.put("BookingRepository.countByBookerIdGroupByState",
+                () -> bookingRepository.countByBookerIdGroupByState(userId, now));
+        finders.put("BookingRepository.countByOwnerIdGroupByState",
+                () -> bookingRepository.countByOwnerIdGroupByState(userId, now));
+        finders.put("BookingHistoryRepository.findByBookerId",
+                () -> bookingHistoryRepository.findByBookerId(userId, page));
+        finders.put("BookingHistoryRepository.findByOwnerId",
+                () -> bookingHistoryRepository.findByOwnerId(userId, page));
+        finders.put("ItemRepository.findAllByOwnerId",
+                () -> itemRepository.findAllByOwnerId(userId, PageRequest.of(0, 10, Sort.by("id"))));
+        finders.put("ItemRepository.findAllByFullText",
+                () -> itemRepository.findAllByFullText(searchWord + ":*", PageRequest.of(0, 10)));
+        finders.put("ItemRepository.findIdsByFullText",
+                () -> itemRepository.findIdsByFullText(searchWord + ":*", 0L, cursorPage));
+        finders.put("ItemRepository.findAllByRequestId", () -> itemRepository.findAllByRequestId(requestId));
+        finders.put("ItemRepository.findAllByRequestIdIn",
+                () -> itemRepository.findAllByRequestIdIn(List.of(requestId)));
+        finders.put("ItemRepository.updateIfVersionMatches",
+                () -> itemRepository.updateIfVersionMatches(itemId, 0L, "Дрель", null, null));
+        finders.put("ItemRepository.findLockedById", () -> itemRepository.findLockedById(itemId));
+        finders.put("ItemRepository.findLockedByIdIn", () -> itemRepository.findLockedByIdIn(List.of(itemId)));
+        finders.put("CommentRepository.findByItemId", () -> commentRepository.findByItemId(itemId));
+        finders.put("CommentRepository.findByItemIdIn", () -> commentRepository.findByItemIdIn(List.of(itemId)));
+        finders.put("ItemRequestRepository.findByRequesterId",
+                () -> itemRequestRepository.findByRequesterId(userId, Sort.by("created").descending()));
+        finders.put("ItemRequestRepository.findByRequesterIdNot", () -> itemRequestRepository.findByRequesterIdNot(
+                userId, PageRequest.of(0, 10, Sort.by("created").descending())));
+        finders.put("UserRepository.findUserByEmail", () -> userRepository.findUserByEmail("user7@yandex.ru"));
+        finders.put("UserRepository.updateIfVersionMatches",
+                () -> userRepository.updateIfVersionMatches(userId, 0L, "Akhra", null));
+
+        //Новый метод репозитория без строки выше не пройдет незамеченным
+        Set<String> declared = REPOSITORIES.stream()
+                .flatMap(repository -> Arrays.stream(repository.getDeclaredMethods())
+                        .filter(method -> !method.isDefault() && !Modifier.isStatic(method.getModifiers()))
+                        .map(method -> repository.getSimpleName() + "." + method.getName()))
+                .collect(Collectors.toSet());
+        declared.removeAll(finders.keySet());
+        declared.removeAll(H2_ONLY);
+        assertThat("Методы без проверки плана: " + declared, declared, empty());
+
+        List<String> tableScans = new ArrayList<>();
+        for (Map.Entry<String, Runnable> finder : finders.entrySet()) {
+            //when
+            entityManager.clear();
+            EXECUTED.clear();
+            capturing = true;
+            try {
+                finder.getValue().run();
+            } finally {
+                capturing = false;
+            }
+            //then
+            assertThat(finder.getKey() + " не выполнил запросов", EXECUTED, not(empty()));
+            for (ExecutedStatement statement : EXECUTED) {
+                String plan = explain(statement);
+                if (plan.contains("\"Seq Scan\"")) {
+                    tableScans.add(finder.getKey() + ": " + statement.sql + "\n" + plan);
+                }
+            }
+        }
+        assertThat(String.join("\n", tableScans), tableScans, empty());
+    }
+
+    private String explain(ExecutedStatement executed) {
+        return jdbcTemplate.execute((ConnectionCallback<String>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("explain (format json) " + executed.sql)) {
+                for (Parameter parameter : executed.parameters) {
+                    invoke(statement, parameter.setter, parameter.args);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    return resultSet.getString(1);
+                }
+            } catch (Throwable e) {
+                throw new IllegalStateException("Не удалось построить план: " + executed.sql, e);
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, Object target, ProxyHandler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> handler.handle(target, method, args);
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocationHandler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private interface ProxyHandler {
+        Object handle(Object target, Method method, Object[] args) throws Throwable;
+    }
+
+    @RequiredArgsConstructor
+    private static class Parameter {
+        private final Method setter;
+        private final Object[] args;
+    }
+
+    @RequiredArgsConstructor
+    private static class ExecutedStatement {
+        private final String sql;
+        private final List<Parameter> parameters;
+    }
+}
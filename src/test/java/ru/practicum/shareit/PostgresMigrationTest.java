@@ -0,0 +1,157 @@
+package ru.practicum.shareit;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+//Миграции PostgreSQL применяются с нуля, а функции обслуживания секций бронирований работают на реальной базе
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class PostgresMigrationTest extends PostgresTest {
+    private final JdbcTemplate jdbcTemplate;
+
+    private Long userId;
+
+    private Long itemId;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("insert into users (name, email) values ('Akhra', 'akhra@yandex.ru')");
+        userId = jdbcTemplate.queryForObject("select id from users where email = 'akhra@yandex.ru'", Long.class);
+        jdbcTemplate.update("insert into items (name, description, available, user_id) " +
+                "values ('Дрель', 'мощная', true, ?)", userId);
+        itemId = jdbcTemplate.queryForObject("select id from items where user_id = ?", Long.class, userId);
+    }
+
+    @Test
+    void migrate_whenStartedOnEmptyDatabase_thenEveryMigrationSucceeded() {
+        //when
+        Integer failed = jdbcTemplate.queryForObject("select count(*) from flyway_schema_history " +
+                "where not success", Integer.class);
+        Integer applied = jdbcTemplate.queryForObject("select count(*) from flyway_schema_history " +
+                "where version is not null", Integer.class);
+        Integer trigramIndexes = jdbcTemplate.queryForObject("select count(*) from pg_indexes " +
+                "where indexname in ('items_name_trgm_idx', 'items_description_trgm_idx')", Integer.class);
+        //then
+        assertThat(failed, equalTo(0));
+        assertThat(applied > 0, equalTo(true));
+        assertThat(trigramIndexes, equalTo(0));
+    }
+
+    @Test
+    void archiveBookingPartitions_whenPartitionOlderThanRetention_thenRowsMovedToHistoryAndPartitionDropped() {
+        //given
+        LocalDate month = LocalDate.now().withDayOfMonth(1).minusMonths(24);
+        String partition = String.format("bookings_p%d%02d", month.getYear(), month.getMonthValue());
+        jdbcTemplate.queryForObject("select create_booking_partition(?)", Boolean.class, month);
+        insertBooking(month.atTime(10, 0));
+        //when
+        Integer archived = jdbcTemplate.queryForObject("select archive_booking_partitions(12)", Integer.class);
+        //then
+        assertThat(archived, equalTo(1));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from bookings_history where item_id = ?",
+                Integer.class, itemId), equalTo(1));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from bookings where item_id = ?",
+                Integer.class, itemId), equalTo(0));
+        assertThat(jdbcTemplate.queryForObject("select to_regclass(?)::text", String.class, partition),
+                nullValue());
+        assertThat(jdbcTemplate.queryForObject("select count(*) from booking_intervals where item_id = ?",
+                Integer.class, itemId), equalTo(0));
+    }
+
+    @Test
+    void createBookingPartition_whenRowsInDefaultPartition_thenRowsMovedToNewPartition() {
+        //given
+        LocalDate month = LocalDate.now().withDayOfMonth(1).plusYears(5);
+        String partition = String.format("bookings_p%d%02d", month.getYear(), month.getMonthValue());
+        insertBooking(month.atTime(10, 0));
+        jdbcTemplate.update("update bookings set version = 3 where item_id = ?", itemId);
+        //when
+        Boolean created = jdbcTemplate.queryForObject("select create_booking_partition(?)", Boolean.class, month);
+        //then
+        assertThat(created, equalTo(true));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from bookings_default where item_id = ?",
+                Integer.class, itemId), equalTo(0));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from " + partition + " where item_id = ?",
+                Integer.class, itemId), equalTo(1));
+        assertThat(jdbcTemplate.queryForObject("select version from " + partition + " where item_id = ?",
+                Long.class, itemId), equalTo(3L));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from booking_intervals where item_id = ?",
+                Integer.class, itemId), equalTo(1));
+    }
+
+    @Test
+    void createBookingPartition_whenDefaultPartitionReattached_thenNewBookingsIntervalsStillRecorded() {
+        //given
+        LocalDate month = LocalDate.now().withDayOfMonth(1).plusYears(5);
+        jdbcTemplate.queryForObject("select create_booking_partition(?)", Boolean.class, month);
+        //when
+        insertBooking(month.plusYears(1).atTime(10, 0));
+        //then
+        assertThat(jdbcTemplate.queryForObject("select count(*) from booking_intervals where item_id = ?",
+                Integer.class, itemId), equalTo(1));
+    }
+
+    @Test
+    void insertBooking_whenOverlapsBookingStartedInPreviousMonthPartition_thenExclusionViolated() {
+        //given
+        LocalDateTime monthStart = LocalDate.now().withDayOfMonth(1).plusMonths(2).atStartOfDay();
+        insertBooking(monthStart.minusDays(2), monthStart.plusDays(2));
+
+        Assertions.assertThrows(
+                DataIntegrityViolationException.class,
+                () -> insertBooking(monthStart.plusDays(1), monthStart.plusDays(3)));
+    }
+
+    @Test
+    void insertBooking_whenOverlappingBookingRejected_thenIntervalReleased() {
+        //given
+        LocalDateTime monthStart = LocalDate.now().withDayOfMonth(1).plusMonths(2).atStartOfDay();
+        insertBooking(monthStart.minusDays(2), monthStart.plusDays(2));
+        jdbcTemplate.update("update bookings set status = 'REJECTED' where item_id = ?", itemId);
+        //when
+        insertBooking(monthStart.plusDays(1), monthStart.plusDays(3));
+        //then
+        assertThat(jdbcTemplate.queryForObject("select count(*) from booking_intervals where item_id = ?",
+                Integer.class, itemId), equalTo(1));
+    }
+
+    @Test
+    void updateStatus_whenRejectedBookingApprovedOverTakenInterval_thenExclusionViolated() {
+        //given
+        LocalDateTime monthStart = LocalDate.now().withDayOfMonth(1).plusMonths(2).atStartOfDay();
+        insertBooking(monthStart.minusDays(2), monthStart.plusDays(2));
+        jdbcTemplate.update("update bookings set status = 'REJECTED' where item_id = ?", itemId);
+        insertBooking(monthStart.plusDays(1), monthStart.plusDays(3));
+
+        Assertions.assertThrows(
+                DataIntegrityViolationException.class,
+                () -> jdbcTemplate.update("update bookings set status = 'APPROVED' " +
+                        "where item_id = ? and status = 'REJECTED'", itemId));
+    }
+
+    private void insertBooking(LocalDateTime start) {
+        insertBooking(start, start.plusDays(1));
+    }
+
+    private void insertBooking(LocalDateTime start, LocalDateTime end) {
+        jdbcTemplate.update("insert into bookings (start_date, end_date, item_id, user_id, owner_id, status) " +
+                        "values (?, ?, ?, ?, ?, 'APPROVED')",
+                Timestamp.valueOf(start), Timestamp.valueOf(end), itemId, userId, userId);
+    }
+}
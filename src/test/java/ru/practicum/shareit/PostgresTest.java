@@ -0,0 +1,30 @@
+package ru.practicum.shareit;
+
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import ru.practicum.shareit.util.FunctionBodiesCheckCallback;
+
+/*
+ * База для тестов, которые в H2 не проверить: миграции, секции, планы и полнотекстовые запросы PostgreSQL.
+ * Контейнер один на все такие тесты и запускается при первом обращении, потому что контекст Spring
+ * кэшируется между классами вместе с адресом базы. Без Docker тесты пропускаются.
+ * Тестовые срезы не сканируют компоненты, поэтому обратный вызов Flyway для V1 подключается явно.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@Import(FunctionBodiesCheckCallback.class)
+public abstract class PostgresTest {
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:14-alpine")
+            .withDatabaseName("shareit");
+
+    @DynamicPropertySource
+    static void postgresProperties(DynamicPropertyRegistry registry) {
+        POSTGRES.start();
+        registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+        registry.add("spring.datasource.username", POSTGRES::getUsername);
+        registry.add("spring.datasource.password", POSTGRES::getPassword);
+        registry.add("spring.datasource.driver-class-name", POSTGRES::getDriverClassName);
+    }
+}
@@ -9,21 +9,34 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.practicum.shareit.booking.dto.BookingBatchResultDto;
 import ru.practicum.shareit.booking.dto.BookingInDto;
 import ru.practicum.shareit.booking.dto.BookingMapper;
 import ru.practicum.shareit.booking.dto.BookingOutDto;
+import ru.practicum.shareit.booking.dto.BookingRecurrenceDto;
+import ru.practicum.shareit.booking.dto.BookingStatusBatchResultDto;
+import ru.practicum.shareit.booking.dto.BookingWaitlistResultDto;
+import ru.practicum.shareit.exceptions.PreconditionFailedException;
+import ru.practicum.shareit.exceptions.SubscriptionLimitException;
 import ru.practicum.shareit.item.Item;
 import ru.practicum.shareit.user.User;
 
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = BookingController.class)
@@ -97,6 +110,181 @@ class BookingControllerTest {
         assertThat(mapper.writeValueAsString(bookingOutDto), equalTo(savedBooking));
     }
 
+    @SneakyThrows
+    @Test
+    void saveBooking_whenWaitlistRequestedAndIntervalTaken_thenReturnAcceptedWithWaitlistEntry() {
+        BookingWaitlistResultDto result = new BookingWaitlistResultDto();
+        result.setWaitlistEntry(new BookingWaitlistEntry(5L, 1L, 1L, bookingInDto.getStart(), bookingInDto.getEnd(),
+                LocalDateTime.now()));
+        when(bookingService.saveBookingOrJoinWaitlist(any())).thenReturn(result);
+        //when
+        String entry = mvc.perform(post("/bookings?waitlist=true")
+                        .content(mapper.writeValueAsString(bookingInDto))
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isAccepted())
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8);
+        assertThat(mapper.writeValueAsString(result.getWaitlistEntry()), equalTo(entry));
+        verify(bookingService, never()).saveBooking(any());
+    }
+
+    @SneakyThrows
+    @Test
+    void saveBooking_whenWaitlistRequestedAndIntervalFree_thenReturnBooking() {
+        BookingWaitlistResultDto result = new BookingWaitlistResultDto();
+        result.setBooking(bookingOutDto);
+        when(bookingService.saveBookingOrJoinWaitlist(any())).thenReturn(result);
+        //when
+        String savedBooking = mvc.perform(post("/bookings?waitlist=true")
+                        .content(mapper.writeValueAsString(bookingInDto))
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8);
+        assertThat(mapper.writeValueAsString(bookingOutDto), equalTo(savedBooking));
+    }
+
+    @SneakyThrows
+    @Test
+    void saveRecurringBooking() {
+        BookingRecurrenceDto recurrence = new BookingRecurrenceDto();
+        recurrence.setFrequency(RecurrenceFrequency.WEEKLY);
+        recurrence.setCount(2);
+        bookingInDto.setRecurrence(recurrence);
+        when(bookingService.saveRecurringBooking(any())).thenReturn(List.of(bookingOutDto, bookingOutDto));
+        //when
+        String savedBookings = mvc.perform(post("/bookings/recurring")
+                        .content(mapper.writeValueAsString(bookingInDto))
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8);
+        assertThat(mapper.writeValueAsString(List.of(bookingOutDto, bookingOutDto)), equalTo(savedBookings));
+    }
+
+    @SneakyThrows
+    @Test
+    void saveRecurringBooking_whenRecurrenceHasNoFrequency_thenReturnBadRequestCode() {
+        bookingInDto.setRecurrence(new BookingRecurrenceDto());
+        //when
+        mvc.perform(post("/bookings/recurring")
+                        .content(mapper.writeValueAsString(bookingInDto))
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isBadRequest());
+        verify(bookingService, never()).saveRecurringBooking(any());
+    }
+
+    @SneakyThrows
+    @Test
+    void saveBooking_whenRecurrenceGiven_thenReturnBadRequestCode() {
+        BookingRecurrenceDto recurrence = new BookingRecurrenceDto();
+        recurrence.setFrequency(RecurrenceFrequency.DAILY);
+        recurrence.setCount(2);
+        bookingInDto.setRecurrence(recurrence);
+        //when
+        mvc.perform(post("/bookings")
+                        .content(mapper.writeValueAsString(bookingInDto))
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isBadRequest());
+        verify(bookingService, never()).saveBooking(any());
+    }
+
+    @SneakyThrows
+    @Test
+    void saveBookings() {
+        BookingBatchResultDto result = new BookingBatchResultDto();
+        result.setBooking(bookingOutDto);
+        when(bookingService.saveBookings(anyLong(), anyList()))
+                .thenReturn(List.of(result));
+        //when
+        String results = mvc.perform(post("/bookings/batch")
+                        .content(mapper.writeValueAsString(List.of(bookingInDto)))
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("X-Sharer-User-Id", 2)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8);
+        assertThat(mapper.writeValueAsString(List.of(result)), equalTo(results));
+        verify(bookingService, times(1)).saveBookings(eq(2L), anyList());
+    }
+
+    @SneakyThrows
+    @Test
+    void saveBookings_whenBatchIsEmptyOrEntryInvalid_thenReturnBadRequestCode() {
+        //given
+        bookingInDto.setStart(LocalDateTime.now().minusDays(1));
+        //when
+        mvc.perform(post("/bookings/batch")
+                        .content(mapper.writeValueAsString(List.of()))
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("X-Sharer-User-Id", 2)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isBadRequest());
+        mvc.perform(post("/bookings/batch")
+                        .content(mapper.writeValueAsString(List.of(bookingInDto)))
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("X-Sharer-User-Id", 2)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        verify(bookingService, never()).saveBookings(anyLong(), anyList());
+    }
+
+    @SneakyThrows
+    @Test
+    void setStatuses() {
+        BookingStatusBatchResultDto result = new BookingStatusBatchResultDto();
+        result.setStatus(Status.APPROVED);
+        result.setUpdated(List.of(1L));
+        result.setSkipped(List.of(2L));
+        when(bookingService.setStatuses(anyList(), anyLong(), anyBoolean()))
+                .thenReturn(result);
+        //when
+        String returned = mvc.perform(patch("/bookings/status?approved={approved}", "true")
+                        .content(mapper.writeValueAsString(List.of(1L, 2L)))
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8);
+        assertThat(mapper.writeValueAsString(result), equalTo(returned));
+        verify(bookingService, times(1)).setStatuses(List.of(1L, 2L), 1L, true);
+        verify(bookingService, never()).setStatus(anyLong(), anyLong(), anyBoolean(), any());
+    }
+
     @SneakyThrows
     @Test
     void setStatus_whenIllegalStatus_thenIllegalArgumentExceptionThrown() {
@@ -109,14 +297,14 @@ class BookingControllerTest {
                         .accept(MediaType.APPLICATION_JSON))
                 //then
                 .andExpect(status().isBadRequest());
-        verify(bookingService, never()).setStatus(anyLong(), anyLong(), anyBoolean());
+        verify(bookingService, never()).setStatus(anyLong(), anyLong(), anyBoolean(), any());
     }
 
 
     @SneakyThrows
     @Test
     void setStatus() {
-        when(bookingService.setStatus(anyLong(), anyLong(), anyBoolean()))
+        when(bookingService.setStatus(anyLong(), anyLong(), anyBoolean(), any()))
                 .thenReturn(bookingOutDto);
         //when
         String savedBooking = mvc.perform(patch("/bookings/{bookingId}?approved={approved}", 1, "true")
@@ -133,6 +321,49 @@ class BookingControllerTest {
         assertThat(mapper.writeValueAsString(bookingOutDto), equalTo(savedBooking));
     }
 
+    @SneakyThrows
+    @Test
+    void setStatus_whenIfMatchGiven_thenExpectedVersionPassedAndNewVersionReturnedInETag() {
+        bookingOutDto.setVersion(4L);
+        when(bookingService.setStatus(1L, 1L, true, 3L)).thenReturn(bookingOutDto);
+        //when
+        mvc.perform(patch("/bookings/{bookingId}?approved={approved}", 1, "true")
+                        .header("X-Sharer-User-Id", 1)
+                        .header("If-Match", "\"3\"")
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"4\""));
+        verify(bookingService, times(1)).setStatus(1L, 1L, true, 3L);
+    }
+
+    @SneakyThrows
+    @Test
+    void setStatus_whenVersionConflict_thenPreconditionFailed() {
+        when(bookingService.setStatus(1L, 1L, true, 3L))
+                .thenThrow(new PreconditionFailedException("Бронирование уже изменено, актуальная версия: 4"));
+        //when
+        mvc.perform(patch("/bookings/{bookingId}?approved={approved}", 1, "true")
+                        .header("X-Sharer-User-Id", 1)
+                        .header("If-Match", "3")
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @SneakyThrows
+    @Test
+    void setStatus_whenIfMatchMalformed_thenBadRequest() {
+        //when
+        mvc.perform(patch("/bookings/{bookingId}?approved={approved}", 1, "true")
+                        .header("X-Sharer-User-Id", 1)
+                        .header("If-Match", "\"abc\"")
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isBadRequest());
+        verify(bookingService, never()).setStatus(anyLong(), anyLong(), anyBoolean(), any());
+    }
+
     @SneakyThrows
     @Test
     void getBooking() {
@@ -169,6 +400,57 @@ class BookingControllerTest {
         assertThat(mapper.writeValueAsString(List.of(bookingOutDto)), equalTo(bookings));
     }
 
+    @SneakyThrows
+    @Test
+    void findAllBookingsByState_whenPageIsFull_thenReturnNextCursor() {
+        when(bookingService.findAllBookingsByState(anyLong(), any(), anyInt(), anyInt()))
+                .thenReturn(List.of(bookingOutDto));
+        String expectedCursor = new BookingCursor(bookingOutDto.getStart(), bookingOutDto.getId()).encode();
+        //when
+        mvc.perform(get("/bookings?size={size}", 1)
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andExpect(header().string(BookingController.NEXT_CURSOR_HEADER, expectedCursor));
+    }
+
+    @SneakyThrows
+    @Test
+    void findAllBookingsByState_whenCursorGiven_thenInvokeKeysetSearch() {
+        BookingCursor cursor = new BookingCursor(bookingOutDto.getStart(), bookingOutDto.getId());
+        when(bookingService.findAllBookingsByState(anyLong(), any(), any(BookingCursor.class), anyInt()))
+                .thenReturn(List.of(bookingOutDto));
+        //when
+        String bookings = mvc.perform(get("/bookings?after={after}", cursor.encode())
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(BookingController.NEXT_CURSOR_HEADER))
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8);
+        assertThat(mapper.writeValueAsString(List.of(bookingOutDto)), equalTo(bookings));
+        verify(bookingService, times(1)).findAllBookingsByState(1L, State.ALL, cursor, 10);
+        verify(bookingService, never()).findAllBookingsByState(anyLong(), any(), anyInt(), anyInt());
+    }
+
+    @SneakyThrows
+    @Test
+    void findAllOwnerBookingsByState_whenCursorIsMalformed_thenReturnBadRequestCode() {
+        //when
+        mvc.perform(get("/bookings/owner?after={after}", "???")
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isBadRequest());
+        verify(bookingService, never()).findAllOwnerBookingsByState(anyLong(), any(), any(BookingCursor.class), anyInt());
+    }
+
     @SneakyThrows
     @Test
     void findAllBookingsByState_whenUnknownParameter_thenReturnBadRequestCode() {
@@ -201,22 +483,179 @@ class BookingControllerTest {
         assertThat(mapper.writeValueAsString(List.of(bookingOutDto)), equalTo(bookings));
     }
 
+    @SneakyThrows
+    @Test
+    void getOwnerBookingsSummary() {
+        Map<State, Long> summary = new EnumMap<>(State.class);
+        summary.put(State.ALL, 2L);
+        summary.put(State.WAITING, 1L);
+        when(bookingService.getOwnerBookingsSummary(anyLong()))
+                .thenReturn(summary);
+        //when
+        String result = mvc.perform(get("/bookings/owner/summary")
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8);
+        assertThat(result, equalTo("{\"ALL\":2,\"WAITING\":1}"));
+        verify(bookingService, never()).getBookingsSummary(anyLong());
+    }
+
+    @SneakyThrows
+    @Test
+    void exportOwnerBookings() {
+        when(bookingService.exportOwnerBookings(anyLong(), any()))
+                .thenReturn(out -> out.write("{\"id\":1}\n".getBytes(StandardCharsets.UTF_8)));
+        //when
+        MvcResult asyncResult = mvc.perform(get("/bookings/owner/export?format={format}", "ndjson")
+                        .header("X-Sharer-User-Id", 1))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String exported = mvc.perform(asyncDispatch(asyncResult))
+                //then
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/x-ndjson"))
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8);
+        assertThat(exported, equalTo("{\"id\":1}\n"));
+        verify(bookingService, times(1)).exportOwnerBookings(1L, BookingExportFormat.NDJSON);
+    }
+
+    @SneakyThrows
+    @Test
+    void subscribeToBookingEvents() {
+        //given
+        when(bookingService.subscribeToBookingEvents(anyLong())).thenReturn(new SseEmitter());
+        //when
+        mvc.perform(get("/bookings/stream")
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .header("X-Sharer-User-Id", 1))
+                //then
+                .andExpect(request().asyncStarted());
+        verify(bookingService, times(1)).subscribeToBookingEvents(1L);
+    }
+
+    @SneakyThrows
+    @Test
+    void subscribeToBookingEvents_whenSubscriptionLimitReached_thenReturnServiceUnavailableCode() {
+        //given
+        when(bookingService.subscribeToBookingEvents(anyLong()))
+                .thenThrow(new SubscriptionLimitException("Слишком много подписок"));
+        //when
+        mvc.perform(get("/bookings/stream")
+                        .header("X-Sharer-User-Id", 1))
+                //then
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @SneakyThrows
+    @Test
+    void exportOwnerBookings_whenUnknownFormat_thenReturnBadRequestCode() {
+        mvc.perform(get("/bookings/owner/export?format={format}", "xml")
+                        .header("X-Sharer-User-Id", 1))
+                .andExpect(status().isBadRequest());
+        verify(bookingService, never()).exportOwnerBookings(anyLong(), any());
+    }
+
+    @SneakyThrows
+    @Test
+    void findArchivedOwnerBookings() {
+        when(bookingService.findArchivedOwnerBookings(anyLong(), anyInt(), anyInt()))
+                .thenReturn(List.of(bookingOutDto));
+        //when
+        String bookings = mvc.perform(get("/bookings/owner/archive")
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8);
+        assertThat(mapper.writeValueAsString(List.of(bookingOutDto)), equalTo(bookings));
+        verify(bookingService, times(1)).findArchivedOwnerBookings(1L, 0, 10);
+    }
+
     @SneakyThrows
     @Test
     void findAllBookingsOfItem() {
-        when(bookingService.findAllBookingsOfItem(anyLong()))
+        LocalDateTime from = LocalDateTime.of(2030, 1, 1, 0, 0);
+        LocalDateTime to = LocalDateTime.of(2030, 2, 1, 0, 0);
+        when(bookingService.findAllBookingsOfItem(1L, 1L, from, to, null, 1))
                 .thenReturn(List.of(bookingOutDto));
         //when
         String bookings = mvc.perform(get("/bookings/item/{itemId}", 1L)
+                        .param("from", from.toString())
+                        .param("to", to.toString())
+                        .param("size", "1")
                         .characterEncoding(StandardCharsets.UTF_8)
                         .header("X-Sharer-User-Id", 1)
                         .accept(MediaType.APPLICATION_JSON))
                 //then
                 .andExpect(status().isOk())
+                .andExpect(header().string(BookingController.NEXT_CURSOR_HEADER,
+                        new BookingCursor(bookingOutDto.getStart(), bookingOutDto.getId()).encode()))
                 .andReturn()
                 .getResponse()
                 .getContentAsString(StandardCharsets.UTF_8);
         assertThat(mapper.writeValueAsString(List.of(bookingOutDto)), equalTo(bookings));
+        verify(bookingService, never()).findBookingSlotsOfItem(anyLong(), anyLong(), any(), any(), any(), anyInt());
+    }
+
+    @SneakyThrows
+    @Test
+    void findAllBookingsOfItem_whenFieldsGiven_thenOnlyRequestedFieldsReturned() {
+        LocalDateTime from = LocalDateTime.of(2030, 1, 1, 0, 0);
+        LocalDateTime to = LocalDateTime.of(2030, 2, 1, 0, 0);
+        BookingCursor after = new BookingCursor(from, 3L);
+        BookingSlot slot = new BookingSlot(4L, 1L, 2L, from.plusDays(1), from.plusDays(2), Status.APPROVED);
+        when(bookingService.findBookingSlotsOfItem(1L, 1L, from, to, after, 10))
+                .thenReturn(List.of(slot));
+        //when
+        mvc.perform(get("/bookings/item/{itemId}", 1L)
+                        .param("from", from.toString())
+                        .param("to", to.toString())
+                        .param("after", after.encode())
+                        .param("fields", "end,id, start")
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(BookingController.NEXT_CURSOR_HEADER))
+                .andExpect(content().json("[{\"id\":4,\"start\":\"2030-01-02T00:00:00\",\"end\":\"2030-01-03T00:00:00\"}]", true));
+        verify(bookingService, never()).findAllBookingsOfItem(anyLong(), anyLong(), any(), any(), any(), anyInt());
+    }
+
+    @SneakyThrows
+    @Test
+    void findAllBookingsOfItem_whenUnknownField_thenBadRequest() {
+        //when
+        mvc.perform(get("/bookings/item/{itemId}", 1L)
+                        .param("from", "2030-01-01T00:00:00")
+                        .param("to", "2030-02-01T00:00:00")
+                        .param("fields", "id,booker")
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(bookingService);
+    }
+
+    @SneakyThrows
+    @Test
+    void findAllBookingsOfItem_whenWindowMissing_thenBadRequest() {
+        //when
+        mvc.perform(get("/bookings/item/{itemId}", 1L)
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(bookingService);
     }
 
     private Item createItem() {
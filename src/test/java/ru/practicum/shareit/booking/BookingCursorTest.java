@@ -0,0 +1,32 @@
+package ru.practicum.shareit.booking;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.practicum.shareit.exceptions.BookingBadRequestException;
+
+import java.time.LocalDateTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class BookingCursorTest {
+    @Test
+    void decode_whenTokenWasEncoded_thenReturnSameCursor() {
+        //given
+        BookingCursor cursor = new BookingCursor(LocalDateTime.of(2030, 1, 2, 3, 4, 5), 42L);
+        //when
+        BookingCursor decodedCursor = BookingCursor.decode(cursor.encode());
+        //then
+        assertThat(decodedCursor, equalTo(cursor));
+    }
+
+    @Test
+    void decode_whenTokenIsMalformed_thenBookingBadRequestExceptionThrown() {
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> BookingCursor.decode("не курсор"));
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> BookingCursor.decode("bm9zZXBhcmF0b3I"));
+    }
+}
@@ -0,0 +1,94 @@
+package ru.practicum.shareit.booking;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BookingExpirySweeperTest {
+    @Mock
+    private BookingRepository bookingRepository;
+    @Mock
+    private BookingTimeline bookingTimeline;
+    @Mock
+    private BookingOutbox bookingOutbox;
+    @Mock
+    private BookingWaitlist bookingWaitlist;
+    @Mock
+    private BookingWaitlistPromoter bookingWaitlistPromoter;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private BookingExpirySweeper sweeper;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        sweeper = new BookingExpirySweeper(bookingRepository, bookingTimeline, bookingOutbox, bookingWaitlist,
+                bookingWaitlistPromoter, transactionTemplate,
+                jdbcTemplate, meterRegistry);
+        ReflectionTestUtils.setField(sweeper, "batchSize", 2);
+    }
+
+    @Test
+    void expireStaleBookings_whenMoreThanOneChunk_thenUpdateChunkByChunkAndRecordMetrics() {
+        //given
+        LocalDateTime past = LocalDateTime.now().minusDays(1);
+        BookingSlot first = new BookingSlot(1L, 1L, 2L, past, past.plusDays(2), Status.WAITING);
+        BookingSlot second = new BookingSlot(2L, 1L, 2L, past, past.plusDays(2), Status.WAITING);
+        BookingSlot third = new BookingSlot(3L, 2L, 2L, past, past.plusDays(2), Status.WAITING);
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(bookingRepository.findStaleWaitingSlots(any(), any()))
+                .thenReturn(List.of(first, second))
+                .thenReturn(List.of(third));
+        when(bookingRepository.findIdsByIdInAndStatus(List.of(1L, 2L), Status.EXPIRED)).thenReturn(List.of(1L));
+        when(bookingRepository.findIdsByIdInAndStatus(List.of(3L), Status.EXPIRED)).thenReturn(List.of(3L));
+        //when
+        int expired = sweeper.expireStaleBookings();
+        //then
+        assertThat(expired, equalTo(2));
+        verify(bookingRepository, times(1)).updateWaitingStatus(List.of(1L, 2L), Status.EXPIRED);
+        verify(bookingRepository, times(1)).updateWaitingStatus(List.of(3L), Status.EXPIRED);
+        verify(bookingOutbox, times(1)).record(Set.of(1L));
+        verify(bookingOutbox, times(1)).record(Set.of(3L));
+        verify(bookingWaitlistPromoter, times(1)).promote(List.of(first));
+        verify(bookingWaitlistPromoter, times(1)).promote(List.of(third));
+        verify(bookingWaitlist, times(1)).deleteStarted(any());
+        verify(bookingTimeline, times(2)).index(argThat(slot -> slot.getStatus() == Status.EXPIRED));
+        assertThat(meterRegistry.summary(BookingExpirySweeper.PROCESSED_METRIC).totalAmount(), equalTo(2.0));
+        assertThat(meterRegistry.timer(BookingExpirySweeper.DURATION_METRIC).count(), equalTo(1L));
+    }
+
+    @Test
+    void sweep_whenNothingToExpire_thenNoUpdateAndNoLockWithoutPostgres() {
+        //given
+        when(bookingRepository.findStaleWaitingSlots(any(), any())).thenReturn(List.of());
+        //when
+        sweeper.sweep();
+        //then
+        verify(bookingRepository, never()).updateWaitingStatus(any(), any());
+        verifyNoInteractions(jdbcTemplate, transactionTemplate, bookingWaitlistPromoter);
+        assertThat(meterRegistry.summary(BookingExpirySweeper.PROCESSED_METRIC).count(), equalTo(1L));
+    }
+}
@@ -0,0 +1,86 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.shareit.booking.dto.BookingOutDto;
+import ru.practicum.shareit.item.Item;
+import ru.practicum.shareit.user.User;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+@DataJpaTest(properties = "spring.datasource.url=jdbc:h2:mem:shareit")
+@Transactional
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class BookingHistoryRepositoryTest {
+    private final BookingHistoryRepository bookingHistoryRepository;
+    private final TestEntityManager entityManager;
+
+    private User owner;
+
+    private User booker;
+
+    @BeforeEach
+    void fillDB() {
+        owner = entityManager.persist(makeUser("Akhra", "akhra@yandex.ru"));
+        booker = entityManager.persist(makeUser("Anri", "anri@yandex.ru"));
+        Item item = new Item();
+        item.setName("Отвертка");
+        item.setDescription("Крестовая");
+        item.setAvailable(true);
+        item.setOwner(owner);
+        entityManager.persist(item);
+        entityManager.persist(makeArchivedBooking(1L, item, LocalDateTime.of(2020, 1, 10, 12, 0)));
+        entityManager.persist(makeArchivedBooking(2L, item, LocalDateTime.of(2020, 2, 10, 12, 0)));
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void findByBookerIdAndByOwnerId_whenBookingsArchived_thenReturnThemInStartOrder() {
+        //given
+        PageRequest page = PageRequest.of(0, 10, Sort.by("start").descending());
+        //when
+        List<Long> bookerIds = bookingHistoryRepository.findByBookerId(booker.getId(), page).stream()
+                .map(BookingOutDto::getId)
+                .collect(Collectors.toList());
+        List<Long> ownerIds = bookingHistoryRepository.findByOwnerId(owner.getId(), page).stream()
+                .map(BookingOutDto::getId)
+                .collect(Collectors.toList());
+        //then
+        assertThat(bookerIds, equalTo(List.of(2L, 1L)));
+        assertThat(ownerIds, equalTo(List.of(2L, 1L)));
+        assertThat(bookingHistoryRepository.findByBookerId(owner.getId(), page), equalTo(List.of()));
+    }
+
+    private BookingHistory makeArchivedBooking(Long id, Item item, LocalDateTime start) {
+        BookingHistory booking = new BookingHistory();
+        booking.setId(id);
+        booking.setItem(item);
+        booking.setBooker(booker);
+        booking.setOwnerId(item.getOwner().getId());
+        booking.setStart(start);
+        booking.setEnd(start.plusDays(2));
+        booking.setStatus(Status.APPROVED);
+        booking.setArchivedAt(start.plusYears(2));
+        return booking;
+    }
+
+    private User makeUser(String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        return user;
+    }
+}
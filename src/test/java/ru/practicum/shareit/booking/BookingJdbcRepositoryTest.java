@@ -0,0 +1,95 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+
+@JdbcTest(properties = "spring.datasource.url=jdbc:h2:mem:shareit")
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class BookingJdbcRepositoryTest {
+    private static final LocalDateTime NOW = LocalDateTime.of(2030, 3, 10, 12, 0);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private BookingJdbcRepository repository;
+
+    private Long bookerId;
+
+    private Long itemId;
+
+    private Long idleItemId;
+
+    @BeforeEach
+    void setUp() {
+        repository = new BookingJdbcRepository(jdbcTemplate, namedParameterJdbcTemplate);
+        jdbcTemplate.update("insert into users (name, email) values ('Akhra', 'akhra@yandex.ru'), " +
+                "('Anri', 'anri@yandex.ru')");
+        Long ownerId = jdbcTemplate.queryForObject("select id from users where email = 'akhra@yandex.ru'", Long.class);
+        bookerId = jdbcTemplate.queryForObject("select id from users where email = 'anri@yandex.ru'", Long.class);
+        jdbcTemplate.update("insert into items (name, description, available, user_id) values " +
+                "('Дрель', 'мощная', true, ?), ('Отвертка', 'крестовая', true, ?)", ownerId, ownerId);
+        itemId = jdbcTemplate.queryForObject("select id from items where name = 'Дрель'", Long.class);
+        idleItemId = jdbcTemplate.queryForObject("select id from items where name = 'Отвертка'", Long.class);
+        //Длинная история: подтвержденные бронирования через день в прошлом и будущем, между ними отклоненные
+        Status[] statuses = {Status.APPROVED, Status.REJECTED};
+        jdbcTemplate.batchUpdate("insert into bookings (start_date, end_date, item_id, user_id, owner_id, status) " +
+                        "values (?, ?, ?, ?, ?, ?)",
+                IntStream.range(-100, 100)
+                        .mapToObj(i -> new Object[]{Timestamp.valueOf(NOW.plusDays(i).plusHours(1)),
+                                Timestamp.valueOf(NOW.plusDays(i).plusHours(2)), itemId, bookerId, ownerId,
+                                statuses[Math.abs(i) % 2].name()})
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    void findLastAndNextApproved_whenLongHistory_thenOnlyLastAndNextApprovedReturned() {
+        //when
+        Map<Boolean, List<BookingSlot>> slots = repository.findLastAndNextApproved(List.of(itemId, idleItemId), NOW)
+                .stream()
+                .collect(Collectors.partitioningBy(slot -> slot.getStart().isBefore(NOW)));
+        //then
+        assertThat(slots.get(true).size(), equalTo(1));
+        assertThat(slots.get(true).get(0).getStart(), equalTo(NOW.minusDays(2).plusHours(1)));
+        assertThat(slots.get(true).get(0).getStatus(), equalTo(Status.APPROVED));
+        assertThat(slots.get(true).get(0).getBookerId(), equalTo(bookerId));
+        assertThat(slots.get(false).size(), equalTo(1));
+        assertThat(slots.get(false).get(0).getStart(), equalTo(NOW.plusHours(1)));
+        assertThat(slots.get(false).get(0).getItemId(), equalTo(itemId));
+    }
+
+    @Test
+    void findLastAndNextApproved_whenItemHasNoBookings_thenNothingReturned() {
+        //when
+        List<BookingSlot> slots = repository.findLastAndNextApproved(List.of(idleItemId), NOW);
+        //then
+        assertThat(slots, empty());
+    }
+
+    @Test
+    void findLastAndNextApproved_whenExplained_thenBookingsReadByIndex() {
+        //given
+        String sql = BookingJdbcRepository.SELECT_LAST_AND_NEXT_APPROVED
+                .replace(":itemIds", itemId + ", " + idleItemId)
+                .replace(":now", "timestamp '" + Timestamp.valueOf(NOW) + "'");
+        //when
+        String plan = jdbcTemplate.queryForObject("explain " + sql, String.class);
+        //then
+        assertThat(plan, plan.contains(".tableScan"), equalTo(false));
+    }
+}
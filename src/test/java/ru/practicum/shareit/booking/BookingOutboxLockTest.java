@@ -0,0 +1,91 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.shareit.PostgresTest;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+/*
+ * SKIP LOCKED есть только в PostgreSQL. Блокировку второго экземпляра держит отдельное соединение,
+ * поэтому строки outbox пишутся без тестовой транзакции и удаляются после теста.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class BookingOutboxLockTest extends PostgresTest {
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final DataSource dataSource;
+
+    private BookingOutbox bookingOutbox;
+
+    @BeforeEach
+    void setUp() {
+        bookingOutbox = new BookingOutbox(namedParameterJdbcTemplate);
+        ReflectionTestUtils.setField(bookingOutbox, "skipLocked", true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("delete from outbox");
+    }
+
+    @Test
+    void findBatch_whenEarlierEventLockedByOtherInstance_thenLockedSkippedAndLaterEventsOfSameBookingHeld()
+            throws SQLException {
+        //given
+        Long lockedId = insertOutboxEvent(10L);
+        Long heldId = insertOutboxEvent(10L);
+        Long freeId = insertOutboxEvent(11L);
+        try (Connection other = dataSource.getConnection()) {
+            other.setAutoCommit(false);
+            try (Statement statement = other.createStatement()) {
+                statement.executeQuery("select id from outbox where id = " + lockedId + " for update");
+                //when
+                List<Long> batch = findBatchIds();
+                //then
+                assertThat(batch, contains(freeId));
+            } finally {
+                other.rollback();
+            }
+        }
+        //then
+        assertThat(findBatchIds(), contains(lockedId, heldId, freeId));
+    }
+
+    private List<Long> findBatchIds() {
+        return bookingOutbox.findBatch(10).stream()
+                .map(BookingEvent::getId)
+                .collect(Collectors.toList());
+    }
+
+    private Long insertOutboxEvent(Long bookingId) {
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        jdbcTemplate.update("insert into outbox (booking_id, item_id, booker_id, owner_id, start_date, end_date, " +
+                        "status) values (?, 1, 2, 3, ?, ?, 'WAITING')",
+                bookingId, Timestamp.valueOf(start), Timestamp.valueOf(start.plusDays(1)));
+        return jdbcTemplate.queryForObject("select max(id) from outbox", Long.class);
+    }
+}
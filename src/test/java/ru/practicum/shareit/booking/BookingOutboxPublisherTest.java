@@ -0,0 +1,88 @@
+package ru.practicum.shareit.booking;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BookingOutboxPublisherTest {
+    @Mock
+    private BookingOutbox bookingOutbox;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+    @Mock
+    private ObjectProvider<BookingEventListener> listeners;
+
+    private BookingOutboxPublisher publisher;
+
+    private final List<Long> received = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        publisher = new BookingOutboxPublisher(bookingOutbox, transactionTemplate, listeners);
+        ReflectionTestUtils.setField(publisher, "batchSize", 3);
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+    }
+
+    @Test
+    void poll_whenMoreThanOneBatch_thenDeliverInOrderAndDeleteBatchByBatch() {
+        //given
+        when(listeners.orderedStream()).thenAnswer(invocation -> Stream.of(recordingListener(null)));
+        when(bookingOutbox.findBatch(3))
+                .thenReturn(List.of(makeEvent(1L, 10L), makeEvent(2L, 11L), makeEvent(3L, 10L)))
+                .thenReturn(List.of(makeEvent(4L, 12L)));
+        //when
+        publisher.poll();
+        //then
+        assertThat(received, equalTo(List.of(1L, 2L, 3L, 4L)));
+        verify(bookingOutbox, times(1)).delete(List.of(1L, 2L, 3L));
+        verify(bookingOutbox, times(1)).delete(List.of(4L));
+    }
+
+    @Test
+    void poll_whenListenerFails_thenLaterEventsOfSameBookingHeldAndPollingStops() {
+        //given
+        when(listeners.orderedStream()).thenAnswer(invocation -> Stream.of(recordingListener(1L)));
+        when(bookingOutbox.findBatch(3))
+                .thenReturn(List.of(makeEvent(1L, 10L), makeEvent(2L, 11L), makeEvent(3L, 10L)));
+        //when
+        publisher.poll();
+        //then
+        assertThat(received, equalTo(List.of(2L)));
+        verify(bookingOutbox, times(1)).delete(List.of(2L));
+        verify(bookingOutbox, times(1)).findBatch(3);
+    }
+
+    //Запоминает доставленные события, на событии failingEventId падает
+    private BookingEventListener recordingListener(Long failingEventId) {
+        return event -> {
+            if (event.getId().equals(failingEventId)) {
+                throw new IllegalStateException("Слушатель недоступен");
+            }
+            received.add(event.getId());
+        };
+    }
+
+    private BookingEvent makeEvent(Long id, Long bookingId) {
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        return new BookingEvent(id, bookingId, 1L, 2L, 3L, start, start.plusDays(1), Status.WAITING,
+                LocalDateTime.now());
+    }
+}
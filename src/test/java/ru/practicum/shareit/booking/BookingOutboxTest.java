@@ -0,0 +1,86 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+@JdbcTest(properties = "spring.datasource.url=jdbc:h2:mem:shareit")
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class BookingOutboxTest {
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private BookingOutbox bookingOutbox;
+
+    private Long firstBookingId;
+
+    private Long secondBookingId;
+
+    @BeforeEach
+    void setUp() {
+        bookingOutbox = new BookingOutbox(namedParameterJdbcTemplate);
+    }
+
+    @Test
+    void record_whenPublisherEnabled_thenEventsStayInOutboxInOrder() {
+        //given
+        insertBookings();
+        ReflectionTestUtils.setField(bookingOutbox, "publisherEnabled", true);
+        //when
+        bookingOutbox.record(List.of(secondBookingId, firstBookingId));
+        List<BookingEvent> events = bookingOutbox.findBatch(10);
+        //then
+        assertThat(events, hasSize(2));
+        assertThat(events.get(0).getBookingId(), equalTo(firstBookingId));
+        assertThat(events.get(1).getBookingId(), equalTo(secondBookingId));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from booking_stream_events", Long.class),
+                equalTo(0L));
+    }
+
+    @Test
+    void record_whenPublisherDisabled_thenEventsMovedToStreamAndOutboxEmpty() {
+        //given
+        insertBookings();
+        ReflectionTestUtils.setField(bookingOutbox, "publisherEnabled", false);
+        //when
+        bookingOutbox.record(List.of(secondBookingId, firstBookingId));
+        bookingOutbox.record(List.of(firstBookingId));
+        //then
+        assertThat(bookingOutbox.findBatch(10), hasSize(0));
+        assertThat(jdbcTemplate.queryForList("select booking_id from booking_stream_events order by id", Long.class),
+                contains(firstBookingId, secondBookingId, firstBookingId));
+    }
+
+    private void insertBookings() {
+        jdbcTemplate.update("insert into users (name, email) values ('Akhra', 'akhra@yandex.ru'), " +
+                "('Anri', 'anri@yandex.ru')");
+        Long ownerId = jdbcTemplate.queryForObject("select id from users where email = 'akhra@yandex.ru'", Long.class);
+        Long bookerId = jdbcTemplate.queryForObject("select id from users where email = 'anri@yandex.ru'", Long.class);
+        jdbcTemplate.update("insert into items (name, description, available, user_id) values " +
+                "('Дрель', 'мощная', true, ?)", ownerId);
+        Long itemId = jdbcTemplate.queryForObject("select id from items where name = 'Дрель'", Long.class);
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        jdbcTemplate.update("insert into bookings (start_date, end_date, item_id, user_id, owner_id, status) " +
+                        "values (?, ?, ?, ?, ?, 'WAITING'), (?, ?, ?, ?, ?, 'WAITING')",
+                Timestamp.valueOf(start), Timestamp.valueOf(start.plusHours(1)), itemId, bookerId, ownerId,
+                Timestamp.valueOf(start.plusDays(1)), Timestamp.valueOf(start.plusDays(1).plusHours(1)), itemId,
+                bookerId, ownerId);
+        List<Long> bookingIds = jdbcTemplate.queryForList("select id from bookings order by id", Long.class);
+        firstBookingId = bookingIds.get(0);
+        secondBookingId = bookingIds.get(1);
+    }
+}
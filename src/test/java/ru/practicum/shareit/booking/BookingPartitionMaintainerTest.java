@@ -0,0 +1,58 @@
+package ru.practicum.shareit.booking;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BookingPartitionMaintainerTest {
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+    @InjectMocks
+    private BookingPartitionMaintainer maintainer;
+
+    @BeforeEach
+    void setUp() {
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    @Test
+    void maintain_whenLockTaken_thenCreateAndArchivePartitions() {
+        //given
+        when(jdbcTemplate.queryForObject(eq("select pg_try_advisory_xact_lock(?)"), eq(Boolean.class), anyLong()))
+                .thenReturn(true);
+        //when
+        maintainer.maintain();
+        //then
+        verify(jdbcTemplate, times(1)).queryForObject(eq("select create_booking_partitions(?)"), eq(Integer.class), any());
+        verify(jdbcTemplate, times(1)).queryForObject(eq("select archive_booking_partitions(?)"), eq(Integer.class), any());
+    }
+
+    @Test
+    void maintain_whenLockHeldByOtherInstance_thenDoNothing() {
+        //given
+        when(jdbcTemplate.queryForObject(eq("select pg_try_advisory_xact_lock(?)"), eq(Boolean.class), anyLong()))
+                .thenReturn(false);
+        //when
+        maintainer.maintain();
+        //then
+        verify(jdbcTemplate, never()).queryForObject(eq("select create_booking_partitions(?)"), eq(Integer.class), any());
+    }
+}
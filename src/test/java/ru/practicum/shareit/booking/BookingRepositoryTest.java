@@ -1,31 +1,48 @@
 package ru.practicum.shareit.booking;
 
 import lombok.RequiredArgsConstructor;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.shareit.booking.dto.BookingOutDto;
 import ru.practicum.shareit.item.Item;
 import ru.practicum.shareit.item.ItemRepository;
 import ru.practicum.shareit.user.User;
 import ru.practicum.shareit.user.UserRepository;
 
+import javax.persistence.PersistenceException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
 
-@DataJpaTest(properties = "spring.datasource.url=jdbc:h2:mem:shareit")
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:shareit",
+        "spring.jpa.properties.hibernate.generate_statistics=true"})
 @Transactional
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 class BookingRepositoryTest {
+    private static final Duration MAX_DURATION = Duration.ofDays(90);
+
     private final ItemRepository itemRepository;
     private final UserRepository userRepository;
     private final BookingRepository bookingRepository;
+    private final TestEntityManager entityManager;
 
     private List<Booking> savedBookings;
 
@@ -56,22 +73,191 @@ class BookingRepositoryTest {
     @Test
     void findByCurrentBooker() {
         //when
-        List<Booking> returnedBookings = bookingRepository.findByCurrentBooker(savedBookings.get(0).getBooker().getId(),
+        List<BookingOutDto> returnedBookings = bookingRepository.findByCurrentBooker(savedBookings.get(0).getBooker().getId(),
                 LocalDateTime.now().plusDays(3),
-                PageRequest.of(0, 10, Sort.by("id").ascending()));
+                MAX_DURATION, PageRequest.of(0, 10, Sort.by("id").ascending()));
         //then
-        assertThat(List.of(savedBookings.get(1)), equalTo(returnedBookings));
+        assertThat(List.of(savedBookings.get(1).getId()), equalTo(ids(returnedBookings)));
 
     }
 
     @Test
     void findByOwnerCurrentBooker() {
         //when
-        List<Booking> returnedBookings = bookingRepository.findByOwnerCurrentBooker(savedBookings.get(2).getItem().getOwner().getId(),
+        List<BookingOutDto> returnedBookings = bookingRepository.findByOwnerCurrentBooker(savedBookings.get(2).getItem().getOwner().getId(),
                 LocalDateTime.now().plusDays(3),
-                PageRequest.of(0, 10, Sort.by("id").ascending()));
+                MAX_DURATION, PageRequest.of(0, 10, Sort.by("id").ascending()));
+        //then
+        assertThat(List.of(savedBookings.get(2).getId()), equalTo(ids(returnedBookings)));
+    }
+
+    @Test
+    void streamBlockingSlots_whenBookingsCrossPeriod_thenStreamThemInStartOrder() {
+        //given
+        Item item = savedBookings.get(0).getItem();
+        User booker = savedBookings.get(0).getBooker();
+        Booking later = bookingRepository.save(makeBooking(item, booker,
+                LocalDateTime.now().plusDays(3), LocalDateTime.now().plusDays(5), Status.WAITING));
+        bookingRepository.save(makeBooking(item, booker,
+                LocalDateTime.now().plusDays(2), LocalDateTime.now().plusDays(3), Status.REJECTED));
+        bookingRepository.save(makeBooking(item, booker,
+                LocalDateTime.now().plusDays(10), LocalDateTime.now().plusDays(11), Status.APPROVED));
+        entityManager.flush();
+        //when
+        List<Long> slotIds;
+        try (Stream<BookingSlot> slots = bookingRepository.streamBlockingSlots(item.getId(),
+                LocalDateTime.now().plusHours(36), LocalDateTime.now().plusDays(4), MAX_DURATION)) {
+            slotIds = slots.map(BookingSlot::getId).collect(Collectors.toList());
+        }
+        //then
+        assertThat(slotIds, equalTo(List.of(savedBookings.get(0).getId(), later.getId())));
+    }
+
+    @Test
+    void updateWaitingStatusOfOwner_whenBookingsOfOtherOwnerOrNotWaiting_thenLeaveThemUntouched() {
+        //given
+        savedBookings.forEach(booking -> booking.setStatus(Status.WAITING));
+        savedBookings.get(1).setStatus(Status.REJECTED);
+        entityManager.flush();
+        Long ownerId = savedBookings.get(0).getItem().getOwner().getId();
+        List<Long> bookingIds = List.of(savedBookings.get(0).getId(), savedBookings.get(1).getId(),
+                savedBookings.get(2).getId());
+        //when
+        List<BookingSlot> slots = bookingRepository.findWaitingSlotsOfOwner(bookingIds, ownerId);
+        int updatedCount = bookingRepository.updateWaitingStatusOfOwner(bookingIds, ownerId, Status.APPROVED);
+        //then
+        assertThat(slots.size(), equalTo(1));
+        assertThat(slots.get(0).getId(), equalTo(savedBookings.get(0).getId()));
+        assertThat(updatedCount, equalTo(1));
+        assertThat(bookingRepository.findById(savedBookings.get(0).getId()).get().getStatus(), equalTo(Status.APPROVED));
+        assertThat(bookingRepository.findById(savedBookings.get(1).getId()).get().getStatus(), equalTo(Status.REJECTED));
+        assertThat(bookingRepository.findById(savedBookings.get(2).getId()).get().getStatus(), equalTo(Status.WAITING));
+    }
+
+    @Test
+    void findStaleWaitingSlotsAndUpdateWaitingStatus_whenStartPassed_thenExpireOnlyWaiting() {
+        //given
+        savedBookings.get(0).setStatus(Status.WAITING);
+        savedBookings.get(1).setStatus(Status.WAITING);
+        entityManager.flush();
+        LocalDateTime now = LocalDateTime.now().plusDays(3);
+        //when
+        List<BookingSlot> stale = bookingRepository.findStaleWaitingSlots(now, PageRequest.of(0, 10));
+        List<Long> staleIds = stale.stream().map(BookingSlot::getId).collect(Collectors.toList());
+        int updatedCount = bookingRepository.updateWaitingStatus(staleIds, Status.EXPIRED);
+        //then
+        assertThat(staleIds, equalTo(List.of(savedBookings.get(0).getId(), savedBookings.get(1).getId())));
+        assertThat(updatedCount, equalTo(2));
+        assertThat(bookingRepository.findIdsByIdInAndStatus(staleIds, Status.EXPIRED), equalTo(staleIds));
+        assertThat(bookingRepository.findStaleWaitingSlots(now, PageRequest.of(0, 10)), equalTo(List.of()));
+    }
+
+    @Test
+    void save_whenBookingLongerThanMaxDuration_thenMaxDurationConstraintViolated() {
+        //given
+        Booking booking = savedBookings.get(0);
+        booking.setEnd(booking.getStart().plus(MAX_DURATION).plusDays(10));
+        //then
+        PersistenceException e = Assertions.assertThrows(
+                PersistenceException.class,
+                entityManager::flush);
+        assertThat(e.getCause().getCause().getMessage().toLowerCase(), containsString("bookings_max_duration"));
+    }
+
+    @Test
+    void countByBookerIdGroupByState_whenBookingsInDifferentStates_thenCountEachStateInOneRow() {
+        //given
+        entityManager.flush();
+        //when
+        BookingStateCounts counts = bookingRepository.countByBookerIdGroupByState(
+                savedBookings.get(0).getBooker().getId(), LocalDateTime.now().plusDays(3));
+        //then
+        assertThat(counts.getAllCount(), equalTo(2L));
+        assertThat(counts.getCurrentCount(), equalTo(1L));
+        assertThat(counts.getPastCount(), equalTo(1L));
+        assertThat(counts.getFutureCount(), equalTo(0L));
+        assertThat(counts.getWaitingCount(), equalTo(0L));
+        assertThat(counts.getRejectedCount(), equalTo(0L));
+    }
+
+    @Test
+    void countByOwnerIdGroupByState_whenBookingsOfOwnerItems_thenCountOnlyThem() {
+        //given
+        savedBookings.get(2).setStatus(Status.WAITING);
+        entityManager.flush();
+        //when
+        BookingStateCounts counts = bookingRepository.countByOwnerIdGroupByState(
+                savedBookings.get(2).getItem().getOwner().getId(), LocalDateTime.now());
+        //then
+        assertThat(counts.getAllCount(), equalTo(1L));
+        assertThat(counts.getCurrentCount(), equalTo(0L));
+        assertThat(counts.getFutureCount(), equalTo(1L));
+        assertThat(counts.getWaitingCount(), equalTo(1L));
+    }
+
+    @Test
+    void findByOwnerIdAndStatus_whenOwnerStoredInBooking_thenSelectByStoredOwner() {
+        //given
+        Booking booking = savedBookings.get(2);
+        Long ownerId = booking.getOwnerId();
+        //when
+        List<BookingOutDto> bookings = bookingRepository.findByOwnerIdAndStatus(ownerId, booking.getStatus(),
+                PageRequest.of(0, 10));
+        //then
+        assertThat(ownerId, equalTo(booking.getItem().getOwner().getId()));
+        assertThat(bookings, hasSize(1));
+        assertThat(bookings.get(0).getId(), equalTo(booking.getId()));
+    }
+
+    @Test
+    void findByOwnerIdAfterCursor_whenCursorPointsToFirstPage_thenReturnRestInStartOrder() {
+        //given
+        Long ownerId = savedBookings.get(0).getItem().getOwner().getId();
+        //время начала курсора должно быть прочитано из базы, а не взято из сохраненной сущности
+        entityManager.flush();
+        entityManager.clear();
+        List<BookingOutDto> firstPage = bookingRepository.findByOwnerId(ownerId,
+                PageRequest.of(0, 1, Sort.by("start").descending().and(Sort.by("id").descending())));
+        BookingOutDto lastOfFirstPage = firstPage.get(0);
+        //when
+        List<BookingOutDto> nextPage = bookingRepository.findByOwnerIdAfterCursor(ownerId,
+                lastOfFirstPage.getStart(), lastOfFirstPage.getId(), PageRequest.of(0, 10));
+        //then
+        assertThat(firstPage.size(), equalTo(1));
+        assertThat(lastOfFirstPage.getId(), equalTo(savedBookings.get(1).getId()));
+        assertThat(nextPage.size(), equalTo(1));
+        assertThat(nextPage.get(0).getId(), equalTo(savedBookings.get(0).getId()));
+    }
+
+    @Test
+    void findByBookerId_whenBookingsFound_thenReturnSummariesWithoutLoadingEntities() {
+        //given
+        Booking booking = savedBookings.get(0);
+        entityManager.flush();
+        entityManager.clear();
+        //when
+        List<BookingOutDto> bookings = bookingRepository.findByBookerId(booking.getBooker().getId(),
+                PageRequest.of(0, 10, Sort.by("start").descending()));
         //then
-        assertThat(List.of(savedBookings.get(2)), equalTo(returnedBookings));
+        assertThat(entityManager.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount(),
+                equalTo(0));
+        assertThat(bookings.get(bookings.size() - 1).getItem().getName(), equalTo(booking.getItem().getName()));
+        assertThat(bookings.get(bookings.size() - 1).getBooker().getEmail(), equalTo(booking.getBooker().getEmail()));
+    }
+
+    @Test
+    void findByOwnerId_whenPageSizeGrows_thenStatementCountStaysTheSame() {
+        //given
+        entityManager.flush();
+        Long ownerId = savedBookings.get(0).getOwnerId();
+        //when
+        long smallPageStatements = countStatements(() -> bookingRepository.findByOwnerId(ownerId, PageRequest.of(0, 1))
+                .forEach(booking -> booking.getItem().getName()));
+        long largePageStatements = countStatements(() -> bookingRepository.findByOwnerId(ownerId, PageRequest.of(0, 10))
+                .forEach(booking -> booking.getItem().getName()));
+        //then
+        assertThat(smallPageStatements, equalTo(1L));
+        assertThat(largePageStatements, equalTo(1L));
     }
 
     @Test
@@ -79,11 +265,34 @@ class BookingRepositoryTest {
         //when
         List<Booking> returnedBookings = bookingRepository.findTimeCrossingBookings(savedBookings.get(1).getItem().getId(),
                 LocalDateTime.now().plusDays(1),
-                LocalDateTime.now().plusDays(4));
+                LocalDateTime.now().plusDays(4), MAX_DURATION);
         //then
         assertThat(List.of(savedBookings.get(1)), equalTo(returnedBookings));
     }
 
+    @Test
+    void findTimeCrossingBookings_whenExistingBookingContainsRequested_thenReturnIt() {
+        //when
+        List<Booking> returnedBookings = bookingRepository.findTimeCrossingBookings(savedBookings.get(1).getItem().getId(),
+                LocalDateTime.now().plusDays(2),
+                LocalDateTime.now().plusDays(3), MAX_DURATION);
+        //then
+        assertThat(List.of(savedBookings.get(1)), equalTo(returnedBookings));
+    }
+
+    @Test
+    void findTimeCrossingBookings_whenExistingBookingRejected_thenReturnEmptyList() {
+        //given
+        savedBookings.get(1).setStatus(Status.REJECTED);
+        bookingRepository.save(savedBookings.get(1));
+        //when
+        List<Booking> returnedBookings = bookingRepository.findTimeCrossingBookings(savedBookings.get(1).getItem().getId(),
+                LocalDateTime.now().plusDays(2),
+                LocalDateTime.now().plusDays(3), MAX_DURATION);
+        //then
+        assertThat(returnedBookings.isEmpty(), equalTo(true));
+    }
+
     private Item makeItem(String itemName, String itemDescription, User owner) {
         Item item = new Item();
 
@@ -101,10 +310,26 @@ class BookingRepositoryTest {
         return user;
     }
 
+    private long countStatements(Runnable query) {
+        entityManager.clear();
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        query.run();
+        return statistics.getPrepareStatementCount();
+    }
+
+    private List<Long> ids(List<BookingOutDto> bookings) {
+        return bookings.stream()
+                .map(BookingOutDto::getId)
+                .collect(Collectors.toList());
+    }
+
     private Booking makeBooking(Item item, User booker, LocalDateTime start, LocalDateTime end, Status status) {
         Booking booking = new Booking();
         booking.setItem(item);
         booking.setBooker(booker);
+        booking.setOwnerId(item.getOwner().getId());
         booking.setStart(start);
         booking.setEnd(end);
         booking.setStatus(status);
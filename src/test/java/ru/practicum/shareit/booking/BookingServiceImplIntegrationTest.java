@@ -1,13 +1,22 @@
 package ru.practicum.shareit.booking;
 
 import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.shareit.booking.dto.BookingBatchResultDto;
+import ru.practicum.shareit.booking.dto.BookingInDto;
 import ru.practicum.shareit.booking.dto.BookingMapper;
 import ru.practicum.shareit.booking.dto.BookingOutDto;
+import ru.practicum.shareit.booking.dto.BookingRecurrenceDto;
+import ru.practicum.shareit.booking.dto.BookingWaitlistResultDto;
+import ru.practicum.shareit.exceptions.ContentAlreadyExistException;
+import ru.practicum.shareit.exceptions.ContentNotFountException;
+import ru.practicum.shareit.exceptions.PreconditionFailedException;
 import ru.practicum.shareit.item.Item;
 import ru.practicum.shareit.item.ItemService;
 import ru.practicum.shareit.item.dto.ItemDto;
@@ -17,13 +26,21 @@ import ru.practicum.shareit.user.UserService;
 import ru.practicum.shareit.user.dto.UserDto;
 import ru.practicum.shareit.user.dto.UserMapper;
 
+import javax.persistence.EntityManager;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.startsWith;
 
 @Transactional
 @SpringBootTest(
@@ -34,9 +51,14 @@ class BookingServiceImplIntegrationTest {
     private final BookingService bookingService;
     private final UserService userService;
     private final ItemService itemService;
+    private final JdbcTemplate jdbcTemplate;
+    private final BookingOutbox bookingOutbox;
+    private final EntityManager entityManager;
 
     private List<BookingOutDto> savedBookings;
 
+    private Long itemOwnerId;
+
     @BeforeEach
     void fillDB() {
         UserDto savedUser1 = userService.saveUser(UserMapper.toUserDto(maketeUser("Akhra", "akhra@yandex.ru")));
@@ -44,6 +66,7 @@ class BookingServiceImplIntegrationTest {
         Item item = makeItem("Отвертка", UserMapper.toUser(savedUser1));
         ItemDto savedItem = itemService.saveItem(ItemMapper.toItemDto(item), savedUser1.getId());
         item.setId(savedItem.getId());
+        itemOwnerId = savedUser1.getId();
         Booking booking = makeBooking(item, UserMapper.toUser(savedUser2));
         BookingOutDto savedBooking = bookingService.saveBooking(BookingMapper.mapToBookingInDto(booking));
         booking.setId(savedBooking.getId());
@@ -54,14 +77,143 @@ class BookingServiceImplIntegrationTest {
     void setStatus() {
         //given
         Long bookingId = savedBookings.get(0).getId();
-        Long itemOwnerId = savedBookings.get(0).getItem().getOwner().getId();
         //when
-        BookingOutDto returnedBooking = bookingService.setStatus(bookingId, itemOwnerId, true);
+        BookingOutDto returnedBooking = bookingService.setStatus(bookingId, itemOwnerId, true, null);
         //then
         assertThat(savedBookings.get(0).getStatus(), equalTo(Status.WAITING));
         assertThat(returnedBooking.getStatus(), equalTo(Status.APPROVED));
     }
 
+    @Test
+    void setStatus_whenExpectedVersionMatches_thenVersionIncrementedInSameUpdate() {
+        //given
+        Long bookingId = savedBookings.get(0).getId();
+        //when
+        BookingOutDto returnedBooking = bookingService.setStatus(bookingId, itemOwnerId, true, 0L);
+        //then
+        assertThat(returnedBooking.getVersion(), equalTo(1L));
+        assertThat(jdbcTemplate.queryForObject("select version from bookings where id = ?", Long.class, bookingId),
+                equalTo(1L));
+        assertThat(jdbcTemplate.queryForObject("select status from bookings where id = ?", String.class, bookingId),
+                equalTo(Status.APPROVED.name()));    }
+
+    @Test
+    void setStatus_whenApprovedThenRejected_thenUtilizationCountedAndRemovedPerDay() {
+        //given
+        BookingOutDto saved = savedBookings.get(0);
+        LocalDate day = LocalDate.now().plusDays(20);
+        BookingInDto bookingDto = new BookingInDto();
+        bookingDto.setItemId(saved.getItem().getId());
+        bookingDto.setBookerId(saved.getBooker().getId());
+        bookingDto.setStart(day.atTime(18, 0));
+        bookingDto.setEnd(day.plusDays(1).atTime(6, 0));
+        Long bookingId = bookingService.saveBooking(bookingDto).getId();
+        String sql = "select booked_seconds from item_daily_utilization where item_id = ? order by usage_day";
+        //when
+        bookingService.setStatus(bookingId, itemOwnerId, true, null);
+        List<Long> approved = jdbcTemplate.queryForList(sql, Long.class, saved.getItem().getId());
+        //Второе решение приходит отдельным запросом и читает бронирование заново
+        entityManager.clear();
+        bookingService.setStatus(bookingId, itemOwnerId, false, 1L);
+        List<Long> rejected = jdbcTemplate.queryForList(sql, Long.class, saved.getItem().getId());
+        //then
+        assertThat(approved, equalTo(List.of(6 * 3600L, 6 * 3600L)));
+        assertThat(rejected, equalTo(List.of(0L, 0L)));
+    }
+
+    @Test
+    void setStatus_whenRejectedAndSameIntervalWaitlisted_thenWaiterPromotedInSameTransaction() {
+        //given
+        BookingOutDto saved = savedBookings.get(0);
+        UserDto waiter = userService.saveUser(UserMapper.toUserDto(maketeUser("Ivan", "ivan@yandex.ru")));
+        BookingInDto bookingDto = new BookingInDto();
+        bookingDto.setItemId(saved.getItem().getId());
+        bookingDto.setBookerId(waiter.getId());
+        bookingDto.setStart(saved.getStart());
+        bookingDto.setEnd(saved.getEnd());
+        BookingWaitlistResultDto joined = bookingService.saveBookingOrJoinWaitlist(bookingDto);
+        //when
+        bookingService.setStatus(saved.getId(), itemOwnerId, false, null);
+        //then
+        assertThat(joined.getBooking(), equalTo(null));
+        assertThat(joined.getWaitlistEntry().getBookerId(), equalTo(waiter.getId()));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from booking_waitlist", Long.class), equalTo(0L));
+        assertThat(jdbcTemplate.queryForObject("select status from bookings where user_id = ?", String.class,
+                waiter.getId()), equalTo(Status.WAITING.name()));
+    }
+
+    @Test
+    void saveBookingOrJoinWaitlist_whenSameIntervalJoinedTwice_thenSecondJoinRejected() {
+        //given
+        BookingOutDto saved = savedBookings.get(0);
+        UserDto waiter = userService.saveUser(UserMapper.toUserDto(maketeUser("Ivan", "ivan@yandex.ru")));
+        BookingInDto bookingDto = new BookingInDto();
+        bookingDto.setItemId(saved.getItem().getId());
+        bookingDto.setBookerId(waiter.getId());
+        bookingDto.setStart(saved.getStart());
+        bookingDto.setEnd(saved.getEnd());
+        bookingService.saveBookingOrJoinWaitlist(bookingDto);
+        //when
+        Assertions.assertThrows(
+                ContentAlreadyExistException.class,
+                () -> bookingService.saveBookingOrJoinWaitlist(bookingDto));
+        //then
+        assertThat(jdbcTemplate.queryForObject("select count(*) from booking_waitlist", Long.class), equalTo(1L));
+    }
+
+    @Test
+    void saveRecurringBooking_whenWeekly_thenOccurrencesInsertedAndApprovedOneByOne() {
+        //given
+        BookingOutDto saved = savedBookings.get(0);
+        LocalDateTime start = saved.getEnd().plusDays(1);
+        BookingInDto bookingDto = new BookingInDto();
+        bookingDto.setItemId(saved.getItem().getId());
+        bookingDto.setBookerId(saved.getBooker().getId());
+        bookingDto.setStart(start);
+        bookingDto.setEnd(start.plusHours(10));
+        BookingRecurrenceDto recurrence = new BookingRecurrenceDto();
+        recurrence.setFrequency(RecurrenceFrequency.WEEKLY);
+        recurrence.setCount(4);
+        bookingDto.setRecurrence(recurrence);
+        //when
+        List<BookingOutDto> occurrences = bookingService.saveRecurringBooking(bookingDto);
+        BookingOutDto approved = bookingService.setStatus(occurrences.get(1).getId(), itemOwnerId, true, 0L);
+        //then
+        assertThat(occurrences, hasSize(4));
+        assertThat(occurrences.get(3).getStart(), equalTo(start.plusWeeks(3)));
+        assertThat(approved.getStatus(), equalTo(Status.APPROVED));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from bookings where status = 'WAITING'", Long.class),
+                equalTo(4L));
+    }
+
+    @Test
+    void setStatus_whenExpectedVersionIsStale_thenPreconditionFailedExceptionThrownAndRowUntouched() {
+        //given
+        Long bookingId = savedBookings.get(0).getId();
+        //when
+        Assertions.assertThrows(
+                PreconditionFailedException.class,
+                () -> bookingService.setStatus(bookingId, itemOwnerId, true, 5L));
+        //then
+        assertThat(jdbcTemplate.queryForObject("select status from bookings where id = ?", String.class, bookingId),
+                equalTo(Status.WAITING.name()));
+    }
+
+    @Test
+    void setStatus_whenBookingCreatedAndApprovedWithoutPublisher_thenStreamHoldsEventsInOrder() {
+        //given
+        Long bookingId = savedBookings.get(0).getId();
+        //when
+        bookingService.setStatus(bookingId, itemOwnerId, true, null);
+        List<String> statuses = jdbcTemplate.queryForList(
+                "select status from booking_stream_events where booking_id = ? order by id", String.class, bookingId);
+        //then
+        assertThat(statuses, contains(Status.WAITING.name(), Status.APPROVED.name()));
+        assertThat(jdbcTemplate.queryForObject("select owner_id from booking_stream_events where status = ?",
+                Long.class, Status.APPROVED.name()), equalTo(itemOwnerId));
+        assertThat(bookingOutbox.findBatch(10), hasSize(0));
+    }
+
     @Test
     void findAllBookingsByState() {
         //given
@@ -71,17 +223,117 @@ class BookingServiceImplIntegrationTest {
         //then
         assertThat(returnedBookings, hasSize(1));
         assertThat(returnedBookings.get(0).getId(), notNullValue());
-        assertThat(savedBookings.get(0), equalTo(returnedBookings.get(0)));
+        assertThat(returnedBookings.get(0).getId(), equalTo(savedBookings.get(0).getId()));
+        assertThat(returnedBookings.get(0).getItem(), equalTo(savedBookings.get(0).getItem()));
+        assertThat(returnedBookings.get(0).getBooker(), equalTo(savedBookings.get(0).getBooker()));
     }
 
     @Test
     void findAllBookingsOfItem() {
         //given
         Long targetItemId = savedBookings.get(0).getItem().getId();
+        LocalDateTime now = LocalDateTime.now();
+        //when
+        List<BookingOutDto> returnedBookings = bookingService.findAllBookingsOfItem(itemOwnerId, targetItemId,
+                now.plusDays(3), now.plusDays(5), null, 10);
+        List<BookingOutDto> laterBookings = bookingService.findAllBookingsOfItem(itemOwnerId, targetItemId,
+                now.plusDays(5), now.plusDays(6), null, 10);
+        //then
+        assertThat(returnedBookings, hasSize(1));
+        assertThat(returnedBookings.get(0).getId(), equalTo(savedBookings.get(0).getId()));
+        assertThat(returnedBookings.get(0).getItem(), equalTo(savedBookings.get(0).getItem()));
+        assertThat(returnedBookings.get(0).getBooker(), equalTo(savedBookings.get(0).getBooker()));
+        assertThat(laterBookings, hasSize(0));
+    }
+
+    @Test
+    void findBookingSlotsOfItem_whenPagedByCursor_thenEachBookingReturnedOnce() {
+        //given
+        BookingOutDto first = savedBookings.get(0);
+        Long itemId = first.getItem().getId();
+        BookingInDto second = new BookingInDto();
+        second.setItemId(itemId);
+        second.setStart(first.getStart().plusDays(1));
+        second.setEnd(first.getStart().plusDays(2));
+        second.setBookerId(first.getBooker().getId());
+        Long secondId = bookingService.saveBooking(second).getId();
+        LocalDateTime now = LocalDateTime.now();
+        //when
+        List<BookingSlot> firstPage = bookingService.findBookingSlotsOfItem(itemOwnerId, itemId,
+                now, now.plusDays(10), null, 1);
+        BookingSlot last = firstPage.get(0);
+        List<BookingSlot> secondPage = bookingService.findBookingSlotsOfItem(itemOwnerId, itemId,
+                now, now.plusDays(10), new BookingCursor(last.getStart(), last.getId()), 1);
+        List<BookingSlot> thirdPage = bookingService.findBookingSlotsOfItem(itemOwnerId, itemId,
+                now, now.plusDays(10), new BookingCursor(secondPage.get(0).getStart(), secondPage.get(0).getId()), 1);
+        //then
+        assertThat(last.getId(), equalTo(first.getId()));
+        assertThat(secondPage.get(0).getId(), equalTo(secondId));
+        assertThat(thirdPage, hasSize(0));
+    }
+
+    @Test
+    void saveBookings() {
+        //given
+        Long bookerId = savedBookings.get(0).getBooker().getId();
+        Long itemId = savedBookings.get(0).getItem().getId();
+        BookingInDto first = new BookingInDto();
+        first.setItemId(itemId);
+        first.setStart(LocalDateTime.now().plusDays(10));
+        first.setEnd(LocalDateTime.now().plusDays(11));
+        BookingInDto second = new BookingInDto();
+        second.setItemId(itemId);
+        second.setStart(LocalDateTime.now().plusDays(12));
+        second.setEnd(LocalDateTime.now().plusDays(13));
+        //when
+        List<BookingBatchResultDto> results = bookingService.saveBookings(bookerId, List.of(first, second));
+        //then
+        assertThat(results.get(0).getBooking().getId(), notNullValue());
+        assertThat(results.get(1).getBooking().getId(), notNullValue());
+        assertThat(bookingService.findAllBookingsOfItem(itemOwnerId, itemId, LocalDateTime.now(),
+                LocalDateTime.now().plusDays(14), null, 10), hasSize(3));
+    }
+
+    @Test
+    void exportOwnerBookings_whenNdjson_thenWriteOneJsonObjectPerLine() throws IOException {
+        //given
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         //when
-        List<BookingOutDto> returnedBookings = bookingService.findAllBookingsOfItem(targetItemId);
+        bookingService.exportOwnerBookings(itemOwnerId, BookingExportFormat.NDJSON).writeTo(out);
         //then
-        assertThat(savedBookings.get(0), equalTo(returnedBookings.get(0)));
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines.length, equalTo(1));
+        assertThat(lines[0], startsWith("{\"id\":" + savedBookings.get(0).getId() + ",\"start\":"));
+        assertThat(lines[0], endsWith("\"status\":\"WAITING\",\"archived\":false,\"itemId\":"
+                + savedBookings.get(0).getItem().getId() + ",\"itemName\":\"Отвертка\",\"bookerId\":"
+                + savedBookings.get(0).getBooker().getId() + ",\"bookerName\":\"Anri\"}"));
+    }
+
+    @Test
+    void exportOwnerBookings_whenCsv_thenArchivedBookingsIncludedAfterActualOnes() throws IOException {
+        //given
+        BookingOutDto saved = savedBookings.get(0);
+        jdbcTemplate.update("insert into bookings_history (id, start_date, end_date, item_id, user_id, owner_id, status) " +
+                        "values (?, ?, ?, ?, ?, ?, ?)", saved.getId() + 1000,
+                LocalDateTime.of(2020, 1, 1, 12, 0), LocalDateTime.of(2020, 1, 2, 12, 0),
+                saved.getItem().getId(), saved.getBooker().getId(), itemOwnerId, "APPROVED");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        //when
+        bookingService.exportOwnerBookings(itemOwnerId, BookingExportFormat.CSV).writeTo(out);
+        //then
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines.length, equalTo(3));
+        assertThat(lines[0], equalTo("id,start,end,status,archived,itemId,itemName,bookerId,bookerName"));
+        assertThat(lines[1], startsWith(saved.getId() + ","));
+        assertThat(lines[2], equalTo((saved.getId() + 1000) + ",2020-01-01T12:00:00,2020-01-02T12:00:00,APPROVED,true,"
+                + saved.getItem().getId() + ",Отвертка," + saved.getBooker().getId() + ",Anri"));
+    }
+
+    @Test
+    void exportOwnerBookings_whenUserNotFound_thenContentNotFountExceptionThrown() {
+        Assertions.assertThrows(
+                ContentNotFountException.class,
+                () -> bookingService.exportOwnerBookings(-1L, BookingExportFormat.CSV));
     }
 
     private Booking makeBooking(Item item, User booker) {
@@ -91,6 +343,7 @@ class BookingServiceImplIntegrationTest {
         booking.setEnd(LocalDateTime.now().plusDays(4));
         booking.setBooker(booker);
         booking.setItem(item);
+        booking.setOwnerId(item.getOwner().getId());
         return booking;
     }
 
@@ -1,6 +1,7 @@
 package ru.practicum.shareit.booking;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
@@ -8,38 +9,80 @@ import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.practicum.shareit.booking.dto.BookingBatchResultDto;
 import ru.practicum.shareit.booking.dto.BookingInDto;
 import ru.practicum.shareit.booking.dto.BookingMapper;
 import ru.practicum.shareit.booking.dto.BookingOutDto;
+import ru.practicum.shareit.booking.dto.BookingRecurrenceDto;
+import ru.practicum.shareit.booking.dto.BookingStatusBatchResultDto;
+import ru.practicum.shareit.booking.dto.BookingWaitlistResultDto;
 import ru.practicum.shareit.exceptions.BookingBadRequestException;
+import ru.practicum.shareit.exceptions.ContentAlreadyExistException;
 import ru.practicum.shareit.exceptions.ContentNotFountException;
+import ru.practicum.shareit.exceptions.PreconditionFailedException;
 import ru.practicum.shareit.item.Item;
 import ru.practicum.shareit.item.ItemRepository;
+import ru.practicum.shareit.item.ItemUtilizationRepository;
 import ru.practicum.shareit.user.User;
 import ru.practicum.shareit.user.UserRepository;
 
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class BookingServiceImplTest {
+    private static final Duration MAX_DURATION = Duration.ofDays(90);
+
     @Mock
     private BookingRepository bookingRepository;
     @Mock
+    private BookingJdbcRepository bookingJdbcRepository;
+    @Mock
+    private BookingHistoryRepository bookingHistoryRepository;
+    @Mock
     private ItemRepository itemRepository;
     @Mock
     private UserRepository userRepository;
+    @Mock
+    private BookingTimeline bookingTimeline;
+    @Mock
+    private BookingSummaryCache bookingSummaryCache;
+    @Mock
+    private BookingOutbox bookingOutbox;
+    @Mock
+    private ItemUtilizationRepository itemUtilizationRepository;
+    @Mock
+    private BookingStreamHub bookingStreamHub;
+    @Mock
+    private BookingWaitlist bookingWaitlist;
+    @Mock
+    private BookingWaitlistPromoter bookingWaitlistPromoter;
     @InjectMocks
     private BookingServiceImpl bookingService;
     @Captor
     private ArgumentCaptor<Booking> bookingArgumentCaptor;
 
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(bookingService, "maxDuration", MAX_DURATION);
+    }
+
     @Test
     void saveBooking_whenItemNotFound_thenContentNotFountExceptionThrown() {
         //given
@@ -99,18 +142,137 @@ class BookingServiceImplTest {
     }
 
     @Test
-    void saveBooking_whenItemAlreadyBooked_thenContentNotFountExceptionThrown() {
+    void saveBooking_whenBookingLongerThanMaxDuration_thenBookingBadRequestExceptionThrown() {
+        //given
+        Booking booking = createBooking();
+        booking.setStart(LocalDateTime.now().plusDays(1));
+        booking.setEnd(booking.getStart().plus(MAX_DURATION).plusMinutes(1));
+        BookingInDto tooLongBooking = BookingMapper.mapToBookingInDto(booking);
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(booking.getItem()));
+        //when
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> bookingService.saveBooking(tooLongBooking));
+        //then
+        verify(bookingRepository, never()).save(any());
+    }
+
+    @Test
+    void checkMaxDuration_whenConfiguredShorterThanDatabaseLimit_thenIllegalStateExceptionThrown() {
+        //given
+        ReflectionTestUtils.setField(bookingService, "maxDuration",
+                BookingServiceImpl.STORED_MAX_DURATION.minusDays(1));
+        //then
+        Assertions.assertThrows(
+                IllegalStateException.class,
+                () -> bookingService.checkMaxDuration());
+    }
+
+    @Test
+    void saveBooking_whenMaxDurationConstraintViolated_thenBookingBadRequestExceptionThrown() {
+        //given
+        ReflectionTestUtils.setField(bookingService, "maxDuration", MAX_DURATION.multipliedBy(2));
+        Booking booking = createBooking();
+        booking.setStart(LocalDateTime.now().plusDays(1));
+        booking.setEnd(booking.getStart().plus(MAX_DURATION).plusDays(1));
+        BookingInDto longBooking = BookingMapper.mapToBookingInDto(booking);
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(booking.getItem()));
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(booking.getBooker()));
+        when(bookingRepository.save(any())).thenThrow(new DataIntegrityViolationException("could not execute statement",
+                new RuntimeException("Check constraint violation: \"BOOKINGS_MAX_DURATION\"")));
+        //when
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> bookingService.saveBooking(longBooking));
+        //then
+        verify(bookingTimeline, never()).indexOnCommit(any());
+    }
+
+    @Test
+    void saveBooking_whenMaxDurationConfiguredLonger_thenLongBookingSavedAndCrossingsSearchedWithIt() {
+        //given
+        Duration configured = MAX_DURATION.multipliedBy(2);
+        ReflectionTestUtils.setField(bookingService, "maxDuration", configured);
+        Booking booking = createBooking();
+        booking.setStart(LocalDateTime.now().plusDays(1));
+        booking.setEnd(booking.getStart().plus(MAX_DURATION).plusDays(1));
+        BookingInDto longBooking = BookingMapper.mapToBookingInDto(booking);
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(booking.getItem()));
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(booking.getBooker()));
+        when(bookingRepository.save(any())).thenReturn(booking);
+        //when
+        bookingService.saveBooking(longBooking);
+        //then
+        verify(bookingRepository, times(1)).findTimeCrossingBookings(booking.getItem().getId(), booking.getStart(),
+                booking.getEnd(), configured);
+        verify(bookingRepository, times(1)).save(any());
+    }
+
+    @Test
+    void saveBooking_whenTimeCrossingBookingFoundInDatabase_thenContentNotFountExceptionThrown() {
         //given
         Booking booking = createBooking();
         BookingInDto unavailableDtesBooking = BookingMapper.mapToBookingInDto(booking);
         when(itemRepository.findById(anyLong())).thenReturn(Optional.of(booking.getItem()));
-        when(bookingRepository.findTimeCrossingBookings(anyLong(), any(), any())).thenReturn(List.of(booking));
+        when(bookingRepository.findTimeCrossingBookings(anyLong(), any(), any(), any())).thenReturn(List.of(booking));
         //when
         Assertions.assertThrows(
                 ContentNotFountException.class,
                 () -> bookingService.saveBooking(unavailableDtesBooking));
         //then
+        verify(itemRepository, times(1)).findLockedById(anyLong());
         verify(bookingRepository, never()).save(any());
+        verifyNoInteractions(bookingTimeline);
+    }
+
+    @Test
+    void saveBooking_whenOverlapConstraintViolated_thenContentNotFountExceptionThrown() {
+        //given
+        ReflectionTestUtils.setField(bookingService, "overlapConstraint", true);
+        Booking booking = createBooking();
+        BookingInDto bookingInDto = BookingMapper.mapToBookingInDto(booking);
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(booking.getItem()));
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(booking.getBooker()));
+        when(bookingRepository.save(any())).thenThrow(new DataIntegrityViolationException("could not execute statement",
+                new RuntimeException("conflicting key value violates exclusion constraint \"bookings_no_overlap\"")));
+        //when
+        Assertions.assertThrows(
+                ContentNotFountException.class,
+                () -> bookingService.saveBooking(bookingInDto));
+        //then
+        verify(bookingTimeline, never()).indexOnCommit(any());
+    }
+
+    @Test
+    void saveBooking_whenOverlapConstraintEnabled_thenItemNotLockedAndCrossingNotQueried() {
+        //given
+        ReflectionTestUtils.setField(bookingService, "overlapConstraint", true);
+        Booking booking = createBooking();
+        BookingInDto bookingInDto = BookingMapper.mapToBookingInDto(booking);
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(booking.getItem()));
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(booking.getBooker()));
+        when(bookingRepository.save(any())).thenReturn(booking);
+        //when
+        bookingService.saveBooking(bookingInDto);
+        //then
+        verify(itemRepository, never()).findLockedById(anyLong());
+        verify(bookingRepository, never()).findTimeCrossingBookings(anyLong(), any(), any(), any());
+        verify(bookingRepository, times(1)).save(any());
+    }
+
+    @Test
+    void saveBooking_whenOtherConstraintViolated_thenExceptionRethrown() {
+        //given
+        Booking booking = createBooking();
+        BookingInDto bookingInDto = BookingMapper.mapToBookingInDto(booking);
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(booking.getItem()));
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(booking.getBooker()));
+        when(bookingRepository.save(any())).thenThrow(new DataIntegrityViolationException("could not execute statement",
+                new RuntimeException("violates foreign key constraint \"fk_booking_to_item\"")));
+        //when
+        Assertions.assertThrows(
+                DataIntegrityViolationException.class,
+                () -> bookingService.saveBooking(bookingInDto));
     }
 
     @Test
@@ -142,6 +304,215 @@ class BookingServiceImplTest {
         verify(bookingRepository, times(1)).save(bookingArgumentCaptor.capture());
         Booking savedBooking = bookingArgumentCaptor.getValue();
         assertThat(savedBooking.getStatus(), equalTo(Status.WAITING));
+        assertThat(savedBooking.getOwnerId(), equalTo(booking.getItem().getOwner().getId()));
+        verify(bookingOutbox, times(1)).record(List.of(booking.getId()));
+        verify(bookingTimeline, times(1)).indexOnCommit(any());
+        verify(bookingSummaryCache, times(1)).evictOnCommit(2L, 1L);
+    }
+
+    @Test
+    void saveBookingOrJoinWaitlist_whenIntervalTaken_thenJoinWaitlist() {
+        //given
+        Booking booking = createBooking();
+        BookingInDto bookingInDto = BookingMapper.mapToBookingInDto(booking);
+        BookingWaitlistEntry entry = new BookingWaitlistEntry(5L, 1L, 2L, booking.getStart(), booking.getEnd(),
+                LocalDateTime.now());
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(booking.getItem()));
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(booking.getBooker()));
+        when(bookingRepository.findTimeCrossingBookings(anyLong(), any(), any(), any())).thenReturn(List.of(booking));
+        when(bookingWaitlist.add(1L, 2L, booking.getStart(), booking.getEnd())).thenReturn(entry);
+        //when
+        BookingWaitlistResultDto result = bookingService.saveBookingOrJoinWaitlist(bookingInDto);
+        //then
+        assertThat(result.getWaitlistEntry(), equalTo(entry));
+        assertThat(result.getBooking(), equalTo(null));
+        verify(itemRepository, times(1)).findLockedById(1L);
+        verify(bookingRepository, never()).save(any());
+        verifyNoInteractions(bookingOutbox);
+    }
+
+    @Test
+    void saveBookingOrJoinWaitlist_whenAlreadyWaitlisted_thenThrowContentAlreadyExistException() {
+        //given
+        Booking booking = createBooking();
+        BookingInDto bookingInDto = BookingMapper.mapToBookingInDto(booking);
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(booking.getItem()));
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(booking.getBooker()));
+        when(bookingRepository.findTimeCrossingBookings(anyLong(), any(), any(), any())).thenReturn(List.of(booking));
+        when(bookingWaitlist.add(1L, 2L, booking.getStart(), booking.getEnd()))
+                .thenThrow(new DuplicateKeyException("booking_waitlist_entry_uq"));
+        //when
+        Assertions.assertThrows(
+                ContentAlreadyExistException.class,
+                () -> bookingService.saveBookingOrJoinWaitlist(bookingInDto));
+        //then
+        verify(bookingRepository, never()).save(any());
+    }
+
+    @Test
+    void saveBookingOrJoinWaitlist_whenIntervalFree_thenReturnSavedBooking() {
+        //given
+        Booking booking = createBooking();
+        BookingInDto bookingInDto = BookingMapper.mapToBookingInDto(booking);
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(booking.getItem()));
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(booking.getBooker()));
+        when(bookingRepository.save(any())).thenReturn(booking);
+        //when
+        BookingWaitlistResultDto result = bookingService.saveBookingOrJoinWaitlist(bookingInDto);
+        //then
+        assertThat(result.getBooking().getId(), equalTo(booking.getId()));
+        assertThat(result.getWaitlistEntry(), equalTo(null));
+        verify(bookingOutbox, times(1)).record(List.of(booking.getId()));
+        verifyNoInteractions(bookingWaitlist);
+    }
+
+    @Test
+    void saveBookings_whenEntriesConflict_thenOnlyAcceptedAreInsertedInOneBatch() {
+        //given
+        Item item = createItem();
+        User booker = createUser();
+        booker.setId(2L);
+        LocalDateTime now = LocalDateTime.now();
+        BookingInDto accepted = makeBookingInDto(1L, now.plusDays(1), now.plusDays(2));
+        BookingInDto crossingAccepted = makeBookingInDto(1L, now.plusHours(36), now.plusDays(3));
+        BookingInDto crossingStored = makeBookingInDto(1L, now.plusDays(5), now.plusDays(6));
+        BookingInDto unknownItem = makeBookingInDto(99L, now.plusDays(1), now.plusDays(2));
+        when(userRepository.findById(2L)).thenReturn(Optional.of(booker));
+        when(itemRepository.findLockedByIdIn(anyCollection())).thenReturn(List.of(item));
+        when(bookingRepository.findTimeCrossingSlotsOfItems(anyCollection(), any(), any(), any())).thenReturn(List.of(
+                new BookingSlot(7L, 1L, 3L, now.plusDays(4), now.plusHours(125), Status.APPROVED)));
+        when(bookingJdbcRepository.insertAll(anyList())).thenReturn(List.of(10L));
+        //when
+        List<BookingBatchResultDto> results = bookingService.saveBookings(2L,
+                List.of(accepted, crossingAccepted, crossingStored, unknownItem));
+        //then
+        assertThat(results.get(0).getBooking().getId(), equalTo(10L));
+        assertThat(results.get(0).getBooking().getStatus(), equalTo(Status.WAITING));
+        assertThat(results.get(1).getError(), equalTo("Данная вещь уже забронирована в запрашиваемые даты"));
+        assertThat(results.get(2).getError(), equalTo("Данная вещь уже забронирована в запрашиваемые даты"));
+        assertThat(results.get(3).getError(), equalTo("Вещи с id = 99 не существует"));
+        verify(bookingJdbcRepository, times(1)).insertAll(argThat(bookings -> bookings.size() == 1));
+        verify(bookingOutbox, times(1)).record(List.of(10L));
+        verify(bookingTimeline, times(1)).indexOnCommit(any());
+        verify(bookingSummaryCache, times(1)).evictOnCommit(2L, 1L);
+        verify(bookingRepository, never()).save(any());
+    }
+
+    @Test
+    void saveRecurringBooking_whenWeeklyByCount_thenExpandCheckWithOneQueryAndInsertInOneBatch() {
+        //given
+        Item item = createItem();
+        User booker = createUser();
+        booker.setId(2L);
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        BookingInDto bookingDto = makeBookingInDto(1L, start, start.plusHours(8));
+        bookingDto.setBookerId(2L);
+        bookingDto.setRecurrence(makeRecurrence(RecurrenceFrequency.WEEKLY, 3, null));
+        when(itemRepository.findById(1L)).thenReturn(Optional.of(item));
+        when(userRepository.findById(2L)).thenReturn(Optional.of(booker));
+        when(bookingRepository.findTimeCrossingSlotsOfItems(List.of(1L), start, start.plusWeeks(2).plusHours(8), MAX_DURATION))
+                .thenReturn(List.of(new BookingSlot(7L, 1L, 3L, start.plusDays(1), start.plusDays(2), Status.APPROVED)));
+        when(bookingJdbcRepository.insertAll(anyList())).thenReturn(List.of(10L, 11L, 12L));
+        //when
+        List<BookingOutDto> bookings = bookingService.saveRecurringBooking(bookingDto);
+        //then
+        assertThat(bookings.stream().map(BookingOutDto::getId).collect(Collectors.toList()),
+                equalTo(List.of(10L, 11L, 12L)));
+        assertThat(bookings.stream().map(BookingOutDto::getStart).collect(Collectors.toList()),
+                equalTo(List.of(start, start.plusWeeks(1), start.plusWeeks(2))));
+        assertThat(bookings.get(2).getStatus(), equalTo(Status.WAITING));
+        verify(itemRepository, times(1)).findLockedById(1L);
+        verify(bookingOutbox, times(1)).record(List.of(10L, 11L, 12L));
+        verify(bookingTimeline, times(3)).indexOnCommit(any());
+        verify(bookingSummaryCache, times(1)).evictOnCommit(2L, 1L);
+    }
+
+    @Test
+    void saveRecurringBooking_whenOneOccurrenceTaken_thenNothingInserted() {
+        //given
+        Item item = createItem();
+        User booker = createUser();
+        booker.setId(2L);
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        BookingInDto bookingDto = makeBookingInDto(1L, start, start.plusHours(8));
+        bookingDto.setBookerId(2L);
+        bookingDto.setRecurrence(makeRecurrence(RecurrenceFrequency.DAILY, null, start.toLocalDate().plusDays(4)));
+        when(itemRepository.findById(1L)).thenReturn(Optional.of(item));
+        when(userRepository.findById(2L)).thenReturn(Optional.of(booker));
+        when(bookingRepository.findTimeCrossingSlotsOfItems(anyCollection(), any(), any(), any())).thenReturn(List.of(
+                new BookingSlot(7L, 1L, 3L, start.plusDays(3).minusHours(1), start.plusDays(3).plusHours(1),
+                        Status.WAITING)));
+        //when
+        ContentNotFountException exception = Assertions.assertThrows(
+                ContentNotFountException.class,
+                () -> bookingService.saveRecurringBooking(bookingDto));
+        //then
+        assertThat(exception.getMessage(), equalTo("Данная вещь уже забронирована в запрашиваемые даты: "
+                + start.plusDays(3)));
+        verifyNoInteractions(bookingJdbcRepository, bookingOutbox);
+    }
+
+    @Test
+    void saveRecurringBooking_whenOccurrencesOverlapEachOther_thenBookingBadRequestExceptionThrown() {
+        //given
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        BookingInDto bookingDto = makeBookingInDto(1L, start, start.plusDays(2));
+        bookingDto.setBookerId(2L);
+        bookingDto.setRecurrence(makeRecurrence(RecurrenceFrequency.DAILY, 3, null));
+        when(itemRepository.findById(1L)).thenReturn(Optional.of(createItem()));
+        //when
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> bookingService.saveRecurringBooking(bookingDto));
+        //then
+        verifyNoInteractions(bookingRepository, bookingJdbcRepository);
+    }
+
+    @Test
+    void saveRecurringBooking_whenTooManyOccurrences_thenBookingBadRequestExceptionThrown() {
+        //given
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        BookingInDto bookingDto = makeBookingInDto(1L, start, start.plusHours(1));
+        bookingDto.setBookerId(2L);
+        bookingDto.setRecurrence(makeRecurrence(RecurrenceFrequency.DAILY, BookingServiceImpl.MAX_OCCURRENCES + 1, null));
+        when(itemRepository.findById(1L)).thenReturn(Optional.of(createItem()));
+        //when
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> bookingService.saveRecurringBooking(bookingDto));
+        //then
+        verifyNoInteractions(bookingRepository, bookingJdbcRepository);
+    }
+
+    @Test
+    void saveBookings_whenNoEntryAccepted_thenNothingInserted() {
+        //given
+        Item item = createItem();
+        LocalDateTime now = LocalDateTime.now();
+        when(userRepository.findById(1L)).thenReturn(Optional.of(item.getOwner()));
+        when(itemRepository.findLockedByIdIn(anyCollection())).thenReturn(List.of(item));
+        //when
+        List<BookingBatchResultDto> results = bookingService.saveBookings(1L,
+                List.of(makeBookingInDto(1L, now.plusDays(1), now.plusDays(2))));
+        //then
+        assertThat(results.get(0).getError(), equalTo("Вледелец вещи не может ее забронировать"));
+        verify(bookingRepository, never()).findTimeCrossingSlotsOfItems(anyCollection(), any(), any(), any());
+        verify(bookingJdbcRepository, never()).insertAll(anyList());
+        verifyNoInteractions(bookingOutbox);
+    }
+
+    @Test
+    void saveBookings_whenUserNotFound_thenContentNotFountExceptionThrown() {
+        //given
+        when(userRepository.findById(anyLong())).thenReturn(Optional.empty());
+        LocalDateTime now = LocalDateTime.now();
+        //when
+        Assertions.assertThrows(
+                ContentNotFountException.class,
+                () -> bookingService.saveBookings(2L, List.of(makeBookingInDto(1L, now.plusDays(1), now.plusDays(2)))));
+        //then
+        verify(bookingJdbcRepository, never()).insertAll(anyList());
+        verifyNoInteractions(bookingOutbox);
     }
 
     @Test
@@ -151,9 +522,9 @@ class BookingServiceImplTest {
         //when
         Assertions.assertThrows(
                 ContentNotFountException.class,
-                () -> bookingService.setStatus(uncreatedBookingId, 1L, true));
+                () -> bookingService.setStatus(uncreatedBookingId, 1L, true, null));
         //then
-        verify(bookingRepository, never()).save(any());
+        verify(bookingRepository, never()).updateStatusIfVersionMatches(anyLong(), anyLong(), any());
     }
 
     @Test
@@ -166,9 +537,9 @@ class BookingServiceImplTest {
         //when
         Assertions.assertThrows(
                 ContentNotFountException.class,
-                () -> bookingService.setStatus(bookingId, userNotOwnerOfItemId, true));
+                () -> bookingService.setStatus(bookingId, userNotOwnerOfItemId, true, null));
         //then
-        verify(bookingRepository, never()).save(any());
+        verify(bookingRepository, never()).updateStatusIfVersionMatches(anyLong(), anyLong(), any());
     }
 
     @Test
@@ -180,9 +551,58 @@ class BookingServiceImplTest {
         //when
         Assertions.assertThrows(
                 BookingBadRequestException.class,
-                () -> bookingService.setStatus(1L, 1L, alreadySetStatus));
+                () -> bookingService.setStatus(1L, 1L, alreadySetStatus, null));
         //then
-        verify(bookingRepository, never()).save(any());
+        verify(bookingRepository, never()).updateStatusIfVersionMatches(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void setStatus_whenBookingExpired_thenBookingBadRequestExceptionThrown() {
+        //given
+        Booking booking = createBooking();
+        booking.setStatus(Status.EXPIRED);
+        when(bookingRepository.findById(anyLong())).thenReturn(Optional.of(booking));
+        //when
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> bookingService.setStatus(1L, 1L, true, null));
+        //then
+        verify(bookingRepository, never()).updateStatusIfVersionMatches(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void setStatus_whenRejectedBookingApprovedButIntervalTaken_thenContentNotFountExceptionThrown() {
+        //given
+        Booking booking = createBooking();
+        booking.setStatus(Status.REJECTED);
+        when(bookingRepository.findById(anyLong())).thenReturn(Optional.of(booking));
+        when(bookingRepository.findTimeCrossingBookings(anyLong(), any(), any(), any())).thenReturn(List.of(createBooking()));
+        //when
+        Assertions.assertThrows(
+                ContentNotFountException.class,
+                () -> bookingService.setStatus(1L, 1L, true, null));
+        //then
+        verify(itemRepository, times(1)).findLockedById(1L);
+        verify(bookingRepository, never()).updateStatusIfVersionMatches(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void setStatus_whenRejectedBookingApprovedAndOverlapConstraintViolated_thenContentNotFountExceptionThrown() {
+        //given
+        ReflectionTestUtils.setField(bookingService, "overlapConstraint", true);
+        Booking booking = createBooking();
+        booking.setStatus(Status.REJECTED);
+        when(bookingRepository.findById(anyLong())).thenReturn(Optional.of(booking));
+        when(bookingRepository.updateStatusIfVersionMatches(anyLong(), any(), any()))
+                .thenThrow(new DataIntegrityViolationException("could not execute statement", new RuntimeException(
+                        "conflicting key value violates exclusion constraint \"bookings_no_overlap\"")));
+        //when
+        Assertions.assertThrows(
+                ContentNotFountException.class,
+                () -> bookingService.setStatus(1L, 1L, true, null));
+        //then
+        verify(itemRepository, never()).findLockedById(anyLong());
+        verify(bookingOutbox, never()).record(any());
     }
 
     @Test
@@ -191,16 +611,132 @@ class BookingServiceImplTest {
         Booking booking = createBooking();
         booking.setStatus(Status.WAITING);
         when(bookingRepository.findById(anyLong())).thenReturn(Optional.of(booking));
-        when(bookingRepository.save(any())).thenReturn(booking);
+        when(bookingRepository.updateStatusIfVersionMatches(1L, 0L, Status.APPROVED)).thenReturn(1);
+        //when
+        BookingOutDto returnedBooking = bookingService.setStatus(1L, 1L, true, null);
+        //then
+        verify(bookingRepository, never()).saveAndFlush(any());
+        assertThat(returnedBooking.getId(), equalTo(1L));
+        assertThat(returnedBooking.getStatus(), equalTo(Status.APPROVED));
+        assertThat(returnedBooking.getVersion(), equalTo(1L));
+        assertThat(booking.getStatus(), equalTo(Status.WAITING));
+        verify(itemUtilizationRepository, times(1)).add(List.of(new BookingSlot(1L, 1L, 2L, booking.getStart(),
+                booking.getEnd(), Status.APPROVED)));
+        verify(bookingOutbox, times(1)).record(List.of(1L));
+        verify(bookingTimeline, times(1)).indexOnCommit(any());
+        verify(bookingSummaryCache, times(1)).evictOnCommit(2L, 1L);
+    }
 
-        bookingService.setStatus(1L, 1L, true);
+    @Test
+    void setStatus_whenApprovedBookingRejected_thenUtilizationSubtracted() {
+        //given
+        Booking booking = createBooking();
+        when(bookingRepository.findById(anyLong())).thenReturn(Optional.of(booking));
+        when(bookingRepository.updateStatusIfVersionMatches(1L, 0L, Status.REJECTED)).thenReturn(1);
         //when
-        verify(bookingRepository, times(1)).save(bookingArgumentCaptor.capture());
-        Booking savedBooking = bookingArgumentCaptor.getValue();
+        bookingService.setStatus(1L, 1L, false, null);
         //then
-        verify(bookingRepository, times(1)).save(any());
-        assertThat(savedBooking.getId(), equalTo(1L));
-        assertThat(savedBooking.getStatus(), equalTo(Status.APPROVED));
+        verify(itemUtilizationRepository, times(1)).subtract(List.of(new BookingSlot(1L, 1L, 2L, booking.getStart(),
+                booking.getEnd(), Status.REJECTED)));
+        verify(itemUtilizationRepository, never()).add(any());
+        verify(bookingWaitlistPromoter, times(1)).promote(List.of(new BookingSlot(1L, 1L, 2L, booking.getStart(),
+                booking.getEnd(), Status.REJECTED)));
+    }
+
+    @Test
+    void setStatus_whenIfMatchVersionIsStale_thenPreconditionFailedExceptionThrown() {
+        //given
+        Booking booking = createBooking();
+        booking.setStatus(Status.WAITING);
+        booking.setVersion(3L);
+        when(bookingRepository.findById(anyLong())).thenReturn(Optional.of(booking));
+        //when
+        Assertions.assertThrows(
+                PreconditionFailedException.class,
+                () -> bookingService.setStatus(1L, 1L, true, 2L));
+        //then
+        verify(bookingRepository, never()).updateStatusIfVersionMatches(anyLong(), anyLong(), any());
+        verifyNoInteractions(bookingOutbox);
+    }
+
+    @Test
+    void setStatus_whenConcurrentUpdateWins_thenPreconditionFailedExceptionThrown() {
+        //given
+        Booking booking = createBooking();
+        booking.setStatus(Status.WAITING);
+        when(bookingRepository.findById(anyLong())).thenReturn(Optional.of(booking));
+        when(bookingRepository.updateStatusIfVersionMatches(1L, 0L, Status.APPROVED)).thenReturn(0);
+        //when
+        Assertions.assertThrows(
+                PreconditionFailedException.class,
+                () -> bookingService.setStatus(1L, 1L, true, 0L));
+        //then
+        verifyNoInteractions(bookingOutbox);
+        verify(bookingTimeline, never()).indexOnCommit(any());
+    }
+
+    @Test
+    void setStatuses_whenSomeBookingsNotQualified_thenUpdateRestInOneStatementAndReportSkipped() {
+        //given
+        LocalDateTime now = LocalDateTime.now();
+        when(bookingRepository.findWaitingSlotsOfOwner(anyCollection(), anyLong())).thenReturn(List.of(
+                new BookingSlot(1L, 1L, 2L, now.plusDays(1), now.plusDays(2), Status.WAITING),
+                new BookingSlot(3L, 1L, 3L, now.plusDays(3), now.plusDays(4), Status.WAITING)));
+        when(bookingRepository.updateWaitingStatusOfOwner(anyCollection(), anyLong(), any())).thenReturn(2);
+        //when
+        BookingStatusBatchResultDto result = bookingService.setStatuses(List.of(1L, 2L, 3L, 4L), 1L, false);
+        //then
+        assertThat(result.getStatus(), equalTo(Status.REJECTED));
+        assertThat(result.getUpdated(), equalTo(List.of(1L, 3L)));
+        assertThat(result.getSkipped(), equalTo(List.of(2L, 4L)));
+        verify(bookingRepository, times(1)).updateWaitingStatusOfOwner(List.of(1L, 3L), 1L, Status.REJECTED);
+        verify(bookingOutbox, times(1)).record(List.of(1L, 3L));
+        verify(bookingTimeline, times(2)).indexOnCommit(argThat(slot -> slot.getStatus() == Status.REJECTED));
+        verify(bookingRepository, never()).saveAndFlush(any());
+        verifyNoInteractions(itemUtilizationRepository);
+        verify(bookingWaitlistPromoter, times(1)).promote(argThat(slots -> slots.size() == 2));
+    }
+
+    @Test
+    void setStatuses_whenApproved_thenUtilizationCountedForUpdatedBookings() {
+        //given
+        LocalDateTime now = LocalDateTime.now();
+        List<BookingSlot> slots = List.of(new BookingSlot(1L, 1L, 2L, now.plusDays(1), now.plusDays(2), Status.WAITING));
+        when(bookingRepository.findWaitingSlotsOfOwner(anyCollection(), anyLong())).thenReturn(slots);
+        when(bookingRepository.updateWaitingStatusOfOwner(anyCollection(), anyLong(), any())).thenReturn(1);
+        //when
+        bookingService.setStatuses(List.of(1L, 2L), 1L, true);
+        //then
+        verify(itemUtilizationRepository, times(1)).add(slots);
+        verifyNoInteractions(bookingWaitlistPromoter);
+    }
+
+    @Test
+    void setStatuses_whenUpdateChangedFewerBookingsThanRead_thenPreconditionFailedExceptionThrownAndNothingProcessed() {
+        //given
+        LocalDateTime now = LocalDateTime.now();
+        when(bookingRepository.findWaitingSlotsOfOwner(anyCollection(), anyLong())).thenReturn(List.of(
+                new BookingSlot(1L, 1L, 2L, now.plusDays(1), now.plusDays(2), Status.WAITING),
+                new BookingSlot(3L, 1L, 3L, now.plusDays(3), now.plusDays(4), Status.WAITING)));
+        when(bookingRepository.updateWaitingStatusOfOwner(anyCollection(), anyLong(), any())).thenReturn(1);
+
+        Assertions.assertThrows(
+                PreconditionFailedException.class,
+                () -> bookingService.setStatuses(List.of(1L, 3L), 1L, true));
+        verifyNoInteractions(bookingOutbox, itemUtilizationRepository, bookingWaitlistPromoter, bookingTimeline);
+    }
+
+    @Test
+    void setStatuses_whenNoBookingQualified_thenNothingUpdated() {
+        //given
+        when(bookingRepository.findWaitingSlotsOfOwner(anyCollection(), anyLong())).thenReturn(List.of());
+        //when
+        BookingStatusBatchResultDto result = bookingService.setStatuses(List.of(1L, 2L), 1L, true);
+        //then
+        assertThat(result.getUpdated(), equalTo(List.of()));
+        assertThat(result.getSkipped(), equalTo(List.of(1L, 2L)));
+        verify(bookingRepository, never()).updateWaitingStatusOfOwner(anyCollection(), anyLong(), any());
+        verifyNoInteractions(bookingOutbox);
     }
 
     @Test
@@ -267,7 +803,7 @@ class BookingServiceImplTest {
         //when
         bookingService.findAllBookingsByState(1L, State.CURRENT, 0, 10);
         //then
-        verify(bookingRepository, times(1)).findByCurrentBooker(anyLong(), any(), any());
+        verify(bookingRepository, times(1)).findByCurrentBooker(anyLong(), any(), any(), any());
     }
 
     @Test
@@ -320,7 +856,7 @@ class BookingServiceImplTest {
         //when
         bookingService.findAllOwnerBookingsByState(1L, State.ALL, 0, 10);
         //then
-        verify(bookingRepository, times(1)).findByItemOwnerId(anyLong(), any());
+        verify(bookingRepository, times(1)).findByOwnerId(anyLong(), any());
     }
 
     @Test
@@ -331,7 +867,7 @@ class BookingServiceImplTest {
         //when
         bookingService.findAllOwnerBookingsByState(1L, State.CURRENT, 0, 10);
         //then
-        verify(bookingRepository, times(1)).findByOwnerCurrentBooker(anyLong(), any(), any());
+        verify(bookingRepository, times(1)).findByOwnerCurrentBooker(anyLong(), any(), any(), any());
     }
 
     @Test
@@ -342,7 +878,7 @@ class BookingServiceImplTest {
         //when
         bookingService.findAllOwnerBookingsByState(1L, State.PAST, 0, 10);
         //then
-        verify(bookingRepository, times(1)).findByItemOwnerIdAndEndIsBefore(anyLong(), any(), any());
+        verify(bookingRepository, times(1)).findByOwnerIdAndEndIsBefore(anyLong(), any(), any());
     }
 
     @Test
@@ -353,7 +889,7 @@ class BookingServiceImplTest {
         //when
         bookingService.findAllOwnerBookingsByState(1L, State.FUTURE, 0, 10);
         //then
-        verify(bookingRepository, times(1)).findByItemOwnerIdAndStartIsAfter(anyLong(), any(), any());
+        verify(bookingRepository, times(1)).findByOwnerIdAndStartIsAfter(anyLong(), any(), any());
     }
 
     @Test
@@ -364,20 +900,185 @@ class BookingServiceImplTest {
         //when
         bookingService.findAllOwnerBookingsByState(1L, State.REJECTED, 0, 10);
         //then
-        verify(bookingRepository, times(1)).findByItemOwnerIdAndStatus(anyLong(), any(), any());
+        verify(bookingRepository, times(1)).findByOwnerIdAndStatus(anyLong(), any(), any());
     }
 
     @Test
-    void findAllBookingsOfItem() {
+    void findAllBookingsByState_whenCursorGiven_thenInvokeKeysetRepositoryMethods() {
         //given
         Booking booking = createBooking();
-        when(bookingRepository.findByItemId(anyLong(), any())).thenReturn(List.of(booking));
+        BookingCursor cursor = new BookingCursor(booking.getStart(), booking.getId());
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(booking.getBooker()));
         //when
-        List<BookingOutDto> bookingOutDtoList = bookingService.findAllBookingsOfItem(1L);
+        bookingService.findAllBookingsByState(1L, State.ALL, cursor, 10);
+        bookingService.findAllBookingsByState(1L, State.CURRENT, cursor, 10);
+        bookingService.findAllBookingsByState(1L, State.PAST, cursor, 10);
+        bookingService.findAllBookingsByState(1L, State.FUTURE, cursor, 10);
+        bookingService.findAllBookingsByState(1L, State.WAITING, cursor, 10);
+        //then
+        verify(bookingRepository, times(1)).findByBookerIdAfterCursor(anyLong(), any(), anyLong(), any());
+        verify(bookingRepository, times(1)).findByCurrentBookerAfterCursor(anyLong(), any(), anyLong(), any(), any());
+        verify(bookingRepository, times(1)).findPastByBookerIdAfterCursor(anyLong(), any(), any(), anyLong(), any());
+        verify(bookingRepository, times(1)).findFutureByBookerIdAfterCursor(anyLong(), any(), any(), anyLong(), any());
+        verify(bookingRepository, times(1)).findByBookerIdAndStatusAfterCursor(anyLong(), any(), any(), anyLong(), any());
+        verify(bookingRepository, never()).findByBookerId(anyLong(), any());
+    }
+
+    @Test
+    void findAllOwnerBookingsByState_whenCursorGiven_thenInvokeKeysetRepositoryMethods() {
+        //given
+        Booking booking = createBooking();
+        BookingCursor cursor = new BookingCursor(booking.getStart(), booking.getId());
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(booking.getBooker()));
+        //when
+        bookingService.findAllOwnerBookingsByState(1L, State.ALL, cursor, 10);
+        bookingService.findAllOwnerBookingsByState(1L, State.CURRENT, cursor, 10);
+        bookingService.findAllOwnerBookingsByState(1L, State.PAST, cursor, 10);
+        bookingService.findAllOwnerBookingsByState(1L, State.FUTURE, cursor, 10);
+        bookingService.findAllOwnerBookingsByState(1L, State.REJECTED, cursor, 10);
+        //then
+        verify(bookingRepository, times(1)).findByOwnerIdAfterCursor(anyLong(), any(), anyLong(), any());
+        verify(bookingRepository, times(1)).findByOwnerCurrentBookerAfterCursor(anyLong(), any(), anyLong(), any(), any());
+        verify(bookingRepository, times(1)).findPastByOwnerIdAfterCursor(anyLong(), any(), any(), anyLong(), any());
+        verify(bookingRepository, times(1)).findFutureByOwnerIdAfterCursor(anyLong(), any(), any(), anyLong(), any());
+        verify(bookingRepository, times(1)).findByOwnerIdAndStatusAfterCursor(anyLong(), any(), any(), anyLong(), any());
+        verify(bookingRepository, never()).findByOwnerId(anyLong(), any());
+    }
+
+    @Test
+    void getBookingsSummary_whenNotCached_thenCountAllStatesInOneQuery() {
+        //given
+        BookingStateCounts counts = mock(BookingStateCounts.class);
+        when(counts.getAllCount()).thenReturn(3L);
+        when(counts.getWaitingCount()).thenReturn(1L);
+        when(bookingSummaryCache.get(eq(2L), eq(false), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<Map<State, Long>>>getArgument(2).get());
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(createUser()));
+        when(bookingRepository.countByBookerIdGroupByState(anyLong(), any())).thenReturn(counts);
+        //when
+        Map<State, Long> summary = bookingService.getBookingsSummary(2L);
+        //then
+        assertThat(summary.get(State.ALL), equalTo(3L));
+        assertThat(summary.get(State.WAITING), equalTo(1L));
+        assertThat(summary.get(State.REJECTED), equalTo(0L));
+        verify(bookingRepository, never()).countByOwnerIdGroupByState(anyLong(), any());
+    }
+
+    @Test
+    void getOwnerBookingsSummary_whenUserNotFound_thenContentNotFountExceptionThrown() {
+        //given
+        when(bookingSummaryCache.get(eq(1L), eq(true), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<Map<State, Long>>>getArgument(2).get());
+        when(userRepository.findById(anyLong())).thenReturn(Optional.empty());
+        //when
+        Assertions.assertThrows(
+                ContentNotFountException.class,
+                () -> bookingService.getOwnerBookingsSummary(1L));
+        //then
+        verify(bookingRepository, never()).countByOwnerIdGroupByState(anyLong(), any());
+    }
+
+    @Test
+    void subscribeToBookingEvents_whenUserNotFound_thenContentNotFountExceptionThrown() {
+        //given
+        when(userRepository.findById(anyLong())).thenReturn(Optional.empty());
+        //when
+        Assertions.assertThrows(
+                ContentNotFountException.class,
+                () -> bookingService.subscribeToBookingEvents(1L));
+        //then
+        verifyNoInteractions(bookingStreamHub);
+    }
+
+    @Test
+    void findArchivedBookings_whenUserFound_thenReadFromHistory() {
+        //given
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(createUser()));
+        BookingOutDto archived = new BookingOutDto();
+        archived.setId(5L);
+        archived.setStatus(Status.APPROVED);
+        when(bookingHistoryRepository.findByBookerId(anyLong(), any())).thenReturn(List.of(archived));
+        //when
+        List<BookingOutDto> bookings = bookingService.findArchivedBookings(2L, 0, 10);
+        //then
+        assertThat(bookings.get(0).getId(), equalTo(5L));
+        verify(bookingRepository, never()).findByBookerId(anyLong(), any());
+    }
+
+    @Test
+    void findAllBookingsOfItem_whenFirstPage_thenReadStartsMaxDurationBeforeWindow() {
+        //given
+        Booking booking = createBooking();
+        LocalDateTime from = LocalDateTime.of(2030, 1, 1, 0, 0);
+        LocalDateTime to = from.plusMonths(1);
+        when(itemRepository.findById(1L)).thenReturn(Optional.of(booking.getItem()));
+        when(bookingRepository.findByItemIdInWindowAfterCursor(1L, from, to, from.minus(MAX_DURATION), 0L,
+                PageRequest.of(0, 10))).thenReturn(List.of(BookingMapper.mapToBookingOutDto(booking)));
+        //when
+        List<BookingOutDto> bookingOutDtoList = bookingService.findAllBookingsOfItem(1L, 1L, from, to, null, 10);
         //then
         assertThat(booking.getId(), equalTo(bookingOutDtoList.get(0).getId()));
     }
 
+    @Test
+    void findBookingSlotsOfItem_whenCursorGiven_thenReadContinuesAfterCursor() {
+        //given
+        Item item = createItem();
+        LocalDateTime from = LocalDateTime.of(2030, 1, 1, 0, 0);
+        LocalDateTime to = from.plusMonths(1);
+        BookingCursor after = new BookingCursor(from.plusDays(3), 7L);
+        BookingSlot slot = new BookingSlot(8L, 1L, 2L, from.plusDays(4), from.plusDays(5), Status.APPROVED);
+        when(itemRepository.findById(1L)).thenReturn(Optional.of(item));
+        when(bookingRepository.findSlotsByItemIdInWindowAfterCursor(1L, from, to, after.getStart(), 7L,
+                PageRequest.of(0, 5))).thenReturn(List.of(slot));
+        //when
+        List<BookingSlot> slots = bookingService.findBookingSlotsOfItem(1L, 1L, from, to, after, 5);
+        //then
+        assertThat(slots, equalTo(List.of(slot)));
+    }
+
+    @Test
+    void findAllBookingsOfItem_whenUserIsNotOwner_thenContentNotFountExceptionThrown() {
+        //given
+        Item item = createItem();
+        LocalDateTime from = LocalDateTime.of(2030, 1, 1, 0, 0);
+        when(itemRepository.findById(1L)).thenReturn(Optional.of(item));
+        //when
+        Assertions.assertThrows(
+                ContentNotFountException.class,
+                () -> bookingService.findAllBookingsOfItem(2L, 1L, from, from.plusDays(1), null, 10));
+        //then
+        verifyNoInteractions(bookingRepository);
+    }
+
+    @Test
+    void findAllBookingsOfItem_whenWindowIsEmpty_thenBookingBadRequestExceptionThrown() {
+        //given
+        LocalDateTime from = LocalDateTime.of(2030, 1, 1, 0, 0);
+        //when
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> bookingService.findAllBookingsOfItem(1L, 1L, from, from, null, 10));
+        //then
+        verifyNoInteractions(itemRepository, bookingRepository);
+    }
+
+    private BookingInDto makeBookingInDto(Long itemId, LocalDateTime start, LocalDateTime end) {
+        BookingInDto bookingDto = new BookingInDto();
+        bookingDto.setItemId(itemId);
+        bookingDto.setStart(start);
+        bookingDto.setEnd(end);
+        return bookingDto;
+    }
+
+    private BookingRecurrenceDto makeRecurrence(RecurrenceFrequency frequency, Integer count, LocalDate until) {
+        BookingRecurrenceDto recurrence = new BookingRecurrenceDto();
+        recurrence.setFrequency(frequency);
+        recurrence.setCount(count);
+        recurrence.setUntil(until);
+        return recurrence;
+    }
+
     private Item createItem() {
         User user = createUser();
 
@@ -409,8 +1110,10 @@ class BookingServiceImplTest {
         booking.setStart(LocalDateTime.now().minusDays(5));
         booking.setEnd(LocalDateTime.now().minusDays(4));
         booking.setItem(item);
+        booking.setOwnerId(item.getOwner().getId());
         booking.setStatus(Status.APPROVED);
         booking.setBooker(booker);
+        booking.setVersion(0L);
         return booking;
     }
 }
\ No newline at end of file
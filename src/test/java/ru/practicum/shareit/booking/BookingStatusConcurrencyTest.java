@@ -0,0 +1,110 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.shareit.booking.dto.BookingInDto;
+import ru.practicum.shareit.exceptions.BookingBadRequestException;
+import ru.practicum.shareit.exceptions.PreconditionFailedException;
+import ru.practicum.shareit.item.ItemService;
+import ru.practicum.shareit.item.dto.ItemDto;
+import ru.practicum.shareit.user.UserService;
+import ru.practicum.shareit.user.dto.UserDto;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/*
+ * Пакетное и одиночное подтверждение одного бронирования идут в разных транзакциях,
+ * поэтому тест работает без общей тестовой транзакции и на отдельной базе.
+ */
+@SpringBootTest(
+        properties = "spring.datasource.url=jdbc:h2:mem:shareit-concurrency",
+        webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class BookingStatusConcurrencyTest {
+    private static final int ROUNDS = 10;
+    private static final long BOOKED_SECONDS = 4 * 3600L;
+
+    private final BookingService bookingService;
+    private final UserService userService;
+    private final ItemService itemService;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Test
+    void setStatuses_whenSameBookingApprovedConcurrently_thenUtilizationCountedOnce() throws Exception {
+        //given
+        Long ownerId = userService.saveUser(makeUser("Akhra", "akhra@yandex.ru")).getId();
+        Long bookerId = userService.saveUser(makeUser("Anri", "anri@yandex.ru")).getId();
+        Long itemId = itemService.saveItem(makeItem(), ownerId).getId();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < ROUNDS; i++) {
+                LocalDate day = LocalDate.now().plusDays(10 + i);
+                BookingInDto bookingDto = new BookingInDto();
+                bookingDto.setItemId(itemId);
+                bookingDto.setBookerId(bookerId);
+                bookingDto.setStart(day.atTime(10, 0));
+                bookingDto.setEnd(day.atTime(14, 0));
+                Long bookingId = bookingService.saveBooking(bookingDto).getId();
+                CountDownLatch start = new CountDownLatch(1);
+                //when
+                Future<?> batch = executor.submit(() -> {
+                    start.await();
+                    return bookingService.setStatuses(List.of(bookingId), ownerId, true);
+                });
+                Future<?> single = executor.submit(() -> {
+                    start.await();
+                    return bookingService.setStatus(bookingId, ownerId, true, null);
+                });
+                start.countDown();
+                awaitIgnoringLostRace(batch);
+                awaitIgnoringLostRace(single);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        //then
+        assertThat(jdbcTemplate.queryForObject("select count(*) from bookings where item_id = ? and status = ?",
+                Integer.class, itemId, Status.APPROVED.name()), equalTo(ROUNDS));
+        assertThat(jdbcTemplate.queryForObject("select sum(booked_seconds) from item_daily_utilization where item_id = ?",
+                Long.class, itemId), equalTo(ROUNDS * BOOKED_SECONDS));
+    }
+
+    //Проигравший гонку запрос либо не проходит проверку версии, либо видит уже подтвержденное бронирование
+    private void awaitIgnoringLostRace(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof PreconditionFailedException)
+                    && !(e.getCause() instanceof BookingBadRequestException)) {
+                throw new AssertionError(e.getCause());
+            }
+        }
+    }
+
+    private ItemDto makeItem() {
+        ItemDto item = new ItemDto();
+        item.setName("Отвертка");
+        item.setDescription("cool");
+        item.setAvailable(true);
+        return item;
+    }
+
+    private UserDto makeUser(String name, String email) {
+        UserDto user = new UserDto();
+        user.setName(name);
+        user.setEmail(email);
+        return user;
+    }
+}
@@ -0,0 +1,240 @@
+package ru.practicum.shareit.booking;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.practicum.shareit.exceptions.SubscriptionLimitException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+
+class BookingStreamHubTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    //Задачи отправки выполняются только по вызову runSendTasks, чтобы имитировать медленного клиента
+    private final Queue<Runnable> sendTasks = new ConcurrentLinkedQueue<>();
+
+    private BookingStreamHub hub;
+
+    @BeforeEach
+    void setUp() {
+        hub = new BookingStreamHub(sendTasks::add, 2, 3, Duration.ofMinutes(1), Duration.ofMinutes(1), meterRegistry);
+    }
+
+    @Test
+    void dispatch_whenBookerAndOwnerSubscribed_thenEventSentToBoth() {
+        //given
+        RecordingEmitter booker = new RecordingEmitter(false);
+        RecordingEmitter owner = new RecordingEmitter(false);
+        RecordingEmitter stranger = new RecordingEmitter(false);
+        hub.subscribe(2L, booker);
+        hub.subscribe(3L, owner);
+        hub.subscribe(4L, stranger);
+        //when
+        hub.dispatch(makeEvent(1L, 2L, 3L));
+        runSendTasks();
+        //then
+        assertThat(booker.getEventIds(), equalTo(List.of(1L)));
+        assertThat(owner.getEventIds(), equalTo(List.of(1L)));
+        assertThat(stranger.getEventIds(), empty());
+    }
+
+    @Test
+    void dispatch_whenOwnerBooksOwnItem_thenEventSentOnce() {
+        //given
+        RecordingEmitter owner = new RecordingEmitter(false);
+        hub.subscribe(3L, owner);
+        //when
+        hub.dispatch(makeEvent(1L, 3L, 3L));
+        runSendTasks();
+        //then
+        assertThat(owner.getEventIds(), equalTo(List.of(1L)));
+    }
+
+    @Test
+    void dispatch_whenSubscriberSlow_thenOldestEventsDropped() {
+        //given
+        RecordingEmitter booker = new RecordingEmitter(false);
+        hub.subscribe(2L, booker);
+        //when
+        hub.dispatch(makeEvent(1L, 2L, 3L));
+        hub.dispatch(makeEvent(2L, 2L, 3L));
+        hub.dispatch(makeEvent(3L, 2L, 3L));
+        hub.dispatch(makeEvent(4L, 2L, 3L));
+        //then
+        assertThat(sendTasks.size(), equalTo(1));
+        runSendTasks();
+        assertThat(booker.getEventIds(), equalTo(List.of(3L, 4L)));
+        assertThat(meterRegistry.counter(BookingStreamHub.DROPPED_METRIC).count(), equalTo(2.0));
+    }
+
+    @Test
+    void dispatch_whenSendFails_thenSubscriberRemoved() {
+        //given
+        RecordingEmitter gone = new RecordingEmitter(true);
+        hub.subscribe(2L, gone);
+        //when
+        hub.dispatch(makeEvent(1L, 2L, 3L));
+        runSendTasks();
+        hub.dispatch(makeEvent(2L, 2L, 3L));
+        //then
+        assertThat(hub.getSubscriberCount(), equalTo(0));
+        assertThat(sendTasks, empty());
+    }
+
+    @Test
+    void subscribe_whenLimitReached_thenSubscriptionLimitExceptionThrown() {
+        //given
+        hub.subscribe(1L, new RecordingEmitter(false));
+        hub.subscribe(1L, new RecordingEmitter(false));
+        hub.subscribe(2L, new RecordingEmitter(false));
+        //when
+        Assertions.assertThrows(
+                SubscriptionLimitException.class,
+                () -> hub.subscribe(3L, new RecordingEmitter(false)));
+        //then
+        assertThat(hub.getSubscriberCount(), equalTo(3));
+    }
+
+    @Test
+    void heartbeat_whenNothingQueued_thenCommentSent() {
+        //given
+        RecordingEmitter booker = new RecordingEmitter(false);
+        hub.subscribe(2L, booker);
+        //when
+        hub.heartbeat();
+        runSendTasks();
+        //then
+        assertThat(booker.sent, equalTo(1));
+        assertThat(booker.getEventIds(), empty());
+    }
+
+    @Test
+    void evictStalled_whenSendTakesLongerThanSendTimeout_thenSubscriberEvicted() throws Exception {
+        //given
+        BookingStreamHub stallingHub = new BookingStreamHub(sendTasks::add, 2, 3, Duration.ofMinutes(1), Duration.ZERO,
+                meterRegistry);
+        BlockingEmitter slow = new BlockingEmitter();
+        stallingHub.subscribe(2L, slow);
+        stallingHub.dispatch(makeEvent(1L, 2L, 3L));
+        Thread sending = new Thread(this::runSendTasks);
+        sending.start();
+        assertThat(slow.entered.await(5, TimeUnit.SECONDS), equalTo(true));
+        //when
+        stallingHub.evictStalled();
+        stallingHub.dispatch(makeEvent(2L, 2L, 3L));
+        //then
+        assertThat(stallingHub.getSubscriberCount(), equalTo(0));
+        assertThat(sendTasks, empty());
+        assertThat(meterRegistry.counter(BookingStreamHub.EVICTED_METRIC).count(), equalTo(1.0));
+        slow.release.countDown();
+        sending.join(5000);
+        assertThat(slow.completed, equalTo(true));
+    }
+
+    @Test
+    void evictStalled_whenOnlySenderThreadStalled_thenOtherSubscribersStillServed() throws Exception {
+        //given
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        BookingStreamHub stallingHub = new BookingStreamHub(pool, 2, 3, Duration.ofMinutes(1), Duration.ZERO,
+                meterRegistry);
+        BlockingEmitter slow = new BlockingEmitter();
+        BlockingEmitter fast = new BlockingEmitter();
+        fast.release.countDown();
+        stallingHub.subscribe(2L, slow);
+        stallingHub.subscribe(4L, fast);
+        try {
+            stallingHub.dispatch(makeEvent(1L, 2L, 3L));
+            assertThat(slow.entered.await(5, TimeUnit.SECONDS), equalTo(true));
+            //when
+            stallingHub.evictStalled();
+            stallingHub.dispatch(makeEvent(2L, 4L, 3L));
+            //then
+            assertThat(fast.entered.await(5, TimeUnit.SECONDS), equalTo(true));
+        } finally {
+            slow.release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    private void runSendTasks() {
+        Runnable task;
+        while ((task = sendTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private BookingEvent makeEvent(Long id, Long bookerId, Long ownerId) {
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        return new BookingEvent(id, 10L, 1L, bookerId, ownerId, start, start.plusDays(1), Status.WAITING,
+                LocalDateTime.now());
+    }
+
+    //Отправка не завершается, пока тест не отпустит ее: так ведет себя запись клиенту, который не читает поток
+    private static class BlockingEmitter extends SseEmitter {
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private volatile boolean completed;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+        private final boolean failing;
+
+        private final List<BookingEvent> events = new ArrayList<>();
+
+        private int sent;
+
+        RecordingEmitter(boolean failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (failing) {
+                throw new IOException("Broken pipe");
+            }
+            sent++;
+            builder.build().stream()
+                    .filter(part -> part.getData() instanceof BookingEvent)
+                    .forEach(part -> events.add((BookingEvent) part.getData()));
+        }
+
+        List<Long> getEventIds() {
+            return events.stream().map(BookingEvent::getId).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ru.practicum.shareit.booking;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+@JdbcTest(properties = "spring.datasource.url=jdbc:h2:mem:shareit")
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class BookingStreamRelayTest {
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private BookingStreamLog bookingStreamLog;
+
+    //Два экземпляра приложения с общей базой
+    private BookingStreamHub firstHub;
+    private BookingStreamHub secondHub;
+    private BookingStreamRelay firstRelay;
+    private BookingStreamRelay secondRelay;
+
+    @BeforeEach
+    void setUp() {
+        bookingStreamLog = new BookingStreamLog(namedParameterJdbcTemplate);
+        firstHub = mock(BookingStreamHub.class);
+        secondHub = mock(BookingStreamHub.class);
+        firstRelay = makeRelay(firstHub);
+        secondRelay = makeRelay(secondHub);
+    }
+
+    @Test
+    void poll_whenEventPublishedByOtherInstance_thenDispatchedOnEveryInstanceOnce() {
+        //given
+        Long eventId = insertOutboxEvent();
+        firstRelay.onEvent(makeEvent(eventId));
+        firstRelay.onEvent(makeEvent(eventId));
+        //when
+        firstRelay.poll();
+        secondRelay.poll();
+        secondRelay.poll();
+        //then
+        assertThat(jdbcTemplate.queryForObject("select count(*) from booking_stream_events", Integer.class),
+                equalTo(1));
+        verify(firstHub).dispatch(argThat(event -> event.getId().equals(eventId)));
+        verify(secondHub).dispatch(argThat(event -> event.getId().equals(eventId)));
+    }
+
+    @Test
+    void poll_whenEventWithLowerIdPublishedLater_thenStillDispatched() {
+        //given
+        Long earlyId = insertOutboxEvent();
+        Long lateId = insertOutboxEvent();
+        firstRelay.onEvent(makeEvent(lateId));
+        secondRelay.poll();
+        //when
+        firstRelay.onEvent(makeEvent(earlyId));
+        secondRelay.poll();
+        //then
+        verify(secondHub).dispatch(argThat(event -> event.getId().equals(lateId)));
+        verify(secondHub).dispatch(argThat(event -> event.getId().equals(earlyId)));
+        verify(secondHub, times(2)).dispatch(any());
+    }
+
+    @Test
+    void purge_whenEventOlderThanRetention_thenRemoved() {
+        //given
+        Long oldId = insertOutboxEvent();
+        Long freshId = insertOutboxEvent();
+        firstRelay.onEvent(makeEvent(oldId));
+        firstRelay.onEvent(makeEvent(freshId));
+        jdbcTemplate.update("update booking_stream_events set published_at = ? where id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusHours(1)), oldId);
+        //when
+        firstRelay.purge();
+        //then
+        assertThat(jdbcTemplate.queryForObject("select id from booking_stream_events", Long.class), equalTo(freshId));
+    }
+
+    private BookingStreamRelay makeRelay(BookingStreamHub hub) {
+        BookingStreamRelay relay = new BookingStreamRelay(bookingStreamLog, hub);
+        ReflectionTestUtils.setField(relay, "batchSize", 1);
+        ReflectionTestUtils.setField(relay, "lookback", Duration.ofSeconds(30));
+        ReflectionTestUtils.setField(relay, "retention", Duration.ofMinutes(10));
+        return relay;
+    }
+
+    private Long insertOutboxEvent() {
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        jdbcTemplate.update("insert into outbox (booking_id, item_id, booker_id, owner_id, start_date, end_date, " +
+                        "status) values (10, 1, 2, 3, ?, ?, 'WAITING')",
+                Timestamp.valueOf(start), Timestamp.valueOf(start.plusDays(1)));
+        return jdbcTemplate.queryForObject("select max(id) from outbox", Long.class);
+    }
+
+    private BookingEvent makeEvent(Long id) {
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        return new BookingEvent(id, 10L, 1L, 2L, 3L, start, start.plusDays(1), Status.WAITING, LocalDateTime.now());
+    }
+}
@@ -0,0 +1,74 @@
+package ru.practicum.shareit.booking;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class BookingSummaryCacheTest {
+    private final Clock clock = Clock.fixed(Instant.parse("2022-10-01T10:00:00Z"), ZoneOffset.UTC);
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void get_whenEntryIsFresh_thenLoaderNotInvokedAgain() {
+        //given
+        BookingSummaryCache cache = new BookingSummaryCache(Duration.ofSeconds(30), clock);
+        //when
+        cache.get(1L, false, this::load);
+        Map<State, Long> summary = cache.get(1L, false, this::load);
+        //then
+        assertThat(loads.get(), equalTo(1));
+        assertThat(summary.get(State.ALL), equalTo(1L));
+    }
+
+    @Test
+    void get_whenEntryExpired_thenLoaderInvokedAgain() {
+        //given
+        BookingSummaryCache cache = new BookingSummaryCache(Duration.ZERO, clock);
+        //when
+        cache.get(1L, false, this::load);
+        Map<State, Long> summary = cache.get(1L, false, this::load);
+        //then
+        assertThat(loads.get(), equalTo(2));
+        assertThat(summary.get(State.ALL), equalTo(2L));
+    }
+
+    @Test
+    void get_whenBookerAndOwnerSummaries_thenCachedSeparately() {
+        //given
+        BookingSummaryCache cache = new BookingSummaryCache(Duration.ofSeconds(30), clock);
+        //when
+        cache.get(1L, false, this::load);
+        cache.get(1L, true, this::load);
+        //then
+        assertThat(loads.get(), equalTo(2));
+    }
+
+    @Test
+    void evict_whenUserEvicted_thenBothSummariesReloaded() {
+        //given
+        BookingSummaryCache cache = new BookingSummaryCache(Duration.ofSeconds(30), clock);
+        cache.get(1L, false, this::load);
+        cache.get(1L, true, this::load);
+        cache.get(2L, false, this::load);
+        //when
+        cache.evictOnCommit(1L, 3L);
+        cache.get(1L, false, this::load);
+        cache.get(1L, true, this::load);
+        cache.get(2L, false, this::load);
+        //then
+        assertThat(loads.get(), equalTo(5));
+    }
+
+    private Map<State, Long> load() {
+        return Map.of(State.ALL, (long) loads.incrementAndGet());
+    }
+}
@@ -0,0 +1,158 @@
+package ru.practicum.shareit.booking;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BookingTimelineTest {
+    @Mock
+    private BookingRepository bookingRepository;
+    @InjectMocks
+    private BookingTimeline bookingTimeline;
+
+    private LocalDateTime now;
+
+    @BeforeEach
+    void setUp() {
+        now = LocalDateTime.now();
+    }
+
+    @Test
+    void warmUp_whenBookingsExist_thenIndexIsFilled() {
+        //given
+        ReflectionTestUtils.setField(bookingTimeline, "maxDuration", Duration.ofDays(90));
+        when(bookingRepository.findUnfinishedBlockingSlotsAfterCursor(any(), any(), eq(0L), any()))
+                .thenReturn(List.of(makeSlot(1L, now.plusDays(1), now.plusDays(2), Status.WAITING)));
+        //when
+        bookingTimeline.warmUp();
+        //then
+        assertThat(bookingTimeline.hasOverlap(1L, now.plusHours(30), now.plusDays(3)), equalTo(true));
+        verify(bookingRepository, times(1)).findUnfinishedBlockingSlotsAfterCursor(
+                argThat(moment -> !moment.isBefore(now)),
+                argThat(cursorStart -> !cursorStart.isBefore(now.minusDays(90))), eq(0L), any());
+    }
+
+    @Test
+    void warmUp_whenBatchIsFull_thenNextBatchReadAfterLastSlot() {
+        //given
+        ReflectionTestUtils.setField(bookingTimeline, "maxDuration", Duration.ofDays(90));
+        List<BookingSlot> firstBatch = LongStream.rangeClosed(1, BookingTimeline.WARM_UP_BATCH_SIZE)
+                .mapToObj(id -> new BookingSlot(id, id, 2L, now.plusMinutes(id), now.plusMinutes(id + 1),
+                        Status.APPROVED))
+                .collect(Collectors.toList());
+        BookingSlot last = firstBatch.get(firstBatch.size() - 1);
+        when(bookingRepository.findUnfinishedBlockingSlotsAfterCursor(any(), any(), eq(0L), any()))
+                .thenReturn(firstBatch);
+        when(bookingRepository.findUnfinishedBlockingSlotsAfterCursor(any(), eq(last.getStart()), eq(last.getId()),
+                any())).thenReturn(List.of(makeSlot(1001L, now.plusDays(1), now.plusDays(2), Status.WAITING)));
+        //when
+        bookingTimeline.warmUp();
+        //then
+        assertThat(bookingTimeline.hasOverlap(last.getItemId(), now, now.plusDays(1)), equalTo(true));
+        assertThat(bookingTimeline.hasOverlap(1L, now.plusHours(30), now.plusDays(3)), equalTo(true));
+        verify(bookingRepository, times(2)).findUnfinishedBlockingSlotsAfterCursor(any(), any(), any(), any());
+    }
+
+    @Test
+    void hasOverlap_whenIntervalsCrossOrContain_thenReturnTrue() {
+        //given
+        bookingTimeline.index(makeSlot(1L, now.plusDays(2), now.plusDays(4), Status.APPROVED));
+        //then
+        assertThat(bookingTimeline.hasOverlap(1L, now.plusDays(1), now.plusDays(3)), equalTo(true));
+        assertThat(bookingTimeline.hasOverlap(1L, now.plusDays(3), now.plusDays(5)), equalTo(true));
+        assertThat(bookingTimeline.hasOverlap(1L, now.plusDays(1), now.plusDays(5)), equalTo(true));
+        assertThat(bookingTimeline.hasOverlap(1L, now.plusHours(60), now.plusHours(70)), equalTo(true));
+    }
+
+    @Test
+    void hasOverlap_whenIntervalsOnlyTouchOrItemDiffers_thenReturnFalse() {
+        //given
+        bookingTimeline.index(makeSlot(1L, now.plusDays(2), now.plusDays(4), Status.APPROVED));
+        //then
+        assertThat(bookingTimeline.hasOverlap(1L, now.plusDays(1), now.plusDays(2)), equalTo(false));
+        assertThat(bookingTimeline.hasOverlap(1L, now.plusDays(4), now.plusDays(5)), equalTo(false));
+        assertThat(bookingTimeline.hasOverlap(2L, now.plusDays(1), now.plusDays(5)), equalTo(false));
+    }
+
+    @Test
+    void index_whenBookingRejected_thenIntervalIsReleased() {
+        //given
+        bookingTimeline.index(makeSlot(1L, now.plusDays(2), now.plusDays(4), Status.WAITING));
+        //when
+        bookingTimeline.index(makeSlot(1L, now.plusDays(2), now.plusDays(4), Status.REJECTED));
+        //then
+        assertThat(bookingTimeline.hasOverlap(1L, now.plusDays(1), now.plusDays(3)), equalTo(false));
+    }
+
+    @Test
+    void findBusyItems_whenPeriodCoversWholeAndPartialDays_thenReturnOnlyOverlappingItems() {
+        //given
+        LocalDateTime day = now.toLocalDate().plusDays(10).atStartOfDay();
+        bookingTimeline.index(new BookingSlot(1L, 1L, 5L, day.plusHours(10), day.plusHours(26), Status.APPROVED));
+        bookingTimeline.index(new BookingSlot(2L, 2L, 5L, day.plusDays(2), day.plusDays(3), Status.WAITING));
+        bookingTimeline.index(new BookingSlot(3L, 3L, 5L, day.plusHours(20), day.plusHours(22), Status.APPROVED));
+        //then
+        assertThat(bookingTimeline.findBusyItems(day.plusDays(1), day.plusDays(2)).toArray(),
+                equalTo(new long[]{1L}));
+        assertThat(bookingTimeline.findBusyItems(day.plusHours(22), day.plusHours(27)).toArray(),
+                equalTo(new long[]{1L}));
+        assertThat(bookingTimeline.findBusyItems(day, day.plusDays(3)).toArray(),
+                equalTo(new long[]{1L, 2L, 3L}));
+        assertThat(bookingTimeline.findBusyItems(day.plusDays(3), day.plusDays(4)).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    void findBusyItems_whenOneOfSameDayBookingsRejected_thenDayStaysBusyUntilLastReleased() {
+        //given
+        LocalDateTime day = now.toLocalDate().plusDays(10).atStartOfDay();
+        bookingTimeline.index(new BookingSlot(1L, 1L, 5L, day.plusHours(1), day.plusHours(3), Status.WAITING));
+        bookingTimeline.index(new BookingSlot(2L, 1L, 5L, day.plusHours(5), day.plusHours(7), Status.APPROVED));
+        //when
+        bookingTimeline.index(new BookingSlot(1L, 1L, 5L, day.plusHours(1), day.plusHours(3), Status.REJECTED));
+        //then
+        assertThat(bookingTimeline.findBusyItems(day, day.plusDays(1)).toArray(), equalTo(new long[]{1L}));
+        //when
+        bookingTimeline.index(new BookingSlot(2L, 1L, 5L, day.plusHours(5), day.plusHours(7), Status.CANCELED));
+        //then
+        assertThat(bookingTimeline.findBusyItems(day, day.plusDays(1)).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    void compact_whenBookingsFinished_thenRemovedAndDaysReleased() {
+        //given
+        bookingTimeline.index(makeSlot(1L, now.minusDays(5), now.minusDays(4), Status.APPROVED));
+        bookingTimeline.index(makeSlot(2L, now.minusHours(30), now.minusMinutes(1), Status.APPROVED));
+        bookingTimeline.index(makeSlot(3L, now.plusDays(1), now.plusDays(2), Status.WAITING));
+        //when
+        bookingTimeline.compact();
+        //then
+        assertThat(bookingTimeline.hasOverlap(1L, now.minusDays(6), now.minusDays(3)), equalTo(false));
+        assertThat(bookingTimeline.hasOverlap(1L, now.minusHours(30), now.minusHours(2)), equalTo(false));
+        assertThat(bookingTimeline.findBusyItems(now.toLocalDate().atStartOfDay(), now).isEmpty(), equalTo(true));
+        assertThat(bookingTimeline.hasOverlap(1L, now.plusHours(30), now.plusDays(3)), equalTo(true));
+    }
+
+    private BookingSlot makeSlot(Long id, LocalDateTime start, LocalDateTime end, Status status) {
+        return new BookingSlot(id, 1L, 2L, start, end, status);
+    }
+}
@@ -0,0 +1,133 @@
+package ru.practicum.shareit.booking;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.practicum.shareit.item.Item;
+import ru.practicum.shareit.item.ItemRepository;
+import ru.practicum.shareit.user.User;
+import ru.practicum.shareit.user.UserRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BookingWaitlistPromoterTest {
+    @Mock
+    private BookingWaitlist bookingWaitlist;
+    @Mock
+    private BookingRepository bookingRepository;
+    @Mock
+    private BookingJdbcRepository bookingJdbcRepository;
+    @Mock
+    private ItemRepository itemRepository;
+    @Mock
+    private UserRepository userRepository;
+    @Mock
+    private BookingOutbox bookingOutbox;
+    @Mock
+    private BookingTimeline bookingTimeline;
+    @Mock
+    private BookingSummaryCache bookingSummaryCache;
+    @InjectMocks
+    private BookingWaitlistPromoter promoter;
+    @Captor
+    private ArgumentCaptor<List<Booking>> bookingsCaptor;
+
+    private final LocalDateTime start = LocalDateTime.now().plusDays(10);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(promoter, "candidatesLimit", 20);
+        ReflectionTestUtils.setField(promoter, "maxDuration", Duration.ofDays(90));
+    }
+
+    @Test
+    void promote_whenWaitersConflict_thenFirstCompatibleInQueueOrderPromoted() {
+        //given
+        BookingSlot freed = new BookingSlot(1L, 1L, 2L, start, start.plusDays(2), Status.REJECTED);
+        //Третий ждущий пересекается с бронированием, которое по-прежнему занимает вещь
+        BookingWaitlistEntry first = makeEntry(5L, 3L, start, start.plusDays(1));
+        BookingWaitlistEntry second = makeEntry(6L, 4L, start.plusHours(12), start.plusDays(2));
+        BookingWaitlistEntry third = makeEntry(7L, 5L, start.plusDays(1), start.plusDays(3));
+        when(itemRepository.findLockedByIdIn(any())).thenReturn(List.of(createItem()));
+        when(bookingWaitlist.findCandidates(eq(1L), eq(freed.getStart()), eq(freed.getEnd()), any(), eq(20)))
+                .thenReturn(List.of(first, second, third));
+        when(bookingRepository.findTimeCrossingSlotsOfItems(any(), any(), any(), any())).thenReturn(List.of(
+                new BookingSlot(2L, 1L, 8L, start.plusDays(2), start.plusDays(4), Status.APPROVED)));
+        when(userRepository.getReferenceById(anyLong())).thenAnswer(invocation -> makeUser(invocation.getArgument(0)));
+        when(bookingJdbcRepository.insertAll(any())).thenReturn(List.of(10L));
+        //when
+        List<Long> promoted = promoter.promote(List.of(freed));
+        //then
+        assertThat(promoted, equalTo(List.of(10L)));
+        verify(bookingJdbcRepository).insertAll(bookingsCaptor.capture());
+        List<Booking> bookings = bookingsCaptor.getValue();
+        assertThat(bookings.stream().map(booking -> booking.getBooker().getId()).collect(Collectors.toList()),
+                equalTo(List.of(3L)));
+        assertThat(bookings.get(0).getStatus(), equalTo(Status.WAITING));
+        verify(bookingWaitlist, times(1)).delete(List.of(5L));
+        verify(bookingOutbox, times(1)).record(List.of(10L));
+        verify(bookingTimeline, times(1)).indexOnCommit(any());
+        verify(bookingSummaryCache, times(1)).evictOnCommit(3L, 1L);
+    }
+
+    @Test
+    void promote_whenItemNotAvailable_thenNothingPromoted() {
+        //given
+        Item item = createItem();
+        item.setAvailable(false);
+        when(itemRepository.findLockedByIdIn(any())).thenReturn(List.of(item));
+        //when
+        List<Long> promoted = promoter.promote(List.of(
+                new BookingSlot(1L, 1L, 2L, start, start.plusDays(2), Status.EXPIRED)));
+        //then
+        assertThat(promoted, empty());
+        verifyNoInteractions(bookingWaitlist, bookingJdbcRepository, bookingOutbox);
+    }
+
+    @Test
+    void promote_whenNothingFreed_thenNoQueries() {
+        //when
+        List<Long> promoted = promoter.promote(List.of());
+        //then
+        assertThat(promoted, empty());
+        verifyNoInteractions(itemRepository, bookingWaitlist);
+    }
+
+    private BookingWaitlistEntry makeEntry(Long id, Long bookerId, LocalDateTime start, LocalDateTime end) {
+        return new BookingWaitlistEntry(id, 1L, bookerId, start, end, LocalDateTime.now());
+    }
+
+    private Item createItem() {
+        Item item = new Item();
+        item.setId(1L);
+        item.setName("Дрель");
+        item.setAvailable(true);
+        item.setDescription("мощная");
+        item.setOwner(makeUser(1L));
+        return item;
+    }
+
+    private User makeUser(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+}
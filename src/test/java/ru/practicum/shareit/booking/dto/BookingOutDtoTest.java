@@ -37,4 +37,21 @@ class BookingOutDtoTest {
         assertThat(result).extractingJsonPathValue("$.booker").isEqualTo(null);
         assertThat(result).extractingJsonPathValue("$.status").isEqualTo(Status.APPROVED.toString());
     }
-}
\ No newline at end of file
+
+    @Test
+    void write_whenItemAndBookerSummariesSet_thenKeepNestedFields() throws Exception {
+        //given
+        BookingOutDto bookingOutDto = new BookingOutDto(1L, LocalDateTime.now().plusDays(1),
+                LocalDateTime.now().plusDays(2), Status.WAITING, 2L, "Дрель", "Ударная", true, null,
+                3L, "Anri", "anri@yandex.ru");
+        //when
+        JsonContent<BookingOutDto> result = json.write(bookingOutDto);
+        //then
+        assertThat(result).extractingJsonPathNumberValue("$.item.id").isEqualTo(2);
+        assertThat(result).extractingJsonPathStringValue("$.item.name").isEqualTo("Дрель");
+        assertThat(result).extractingJsonPathBooleanValue("$.item.available").isEqualTo(true);
+        assertThat(result).doesNotHaveJsonPath("$.item.owner");
+        assertThat(result).extractingJsonPathNumberValue("$.booker.id").isEqualTo(3);
+        assertThat(result).extractingJsonPathStringValue("$.booker.email").isEqualTo("anri@yandex.ru");
+    }
+}
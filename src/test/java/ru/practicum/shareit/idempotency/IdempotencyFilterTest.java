@@ -0,0 +1,142 @@
+package ru.practicum.shareit.idempotency;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+class IdempotencyFilterTest {
+    private final IdempotencyFilter filter = new IdempotencyFilter(
+            new InMemoryIdempotencyStore(Duration.ofHours(1), Duration.ofSeconds(1), 100), new ObjectMapper());
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @SneakyThrows
+    @Test
+    void doFilter_whenRequestRetriedWithSameKey_thenStoredResponseReplayedWithoutExecution() {
+        //when
+        MockHttpServletResponse first = perform(1L, "key-1", 200);
+        MockHttpServletResponse retry = perform(1L, "key-1", 200);
+        //then
+        assertThat(executions.get(), equalTo(1));
+        assertThat(retry.getStatus(), equalTo(200));
+        assertThat(retry.getContentType(), equalTo("application/json"));
+        assertThat(retry.getContentAsString(StandardCharsets.UTF_8), equalTo("{\"id\":1}"));
+        assertThat(retry.getHeader(IdempotencyFilter.REPLAYED_HEADER), equalTo("true"));
+        assertThat(first.getHeader(IdempotencyFilter.REPLAYED_HEADER), nullValue());
+    }
+
+    @SneakyThrows
+    @Test
+    void doFilter_whenSameKeyFromOtherUserOrNoKey_thenRequestExecuted() {
+        //when
+        perform(1L, "key-1", 200);
+        perform(2L, "key-1", 200);
+        perform(1L, null, 200);
+        perform(1L, null, 200);
+        //then
+        assertThat(executions.get(), equalTo(4));
+    }
+
+    @SneakyThrows
+    @Test
+    void doFilter_whenFirstExecutionFailed_thenRetryExecutedAgain() {
+        //when
+        perform(1L, "key-1", 500);
+        MockHttpServletResponse retry = perform(1L, "key-1", 201);
+        //then
+        assertThat(executions.get(), equalTo(2));
+        assertThat(retry.getStatus(), equalTo(201));
+    }
+
+    @SneakyThrows
+    @Test
+    void doFilter_whenKeyIsTooLong_thenReturnBadRequestCode() {
+        //when
+        MockHttpServletResponse response = perform(1L, "k".repeat(256), 200);
+        //then
+        assertThat(executions.get(), equalTo(0));
+        assertThat(response.getStatus(), equalTo(400));
+    }
+
+    @SneakyThrows
+    @Test
+    void doFilter_whenSameKeyRetriedWithOtherBody_thenReturnUnprocessableEntityCode() {
+        //when
+        perform(1L, "key-1", 200, "{\"name\":\"Дрель\"}");
+        MockHttpServletResponse retry = perform(1L, "key-1", 200, "{\"name\":\"Пила\"}");
+        //then
+        assertThat(executions.get(), equalTo(1));
+        assertThat(retry.getStatus(), equalTo(422));
+    }
+
+    @SneakyThrows
+    @Test
+    void doFilter_whenSameKeyRetriedWithOtherQueryString_thenReturnUnprocessableEntityCode() {
+        //when
+        perform(1L, "key-1", 200, "{\"name\":\"Дрель\"}");
+        MockHttpServletResponse retry = perform(1L, "key-1", 200, "{\"name\":\"Дрель\"}", "waitlist=true");
+        //then
+        assertThat(executions.get(), equalTo(1));
+        assertThat(retry.getStatus(), equalTo(422));
+    }
+
+    @SneakyThrows
+    @Test
+    void doFilter_whenKeyPresent_thenBodyStillReadableByHandler() {
+        //given
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/items");
+        request.addHeader("X-Sharer-User-Id", 1L);
+        request.addHeader(IdempotencyFilter.KEY_HEADER, "key-1");
+        request.setContent("{\"name\":\"Дрель\"}".getBytes(StandardCharsets.UTF_8));
+        AtomicReference<String> body = new AtomicReference<>();
+        //when
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) ->
+                body.set(StreamUtils.copyToString(req.getInputStream(), StandardCharsets.UTF_8)));
+        //then
+        assertThat(body.get(), equalTo("{\"name\":\"Дрель\"}"));
+    }
+
+    private MockHttpServletResponse perform(Long userId, String idempotencyKey, int status) {
+        return perform(userId, idempotencyKey, status, "{\"name\":\"Дрель\"}");
+    }
+
+    private MockHttpServletResponse perform(Long userId, String idempotencyKey, int status, String body) {
+        return perform(userId, idempotencyKey, status, body, null);
+    }
+
+    @SneakyThrows
+    private MockHttpServletResponse perform(Long userId, String idempotencyKey, int status, String body,
+                                            String queryString) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/items");
+        request.setQueryString(queryString);
+        request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        request.addHeader("X-Sharer-User-Id", userId);
+        if (idempotencyKey != null) {
+            request.addHeader(IdempotencyFilter.KEY_HEADER, idempotencyKey);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        FilterChain chain = (req, res) -> {
+            executions.incrementAndGet();
+            HttpServletResponse httpResponse = (HttpServletResponse) res;
+            httpResponse.setStatus(status);
+            httpResponse.setContentType("application/json");
+            httpResponse.getOutputStream().write("{\"id\":1}".getBytes(StandardCharsets.UTF_8));
+        };
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+}
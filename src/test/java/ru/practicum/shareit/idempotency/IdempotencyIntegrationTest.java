@@ -0,0 +1,68 @@
+package ru.practicum.shareit.idempotency;
+
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.shareit.item.ItemRepository;
+import ru.practicum.shareit.user.UserService;
+import ru.practicum.shareit.user.dto.UserDto;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@Transactional
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:shareit")
+@AutoConfigureMockMvc
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class IdempotencyIntegrationTest {
+    private final MockMvc mvc;
+    private final UserService userService;
+    private final ItemRepository itemRepository;
+
+    @SneakyThrows
+    @Test
+    void saveItem_whenRetriedWithSameKey_thenItemCreatedOnce() {
+        //given
+        UserDto owner = new UserDto();
+        owner.setName("Idem");
+        owner.setEmail("idem@yandex.ru");
+        Long ownerId = userService.saveUser(owner).getId();
+        long itemsBefore = itemRepository.count();
+        //when
+        String first = mvc.perform(saveItem(ownerId))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8);
+        String retry = mvc.perform(saveItem(ownerId))
+                .andExpect(status().isOk())
+                .andExpect(header().string(IdempotencyFilter.REPLAYED_HEADER, "true"))
+                .andReturn()
+                .getResponse()
+                .getContentAsString(StandardCharsets.UTF_8);
+        //then
+        assertThat(retry, equalTo(first));
+        assertThat(itemRepository.count(), equalTo(itemsBefore + 1));
+    }
+
+    private MockHttpServletRequestBuilder saveItem(Long ownerId) {
+        return post("/items")
+                .content("{\"name\":\"Дрель\",\"description\":\"мощная\",\"available\":true}")
+                .characterEncoding(StandardCharsets.UTF_8)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("X-Sharer-User-Id", ownerId)
+                .header(IdempotencyFilter.KEY_HEADER, "item-" + ownerId);
+    }
+}
@@ -0,0 +1,119 @@
+package ru.practicum.shareit.idempotency;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class InMemoryIdempotencyStoreTest {
+    private final Clock clock = Clock.fixed(Instant.parse("2022-10-01T10:00:00Z"), ZoneOffset.UTC);
+
+    private final StoredResponse response = new StoredResponse(200, "application/json", "{\"id\":1}".getBytes());
+
+    private final String hash = "body-hash";
+
+    @Test
+    void acquire_whenKeyCompleted_thenReturnStoredResponse() {
+        //given
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(Duration.ofHours(1), Duration.ofSeconds(1), 10, clock);
+        //when
+        Optional<StoredResponse> first = store.acquire("1:/items:a", hash);
+        store.complete("1:/items:a", response);
+        Optional<StoredResponse> retry = store.acquire("1:/items:a", hash);
+        //then
+        assertThat(first.isPresent(), equalTo(false));
+        assertThat(retry.get(), equalTo(response));
+    }
+
+    @Test
+    void acquire_whenKeyInProgress_thenWaitForFirstExecution() throws Exception {
+        //given
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(Duration.ofHours(1), Duration.ofSeconds(5), 10, clock);
+        store.acquire("1:/items:a", hash);
+        //when
+        CompletableFuture<Optional<StoredResponse>> duplicate = CompletableFuture.supplyAsync(() -> store.acquire("1:/items:a", hash));
+        Thread.sleep(100);
+        assertThat(duplicate.isDone(), equalTo(false));
+        store.complete("1:/items:a", response);
+        //then
+        assertThat(duplicate.get(5, TimeUnit.SECONDS).get(), equalTo(response));
+    }
+
+    @Test
+    void acquire_whenFirstExecutionReleasedKey_thenNextCallerExecutesAgain() {
+        //given
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(Duration.ofHours(1), Duration.ofSeconds(1), 10, clock);
+        store.acquire("1:/items:a", hash);
+        //when
+        store.release("1:/items:a");
+        //then
+        assertThat(store.acquire("1:/items:a", hash).isPresent(), equalTo(false));
+    }
+
+    @Test
+    void acquire_whenKeyInProgressLongerThanWaitTimeout_thenIdempotencyConflictExceptionThrown() {
+        //given
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(Duration.ofHours(1), Duration.ofMillis(50), 10, clock);
+        store.acquire("1:/items:a", hash);
+
+        Assertions.assertThrows(
+                IdempotencyConflictException.class,
+                () -> store.acquire("1:/items:a", hash));
+    }
+
+    @Test
+    void acquire_whenEntriesExpiredOrOverLimit_thenOldestRemoved() {
+        //given
+        InMemoryIdempotencyStore expiring = new InMemoryIdempotencyStore(Duration.ZERO, Duration.ofSeconds(1), 10, clock);
+        InMemoryIdempotencyStore bounded = new InMemoryIdempotencyStore(Duration.ofHours(1), Duration.ofSeconds(1), 2, clock);
+        //when
+        expiring.acquire("1:/items:a", hash);
+        expiring.complete("1:/items:a", response);
+        Optional<StoredResponse> afterExpiry = expiring.acquire("1:/items:a", hash);
+        for (String key : new String[]{"a", "b", "c"}) {
+            bounded.acquire(key, hash);
+            bounded.complete(key, response);
+        }
+        //then
+        assertThat(afterExpiry.isPresent(), equalTo(false));
+        assertThat(bounded.size(), equalTo(2));
+        assertThat(bounded.acquire("c", hash).isPresent(), equalTo(true));
+        assertThat(bounded.acquire("a", hash).isPresent(), equalTo(false));
+    }
+
+    @Test
+    void acquire_whenOverLimitOnlyWithKeysInProgress_thenInProgressKeptAndIdempotencyStoreFullExceptionThrown() {
+        //given
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(Duration.ofHours(1), Duration.ofSeconds(1), 2, clock);
+        store.acquire("a", hash);
+        store.acquire("b", hash);
+
+        Assertions.assertThrows(
+                IdempotencyStoreFullException.class,
+                () -> store.acquire("c", hash));
+        assertThat(store.size(), equalTo(2));
+        store.complete("a", response);
+        assertThat(store.acquire("a", hash).get(), equalTo(response));
+    }
+
+    @Test
+    void acquire_whenSameKeyWithOtherBody_thenIdempotencyKeyMismatchExceptionThrown() {
+        //given
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(Duration.ofHours(1), Duration.ofSeconds(1), 10, clock);
+        store.acquire("1:/items:a", hash);
+        store.complete("1:/items:a", response);
+
+        Assertions.assertThrows(
+                IdempotencyKeyMismatchException.class,
+                () -> store.acquire("1:/items:a", "other-hash"));
+    }
+}
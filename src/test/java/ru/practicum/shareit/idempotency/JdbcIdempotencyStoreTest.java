@@ -0,0 +1,99 @@
+package ru.practicum.shareit.idempotency;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+@JdbcTest(properties = "spring.datasource.url=jdbc:h2:mem:shareit")
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class JdbcIdempotencyStoreTest {
+    private final JdbcTemplate jdbcTemplate;
+
+    private JdbcIdempotencyStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new JdbcIdempotencyStore(jdbcTemplate);
+        ReflectionTestUtils.setField(store, "ttl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(store, "waitTimeout", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(store, "lease", Duration.ofMinutes(10));
+    }
+
+    @Test
+    void acquire_whenKeyCompleted_thenReturnStoredResponse() {
+        //when
+        Optional<StoredResponse> first = store.acquire("1:/items:a", "body-hash");
+        store.complete("1:/items:a", new StoredResponse(201, "application/json", "{\"id\":1}".getBytes()));
+        Optional<StoredResponse> retry = store.acquire("1:/items:a", "body-hash");
+        //then
+        assertThat(first.isPresent(), equalTo(false));
+        assertThat(retry.get().getStatus(), equalTo(201));
+        assertThat(retry.get().getContentType(), equalTo("application/json"));
+        assertThat(new String(retry.get().getBody()), equalTo("{\"id\":1}"));
+    }
+
+    @Test
+    void acquire_whenKeyReleasedOrAbandoned_thenCallerExecutesAgain() {
+        //given
+        store.acquire("1:/items:a", "body-hash");
+        store.release("1:/items:a");
+        jdbcTemplate.update("insert into idempotency_keys (idempotency_key, created_at, lease_until) values (?, ?, ?)",
+                "1:/items:b", Timestamp.valueOf(LocalDateTime.now().minusMinutes(15)),
+                Timestamp.valueOf(LocalDateTime.now().minusMinutes(5)));
+        //then
+        assertThat(store.acquire("1:/items:a", "body-hash").isPresent(), equalTo(false));
+        assertThat(store.acquire("1:/items:b", "body-hash").isPresent(), equalTo(false));
+    }
+
+    @Test
+    void acquire_whenInFlightLongerThanWaitTimeoutButLeaseHeld_thenIdempotencyConflictExceptionThrown() {
+        //given
+        jdbcTemplate.update("insert into idempotency_keys (idempotency_key, request_hash, created_at, lease_until) " +
+                        "values (?, ?, ?, ?)", "1:/items:a", "body-hash",
+                Timestamp.valueOf(LocalDateTime.now().minusMinutes(5)),
+                Timestamp.valueOf(LocalDateTime.now().plusMinutes(5)));
+
+        Assertions.assertThrows(
+                IdempotencyConflictException.class,
+                () -> store.acquire("1:/items:a", "body-hash"));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from idempotency_keys where completed = false",
+                Integer.class), equalTo(1));
+    }
+
+    @Test
+    void acquire_whenSameKeyWithOtherBody_thenIdempotencyKeyMismatchExceptionThrown() {
+        //given
+        store.acquire("1:/items:a", "body-hash");
+        store.complete("1:/items:a", new StoredResponse(201, "application/json", "{\"id\":1}".getBytes()));
+
+        Assertions.assertThrows(
+                IdempotencyKeyMismatchException.class,
+                () -> store.acquire("1:/items:a", "other-hash"));
+    }
+
+    @Test
+    void purgeExpired_whenKeyOlderThanTtl_thenRemoved() {
+        //given
+        jdbcTemplate.update("insert into idempotency_keys (idempotency_key, completed, status, created_at, " +
+                        "lease_until) values (?, true, 200, ?, ?)", "1:/items:a",
+                Timestamp.valueOf(LocalDateTime.now().minusHours(2)), Timestamp.valueOf(LocalDateTime.now()));
+        store.acquire("1:/items:b", "body-hash");
+        //when
+        store.purgeExpired();
+        //then
+        assertThat(jdbcTemplate.queryForObject("select count(*) from idempotency_keys", Integer.class), equalTo(1));
+    }
+}
@@ -1,27 +1,35 @@
 package ru.practicum.shareit.item;
 
 import lombok.RequiredArgsConstructor;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.shareit.item.dto.CommentMapper;
 import ru.practicum.shareit.user.User;
 import ru.practicum.shareit.user.UserRepository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 
-@DataJpaTest(properties = "spring.datasource.url=jdbc:h2:mem:shareit")
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:shareit",
+        "spring.jpa.properties.hibernate.generate_statistics=true"})
 @Transactional
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 class CommentRepositoryTest {
     private final ItemRepository itemRepository;
     private final UserRepository userRepository;
     private final CommentRepository commentRepository;
+    private final TestEntityManager entityManager;
 
 
     private List<Comment> savedComments;
@@ -44,6 +52,35 @@ class CommentRepositoryTest {
         assertThat(List.of(savedComments.get(0)), equalTo(returnedComments));
     }
 
+    @Test
+    void findByItemIdIn_whenCommentsMappedToDto_thenStatementCountDoesNotDependOnItemCount() {
+        //given
+        User author = userRepository.save(makeUser("Anri", "anri@yandex.ru"));
+        commentRepository.save(makeComment(savedComments.get(1).getItem(), author, "не хватило длины"));
+        entityManager.flush();
+        List<Long> oneItem = List.of(savedComments.get(0).getItem().getId());
+        List<Long> allItems = savedComments.stream()
+                .map(comment -> comment.getItem().getId())
+                .collect(Collectors.toList());
+        //when
+        long oneItemStatements = countStatements(() -> commentRepository.findByItemIdIn(oneItem)
+                .forEach(CommentMapper::mapToCommentDto));
+        long allItemsStatements = countStatements(() -> commentRepository.findByItemIdIn(allItems)
+                .forEach(CommentMapper::mapToCommentDto));
+        //then
+        assertThat(oneItemStatements, equalTo(1L));
+        assertThat(allItemsStatements, equalTo(1L));
+    }
+
+    private long countStatements(Runnable query) {
+        entityManager.clear();
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        query.run();
+        return statistics.getPrepareStatementCount();
+    }
+
     private Item makeItem(String itemName, String itemDescription, User owner) {
         Item item = new Item();
 
@@ -11,11 +11,14 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import ru.practicum.shareit.booking.dto.BookingIdOutDto;
 import ru.practicum.shareit.item.dto.CommentDto;
+import ru.practicum.shareit.item.dto.FreeSlotDto;
 import ru.practicum.shareit.item.dto.ItemDto;
 import ru.practicum.shareit.item.dto.ItemMapper;
+import ru.practicum.shareit.item.dto.ItemUtilizationDto;
 import ru.practicum.shareit.user.User;
 
 import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -161,7 +164,7 @@ class ItemControllerTest {
     @SneakyThrows
     @Test
     void searchItems() {
-        when(itemService.searchItems(anyString(), anyInt(), anyInt()))
+        when(itemService.searchItems(anyString(), anyInt(), anyInt(), isNull(), isNull()))
                 .thenReturn(List.of(itemDto));
         //when
         mvc.perform(get("/items/search?text={}:from={}:size={}", "ерт", "0", "10")
@@ -176,6 +179,27 @@ class ItemControllerTest {
                 .andExpect(jsonPath("$[0].description", is(itemDto.getDescription())));
     }
 
+    @SneakyThrows
+    @Test
+    void searchItems_whenPeriodGiven_thenPeriodPassedToService() {
+        //given
+        LocalDateTime start = LocalDateTime.of(2030, 1, 1, 12, 0);
+        LocalDateTime end = LocalDateTime.of(2030, 1, 3, 12, 0);
+        when(itemService.searchItems("дрель", 0, 10, start, end))
+                .thenReturn(List.of(itemDto));
+        //when
+        mvc.perform(get("/items/search")
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .header("X-Sharer-User-Id", 1)
+                        .param("text", "дрель")
+                        .param("start", "2030-01-01T12:00:00")
+                        .param("end", "2030-01-03T12:00:00")
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id", is(itemDto.getId()), Long.class));
+    }
+
     @SneakyThrows
     @Test
     void saveComment_whenCommentIsNotValid_thenMethodArgumentNotValidExceptionThrown() {
@@ -212,4 +236,80 @@ class ItemControllerTest {
                 .getContentAsString(StandardCharsets.UTF_8);
         assertThat(mapper.writeValueAsString(commentDto), equalTo(savedComment));
     }
-}
\ No newline at end of file
+
+    @SneakyThrows
+    @Test
+    void getAvailability() {
+        LocalDateTime from = LocalDateTime.of(2030, 1, 1, 12, 0);
+        LocalDateTime to = from.plusDays(10);
+        when(itemService.getAvailability(anyLong(), any(), any()))
+                .thenReturn(List.of(new FreeSlotDto(from, to)));
+        //when
+        mvc.perform(get("/items/{itemId}/availability", 1L)
+                        .param("from", from.toString())
+                        .param("to", to.toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].start", is("2030-01-01T12:00:00")))
+                .andExpect(jsonPath("$[0].end", is("2030-01-11T12:00:00")));
+        verify(itemService, times(1)).getAvailability(1L, from, to);
+    }
+
+    @SneakyThrows
+    @Test
+    void getItemStats() {
+        LocalDate from = LocalDate.of(2030, 3, 1);
+        LocalDate to = LocalDate.of(2030, 3, 31);
+        when(itemService.getItemUtilization(1L, 1L, from, to, UtilizationPeriod.MONTH))
+                .thenReturn(List.of(new ItemUtilizationDto(1L, from, to, 186.0, 744, 0.25)));
+        //when
+        mvc.perform(get("/items/{itemId}/stats", 1L)
+                        .param("from", "2030-03-01")
+                        .param("to", "2030-03-31")
+                        .param("period", "month")
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].from", is("2030-03-01")))
+                .andExpect(jsonPath("$[0].to", is("2030-03-31")))
+                .andExpect(jsonPath("$[0].utilization", is(0.25)));
+    }
+
+    @SneakyThrows
+    @Test
+    void getItemStats_whenUnknownPeriod_thenBadRequest() {
+        //when
+        mvc.perform(get("/items/{itemId}/stats", 1L)
+                        .param("from", "2030-03-01")
+                        .param("to", "2030-03-31")
+                        .param("period", "year")
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isBadRequest());
+        verify(itemService, never()).getItemUtilization(anyLong(), anyLong(), any(), any(), any());
+    }
+
+    @SneakyThrows
+    @Test
+    void getOwnerStats() {
+        LocalDate from = LocalDate.of(2030, 3, 1);
+        LocalDate to = LocalDate.of(2030, 3, 2);
+        when(itemService.getOwnerUtilization(1L, 1L, from, to))
+                .thenReturn(List.of(new ItemUtilizationDto(1L, from, to, 12.0, 48, 0.25)));
+        //when
+        mvc.perform(get("/items/stats")
+                        .param("owner", "1")
+                        .param("from", "2030-03-01")
+                        .param("to", "2030-03-02")
+                        .header("X-Sharer-User-Id", 1)
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].itemId", is(1)))
+                .andExpect(jsonPath("$[0].bookedHours", is(12.0)));
+        verify(itemService, times(1)).getOwnerUtilization(1L, 1L, from, to);
+    }
+}
@@ -0,0 +1,102 @@
+package ru.practicum.shareit.item;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.shareit.PostgresTest;
+import ru.practicum.shareit.user.User;
+import ru.practicum.shareit.user.UserRepository;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+//Полнотекстовые выборки вещей работают только в PostgreSQL: в H2 нет tsvector
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class ItemFullTextSearchTest extends PostgresTest {
+    private static final String QUERY = ItemServiceImpl.toPrefixQuery("дрель");
+
+    private final ItemRepository itemRepository;
+    private final UserRepository userRepository;
+
+    private Item nameAndDescription;
+
+    private Item nameOnly;
+
+    private Item descriptionOnly;
+
+    @BeforeEach
+    void fillDB() {
+        User owner = userRepository.save(makeUser("Akhra", "akhra@yandex.ru"));
+        descriptionOnly = itemRepository.save(makeItem("Перфоратор", "сверлит не хуже, чем дрель", true, owner));
+        nameOnly = itemRepository.save(makeItem("Дрель", "ручная", true, owner));
+        itemRepository.save(makeItem("Дрель", "ударная", false, owner));
+        nameAndDescription = itemRepository.save(makeItem("Дрель", "аккумуляторная дрель", true, owner));
+        itemRepository.save(makeItem("Отвертка", "крестовая", true, owner));
+        itemRepository.flush();
+    }
+
+    @Test
+    void findAllByFullText_whenWordInNameAndDescription_thenNameMatchesRankedFirstAndUnavailableSkipped() {
+        //when
+        List<Item> found = itemRepository.findAllByFullText(QUERY, PageRequest.of(0, 10));
+        //then
+        assertThat(found, equalTo(List.of(nameAndDescription, nameOnly, descriptionOnly)));
+    }
+
+    @Test
+    void findAllByFullText_whenSecondPageRequested_thenRankingContinues() {
+        //when
+        List<Item> firstPage = itemRepository.findAllByFullText(QUERY, PageRequest.of(0, 2));
+        List<Item> secondPage = itemRepository.findAllByFullText(QUERY, PageRequest.of(1, 2));
+        //then
+        assertThat(firstPage, equalTo(List.of(nameAndDescription, nameOnly)));
+        assertThat(secondPage, equalTo(List.of(descriptionOnly)));
+    }
+
+    @Test
+    void findIdsByFullText_whenReadInBatches_thenAvailableIdsReturnedInOrderAfterLastId() {
+        //when
+        List<Long> firstBatch = itemRepository.findIdsByFullText(QUERY, 0L, PageRequest.of(0, 2));
+        List<Long> secondBatch = itemRepository.findIdsByFullText(QUERY, firstBatch.get(1), PageRequest.of(0, 2));
+        //then
+        assertThat(firstBatch, equalTo(List.of(descriptionOnly.getId(), nameOnly.getId())));
+        assertThat(secondBatch, equalTo(List.of(nameAndDescription.getId())));
+        assertThat(itemRepository.findIdsByFullText(QUERY, secondBatch.get(0), PageRequest.of(0, 2)),
+                equalTo(List.of()));
+    }
+
+    @Test
+    void findIdsByFullText_whenQueryHasSeveralWords_thenAllWordsRequired() {
+        //when
+        List<Long> found = itemRepository.findIdsByFullText(ItemServiceImpl.toPrefixQuery("дрель аккум"), 0L,
+                PageRequest.of(0, 10));
+        //then
+        assertThat(found, equalTo(List.of(nameAndDescription.getId())));
+    }
+
+    private Item makeItem(String itemName, String itemDescription, boolean available, User owner) {
+        Item item = new Item();
+        item.setName(itemName);
+        item.setAvailable(available);
+        item.setDescription(itemDescription);
+        item.setOwner(owner);
+        return item;
+    }
+
+    private User makeUser(String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        return user;
+    }
+}
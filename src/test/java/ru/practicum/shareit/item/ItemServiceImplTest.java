@@ -1,26 +1,39 @@
 package ru.practicum.shareit.item;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
 import ru.practicum.shareit.booking.Booking;
+import ru.practicum.shareit.booking.BookingJdbcRepository;
 import ru.practicum.shareit.booking.BookingRepository;
+import ru.practicum.shareit.booking.BookingSlot;
+import ru.practicum.shareit.booking.BookingTimeline;
 import ru.practicum.shareit.booking.Status;
+import ru.practicum.shareit.booking.dto.BookingMapper;
 import ru.practicum.shareit.exceptions.BookingBadRequestException;
 import ru.practicum.shareit.exceptions.ContentNotFountException;
 import ru.practicum.shareit.exceptions.EditingNotAllowedException;
+import ru.practicum.shareit.exceptions.PreconditionFailedException;
 import ru.practicum.shareit.item.dto.*;
 import ru.practicum.shareit.user.User;
 import ru.practicum.shareit.user.UserRepository;
 
 import javax.validation.ConstraintViolationException;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -30,6 +43,8 @@ import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class ItemServiceImplTest {
+    private static final Duration MAX_BOOKING_DURATION = Duration.ofDays(90);
+
     @Mock
     private ItemRepository itemRepository;
     @Mock
@@ -37,11 +52,20 @@ class ItemServiceImplTest {
     @Mock
     private BookingRepository bookingRepository;
     @Mock
+    private BookingJdbcRepository bookingJdbcRepository;
+    @Mock
     private CommentRepository commentRepository;
+    @Mock
+    private BookingTimeline bookingTimeline;
+    @Mock
+    private ItemUtilizationRepository itemUtilizationRepository;
     @InjectMocks
     private ItemServiceImpl itemService;
-    @Captor
-    private ArgumentCaptor<Item> itemArgumentCaptor;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(itemService, "maxBookingDuration", MAX_BOOKING_DURATION);
+    }
 
     private ItemDto createItem() {
         ItemDto itemDto = new ItemDto();
@@ -149,22 +173,58 @@ class ItemServiceImplTest {
         User user = createUser();
         ItemDto oldItemDto = createItem();
         Item oldItem = ItemMapper.toItem(oldItemDto, user);
+        oldItem.setVersion(0L);
         ItemDto newItemDto = createItem();
         newItemDto.setName("Перфаратор");
-        Item newItem = ItemMapper.toItem(newItemDto, user);
 
         when(itemRepository.findById(anyLong())).thenReturn(Optional.of(oldItem));
-        when(itemRepository.save(any())).thenReturn(oldItem);
+        when(itemRepository.updateIfVersionMatches(oldItem.getId(), 0L, "Перфаратор", oldItemDto.getDescription(),
+                oldItemDto.getAvailable())).thenReturn(1);
 
-        itemService.patchItem(newItemDto, 1L);
+        ItemDto patchedItemDto = itemService.patchItem(newItemDto, 1L);
 
         InOrder inOrder = inOrder(itemRepository);
         inOrder.verify(itemRepository, times(1)).findById(any());
-        inOrder.verify(itemRepository, times(1)).save(itemArgumentCaptor.capture());
-        Item savedItem = itemArgumentCaptor.getValue();
+        inOrder.verify(itemRepository, times(1)).updateIfVersionMatches(oldItem.getId(), 0L, "Перфаратор",
+                oldItemDto.getDescription(), oldItemDto.getAvailable());
+        verify(itemRepository, never()).save(any());
+
+        assertThat(patchedItemDto.getName(), equalTo("Перфаратор"));
+        assertThat(patchedItemDto.getDescription(), equalTo(oldItemDto.getDescription()));
+        assertThat(patchedItemDto.getVersion(), equalTo(1L));
+        assertThat(oldItem.getName(), equalTo(oldItemDto.getName()));
+    }
+
+    @Test
+    void patchItem_whenIfMatchVersionIsStale_thenPreconditionFailedExceptionThrown() {
+        //given
+        User user = createUser();
+        ItemDto itemDto = createItem();
+        Item item = ItemMapper.toItem(itemDto, user);
+        item.setVersion(5L);
+        itemDto.setVersion(4L);
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(item));
+
+        Assertions.assertThrows(
+                PreconditionFailedException.class,
+                () -> itemService.patchItem(itemDto, 1L));
+
+        verify(itemRepository, never()).updateIfVersionMatches(anyLong(), anyLong(), any(), any(), any());
+    }
+
+    @Test
+    void patchItem_whenConcurrentUpdateWins_thenPreconditionFailedExceptionThrown() {
+        //given
+        User user = createUser();
+        ItemDto itemDto = createItem();
+        Item item = ItemMapper.toItem(itemDto, user);
+        item.setVersion(5L);
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(item));
+        when(itemRepository.updateIfVersionMatches(anyLong(), anyLong(), any(), any(), any())).thenReturn(0);
 
-        assertThat(savedItem.getName(), equalTo(newItem.getName()));
-        assertThat(savedItem.getDescription(), equalTo(oldItemDto.getDescription()));
+        Assertions.assertThrows(
+                PreconditionFailedException.class,
+                () -> itemService.patchItem(itemDto, 1L));
     }
 
     @Test
@@ -178,7 +238,9 @@ class ItemServiceImplTest {
         List<Comment> itemComments = getComments(item);
 
         when(itemRepository.findById(anyLong())).thenReturn(Optional.of(item));
-        when(bookingRepository.findByItemId(anyLong(), any())).thenReturn(itemBookings);
+        when(bookingJdbcRepository.findLastAndNextApproved(eq(List.of(1L)), any()))
+                .thenReturn(List.of(BookingMapper.mapToBookingSlot(itemBookings.get(0)),
+                        BookingMapper.mapToBookingSlot(itemBookings.get(2))));
         when(commentRepository.findByItemId(anyLong())).thenReturn(itemComments);
 
         ItemWithBookAndCommentsDto items = itemService.getItemById(1L, 1L);
@@ -188,6 +250,22 @@ class ItemServiceImplTest {
         assertThat(items.getNextBooking().getId(), equalTo(3L));
     }
 
+    @Test
+    void getItemById_whenUserIsNotOwner_thenBookingsNotReturned() {
+        //given
+        ItemDto itemDto = createItem();
+        User user = createUser();
+        Item item = ItemMapper.toItem(itemDto, user);
+
+        when(itemRepository.findById(anyLong())).thenReturn(Optional.of(item));
+
+        ItemWithBookAndCommentsDto items = itemService.getItemById(1L, 2L);
+
+        assertThat(items.getLastBooking(), equalTo(null));
+        assertThat(items.getNextBooking(), equalTo(null));
+        verifyNoInteractions(bookingJdbcRepository);
+    }
+
     @Test
     void getItemsOfUser_whenInvoked_thenReturnItemsListWithFilteredBookingsAndComments() {
         //given
@@ -199,10 +277,11 @@ class ItemServiceImplTest {
         itemDto2.setId(2L);
         Item item2 = ItemMapper.toItem(itemDto2, user);
 
-        List<Booking> item1Bookings = getBookings(item1);
-        List<Booking> item2Bookings = getBookings(item2);
-        List<Booking> itemsBookings = Stream.of(item1Bookings, item2Bookings)
+        //Последнее и следующее подтвержденное бронирование каждой вещи отбирает сам запрос
+        List<BookingSlot> itemsBookings = Stream.of(getBookings(item1), getBookings(item2))
+                .map(bookings -> List.of(bookings.get(0), bookings.get(2)))
                 .flatMap(Collection::stream)
+                .map(BookingMapper::mapToBookingSlot)
                 .collect(Collectors.toList());
 
         List<Comment> item1Comments = getComments(item1);
@@ -213,7 +292,7 @@ class ItemServiceImplTest {
 
         when(userRepository.findById(anyLong())).thenReturn(Optional.of(user));
         when(itemRepository.findAllByOwnerId(anyLong(), any())).thenReturn(List.of(item1, item2));
-        when(bookingRepository.findByItemIdIn(anyList(), any())).thenReturn(itemsBookings);
+        when(bookingJdbcRepository.findLastAndNextApproved(eq(List.of(1L, 2L)), any())).thenReturn(itemsBookings);
         when(commentRepository.findByItemIdIn(anyList())).thenReturn(itemsComments);
 
         List<ItemWithBookAndCommentsDto> items = itemService.getItemsOfUser(1L, 0, 10);
@@ -235,9 +314,129 @@ class ItemServiceImplTest {
     @Test
     void searchItems_whenInvoked_thenReturnListOfItems() {
         //when
-        itemService.searchItems("hi", 0, 1);
+        itemService.searchItems("hi", 0, 1, null, null);
         //then
         verify(itemRepository, times(1)).findAllByNameOrDescription(anyString(), any());
+        verifyNoInteractions(bookingTimeline);
+    }
+
+    @Test
+    void searchItems_whenPeriodGiven_thenReturnOnlyFreeItemsPage() {
+        //given
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        LocalDateTime end = start.plusDays(2);
+        User owner = createUser();
+        Roaring64NavigableMap busy = new Roaring64NavigableMap();
+        busy.addLong(2L);
+        when(itemRepository.findIdsByNameOrDescription("дрель", 0L, PageRequest.of(0, ItemServiceImpl.ID_SCAN_BATCH_SIZE)))
+                .thenReturn(List.of(1L, 2L, 3L, 4L, 5L));
+        when(bookingTimeline.findBusyItems(start, end)).thenReturn(busy);
+        when(itemRepository.findAllById(List.of(4L, 5L))).thenReturn(Stream.of(5L, 4L)
+                .map(id -> {
+                    Item item = ItemMapper.toItem(createItem(), owner);
+                    item.setId(id);
+                    return item;
+                })
+                .collect(Collectors.toList()));
+        //when
+        List<ItemDto> items = itemService.searchItems("дрель", 1, 2, start, end);
+        //then
+        assertThat(items.stream().map(ItemDto::getId).collect(Collectors.toList()), equalTo(List.of(4L, 5L)));
+        verify(itemRepository, never()).findAllByNameOrDescription(anyString(), any());
+    }
+
+    @Test
+    void searchItems_whenItemBookedOnAnotherInstance_thenDatabaseCheckExcludesIt() {
+        //given
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        LocalDateTime end = start.plusDays(2);
+        User owner = createUser();
+        when(itemRepository.findIdsByNameOrDescription("дрель", 0L, PageRequest.of(0, ItemServiceImpl.ID_SCAN_BATCH_SIZE)))
+                .thenReturn(List.of(1L, 2L, 3L, 4L));
+        when(bookingTimeline.findBusyItems(start, end)).thenReturn(new Roaring64NavigableMap());
+        when(bookingRepository.findTimeCrossingSlotsOfItems(List.of(1L, 2L), start, end, MAX_BOOKING_DURATION))
+                .thenReturn(List.of(new BookingSlot(7L, 2L, 5L, start, end, Status.APPROVED)));
+        when(itemRepository.findAllById(List.of(1L, 3L))).thenReturn(Stream.of(1L, 3L)
+                .map(id -> {
+                    Item item = ItemMapper.toItem(createItem(), owner);
+                    item.setId(id);
+                    return item;
+                })
+                .collect(Collectors.toList()));
+        //when
+        List<ItemDto> items = itemService.searchItems("дрель", 0, 2, start, end);
+        //then
+        assertThat(items.stream().map(ItemDto::getId).collect(Collectors.toList()), equalTo(List.of(1L, 3L)));
+        verify(bookingRepository, times(1)).findTimeCrossingSlotsOfItems(List.of(3L), start, end, MAX_BOOKING_DURATION);
+    }
+
+    @Test
+    void searchItems_whenFirstIdBatchBusy_thenNextBatchReadAfterItsLastId() {
+        //given
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        LocalDateTime end = start.plusDays(2);
+        int batchSize = ItemServiceImpl.ID_SCAN_BATCH_SIZE;
+        Roaring64NavigableMap busy = new Roaring64NavigableMap();
+        busy.add(1L, batchSize + 1L);
+        List<Long> firstBatch = LongStream.rangeClosed(1, batchSize).boxed().collect(Collectors.toList());
+        when(itemRepository.findIdsByNameOrDescription("дрель", 0L, PageRequest.of(0, batchSize)))
+                .thenReturn(firstBatch);
+        when(itemRepository.findIdsByNameOrDescription("дрель", (long) batchSize, PageRequest.of(0, batchSize)))
+                .thenReturn(List.of(batchSize + 1L));
+        when(bookingTimeline.findBusyItems(start, end)).thenReturn(busy);
+        Item free = ItemMapper.toItem(createItem(), createUser());
+        free.setId(batchSize + 1L);
+        when(itemRepository.findAllById(List.of(batchSize + 1L))).thenReturn(List.of(free));
+        //when
+        List<ItemDto> items = itemService.searchItems("дрель", 0, 10, start, end);
+        //then
+        assertThat(items.stream().map(ItemDto::getId).collect(Collectors.toList()), equalTo(List.of(batchSize + 1L)));
+    }
+
+    @Test
+    void searchItems_whenPeriodStartsBeforeToday_thenBookingBadRequestExceptionThrown() {
+        LocalDateTime start = LocalDate.now().minusDays(1).atTime(23, 0);
+
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> itemService.searchItems("дрель", 0, 10, start, start.plusDays(2)));
+        verifyNoInteractions(itemRepository, bookingTimeline);
+    }
+
+    @Test
+    void searchItems_whenPeriodIsEmptyOrHalfOpen_thenBookingBadRequestExceptionThrown() {
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> itemService.searchItems("дрель", 0, 10, start, start));
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> itemService.searchItems("дрель", 0, 10, start, null));
+        verifyNoInteractions(itemRepository, bookingTimeline);
+    }
+
+    @Test
+    void searchItems_whenFullTextEnabled_thenSearchByPrefixQuery() {
+        //given
+        ReflectionTestUtils.setField(itemService, "fullTextSearch", true);
+        //when
+        itemService.searchItems("Дрель, аккум-ная!", 2, 5, null, null);
+        //then
+        verify(itemRepository, times(1))
+                .findAllByFullText("Дрель:* & аккум:* & ная:*", PageRequest.of(2, 5));
+        verify(itemRepository, never()).findAllByNameOrDescription(anyString(), any());
+    }
+
+    @Test
+    void searchItems_whenFullTextEnabledAndNoWords_thenReturnEmptyListWithoutQuery() {
+        //given
+        ReflectionTestUtils.setField(itemService, "fullTextSearch", true);
+        //when
+        List<ItemDto> items = itemService.searchItems("&|!:*", 0, 10, null, null);
+        //then
+        assertThat(items, equalTo(List.of()));
+        verifyNoInteractions(itemRepository);
     }
 
     @Test
@@ -294,13 +493,74 @@ class ItemServiceImplTest {
         Booking booking = getBookings(item).get(0);
         when(itemRepository.findById(anyLong())).thenReturn(Optional.of(item));
         when(userRepository.findById(anyLong())).thenReturn(Optional.of(user));
-        when(bookingRepository.findByBookerIdAndEndIsBefore(anyLong(), any(), any())).thenReturn(List.of(booking));
+        when(bookingRepository.findByBookerIdAndEndIsBefore(anyLong(), any(), any()))
+                .thenReturn(List.of(BookingMapper.mapToBookingOutDto(booking)));
         //when
         itemService.saveComment(commentDto);
         //then
         verify(commentRepository, times(1)).save(any());
     }
 
+    @Test
+    void getAvailability_whenPeriodIsEmpty_thenBookingBadRequestExceptionThrown() {
+        LocalDateTime now = LocalDateTime.now();
+        //when
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> itemService.getAvailability(1L, now, now));
+        //then
+        verify(bookingRepository, never()).streamBlockingSlots(anyLong(), any(), any(), any());
+    }
+
+    @Test
+    void getAvailability_whenItemNotFound_thenContentNotFountExceptionThrown() {
+        //given
+        LocalDateTime now = LocalDateTime.now();
+        when(itemRepository.existsById(anyLong())).thenReturn(false);
+        //when
+        Assertions.assertThrows(
+                ContentNotFountException.class,
+                () -> itemService.getAvailability(1L, now, now.plusDays(10)));
+        //then
+        verify(bookingRepository, never()).streamBlockingSlots(anyLong(), any(), any(), any());
+    }
+
+    @Test
+    void getAvailability_whenBookingsInPeriod_thenReturnGapsBetweenThem() {
+        //given
+        LocalDateTime from = LocalDateTime.now();
+        LocalDateTime to = from.plusDays(10);
+        when(itemRepository.existsById(anyLong())).thenReturn(true);
+        when(bookingRepository.streamBlockingSlots(1L, from, to, MAX_BOOKING_DURATION)).thenReturn(Stream.of(
+                new BookingSlot(1L, 1L, 2L, from.minusDays(2), from.plusDays(1), Status.APPROVED),
+                new BookingSlot(2L, 1L, 2L, from.plusDays(3), from.plusDays(4), Status.WAITING),
+                new BookingSlot(3L, 1L, 2L, from.plusDays(4), from.plusDays(5), Status.APPROVED),
+                new BookingSlot(4L, 1L, 2L, from.plusDays(8), from.plusDays(12), Status.APPROVED)));
+        //when
+        List<FreeSlotDto> freeSlots = itemService.getAvailability(1L, from, to);
+        //then
+        assertThat(freeSlots.size(), equalTo(2));
+        assertThat(freeSlots.get(0).getStart(), equalTo(from.plusDays(1)));
+        assertThat(freeSlots.get(0).getEnd(), equalTo(from.plusDays(3)));
+        assertThat(freeSlots.get(1).getStart(), equalTo(from.plusDays(5)));
+        assertThat(freeSlots.get(1).getEnd(), equalTo(from.plusDays(8)));
+    }
+
+    @Test
+    void getAvailability_whenNoBookingsInPeriod_thenWholePeriodIsFree() {
+        //given
+        LocalDateTime from = LocalDateTime.now();
+        LocalDateTime to = from.plusDays(10);
+        when(itemRepository.existsById(anyLong())).thenReturn(true);
+        when(bookingRepository.streamBlockingSlots(1L, from, to, MAX_BOOKING_DURATION)).thenReturn(Stream.empty());
+        //when
+        List<FreeSlotDto> freeSlots = itemService.getAvailability(1L, from, to);
+        //then
+        assertThat(freeSlots.size(), equalTo(1));
+        assertThat(freeSlots.get(0).getStart(), equalTo(from));
+        assertThat(freeSlots.get(0).getEnd(), equalTo(to));
+    }
+
     private List<Booking> getBookings(Item item) {
         User user = createUser();
         user.setId(2L);
@@ -362,4 +622,61 @@ class ItemServiceImplTest {
         return List.of(comment1, comment2);
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void getItemUtilization_whenWeekPeriod_thenDaysGroupedIntoWeeksClippedToRange() {
+        //given
+        Item item = ItemMapper.toItem(createItem(), createUser());
+        LocalDate from = LocalDate.of(2030, 3, 6);
+        LocalDate to = LocalDate.of(2030, 3, 12);
+        when(itemRepository.findById(1L)).thenReturn(Optional.of(item));
+        when(itemUtilizationRepository.findDays(1L, from, to.plusDays(1))).thenReturn(Map.of(
+                LocalDate.of(2030, 3, 9), 12 * 3600L,
+                LocalDate.of(2030, 3, 10), 24 * 3600L,
+                LocalDate.of(2030, 3, 11), 6 * 3600L));
+        //when
+        List<ItemUtilizationDto> report = itemService.getItemUtilization(1L, 1L, from, to, UtilizationPeriod.WEEK);
+        //then
+        assertThat(report, equalTo(List.of(
+                new ItemUtilizationDto(1L, from, LocalDate.of(2030, 3, 10), 36.0, 5 * 24, 36.0 / (5 * 24)),
+                new ItemUtilizationDto(1L, LocalDate.of(2030, 3, 11), to, 6.0, 2 * 24, 6.0 / (2 * 24)))));
+    }
+
+    @Test
+    void getItemUtilization_whenUserNotOwner_thenContentNotFountExceptionThrown() {
+        //given
+        Item item = ItemMapper.toItem(createItem(), createUser());
+        LocalDate day = LocalDate.of(2030, 3, 6);
+        when(itemRepository.findById(1L)).thenReturn(Optional.of(item));
+
+        Assertions.assertThrows(
+                ContentNotFountException.class,
+                () -> itemService.getItemUtilization(2L, 1L, day, day, UtilizationPeriod.DAY));
+
+        verifyNoInteractions(itemUtilizationRepository);
+    }
+
+    @Test
+    void getOwnerUtilization_whenRangeTooLong_thenBookingBadRequestExceptionThrown() {
+        LocalDate from = LocalDate.of(2030, 1, 1);
+
+        Assertions.assertThrows(
+                BookingBadRequestException.class,
+                () -> itemService.getOwnerUtilization(1L, 1L, from, from.plusYears(3)));
+
+        verifyNoInteractions(itemUtilizationRepository);
+    }
+
+    @Test
+    void getOwnerUtilization_whenInvoked_thenTotalsOfEachItemOverWholeRange() {
+        //given
+        LocalDate from = LocalDate.of(2030, 3, 1);
+        LocalDate to = LocalDate.of(2030, 3, 2);
+        when(userRepository.existsById(1L)).thenReturn(true);
+        when(itemUtilizationRepository.findOwnerTotals(1L, from, to.plusDays(1))).thenReturn(Map.of(1L, 12 * 3600L));
+        //when
+        List<ItemUtilizationDto> report = itemService.getOwnerUtilization(1L, 1L, from, to);
+        //then
+        assertThat(report, equalTo(List.of(new ItemUtilizationDto(1L, from, to, 12.0, 48, 0.25))));
+    }
+}
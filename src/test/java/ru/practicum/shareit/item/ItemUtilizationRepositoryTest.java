@@ -0,0 +1,92 @@
+package ru.practicum.shareit.item;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import ru.practicum.shareit.booking.BookingSlot;
+import ru.practicum.shareit.booking.Status;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+@JdbcTest(properties = "spring.datasource.url=jdbc:h2:mem:shareit")
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class ItemUtilizationRepositoryTest {
+    private static final LocalDate DAY = LocalDate.of(2030, 3, 10);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private ItemUtilizationRepository repository;
+
+    private Long ownerId;
+
+    private Long itemId;
+
+    private Long idleItemId;
+
+    @BeforeEach
+    void setUp() {
+        repository = new ItemUtilizationRepository(namedParameterJdbcTemplate);
+        jdbcTemplate.update("insert into users (name, email) values ('Akhra', 'akhra@yandex.ru')");
+        ownerId = jdbcTemplate.queryForObject("select id from users where email = 'akhra@yandex.ru'", Long.class);
+        jdbcTemplate.update("insert into items (name, description, available, user_id) values " +
+                "('Дрель', 'мощная', true, ?), ('Отвертка', 'крестовая', true, ?)", ownerId, ownerId);
+        itemId = jdbcTemplate.queryForObject("select id from items where name = 'Дрель'", Long.class);
+        idleItemId = jdbcTemplate.queryForObject("select id from items where name = 'Отвертка'", Long.class);
+    }
+
+    @Test
+    void splitByDay_whenIntervalCrossesMidnight_thenSecondsSplitBetweenDays() {
+        //when
+        Map<LocalDate, Long> seconds = ItemUtilizationRepository.splitByDay(DAY.atTime(22, 0),
+                DAY.plusDays(2).atStartOfDay());
+        //then
+        assertThat(seconds, equalTo(Map.of(DAY, 2 * 3600L, DAY.plusDays(1), 24 * 3600L)));
+    }
+
+    @Test
+    void add_whenBookingsOverlapSameDay_thenCountersSummed() {
+        //when
+        repository.add(List.of(makeSlot(1L, DAY.atTime(10, 0), DAY.atTime(12, 0))));
+        repository.add(List.of(makeSlot(2L, DAY.atTime(14, 0), DAY.plusDays(1).atTime(1, 0))));
+        //then
+        assertThat(repository.findDays(itemId, DAY, DAY.plusDays(5)),
+                equalTo(Map.of(DAY, 12 * 3600L, DAY.plusDays(1), 3600L)));
+    }
+
+    @Test
+    void subtract_whenApprovedBookingRejected_thenCountersReturnToPreviousValue() {
+        //given
+        BookingSlot kept = makeSlot(1L, DAY.atTime(10, 0), DAY.atTime(12, 0));
+        BookingSlot rejected = makeSlot(2L, DAY.atTime(14, 0), DAY.atTime(15, 0));
+        repository.add(List.of(kept, rejected));
+        //when
+        repository.subtract(List.of(rejected));
+        //then
+        assertThat(repository.findDays(itemId, DAY, DAY.plusDays(1)), equalTo(Map.of(DAY, 2 * 3600L)));
+    }
+
+    @Test
+    void findOwnerTotals_whenItemWithoutBookings_thenReportedWithZero() {
+        //given
+        repository.add(List.of(makeSlot(1L, DAY.atTime(10, 0), DAY.plusDays(1).atTime(10, 0))));
+        //when
+        Map<Long, Long> totals = repository.findOwnerTotals(ownerId, DAY.plusDays(1), DAY.plusDays(2));
+        //then
+        assertThat(totals, equalTo(Map.of(itemId, 10 * 3600L, idleItemId, 0L)));
+    }
+
+    private BookingSlot makeSlot(Long id, LocalDateTime start, LocalDateTime end) {
+        return new BookingSlot(id, itemId, 2L, start, end, Status.APPROVED);
+    }
+}
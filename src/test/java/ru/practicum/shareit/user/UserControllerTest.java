@@ -19,6 +19,7 @@ import static org.hamcrest.Matchers.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -131,6 +132,27 @@ class UserControllerTest {
         assertThat(mapper.writeValueAsString(userDto), equalTo(savedUser));
     }
 
+    @SneakyThrows
+    @Test
+    void updateUser_whenIfMatchGiven_thenUpdatedOnceWithExpectedVersionAndETagReturned() {
+        when(userService.updateUser(any())).thenAnswer(invocation -> {
+            UserDto updatedUserDto = invocation.getArgument(0);
+            updatedUserDto.setVersion(updatedUserDto.getVersion() + 1);
+            return updatedUserDto;
+        });
+        //when
+        mvc.perform(patch("/users/{id}", userDto.getId())
+                        .content(mapper.writeValueAsString(userDto))
+                        .characterEncoding(StandardCharsets.UTF_8)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("If-Match", "W/\"7\"")
+                        .accept(MediaType.APPLICATION_JSON))
+                //then
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"8\""));
+        verify(userService, times(1)).updateUser(any());
+    }
+
     @SneakyThrows
     @Test
     void deleteUser() {
@@ -7,6 +7,7 @@ import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.practicum.shareit.exceptions.ContentAlreadyExistException;
 import ru.practicum.shareit.exceptions.ContentNotFountException;
+import ru.practicum.shareit.exceptions.PreconditionFailedException;
 import ru.practicum.shareit.user.dto.UserDto;
 import ru.practicum.shareit.user.dto.UserMapper;
 
@@ -25,8 +26,6 @@ public class UserServiceImplTest {
     private UserRepository userRepository;
     @InjectMocks
     private UserServiceImpl userService;
-    @Captor
-    private ArgumentCaptor<User> userArgumentCaptor;
 
     private UserDto createUser() {
         UserDto userDto = new UserDto();
@@ -109,21 +108,55 @@ public class UserServiceImplTest {
         //given
         UserDto oldUserDto = createUser();
         User oldUser = UserMapper.toUser(oldUserDto);
+        oldUser.setVersion(0L);
         UserDto newUserDto = createUser();
         newUserDto.setName("Anri");
-        User newUser = UserMapper.toUser(newUserDto);
         when(userRepository.findById(anyLong())).thenReturn(Optional.of(oldUser));
         when(userRepository.findUserByEmail(anyString())).thenReturn(Optional.empty());
-        when(userRepository.save(any())).thenReturn(new User());
+        when(userRepository.updateIfVersionMatches(oldUser.getId(), 0L, "Anri", oldUserDto.getEmail())).thenReturn(1);
         //when
-        userService.updateUser(newUserDto);
+        UserDto updatedUserDto = userService.updateUser(newUserDto);
         //then
         InOrder inOrder = inOrder(userRepository);
         inOrder.verify(userRepository, times(1)).findById(any());
-        inOrder.verify(userRepository, times(1)).save(userArgumentCaptor.capture());
-        User savedUser = userArgumentCaptor.getValue();
-        assertThat(savedUser.getEmail(), equalTo(oldUserDto.getEmail()));
-        assertThat(savedUser.getName(), equalTo(newUser.getName()));
+        inOrder.verify(userRepository, times(1))
+                .updateIfVersionMatches(oldUser.getId(), 0L, "Anri", oldUserDto.getEmail());
+        verify(userRepository, never()).save(any());
+        assertThat(updatedUserDto.getEmail(), equalTo(oldUserDto.getEmail()));
+        assertThat(updatedUserDto.getName(), equalTo("Anri"));
+        assertThat(updatedUserDto.getVersion(), equalTo(1L));
+        assertThat(oldUser.getName(), equalTo(oldUserDto.getName()));
+    }
+
+    @Test
+    public void updateUser_whenIfMatchVersionIsStale_thenPreconditionFailedExceptionThrown() {
+        //given
+        UserDto userDto = createUser();
+        User user = UserMapper.toUser(userDto);
+        user.setVersion(2L);
+        userDto.setVersion(1L);
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(user));
+        //when
+        Assertions.assertThrows(
+                PreconditionFailedException.class,
+                () -> userService.updateUser(userDto));
+        //then
+        verify(userRepository, never()).updateIfVersionMatches(anyLong(), anyLong(), any(), any());
+    }
+
+    @Test
+    public void updateUser_whenConcurrentUpdateWins_thenPreconditionFailedExceptionThrown() {
+        //given
+        UserDto userDto = createUser();
+        User user = UserMapper.toUser(userDto);
+        user.setVersion(2L);
+        when(userRepository.findById(anyLong())).thenReturn(Optional.of(user));
+        when(userRepository.findUserByEmail(anyString())).thenReturn(Optional.empty());
+        when(userRepository.updateIfVersionMatches(anyLong(), anyLong(), any(), any())).thenReturn(0);
+        //when
+        Assertions.assertThrows(
+                PreconditionFailedException.class,
+                () -> userService.updateUser(userDto));
     }
 
     @Test